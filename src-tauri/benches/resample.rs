@@ -0,0 +1,72 @@
+//! 重采样吞吐量：原实现（每次新建 f64 sinc 重采样器）与缓存引擎的对比
+//!
+//! 运行：`cargo bench --bench resample`，报告中的 elements/s 即每秒处理的输入样本数。
+//!
+//! 使用 `[profile.bench]`（opt-level = 3）。发布包的 `[profile.release]` 是 opt-level = "z"，
+//! 两种实现在发布包中都会慢一些，对比结论以同一 profile 下的相对差距为准。
+
+use criterion::{criterion_group, criterion_main, BenchmarkId, Criterion, Throughput};
+use recording_king::core::resampler;
+use rubato::{Resampler, SincFixedIn, SincInterpolationParameters, SincInterpolationType, WindowFunction};
+
+/// 原 `TranscriptionService::resample`：每次调用新建 `SincFixedIn<f64>`，每块都转换成新的 `Vec<f64>`
+fn resample_baseline(samples: &[f32], from_rate: u32, to_rate: u32) -> Vec<f32> {
+    let params = SincInterpolationParameters {
+        sinc_len: 256,
+        f_cutoff: 0.95,
+        interpolation: SincInterpolationType::Linear,
+        oversampling_factor: 256,
+        window: WindowFunction::BlackmanHarris2,
+    };
+    let ratio = to_rate as f64 / from_rate as f64;
+    let chunk_size = 1024;
+    let mut resampler = SincFixedIn::<f64>::new(ratio, 2.0, params, chunk_size, 1).unwrap();
+
+    let mut output: Vec<f32> = Vec::with_capacity((samples.len() as f64 * ratio) as usize + 1024);
+    let mut pos = 0;
+    while pos < samples.len() {
+        let end = (pos + chunk_size).min(samples.len());
+        let mut chunk: Vec<f64> = samples[pos..end].iter().map(|&s| s as f64).collect();
+        if chunk.len() < chunk_size {
+            chunk.resize(chunk_size, 0.0);
+        }
+        let result = resampler.process(&[chunk], None).unwrap();
+        output.extend(result[0].iter().map(|&s| s as f32));
+        pos += chunk_size;
+    }
+    output.truncate((samples.len() as f64 * ratio).round() as usize);
+    output
+}
+
+/// 10 秒类语音信号（基频加两个谐波）
+fn speech_like(rate: u32) -> Vec<f32> {
+    (0..rate as usize * 10)
+        .map(|i| {
+            let t = i as f32 / rate as f32;
+            0.3 * (2.0 * std::f32::consts::PI * 180.0 * t).sin()
+                + 0.1 * (2.0 * std::f32::consts::PI * 720.0 * t).sin()
+                + 0.05 * (2.0 * std::f32::consts::PI * 2900.0 * t).sin()
+        })
+        .collect()
+}
+
+fn bench_resample(c: &mut Criterion) {
+    let mut group = c.benchmark_group("resample_to_16k");
+    group.sample_size(20);
+
+    // 11025Hz 约分后为 640/441，不在多相快速路径内，对比的是缓存的 f32 sinc 引擎
+    for rate in [48000u32, 44100, 11025] {
+        let input = speech_like(rate);
+        group.throughput(Throughput::Elements(input.len() as u64));
+        group.bench_with_input(BenchmarkId::new("baseline", rate), &input, |b, input| {
+            b.iter(|| resample_baseline(input, rate, 16000))
+        });
+        group.bench_with_input(BenchmarkId::new("cached", rate), &input, |b, input| {
+            b.iter(|| resampler::resample(input, rate, 16000).unwrap())
+        });
+    }
+    group.finish();
+}
+
+criterion_group!(benches, bench_resample);
+criterion_main!(benches);
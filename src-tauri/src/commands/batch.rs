@@ -0,0 +1,32 @@
+use crate::core::{error::Result, types::*};
+use crate::services::batch::BatchService;
+use crate::services::state::AppState;
+use tauri::{Manager, State};
+
+/// 把多个文件加入批量转录队列，进度和结果通过 `batch-progress` / `batch-result` 事件推送
+#[tauri::command]
+pub async fn enqueue_batch(
+    file_paths: Vec<String>,
+    model: String,
+    app: tauri::AppHandle,
+) -> Result<Vec<BatchJob>> {
+    app.state::<BatchService>().enqueue(&app, file_paths, model).await
+}
+
+#[tauri::command]
+pub fn get_batch_jobs(state: State<'_, AppState>, batch_id: Option<String>) -> Result<Vec<BatchJob>> {
+    state.database.get_batch_jobs(batch_id.as_deref())
+}
+
+/// 取消单个文件（`job_id`）或整个批次（`batch_id`）；都不传时取消全部未完成的任务
+#[tauri::command]
+pub fn cancel_batch(app: tauri::AppHandle, batch_id: Option<String>, job_id: Option<String>) -> Result<()> {
+    app.state::<BatchService>()
+        .cancel(&app, batch_id.as_deref(), job_id.as_deref())
+}
+
+/// 清除已结束的任务，返回清除的条数
+#[tauri::command]
+pub fn clear_batch_jobs(state: State<'_, AppState>) -> Result<usize> {
+    state.database.delete_finished_batch_jobs()
+}
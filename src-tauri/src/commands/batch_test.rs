@@ -0,0 +1,76 @@
+#[cfg(test)]
+mod tests {
+    use super::super::batch::*;
+    use crate::core::types::{BatchJob, BatchJobStatus, BatchProgress};
+    use crate::services::state::AppState;
+    use tempfile::tempdir;
+
+    #[test]
+    fn test_batch_status_serialization() {
+        for status in [
+            BatchJobStatus::Queued,
+            BatchJobStatus::Running,
+            BatchJobStatus::Done,
+            BatchJobStatus::Failed,
+            BatchJobStatus::Cancelled,
+        ] {
+            let json = serde_json::to_string(&status).unwrap();
+            assert_eq!(json, format!("\"{}\"", status.as_str()));
+            assert_eq!(BatchJobStatus::parse(status.as_str()), status);
+        }
+        assert!(!BatchJobStatus::Running.is_finished());
+        assert!(BatchJobStatus::Cancelled.is_finished());
+    }
+
+    #[test]
+    fn test_batch_progress_serialization() {
+        let progress = BatchProgress {
+            job_id: "job-1".to_string(),
+            batch_id: "batch-1".to_string(),
+            status: BatchJobStatus::Running,
+            stage: None,
+            elapsed_secs: 3.5,
+            eta_secs: Some(12.0),
+            batch_finished: 2,
+            batch_total: 50,
+            batch_eta_secs: None,
+        };
+
+        let json = serde_json::to_value(&progress).unwrap();
+        assert_eq!(json["status"], "running");
+        assert_eq!(json["batch_total"], 50);
+        assert!(json["batch_eta_secs"].is_null());
+    }
+
+    #[test]
+    fn test_get_and_clear_batch_jobs() {
+        let dir = tempdir().unwrap();
+        let state = AppState::new(&dir.path().join("test.db")).unwrap();
+        let job = |id: &str, status: BatchJobStatus| BatchJob {
+            id: id.to_string(),
+            batch_id: "batch-1".to_string(),
+            position: 0,
+            file_path: format!("/tmp/{}.wav", id),
+            model: "whisper-base".to_string(),
+            status,
+            audio_secs: None,
+            result: None,
+            error: None,
+            created_at: 1000,
+            updated_at: 1000,
+        };
+        state
+            .database
+            .insert_batch_jobs(&[job("a", BatchJobStatus::Done), job("b", BatchJobStatus::Queued)])
+            .unwrap();
+
+        let jobs = get_batch_jobs(tauri::State::from(&state), Some("batch-1".to_string())).unwrap();
+        assert_eq!(jobs.len(), 2);
+        assert!(get_batch_jobs(tauri::State::from(&state), Some("other".to_string())).unwrap().is_empty());
+
+        assert_eq!(clear_batch_jobs(tauri::State::from(&state)).unwrap(), 1);
+        let jobs = get_batch_jobs(tauri::State::from(&state), None).unwrap();
+        assert_eq!(jobs.len(), 1);
+        assert_eq!(jobs[0].id, "b");
+    }
+}
@@ -1,3 +1,4 @@
+pub mod batch;
 pub mod history;
 pub mod injection;
 pub mod models;
@@ -6,6 +7,8 @@ pub mod quick_input;
 pub mod recording;
 pub mod settings;
 
+#[cfg(test)]
+mod batch_test;
 #[cfg(test)]
 mod history_test;
 #[cfg(test)]
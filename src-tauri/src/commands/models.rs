@@ -1,4 +1,7 @@
+use crate::core::model_registry::{self, LocalModelSpec};
 use crate::core::{error::Result, local_whisper};
+use crate::services::model_preload::{ModelPreloadService, ModelReadyStatus};
+use crate::services::state::AppState;
 use tauri::{AppHandle, Manager};
 
 #[derive(serde::Serialize)]
@@ -15,24 +18,21 @@ pub fn get_local_model_status(app: AppHandle) -> Result<Vec<ModelStatus>> {
         .app_data_dir()
         .ok_or_else(|| crate::core::error::AppError::Other("无法获取应用数据目录".into()))?;
 
-    let all_models = [
-        "whisper-tiny",
-        "whisper-base",
-        "whisper-small",
-        "whisper-medium",
-        "whisper-large-v3",
-        "whisper-large-v3-turbo",
-    ];
-
-    Ok(all_models
+    Ok(model_registry::all()
         .iter()
-        .map(|id| ModelStatus {
-            model_id: id.to_string(),
-            downloaded: local_whisper::is_model_downloaded(&app_data_dir, id),
+        .map(|spec| ModelStatus {
+            model_id: spec.id.to_string(),
+            downloaded: local_whisper::is_model_downloaded(&app_data_dir, spec.id),
         })
         .collect())
 }
 
+/// 本地模型目录（含量化版本），供前端展示大小和量化方式
+#[tauri::command]
+pub fn get_local_model_catalog() -> Vec<LocalModelSpec> {
+    model_registry::all().to_vec()
+}
+
 /// 下载本地模型（通过事件推送进度）
 #[tauri::command]
 pub async fn download_local_model(app: AppHandle, model_id: String) -> Result<String> {
@@ -41,10 +41,11 @@ pub async fn download_local_model(app: AppHandle, model_id: String) -> Result<St
         .app_data_dir()
         .ok_or_else(|| crate::core::error::AppError::Other("无法获取应用数据目录".into()))?;
 
+    let client = app.state::<AppState>().http.clone();
     let app_clone = app.clone();
     let model_id_clone = model_id.clone();
 
-    let model_path = local_whisper::download_model(&app_data_dir, &model_id, move |progress| {
+    let model_path = local_whisper::download_model(&client, &app_data_dir, &model_id, move |progress| {
         let _ = app_clone.emit_all(
             "model-download-progress",
             serde_json::json!({
@@ -55,9 +56,22 @@ pub async fn download_local_model(app: AppHandle, model_id: String) -> Result<St
     })
     .await?;
 
+    // 下载的正是当前选中的模型：立即在后台预加载
+    let selected = app.state::<AppState>().settings.lock().selected_model.clone();
+    if selected == model_id {
+        app.state::<ModelPreloadService>().preload(app.clone());
+    }
+
     Ok(model_path.to_string_lossy().to_string())
 }
 
+/// 查询当前选中模型的预加载状态
+#[tauri::command]
+pub fn get_model_ready(app: AppHandle) -> Result<ModelReadyStatus> {
+    let state = app.state::<AppState>();
+    Ok(app.state::<ModelPreloadService>().status(state.app_data_dir()))
+}
+
 /// 删除本地模型
 #[tauri::command]
 pub async fn delete_local_model(app: AppHandle, model_id: String) -> Result<()> {
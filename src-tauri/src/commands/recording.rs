@@ -1,6 +1,7 @@
+use crate::core::scheduler::JobContext;
 use crate::core::{error::Result, transcription::TranscriptionService, types::*};
 use crate::services::state::AppState;
-use tauri::State;
+use tauri::{Manager, State};
 
 #[tauri::command]
 pub async fn start_recording(state: State<'_, AppState>) -> Result<()> {
@@ -14,7 +15,7 @@ pub async fn stop_recording(
     app: tauri::AppHandle,
     model: String,
 ) -> Result<TranscriptionResult> {
-    let samples = state.stop_recording().await?;
+    let recording = state.stop_recording().await?;
 
     let settings = {
         let mut s = state.settings.lock().clone();
@@ -22,19 +23,29 @@ pub async fn stop_recording(
         s
     };
 
-    let mut service = TranscriptionService::new(settings);
+    let job = JobContext::interactive();
+    let mut service = TranscriptionService::new(settings, state.http.clone())
+        .with_job(job.clone())
+        .with_progress(progress_emitter(&app));
     if let Some(dir) = app.path_resolver().app_data_dir() {
         service = service.with_app_data_dir(dir);
     }
-    let result = service.transcribe_samples(&samples, 16000).await?;
+    // 按段读取录音，长录音不整段读入内存；无论成败都删除段文件
+    let result = state
+        .scheduler
+        .run(&service.provider(), &job, service.transcribe_recording(&recording.reader(), 0))
+        .await;
+    recording.discard();
+    let result = result?;
 
     let entry = TranscriptionEntry {
         id: uuid::Uuid::new_v4().to_string(),
         text: result.text.clone(),
         timestamp: chrono::Utc::now().timestamp(),
         duration: result.duration.unwrap_or(0.0),
-        model,
-        confidence: 0.95,
+        model: result.model.clone().unwrap_or(model),
+        // 在线接口不返回置信度时沿用原来的默认值
+        confidence: result.confidence.unwrap_or(0.95),
         audio_file_path: None,
     };
     state.database.save_transcription(&entry)?;
@@ -47,11 +58,36 @@ pub fn get_recording_state(state: State<'_, AppState>) -> Result<bool> {
     Ok(state.is_recording())
 }
 
+#[tauri::command]
+pub async fn get_capture_stats(state: State<'_, AppState>) -> Result<CaptureStats> {
+    state.capture_stats().await
+}
+
 #[tauri::command]
 pub fn get_audio_devices() -> Result<Vec<AudioDevice>> {
     crate::core::audio::list_audio_devices()
 }
 
+/// 崩溃前未处理、启动时已导出为 WAV 的录音
+#[tauri::command]
+pub fn get_recovered_recordings(state: State<'_, AppState>) -> Result<Vec<RecoveredRecording>> {
+    Ok(crate::core::recording_store::recovered_recordings(&state.recovered_dir()))
+}
+
+#[tauri::command]
+pub fn delete_recovered_recording(state: State<'_, AppState>, path: String) -> Result<()> {
+    let path = std::path::Path::new(&path);
+    // 只允许删除恢复目录中的文件
+    if path.parent() != Some(state.recovered_dir().as_path()) {
+        return Err(crate::core::error::AppError::Other(format!(
+            "不是恢复的录音: {}",
+            path.display()
+        )));
+    }
+    std::fs::remove_file(path)?;
+    Ok(())
+}
+
 #[tauri::command]
 pub async fn transcribe_file(
     file_path: String,
@@ -59,36 +95,23 @@ pub async fn transcribe_file(
     state: State<'_, AppState>,
     app: tauri::AppHandle,
 ) -> Result<TranscriptionResult> {
-    let path = std::path::Path::new(&file_path);
-    if !path.exists() {
-        return Err(crate::core::error::AppError::Other(format!(
-            "文件不存在: {}",
-            file_path
-        )));
-    }
-
-    let settings = {
-        let mut s = state.settings.lock().clone();
-        s.selected_model = model.clone();
-        s
-    };
+    // 文件转录是批量任务，给快捷键听写让路；进度由批量队列的 `batch-progress` 推送，这里不转发
+    let (result, _) = crate::services::batch::transcribe_path(
+        &file_path,
+        &model,
+        JobContext::batch(),
+        |_| {},
+        &state,
+        &app,
+    )
+    .await?;
+    Ok(result)
+}
 
-    let mut service = TranscriptionService::new(settings);
-    if let Some(dir) = app.path_resolver().app_data_dir() {
-        service = service.with_app_data_dir(dir);
+/// 把在线转录进度转发给录音页
+fn progress_emitter(app: &tauri::AppHandle) -> impl Fn(TranscriptionProgress) + Send + Sync + 'static {
+    let app = app.clone();
+    move |progress| {
+        let _ = app.emit_all("transcription-progress", progress);
     }
-    let result = service.transcribe_audio(path).await?;
-
-    let entry = TranscriptionEntry {
-        id: uuid::Uuid::new_v4().to_string(),
-        text: result.text.clone(),
-        timestamp: chrono::Utc::now().timestamp(),
-        duration: result.duration.unwrap_or(0.0),
-        model,
-        confidence: 0.95,
-        audio_file_path: Some(file_path),
-    };
-    state.database.save_transcription(&entry)?;
-
-    Ok(result)
 }
@@ -48,6 +48,7 @@ mod tests {
             text: "Hello world".to_string(),
             language: Some("en".to_string()),
             duration: Some(5.5),
+            ..Default::default()
         };
 
         let json = serde_json::to_string(&result).unwrap();
@@ -64,6 +65,7 @@ mod tests {
             text: "Test".to_string(),
             language: None,
             duration: None,
+            ..Default::default()
         };
 
         let json = serde_json::to_string(&result).unwrap();
@@ -1,34 +1,75 @@
+use crate::core::recording_store::{RecordingHandle, RecordingStore};
+use crate::core::resampler::{downmix_into, StreamingResampler};
 use crate::core::{error::Result, types::*};
 use cpal::traits::{DeviceTrait, HostTrait, StreamTrait};
+use cpal::Sample;
 use parking_lot::Mutex;
+use ringbuf::{HeapConsumer, HeapProducer, HeapRb};
+use std::path::PathBuf;
 use std::sync::Arc;
-use std::sync::atomic::{AtomicBool, Ordering};
+use std::sync::atomic::{AtomicBool, AtomicU64, Ordering};
+use std::thread::JoinHandle;
 use std::time::{Duration, Instant};
 
-// 最大录音时长：5 分钟
-const MAX_RECORDING_DURATION_SECS: u64 = 300;
-// 最大 buffer 大小：5 分钟 * 16kHz = 4.8M samples ≈ 19MB
-const MAX_BUFFER_SAMPLES: usize = 16000 * MAX_RECORDING_DURATION_SECS as usize;
+// 采集环形缓冲区时长：2 秒（按设备原生采样率和声道数计算容量），足以吸收消费线程的调度抖动
+const RING_BUFFER_SECS: usize = 2;
+// 消费线程每次从环形缓冲区取出的最大样本数
+const DRAIN_CHUNK_SAMPLES: usize = 4096;
+// 环形缓冲区为空时消费线程的等待间隔
+const DRAIN_INTERVAL_MS: u64 = 10;
+
+/// 采集回调计数器，回调线程只做原子累加
+#[derive(Default)]
+struct CaptureCounters {
+    dropped_frames: AtomicU64,
+    overruns: AtomicU64,
+}
+
+impl CaptureCounters {
+    fn reset(&self) {
+        self.dropped_frames.store(0, Ordering::Relaxed);
+        self.overruns.store(0, Ordering::Relaxed);
+    }
+
+    fn snapshot(&self) -> CaptureStats {
+        CaptureStats {
+            dropped_frames: self.dropped_frames.load(Ordering::Relaxed),
+            overruns: self.overruns.load(Ordering::Relaxed),
+        }
+    }
+}
 
 pub struct AudioRecorder {
     config: RecordingConfig,
-    buffer: Arc<Mutex<Vec<f32>>>,
+    spill_dir: PathBuf,
+    store: Arc<Mutex<Option<RecordingStore>>>,
     stream: Arc<Mutex<Option<cpal::Stream>>>,
     start_time: Arc<Mutex<Option<Instant>>>,
-    buffer_overflow: Arc<AtomicBool>,
+    consumer: Mutex<Option<JoinHandle<()>>>,
+    consumer_running: Arc<AtomicBool>,
+    counters: Arc<CaptureCounters>,
 }
 
 impl AudioRecorder {
     pub fn new(config: RecordingConfig) -> Self {
         Self {
             config,
-            buffer: Arc::new(Mutex::new(Vec::with_capacity(16000 * 10))), // 预分配 10 秒
+            spill_dir: std::env::temp_dir().join("recording-king").join("recordings"),
+            store: Arc::new(Mutex::new(None)),
             stream: Arc::new(Mutex::new(None)),
             start_time: Arc::new(Mutex::new(None)),
-            buffer_overflow: Arc::new(AtomicBool::new(false)),
+            consumer: Mutex::new(None),
+            consumer_running: Arc::new(AtomicBool::new(false)),
+            counters: Arc::new(CaptureCounters::default()),
         }
     }
 
+    /// 设置录音段文件的落盘目录（默认使用系统临时目录）
+    pub fn with_spill_dir(mut self, dir: PathBuf) -> Self {
+        self.spill_dir = dir;
+        self
+    }
+
     pub fn start(&self) -> Result<()> {
         let host = cpal::default_host();
         let device = if let Some(device_id) = &self.config.device_id {
@@ -40,61 +81,217 @@ impl AudioRecorder {
                 .ok_or_else(|| crate::core::error::AppError::Audio("No input device".into()))?
         };
 
-        let config = cpal::StreamConfig {
-            channels: self.config.channels,
-            sample_rate: cpal::SampleRate(self.config.sample_rate),
-            buffer_size: cpal::BufferSize::Default,
+        // 以设备首选的原生格式打开，避免强制 16kHz 单声道导致部分 USB/蓝牙麦克风失败
+        let supported = device.default_input_config()?;
+        let sample_format = supported.sample_format();
+        let config: cpal::StreamConfig = supported.config();
+        let device_channels = config.channels.max(1) as usize;
+        let device_rate = config.sample_rate.0;
+        println!(
+            "🎙 输入设备格式: {}Hz, {} 声道, {:?}",
+            device_rate, device_channels, sample_format
+        );
+
+        self.counters.reset();
+
+        // 实时回调只写入无锁环形缓冲区：不加锁、不分配、不做 I/O
+        let capacity = device_rate as usize * device_channels * RING_BUFFER_SECS;
+        let (producer, consumer) = HeapRb::<f32>::new(capacity).split();
+        let counters = self.counters.clone();
+        let stream = match sample_format {
+            cpal::SampleFormat::F32 => build_capture_stream::<f32>(&device, &config, producer, counters)?,
+            cpal::SampleFormat::I16 => build_capture_stream::<i16>(&device, &config, producer, counters)?,
+            cpal::SampleFormat::U16 => build_capture_stream::<u16>(&device, &config, producer, counters)?,
+            other => {
+                return Err(crate::core::error::AppError::Audio(format!(
+                    "不支持的采样格式: {:?}",
+                    other
+                )))
+            }
         };
 
-        let buffer = self.buffer.clone();
-        let buffer_overflow = self.buffer_overflow.clone();
-        let stream = device.build_input_stream(
-            &config,
-            move |data: &[f32], _: &cpal::InputCallbackInfo| {
-                let mut buf = buffer.lock();
-                // 检查是否超过最大 buffer 大小
-                if buf.len() + data.len() > MAX_BUFFER_SAMPLES {
-                    buffer_overflow.store(true, Ordering::Relaxed);
-                    eprintln!("⚠️ 录音 buffer 溢出，已达到最大时长 {} 秒", MAX_RECORDING_DURATION_SECS);
-                    return; // 停止接收新数据
-                }
-                buf.extend_from_slice(data);
-            },
-            |err| eprintln!("Audio stream error: {}", err),
-            None,
+        // 降混和重采样在消费线程中增量完成，停止时无需再整体重采样
+        let resampler = StreamingResampler::new(device_rate, self.config.sample_rate)?;
+
+        *self.store.lock() = Some(RecordingStore::create(&self.spill_dir, self.config.sample_rate)?);
+        self.consumer_running.store(true, Ordering::Release);
+        let handle = spawn_consumer(
+            consumer,
+            device_channels,
+            resampler,
+            self.store.clone(),
+            self.consumer_running.clone(),
         )?;
+        *self.consumer.lock() = Some(handle);
 
-        stream.play()?;
+        if let Err(e) = stream.play() {
+            self.join_consumer();
+            if let Some(store) = self.store.lock().take() {
+                if let Ok(handle) = store.finish() {
+                    handle.discard();
+                }
+            }
+            return Err(e.into());
+        }
         *self.stream.lock() = Some(stream);
         *self.start_time.lock() = Some(Instant::now());
-        self.buffer_overflow.store(false, Ordering::Relaxed);
         Ok(())
     }
 
-    pub fn stop(&self) -> Result<Vec<f32>> {
+    pub fn stop(&self) -> Result<RecordingHandle> {
         if let Some(stream) = self.stream.lock().take() {
+            // drop stream 后生产端随回调闭包一起释放，不会再有新数据写入
             drop(stream);
-            // 等待 stream 完全停止，确保所有回调完成
-            std::thread::sleep(Duration::from_millis(20));
         }
+        // 消费线程会先排空环形缓冲区再退出
+        self.join_consumer();
 
-        let data: Vec<f32> = self.buffer.lock().drain(..).collect();
+        let handle = match self.store.lock().take() {
+            Some(store) => store.finish()?,
+            None => RecordingHandle::empty(self.config.sample_rate),
+        };
         let duration = self.start_time.lock().take()
             .map(|t| t.elapsed().as_secs_f32())
             .unwrap_or(0.0);
 
-        // 检查是否发生 buffer 溢出
-        if self.buffer_overflow.load(Ordering::Relaxed) {
-            eprintln!("⚠️ 录音已达到最大时长 {} 秒，已自动截断", MAX_RECORDING_DURATION_SECS);
+        let stats = self.counters.snapshot();
+        if stats.overruns > 0 {
+            eprintln!(
+                "⚠️ 采集环形缓冲区溢出 {} 次，丢弃 {} 帧",
+                stats.overruns, stats.dropped_frames
+            );
         }
 
-        println!("🎤 录音停止: {:.2}s, {} samples", duration, data.len());
-        Ok(data)
+        println!(
+            "🎤 录音停止: {:.2}s, {} samples, {} 段",
+            duration,
+            handle.len(),
+            handle.segment_count()
+        );
+        Ok(handle)
     }
 
     pub fn is_recording(&self) -> bool {
         self.stream.lock().is_some()
     }
+
+    /// 正在进行的录音从 `from`（16kHz 样本下标）到当前的音频，用于流式识别
+    pub fn live_tail(&self, from: usize) -> (usize, Vec<f32>) {
+        match self.store.lock().as_ref() {
+            Some(store) => store.tail_from(from),
+            None => (from, Vec::new()),
+        }
+    }
+
+    /// 当前（或最近一次）录音的采集回调统计
+    pub fn capture_stats(&self) -> CaptureStats {
+        self.counters.snapshot()
+    }
+
+    fn join_consumer(&self) {
+        self.consumer_running.store(false, Ordering::Release);
+        if let Some(handle) = self.consumer.lock().take() {
+            if handle.join().is_err() {
+                eprintln!("⚠️ 音频消费线程异常退出");
+            }
+        }
+    }
+}
+
+/// 构建输入流：回调把任意采样格式转换为 f32 后写入环形缓冲区
+fn build_capture_stream<T>(
+    device: &cpal::Device,
+    config: &cpal::StreamConfig,
+    mut producer: HeapProducer<f32>,
+    counters: Arc<CaptureCounters>,
+) -> Result<cpal::Stream>
+where
+    T: cpal::SizedSample,
+    f32: cpal::FromSample<T>,
+{
+    let channels = config.channels.max(1) as u64;
+    let stream = device.build_input_stream(
+        config,
+        move |data: &[T], _: &cpal::InputCallbackInfo| {
+            let mut written = 0;
+            for &sample in data {
+                if producer.push(sample.to_sample::<f32>()).is_err() {
+                    break;
+                }
+                written += 1;
+            }
+            if written < data.len() {
+                let dropped = (data.len() - written) as u64;
+                counters.dropped_frames.fetch_add((dropped + channels - 1) / channels, Ordering::Relaxed);
+                counters.overruns.fetch_add(1, Ordering::Relaxed);
+            }
+        },
+        |err| eprintln!("Audio stream error: {}", err),
+        None,
+    )?;
+    Ok(stream)
+}
+
+/// 消费线程：从环形缓冲区取出原生格式样本，降混为单声道、重采样后写入分段录音存储
+fn spawn_consumer(
+    mut consumer: HeapConsumer<f32>,
+    channels: usize,
+    mut resampler: StreamingResampler,
+    store: Arc<Mutex<Option<RecordingStore>>>,
+    running: Arc<AtomicBool>,
+) -> Result<JoinHandle<()>> {
+    let handle = std::thread::Builder::new()
+        .name("audio-consumer".into())
+        .spawn(move || {
+            // 块大小取声道数的整数倍；不足一帧的尾部样本留到下一轮
+            let chunk = (DRAIN_CHUNK_SAMPLES / channels).max(1) * channels;
+            let mut scratch = vec![0.0f32; chunk + channels];
+            let mut carry = 0;
+            let mut mono = Vec::with_capacity(chunk);
+            let mut resampled = Vec::with_capacity(chunk);
+            let mut write_failed = false;
+
+            let mut write = |samples: &[f32]| {
+                if let Some(store) = store.lock().as_mut() {
+                    if let Err(e) = store.push(samples) {
+                        if !write_failed {
+                            eprintln!("❌ 录音段写入失败: {}", e);
+                            write_failed = true;
+                        }
+                    }
+                }
+            };
+
+            loop {
+                let n = consumer.pop_slice(&mut scratch[carry..carry + chunk]);
+                if n > 0 {
+                    let available = carry + n;
+                    mono.clear();
+                    let used = downmix_into(&scratch[..available], channels, &mut mono);
+                    scratch.copy_within(used..available, 0);
+                    carry = available - used;
+
+                    resampled.clear();
+                    match resampler.process(&mono, &mut resampled) {
+                        Ok(()) => write(&resampled),
+                        Err(e) => eprintln!("❌ {}", e),
+                    }
+                    continue;
+                }
+                // 停止标志只在 stream 释放之后设置，此时环形缓冲区已排空
+                if !running.load(Ordering::Acquire) {
+                    break;
+                }
+                std::thread::sleep(Duration::from_millis(DRAIN_INTERVAL_MS));
+            }
+
+            resampled.clear();
+            match resampler.flush(&mut resampled) {
+                Ok(()) => write(&resampled),
+                Err(e) => eprintln!("❌ {}", e),
+            }
+        })?;
+    Ok(handle)
 }
 
 pub fn list_audio_devices() -> Result<Vec<AudioDevice>> {
@@ -117,22 +314,62 @@ pub fn list_audio_devices() -> Result<Vec<AudioDevice>> {
 }
 
 pub fn save_audio_to_wav(samples: &[f32], sample_rate: u32, path: &str) -> Result<()> {
-    let spec = hound::WavSpec {
-        channels: 1,
-        sample_rate,
-        bits_per_sample: 16,
-        sample_format: hound::SampleFormat::Int,
-    };
-
-    let mut writer = hound::WavWriter::create(path, spec)?;
-    for &sample in samples {
-        let amplitude = (sample * i16::MAX as f32) as i16;
-        writer.write_sample(amplitude)?;
-    }
-    writer.finalize()?;
+    std::fs::write(path, encode_wav(samples, sample_rate))?;
     Ok(())
 }
 
+/// 在内存中编码 16-bit 单声道 WAV（44 字节标准头 + PCM 数据）
+pub fn encode_wav(samples: &[f32], sample_rate: u32) -> Vec<u8> {
+    let mut wav = Vec::with_capacity(44 + samples.len() * 2);
+    write_wav_header(&mut wav, sample_rate, (samples.len() * 2) as u32);
+    append_pcm16(samples, &mut wav);
+    wav
+}
+
+/// 已知长度的 16-bit 单声道 WAV 头（`samples` 为样本数）
+pub fn wav_header(sample_rate: u32, samples: usize) -> Vec<u8> {
+    let mut header = Vec::with_capacity(44);
+    let data_len = u32::try_from(samples * 2).unwrap_or(u32::MAX);
+    write_wav_header(&mut header, sample_rate, data_len);
+    header
+}
+
+/// 长度未知的流式 WAV 头：RIFF 和 data 长度填 0xFFFFFFFF（与 ffmpeg/sox 输出到管道时的约定一致）
+pub fn streaming_wav_header(sample_rate: u32) -> Vec<u8> {
+    let mut header = Vec::with_capacity(44);
+    write_wav_header(&mut header, sample_rate, u32::MAX);
+    header
+}
+
+fn write_wav_header(out: &mut Vec<u8>, sample_rate: u32, data_len: u32) {
+    out.extend_from_slice(b"RIFF");
+    out.extend_from_slice(&data_len.saturating_add(36).to_le_bytes());
+    out.extend_from_slice(b"WAVE");
+    out.extend_from_slice(b"fmt ");
+    out.extend_from_slice(&16u32.to_le_bytes()); // fmt 块长度
+    out.extend_from_slice(&1u16.to_le_bytes()); // PCM
+    out.extend_from_slice(&1u16.to_le_bytes()); // 声道数
+    out.extend_from_slice(&sample_rate.to_le_bytes());
+    out.extend_from_slice(&(sample_rate * 2).to_le_bytes()); // 字节率
+    out.extend_from_slice(&2u16.to_le_bytes()); // 块对齐
+    out.extend_from_slice(&16u16.to_le_bytes()); // 位深
+    out.extend_from_slice(b"data");
+    out.extend_from_slice(&data_len.to_le_bytes());
+}
+
+/// f32 → 小端 i16 PCM，追加到 `out`
+///
+/// 先一次性扩容，再用无分支的定长循环逐个写入，编译器可以自动向量化
+/// （钳位 + 乘法 + 饱和转换），避免逐样本 `write_sample` 的函数调用和边界检查。
+pub fn append_pcm16(samples: &[f32], out: &mut Vec<u8>) {
+    let start = out.len();
+    out.resize(start + samples.len() * 2, 0);
+    for (dst, &sample) in out[start..].chunks_exact_mut(2).zip(samples) {
+        let value = (sample.clamp(-1.0, 1.0) * i16::MAX as f32) as i16;
+        dst.copy_from_slice(&value.to_le_bytes());
+    }
+}
+
 #[cfg(test)]
 mod tests {
     use super::*;
@@ -171,4 +408,40 @@ mod tests {
         let recorder = AudioRecorder::new(config);
         assert!(!recorder.is_recording());
     }
+
+    #[test]
+    fn test_capture_stats_start_at_zero() {
+        let recorder = AudioRecorder::new(RecordingConfig::default());
+        let stats = recorder.capture_stats();
+        assert_eq!(stats.dropped_frames, 0);
+        assert_eq!(stats.overruns, 0);
+    }
+
+    #[test]
+    fn test_ring_buffer_drops_when_full() {
+        let (mut producer, mut consumer) = HeapRb::<f32>::new(8).split();
+        assert_eq!(producer.push_slice(&[0.5; 12]), 8);
+
+        let mut out = [0.0f32; 16];
+        assert_eq!(consumer.pop_slice(&mut out), 8);
+        assert!(out[..8].iter().all(|&s| s == 0.5));
+    }
+
+    #[test]
+    fn test_encode_wav_matches_hound() {
+        let samples: Vec<f32> = (0..1000).map(|i| ((i as f32) * 0.01).sin() * 1.2).collect();
+        let wav = encode_wav(&samples, 16000);
+
+        let mut reader = hound::WavReader::new(std::io::Cursor::new(&wav)).unwrap();
+        let spec = reader.spec();
+        assert_eq!(spec.channels, 1);
+        assert_eq!(spec.sample_rate, 16000);
+        assert_eq!(spec.bits_per_sample, 16);
+        let decoded: Vec<i16> = reader.samples::<i16>().map(|s| s.unwrap()).collect();
+        assert_eq!(decoded.len(), samples.len());
+        for (&d, &s) in decoded.iter().zip(&samples) {
+            // 超出 [-1, 1] 的样本被钳位
+            assert_eq!(d, (s.clamp(-1.0, 1.0) * i16::MAX as f32) as i16);
+        }
+    }
 }
@@ -0,0 +1,530 @@
+//! 音频文件解码
+//!
+//! WAV 通过内存映射读取，按固定大小的块把 PCM 转成 f32；其他格式（MP3、M4A/AAC、
+//! FLAC、OGG、MP4/MOV 中的音轨）由 symphonia 逐包解封装、解码。两条路径都把各声道
+//! 平均为单声道，每块直接送入重采样器。除最终的 16kHz 输出外，工作内存只有一块（一个包）
+//! 的大小，多小时的长文件或大视频也不会整份读入内存或先转成临时 WAV。
+
+use crate::core::error::{AppError, Result};
+use crate::core::resampler::{downmix_into, StreamingResampler};
+use memmap2::Mmap;
+use std::ops::Range;
+use std::path::Path;
+use symphonia::core::audio::SampleBuffer;
+use symphonia::core::codecs::{Decoder, DecoderOptions, CODEC_TYPE_NULL};
+use symphonia::core::errors::Error as SymphoniaError;
+use symphonia::core::formats::{FormatOptions, FormatReader};
+use symphonia::core::io::MediaSourceStream;
+use symphonia::core::meta::MetadataOptions;
+use symphonia::core::probe::Hint;
+
+// 每块解码的帧数（约 0.1-0.4 秒）
+const BLOCK_FRAMES: usize = 16384;
+const TARGET_RATE: u32 = 16000;
+
+const WAVE_FORMAT_PCM: u16 = 1;
+const WAVE_FORMAT_IEEE_FLOAT: u16 = 3;
+const WAVE_FORMAT_EXTENSIBLE: u16 = 0xFFFE;
+
+#[derive(Debug, Clone, Copy, PartialEq)]
+enum SampleFormat {
+    U8,
+    I16,
+    I24,
+    I32,
+    F32,
+    F64,
+}
+
+impl SampleFormat {
+    fn from_wave(tag: u16, bits: u16) -> Option<Self> {
+        match (tag, bits) {
+            (WAVE_FORMAT_PCM, 8) => Some(Self::U8),
+            (WAVE_FORMAT_PCM, 16) => Some(Self::I16),
+            (WAVE_FORMAT_PCM, 24) => Some(Self::I24),
+            (WAVE_FORMAT_PCM, 32) => Some(Self::I32),
+            (WAVE_FORMAT_IEEE_FLOAT, 32) => Some(Self::F32),
+            (WAVE_FORMAT_IEEE_FLOAT, 64) => Some(Self::F64),
+            _ => None,
+        }
+    }
+
+    fn bytes(&self) -> usize {
+        match self {
+            Self::U8 => 1,
+            Self::I16 => 2,
+            Self::I24 => 3,
+            Self::I32 | Self::F32 => 4,
+            Self::F64 => 8,
+        }
+    }
+}
+
+/// 内存映射的 WAV 文件，按块产出单声道 f32
+pub struct WavStream {
+    mmap: Mmap,
+    format: SampleFormat,
+    channels: usize,
+    sample_rate: u32,
+    data: Range<usize>,
+    pos: usize,
+    block: Vec<f32>,
+}
+
+impl WavStream {
+    pub fn open(path: &Path) -> Result<Self> {
+        let file = std::fs::File::open(path)?;
+        if file.metadata()?.len() == 0 {
+            return Err(AppError::Audio("音频文件为空".into()));
+        }
+        // 只读映射；转录期间文件被其他程序截断属于用户操作错误，此处不做防护
+        let mmap = unsafe { Mmap::map(&file)? };
+        let header = parse_header(&mmap)?;
+        let frames = (header.data.end - header.data.start) / (header.channels * header.format.bytes());
+        println!(
+            "🎵 WAV: {}Hz, {} 声道, {:?}, {:.1}s",
+            header.sample_rate,
+            header.channels,
+            header.format,
+            frames as f64 / header.sample_rate as f64
+        );
+
+        Ok(Self {
+            mmap,
+            format: header.format,
+            channels: header.channels,
+            sample_rate: header.sample_rate,
+            pos: header.data.start,
+            data: header.data,
+            block: Vec::with_capacity(BLOCK_FRAMES),
+        })
+    }
+
+    pub fn sample_rate(&self) -> u32 {
+        self.sample_rate
+    }
+
+    /// 总帧数（每声道样本数）
+    pub fn frames(&self) -> usize {
+        (self.data.end - self.data.start) / self.frame_bytes()
+    }
+
+    fn frame_bytes(&self) -> usize {
+        self.channels * self.format.bytes()
+    }
+
+    /// 下一块单声道样本（各声道平均），读完时返回 None
+    pub fn next_block(&mut self) -> Option<&[f32]> {
+        let frame_bytes = self.frame_bytes();
+        let frames = ((self.data.end - self.pos) / frame_bytes).min(BLOCK_FRAMES);
+        if frames == 0 {
+            return None;
+        }
+
+        let bytes = &self.mmap[self.pos..self.pos + frames * frame_bytes];
+        self.pos += frames * frame_bytes;
+        self.block.clear();
+
+        let (channels, out) = (self.channels, &mut self.block);
+        match self.format {
+            SampleFormat::U8 => downmix(bytes, channels, out, |[b]| (b as f32 - 128.0) / 128.0),
+            SampleFormat::I16 => downmix(bytes, channels, out, |b| i16::from_le_bytes(b) as f32 / 32768.0),
+            SampleFormat::I24 => downmix(bytes, channels, out, |[b0, b1, b2]| {
+                // 左移到 i32 高位再算术右移，完成符号扩展
+                (i32::from_le_bytes([0, b0, b1, b2]) >> 8) as f32 / 8388608.0
+            }),
+            SampleFormat::I32 => downmix(bytes, channels, out, |b| i32::from_le_bytes(b) as f32 / 2147483648.0),
+            SampleFormat::F32 => downmix(bytes, channels, out, f32::from_le_bytes),
+            SampleFormat::F64 => downmix(bytes, channels, out, |b| f64::from_le_bytes(b) as f32),
+        }
+        Some(&self.block)
+    }
+}
+
+/// 把一块交错 PCM 字节转换并按帧平均为单声道
+fn downmix<const W: usize>(bytes: &[u8], channels: usize, out: &mut Vec<f32>, convert: impl Fn([u8; W]) -> f32) {
+    let sample = |b: &[u8]| convert(b.try_into().expect("chunk has sample width"));
+    if channels == 1 {
+        out.extend(bytes.chunks_exact(W).map(sample));
+        return;
+    }
+    let scale = 1.0 / channels as f32;
+    out.extend(
+        bytes
+            .chunks_exact(W * channels)
+            .map(|frame| frame.chunks_exact(W).map(sample).sum::<f32>() * scale),
+    );
+}
+
+struct WavHeader {
+    format: SampleFormat,
+    channels: usize,
+    sample_rate: u32,
+    data: Range<usize>,
+}
+
+fn parse_header(bytes: &[u8]) -> Result<WavHeader> {
+    let invalid = |msg: &str| AppError::Audio(format!("WAV 解码失败: {}", msg));
+    if bytes.len() < 12 || &bytes[0..4] != b"RIFF" || &bytes[8..12] != b"WAVE" {
+        return Err(invalid("不是 RIFF/WAVE 文件"));
+    }
+    let u16_at = |at: usize| u16::from_le_bytes([bytes[at], bytes[at + 1]]);
+    let u32_at = |at: usize| u32::from_le_bytes([bytes[at], bytes[at + 1], bytes[at + 2], bytes[at + 3]]);
+
+    let mut fmt = None;
+    let mut pos = 12;
+    while pos + 8 <= bytes.len() {
+        let id = &bytes[pos..pos + 4];
+        let size = u32_at(pos + 4) as usize;
+        let body = pos + 8;
+
+        if id == b"fmt " {
+            if size < 16 || body + 16 > bytes.len() {
+                return Err(invalid("fmt 块不完整"));
+            }
+            let mut tag = u16_at(body);
+            let bits = u16_at(body + 14);
+            // WAVE_FORMAT_EXTENSIBLE 的实际格式在子格式 GUID 的前两个字节
+            if tag == WAVE_FORMAT_EXTENSIBLE && size >= 40 && body + 26 <= bytes.len() {
+                tag = u16_at(body + 24);
+            }
+            let format = SampleFormat::from_wave(tag, bits)
+                .ok_or_else(|| invalid(&format!("不支持的格式 {} / {} 位", tag, bits)))?;
+            let channels = u16_at(body + 2) as usize;
+            let sample_rate = u32_at(body + 4);
+            if channels == 0 || sample_rate == 0 {
+                return Err(invalid("声道数或采样率为 0"));
+            }
+            fmt = Some((format, channels, sample_rate));
+        } else if id == b"data" {
+            let (format, channels, sample_rate) = fmt.ok_or_else(|| invalid("data 块出现在 fmt 块之前"))?;
+            // 边录边写的文件长度字段可能是 0 或 0xFFFFFFFF，以实际文件长度为准
+            let end = match body.checked_add(size) {
+                Some(end) if size > 0 && end <= bytes.len() => end,
+                _ => bytes.len(),
+            };
+            return Ok(WavHeader {
+                format,
+                channels,
+                sample_rate,
+                data: body..end,
+            });
+        }
+
+        // 块按偶数字节对齐
+        pos = body.saturating_add(size).saturating_add(size & 1);
+    }
+    Err(invalid("缺少 data 块"))
+}
+
+/// 用 symphonia 逐包解码的音频轨道（视频等其他轨道的包直接跳过）
+pub struct MediaStream {
+    format: Box<dyn FormatReader>,
+    decoder: Box<dyn Decoder>,
+    track_id: u32,
+    sample_rate: u32,
+    frames: Option<u64>,
+    buffer: Option<SampleBuffer<f32>>,
+    block: Vec<f32>,
+}
+
+impl MediaStream {
+    pub fn open(path: &Path) -> Result<Self> {
+        let file = std::fs::File::open(path)?;
+        let source = MediaSourceStream::new(Box::new(file), Default::default());
+        let mut hint = Hint::new();
+        if let Some(ext) = path.extension().and_then(|e| e.to_str()) {
+            hint.with_extension(ext);
+        }
+
+        let probed = symphonia::default::get_probe()
+            .format(&hint, source, &FormatOptions::default(), &MetadataOptions::default())
+            .map_err(|e| AppError::Audio(format!("无法识别的音频格式: {}", e)))?;
+        let format = probed.format;
+
+        // 第一条能解码的音轨
+        let track = format
+            .tracks()
+            .iter()
+            .find(|t| t.codec_params.codec != CODEC_TYPE_NULL && t.codec_params.sample_rate.is_some())
+            .ok_or_else(|| AppError::Audio("文件中没有音频轨道".into()))?;
+        let decoder = symphonia::default::get_codecs()
+            .make(&track.codec_params, &DecoderOptions::default())
+            .map_err(|e| AppError::Audio(format!("不支持的音频编码: {}", e)))?;
+
+        let (track_id, sample_rate, frames) = (
+            track.id,
+            track.codec_params.sample_rate.unwrap_or(TARGET_RATE),
+            track.codec_params.n_frames,
+        );
+        println!(
+            "🎵 {}: {}Hz, {:?}, {}",
+            path.extension().and_then(|e| e.to_str()).unwrap_or("?"),
+            sample_rate,
+            track.codec_params.codec,
+            frames
+                .map(|n| format!("{:.1}s", n as f64 / sample_rate as f64))
+                .unwrap_or_else(|| "时长未知".into())
+        );
+
+        Ok(Self {
+            format,
+            decoder,
+            track_id,
+            sample_rate,
+            frames,
+            buffer: None,
+            block: Vec::new(),
+        })
+    }
+
+    pub fn sample_rate(&self) -> u32 {
+        self.sample_rate
+    }
+
+    /// 下一个包解码出的单声道样本（各声道平均），读完时返回 None
+    pub fn next_block(&mut self) -> Result<Option<&[f32]>> {
+        loop {
+            let packet = match self.format.next_packet() {
+                Ok(packet) => packet,
+                // symphonia 以 UnexpectedEof 表示流结束
+                Err(SymphoniaError::IoError(e)) if e.kind() == std::io::ErrorKind::UnexpectedEof => {
+                    return Ok(None)
+                }
+                Err(SymphoniaError::ResetRequired) => return Ok(None),
+                Err(e) => return Err(AppError::Audio(format!("读取音频失败: {}", e))),
+            };
+            if packet.track_id() != self.track_id {
+                continue;
+            }
+
+            let decoded = match self.decoder.decode(&packet) {
+                Ok(decoded) => decoded,
+                // 个别损坏的包跳过即可，不影响其余部分
+                Err(SymphoniaError::DecodeError(e)) => {
+                    eprintln!("⚠️ 跳过无法解码的音频包: {}", e);
+                    continue;
+                }
+                Err(e) => return Err(AppError::Audio(format!("音频解码失败: {}", e))),
+            };
+            if decoded.frames() == 0 {
+                continue;
+            }
+
+            // 交错缓冲在包之间复用，只在包变大时重新分配
+            let spec = *decoded.spec();
+            let needed = decoded.capacity() * spec.channels.count();
+            if self.buffer.as_ref().map_or(true, |b| b.capacity() < needed) {
+                self.buffer = Some(SampleBuffer::new(decoded.capacity() as u64, spec));
+            }
+            let buffer = self.buffer.as_mut().expect("buffer allocated above");
+            buffer.copy_interleaved_ref(decoded);
+
+            self.block.clear();
+            downmix_into(buffer.samples(), spec.channels.count(), &mut self.block);
+            return Ok(Some(&self.block));
+        }
+    }
+}
+
+/// 按块产出单声道 f32 的音频文件：WAV 走内存映射，其余格式走 symphonia
+pub enum AudioSource {
+    Wav(WavStream),
+    Media(MediaStream),
+}
+
+impl AudioSource {
+    pub fn open(path: &Path) -> Result<Self> {
+        if is_wav(path)? {
+            Ok(Self::Wav(WavStream::open(path)?))
+        } else {
+            Ok(Self::Media(MediaStream::open(path)?))
+        }
+    }
+
+    pub fn sample_rate(&self) -> u32 {
+        match self {
+            Self::Wav(stream) => stream.sample_rate(),
+            Self::Media(stream) => stream.sample_rate(),
+        }
+    }
+
+    /// 总帧数；容器没有记录时为 None
+    pub fn frames(&self) -> Option<u64> {
+        match self {
+            Self::Wav(stream) => Some(stream.frames() as u64),
+            Self::Media(stream) => stream.frames,
+        }
+    }
+
+    pub fn next_block(&mut self) -> Result<Option<&[f32]>> {
+        match self {
+            Self::Wav(stream) => Ok(stream.next_block()),
+            Self::Media(stream) => stream.next_block(),
+        }
+    }
+}
+
+/// 按文件头而不是扩展名判断是否为 WAV
+fn is_wav(path: &Path) -> Result<bool> {
+    use std::io::Read;
+    let mut magic = [0u8; 12];
+    let mut file = std::fs::File::open(path)?;
+    let n = file.read(&mut magic)?;
+    Ok(n == 12 && &magic[0..4] == b"RIFF" && &magic[8..12] == b"WAVE")
+}
+
+/// 流式解码音频文件为 16kHz 单声道
+pub fn decode_to_16khz(path: &Path) -> Result<Vec<f32>> {
+    decode_to_16khz_with(path, |_, _| {})
+}
+
+/// 同 `decode_to_16khz`，每个重采样前的单声道块（及原采样率）先交给 `inspect`（例如计算缓存键）
+pub fn decode_to_16khz_with(path: &Path, mut inspect: impl FnMut(&[f32], u32)) -> Result<Vec<f32>> {
+    let mut source = AudioSource::open(path)?;
+    let rate = source.sample_rate();
+    let mut resampler = StreamingResampler::new(rate, TARGET_RATE)?;
+    let expected = source.frames().unwrap_or(0) * TARGET_RATE as u64 / rate as u64;
+    let mut out = Vec::with_capacity(expected as usize + 1);
+
+    while let Some(block) = source.next_block()? {
+        inspect(block, rate);
+        resampler.process(block, &mut out)?;
+    }
+    resampler.flush(&mut out)?;
+    Ok(out)
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use tempfile::tempdir;
+
+    fn write_wav(path: &Path, spec: hound::WavSpec, frames: usize, frame: impl Fn(usize) -> Vec<f32>) {
+        let mut writer = hound::WavWriter::create(path, spec).unwrap();
+        for i in 0..frames {
+            for s in frame(i) {
+                match spec.sample_format {
+                    hound::SampleFormat::Float => writer.write_sample(s).unwrap(),
+                    hound::SampleFormat::Int => {
+                        let max = (1i64 << (spec.bits_per_sample - 1)) as f32;
+                        writer.write_sample((s * (max - 1.0)) as i32).unwrap()
+                    }
+                }
+            }
+        }
+        writer.finalize().unwrap();
+    }
+
+    fn collect(stream: &mut WavStream) -> Vec<f32> {
+        let mut all = Vec::new();
+        while let Some(block) = stream.next_block() {
+            assert!(block.len() <= BLOCK_FRAMES);
+            all.extend_from_slice(block);
+        }
+        all
+    }
+
+    #[test]
+    fn test_stereo_is_averaged_not_left_only() {
+        let dir = tempdir().unwrap();
+        let path = dir.path().join("stereo.wav");
+        let spec = hound::WavSpec {
+            channels: 2,
+            sample_rate: 16000,
+            bits_per_sample: 16,
+            sample_format: hound::SampleFormat::Int,
+        };
+        // 左声道静音、右声道 0.5：原来只取第一个声道会得到全 0
+        write_wav(&path, spec, 40000, |_| vec![0.0, 0.5]);
+
+        let mut stream = WavStream::open(&path).unwrap();
+        assert_eq!(stream.frames(), 40000);
+        let mono = collect(&mut stream);
+        assert_eq!(mono.len(), 40000);
+        assert!(mono.iter().all(|&s| (s - 0.25).abs() < 1e-3));
+    }
+
+    #[test]
+    fn test_24bit_and_float_formats() {
+        let dir = tempdir().unwrap();
+        for (bits, format) in [(24, hound::SampleFormat::Int), (32, hound::SampleFormat::Float)] {
+            let path = dir.path().join(format!("{}.wav", bits));
+            let spec = hound::WavSpec {
+                channels: 1,
+                sample_rate: 16000,
+                bits_per_sample: bits,
+                sample_format: format,
+            };
+            write_wav(&path, spec, 1000, |i| vec![if i % 2 == 0 { -0.75 } else { 0.75 }]);
+
+            let mono = collect(&mut WavStream::open(&path).unwrap());
+            assert_eq!(mono.len(), 1000);
+            assert!((mono[0] + 0.75).abs() < 1e-3 && (mono[1] - 0.75).abs() < 1e-3, "{} bits", bits);
+        }
+    }
+
+    #[test]
+    fn test_streaming_header_uses_file_length() {
+        let dir = tempdir().unwrap();
+        let path = dir.path().join("live.wav");
+        let mut bytes = crate::core::audio::streaming_wav_header(16000);
+        crate::core::audio::append_pcm16(&[0.5; 500], &mut bytes);
+        std::fs::write(&path, bytes).unwrap();
+
+        let mono = collect(&mut WavStream::open(&path).unwrap());
+        assert_eq!(mono.len(), 500);
+    }
+
+    #[test]
+    fn test_decode_48k_stereo_to_16k() {
+        let dir = tempdir().unwrap();
+        let path = dir.path().join("48k.wav");
+        let spec = hound::WavSpec {
+            channels: 2,
+            sample_rate: 48000,
+            bits_per_sample: 16,
+            sample_format: hound::SampleFormat::Int,
+        };
+        write_wav(&path, spec, 48000 * 3, |i| {
+            let s = (i as f32 * 0.05).sin() * 0.5;
+            vec![s, s]
+        });
+
+        let samples = decode_to_16khz(&path).unwrap();
+        assert_eq!(samples.len(), 16000 * 3);
+    }
+
+    #[test]
+    fn test_flac_decodes_through_symphonia() {
+        let dir = tempdir().unwrap();
+        let path = dir.path().join("speech.flac");
+        let audio: Vec<f32> = (0..44100)
+            .map(|i| (2.0 * std::f32::consts::PI * 440.0 * i as f32 / 44100.0).sin() * 0.5)
+            .collect();
+        let flac = crate::core::upload_codec::encode(&audio, 44100, crate::core::upload_codec::UploadCodec::Flac)
+            .unwrap();
+        std::fs::write(&path, flac.bytes).unwrap();
+
+        let mut source = AudioSource::open(&path).unwrap();
+        assert!(matches!(source, AudioSource::Media(_)));
+        assert_eq!(source.sample_rate(), 44100);
+        let mut decoded = Vec::new();
+        while let Some(block) = source.next_block().unwrap() {
+            decoded.extend_from_slice(block);
+        }
+        assert_eq!(decoded.len(), audio.len());
+        assert!(decoded.iter().zip(&audio).all(|(a, b)| (a - b).abs() < 1e-3));
+
+        assert_eq!(decode_to_16khz(&path).unwrap().len(), 16000);
+    }
+
+    #[test]
+    fn test_rejects_non_wav() {
+        let dir = tempdir().unwrap();
+        let path = dir.path().join("fake.wav");
+        std::fs::write(&path, b"ID3\x03\x00 not a wav file at all").unwrap();
+        assert!(matches!(WavStream::open(&path), Err(AppError::Audio(_))));
+        assert!(matches!(AudioSource::open(&path), Err(AppError::Audio(_))));
+    }
+}
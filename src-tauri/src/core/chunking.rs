@@ -0,0 +1,109 @@
+//! 长音频切分
+//!
+//! 在静音处把长录音切成长度有上限的块，供多个推理状态并行解码。
+//! 每块不超过 whisper 的 30 秒窗口，块之间互不依赖（推理时 no_context）。
+
+use std::ops::Range;
+
+/// 单块最大时长：控制在 whisper 的一个 30 秒窗口内
+pub const MAX_CHUNK_SECS: f64 = 28.0;
+/// 单块最小时长：切点只在 [MIN, MAX] 区间内寻找
+pub const MIN_CHUNK_SECS: f64 = 10.0;
+// 计算切点能量的帧长
+const FRAME_MS: usize = 30;
+
+/// 按静音切分，返回各块的样本区间（连续、覆盖全部输入）
+///
+/// 剩余部分超过上限时，在 `[MIN_CHUNK_SECS, MAX_CHUNK_SECS]` 范围内选能量最低的帧作为切点，
+/// 同时保证切完后剩下的部分不短于 `MIN_CHUNK_SECS`。
+pub fn plan_chunks(samples: &[f32], sample_rate: u32) -> Vec<Range<usize>> {
+    let rate = sample_rate as f64;
+    let max_len = (MAX_CHUNK_SECS * rate) as usize;
+    let min_len = (MIN_CHUNK_SECS * rate) as usize;
+    let frame_len = (sample_rate as usize * FRAME_MS / 1000).max(1);
+
+    let mut chunks = Vec::new();
+    let mut pos = 0;
+    while samples.len() - pos > max_len {
+        let search_from = pos + min_len;
+        let search_to = (pos + max_len).min(samples.len() - min_len);
+        let cut = quietest_frame(samples, search_from, search_to, frame_len);
+        chunks.push(pos..cut);
+        pos = cut;
+    }
+    if pos < samples.len() {
+        chunks.push(pos..samples.len());
+    }
+    chunks
+}
+
+/// `[from, to)` 内能量最低的帧的中点
+fn quietest_frame(samples: &[f32], from: usize, to: usize, frame_len: usize) -> usize {
+    if to <= from + frame_len {
+        return from;
+    }
+
+    let mut best = from + frame_len / 2;
+    let mut best_energy = f32::MAX;
+    let mut start = from;
+    while start + frame_len <= to {
+        let energy: f32 = samples[start..start + frame_len].iter().map(|s| s * s).sum();
+        // 同等安静时取更靠后的切点，块更长、总块数更少
+        if energy <= best_energy {
+            best_energy = energy;
+            best = start + frame_len / 2;
+        }
+        start += frame_len;
+    }
+    best
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    const RATE: u32 = 16000;
+
+    fn tone(secs: f64) -> Vec<f32> {
+        let n = (secs * RATE as f64) as usize;
+        (0..n)
+            .map(|i| 0.3 * (2.0 * std::f32::consts::PI * 220.0 * i as f32 / RATE as f32).sin())
+            .collect()
+    }
+
+    #[test]
+    fn test_short_audio_is_single_chunk() {
+        let audio = tone(20.0);
+        assert_eq!(plan_chunks(&audio, RATE), vec![0..audio.len()]);
+        assert!(plan_chunks(&[], RATE).is_empty());
+    }
+
+    #[test]
+    fn test_chunks_cover_input_within_bounds() {
+        let audio = tone(200.0);
+        let chunks = plan_chunks(&audio, RATE);
+
+        assert_eq!(chunks.first().unwrap().start, 0);
+        assert_eq!(chunks.last().unwrap().end, audio.len());
+        for pair in chunks.windows(2) {
+            assert_eq!(pair[0].end, pair[1].start);
+        }
+        for chunk in &chunks {
+            let secs = chunk.len() as f64 / RATE as f64;
+            assert!(secs <= MAX_CHUNK_SECS + 0.01, "chunk {}s", secs);
+            assert!(secs >= MIN_CHUNK_SECS - 0.01, "chunk {}s", secs);
+        }
+    }
+
+    #[test]
+    fn test_cuts_at_silence() {
+        let mut audio = tone(15.0);
+        audio.extend(vec![0.0; RATE as usize]);
+        audio.extend(tone(25.0));
+
+        let chunks = plan_chunks(&audio, RATE);
+        assert_eq!(chunks.len(), 2);
+        let cut_secs = chunks[0].end as f64 / RATE as f64;
+        assert!(cut_secs > 15.0 && cut_secs < 16.0, "cut at {}s", cut_secs);
+    }
+}
@@ -0,0 +1,262 @@
+//! 本地解码护栏
+//!
+//! 噪声或近乎静音的输入容易让 whisper.cpp 陷入重复循环，白白消耗数秒 CPU。
+//! 这里给每次推理设定上限：按音频时长计算的 token 预算、片段级/片段内的重复检测、
+//! 以及 no-speech / 平均 log 概率阈值。前两者在新片段回调中检查，
+//! 触发后经 abort 回调中止推理并丢弃出问题的片段；后者过滤掉被判定为无语音的片段。
+
+use parking_lot::Mutex;
+use std::collections::VecDeque;
+use std::sync::atomic::{AtomicBool, Ordering};
+use whisper_rs::FullParams;
+
+// 片段内重复检测：最长检查的循环周期（词或字）
+const MAX_LOOP_PERIOD: usize = 8;
+// 片段内重复检测：循环部分至少覆盖这么多个词/字才算重复
+const MIN_LOOP_UNITS: usize = 12;
+
+#[derive(Debug, Clone)]
+pub struct DecodeGuardrails {
+    /// 每秒音频允许的 token 数（正常语速约 3-8 个）
+    pub max_tokens_per_sec: f32,
+    /// 短音频的最低 token 预算
+    pub min_token_budget: usize,
+    /// 单个片段的 token 上限（传给 whisper.cpp，0 表示不限）
+    pub max_tokens_per_segment: i32,
+    /// 连续多少个文本相同的片段视为重复循环
+    pub repeat_segments: usize,
+    /// 片段 no-speech 概率高于此值……
+    pub no_speech_thold: f32,
+    /// ……且平均 log 概率低于此值时，视为无语音并丢弃
+    pub logprob_thold: f32,
+    /// whisper.cpp 的熵阈值：低于该值的解码结果（高度重复）会触发温度回退
+    pub entropy_thold: f32,
+}
+
+impl Default for DecodeGuardrails {
+    fn default() -> Self {
+        Self {
+            max_tokens_per_sec: 12.0,
+            min_token_budget: 64,
+            max_tokens_per_segment: 128,
+            repeat_segments: 3,
+            no_speech_thold: 0.6,
+            logprob_thold: -1.0,
+            entropy_thold: 2.4,
+        }
+    }
+}
+
+impl DecodeGuardrails {
+    /// 把阈值写入 whisper.cpp 的推理参数
+    pub fn apply(&self, params: &mut FullParams) {
+        params.set_max_tokens(self.max_tokens_per_segment);
+        params.set_no_speech_thold(self.no_speech_thold);
+        params.set_logprob_thold(self.logprob_thold);
+        params.set_entropy_thold(self.entropy_thold);
+    }
+
+    pub fn token_budget(&self, audio_secs: f64) -> usize {
+        ((audio_secs * self.max_tokens_per_sec as f64).ceil() as usize).max(self.min_token_budget)
+    }
+
+    /// 按 Whisper 的规则判断片段是否为无语音：no-speech 概率高且解码不自信
+    pub fn is_no_speech(&self, no_speech_prob: f32, token_probs: &[f32]) -> bool {
+        if no_speech_prob <= self.no_speech_thold {
+            return false;
+        }
+        match mean_logprob(token_probs) {
+            Some(logprob) => logprob < self.logprob_thold,
+            None => true,
+        }
+    }
+}
+
+/// 触发的护栏
+#[derive(Debug, Clone, PartialEq)]
+pub enum GuardrailTrip {
+    /// 输出 token 数超过按音频时长计算的预算
+    TokenBudget { budget: usize },
+    /// 检测到重复循环
+    Repetition,
+    /// 丢弃了被判定为无语音的片段
+    NoSpeech { dropped: usize },
+}
+
+impl std::fmt::Display for GuardrailTrip {
+    fn fmt(&self, f: &mut std::fmt::Formatter<'_>) -> std::fmt::Result {
+        match self {
+            Self::TokenBudget { budget } => write!(f, "输出超过 token 预算（{}），已提前中止", budget),
+            Self::Repetition => write!(f, "检测到重复循环，已提前中止"),
+            Self::NoSpeech { dropped } => write!(f, "丢弃了 {} 个无语音片段", dropped),
+        }
+    }
+}
+
+/// 单次推理的护栏状态：在新片段回调中更新，abort 回调读取 `is_tripped`
+pub struct GuardrailMonitor {
+    budget: usize,
+    repeat_segments: usize,
+    tripped: AtomicBool,
+    state: Mutex<MonitorState>,
+}
+
+#[derive(Default)]
+struct MonitorState {
+    tokens: usize,
+    recent: VecDeque<String>,
+    // 触发时保留的片段数，以及触发原因
+    trip: Option<(usize, GuardrailTrip)>,
+}
+
+impl GuardrailMonitor {
+    pub fn new(guardrails: &DecodeGuardrails, audio_secs: f64) -> Self {
+        Self {
+            budget: guardrails.token_budget(audio_secs),
+            repeat_segments: guardrails.repeat_segments.max(2),
+            tripped: AtomicBool::new(false),
+            state: Mutex::new(MonitorState::default()),
+        }
+    }
+
+    pub fn is_tripped(&self) -> bool {
+        self.tripped.load(Ordering::SeqCst)
+    }
+
+    /// 新片段回调：`index` 为片段序号（从 0 开始）
+    pub fn on_segment(&self, index: usize, text: &str) {
+        let mut state = self.state.lock();
+        if state.trip.is_some() {
+            return;
+        }
+
+        let text = text.trim();
+        state.tokens += estimate_tokens(text);
+        state.recent.push_back(text.to_string());
+        if state.recent.len() > self.repeat_segments {
+            state.recent.pop_front();
+        }
+
+        let trip = if has_repetition_loop(text) {
+            // 片段内部已在打转：丢弃该片段
+            Some((index, GuardrailTrip::Repetition))
+        } else if !text.is_empty()
+            && state.recent.len() == self.repeat_segments
+            && state.recent.iter().all(|t| t == text)
+        {
+            // 连续相同的片段只保留第一个
+            Some((index + 1 - (self.repeat_segments - 1), GuardrailTrip::Repetition))
+        } else if state.tokens > self.budget {
+            Some((index, GuardrailTrip::TokenBudget { budget: self.budget }))
+        } else {
+            None
+        };
+
+        if let Some(trip) = trip {
+            state.trip = Some(trip);
+            self.tripped.store(true, Ordering::SeqCst);
+        }
+    }
+
+    /// 触发的护栏及应保留的片段数
+    pub fn outcome(&self) -> Option<(usize, GuardrailTrip)> {
+        self.state.lock().trip.clone()
+    }
+}
+
+/// 估算文本的 token 数：中日韩字符按 1 个计，其余约 4 个字符 1 个，另加 1 个时间戳 token
+///
+/// 新片段回调只提供文本，拿不到 token 序列；预算本身是粗略上限，估算足够。
+pub fn estimate_tokens(text: &str) -> usize {
+    let (cjk, other) = text.chars().fold((0usize, 0usize), |(cjk, other), c| {
+        if c as u32 >= 0x2E80 {
+            (cjk + 1, other)
+        } else {
+            (cjk, other + 1)
+        }
+    });
+    cjk + (other + 3) / 4 + 1
+}
+
+/// 片段末尾是否是同一个词组（以空格分词的文字按词，否则按字）的连续重复
+pub fn has_repetition_loop(text: &str) -> bool {
+    let units: Vec<&str> = if text.contains(char::is_whitespace) {
+        text.split_whitespace().collect()
+    } else {
+        text.char_indices()
+            .map(|(i, c)| &text[i..i + c.len_utf8()])
+            .collect()
+    };
+
+    (1..=MAX_LOOP_PERIOD).any(|period| {
+        if units.len() < period * 2 {
+            return false;
+        }
+        let tail = &units[units.len() - period..];
+        let repeats = units
+            .rchunks_exact(period)
+            .take_while(|chunk| *chunk == tail)
+            .count();
+        repeats >= 3 && repeats * period >= MIN_LOOP_UNITS
+    })
+}
+
+fn mean_logprob(probs: &[f32]) -> Option<f32> {
+    if probs.is_empty() {
+        return None;
+    }
+    Some(probs.iter().map(|&p| p.max(1e-6).ln()).sum::<f32>() / probs.len() as f32)
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_repetition_loop_detection() {
+        assert!(has_repetition_loop("Thank you. Thank you. Thank you. Thank you. Thank you. Thank you."));
+        assert!(has_repetition_loop("the the the the the the the the the the the the"));
+        assert!(has_repetition_loop("字幕由字幕由字幕由字幕由字幕由"));
+        assert!(!has_repetition_loop("I really really like this one"));
+        assert!(!has_repetition_loop("哈哈哈"));
+        assert!(!has_repetition_loop("今天我们来讨论一下下周的发布计划"));
+    }
+
+    #[test]
+    fn test_repeated_segments_keep_first() {
+        let monitor = GuardrailMonitor::new(&DecodeGuardrails::default(), 60.0);
+        monitor.on_segment(0, " Hello there.");
+        monitor.on_segment(1, " Subscribe!");
+        assert!(!monitor.is_tripped());
+        monitor.on_segment(2, " Subscribe!");
+        monitor.on_segment(3, " Subscribe!");
+        assert!(monitor.is_tripped());
+        assert_eq!(monitor.outcome(), Some((2, GuardrailTrip::Repetition)));
+    }
+
+    #[test]
+    fn test_token_budget_scales_with_duration() {
+        let guardrails = DecodeGuardrails::default();
+        assert_eq!(guardrails.token_budget(1.0), guardrails.min_token_budget);
+        assert_eq!(guardrails.token_budget(10.0), 120);
+
+        // 50 个互不相同的汉字，避免触发重复检测
+        let text = |from: u32| -> String { (from..from + 50).filter_map(char::from_u32).collect() };
+        let monitor = GuardrailMonitor::new(&guardrails, 1.0);
+        monitor.on_segment(0, &text(0x4E00));
+        assert!(!monitor.is_tripped());
+        monitor.on_segment(1, &text(0x4E80));
+        assert_eq!(
+            monitor.outcome(),
+            Some((1, GuardrailTrip::TokenBudget { budget: guardrails.min_token_budget }))
+        );
+    }
+
+    #[test]
+    fn test_no_speech_needs_low_logprob() {
+        let guardrails = DecodeGuardrails::default();
+        assert!(guardrails.is_no_speech(0.9, &[0.1, 0.2]));
+        assert!(!guardrails.is_no_speech(0.9, &[0.9, 0.95]));
+        assert!(!guardrails.is_no_speech(0.1, &[0.1, 0.2]));
+    }
+}
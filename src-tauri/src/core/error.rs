@@ -35,6 +35,9 @@ pub enum AppError {
     #[error("Serialization error: {0}")]
     Serialization(#[from] serde_json::Error),
 
+    #[error("已取消")]
+    Cancelled,
+
     #[error("Permission denied: {0}")]
     Permission(String),
 
@@ -0,0 +1,155 @@
+//! 对冲转录
+//!
+//! 在线服务偶尔很慢或不可用，用户只能干等到超时。对冲模式先只发主请求；
+//! 超过延迟预算仍无结果（或主请求提前失败）时再启动备用解码（通常是已下载的本地小模型），
+//! 两者谁先成功用谁，另一个随 future 一起被丢弃。
+
+use crate::core::error::{AppError, Result};
+use crate::core::scheduler::CancelToken;
+use std::future::Future;
+use std::time::{Duration, Instant};
+
+/// 胜出的一方
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+pub enum HedgeWinner {
+    Primary,
+    Secondary,
+}
+
+/// 对冲结果：胜出方、结果、从开始到拿到结果的耗时
+pub struct Hedged<T> {
+    pub winner: HedgeWinner,
+    pub value: T,
+    pub latency: Duration,
+}
+
+/// 先运行 `primary`；`budget` 内没有成功结果时调用 `start_secondary` 并行运行，取先成功的一个
+///
+/// 两者都失败时返回主请求的错误；`AppError::Cancelled` 不触发备用，直接返回。
+pub async fn race<T, P, S, F>(primary: P, budget: Duration, start_secondary: S) -> Result<Hedged<T>>
+where
+    P: Future<Output = Result<T>>,
+    S: FnOnce() -> F,
+    F: Future<Output = Result<T>>,
+{
+    let started = Instant::now();
+    let done = |winner, value| Hedged {
+        winner,
+        value,
+        latency: started.elapsed(),
+    };
+
+    tokio::pin!(primary);
+    let primary_error = tokio::select! {
+        result = &mut primary => match result {
+            Ok(value) => return Ok(done(HedgeWinner::Primary, value)),
+            Err(AppError::Cancelled) => return Err(AppError::Cancelled),
+            Err(e) => Some(e),
+        },
+        _ = tokio::time::sleep(budget) => None,
+    };
+
+    match &primary_error {
+        Some(e) => println!("⚠️ 对冲: 主请求失败（{}），启动备用", e),
+        None => println!("⏱️ 对冲: 主请求 {}ms 内未返回，同时启动备用", budget.as_millis()),
+    }
+    let secondary = start_secondary();
+    tokio::pin!(secondary);
+
+    // 主请求已失败：只等备用
+    if let Some(primary_error) = primary_error {
+        return match secondary.await {
+            Ok(value) => Ok(done(HedgeWinner::Secondary, value)),
+            Err(AppError::Cancelled) => Err(AppError::Cancelled),
+            Err(_) => Err(primary_error),
+        };
+    }
+
+    tokio::select! {
+        result = &mut primary => match result {
+            Ok(value) => Ok(done(HedgeWinner::Primary, value)),
+            Err(AppError::Cancelled) => Err(AppError::Cancelled),
+            Err(e) => secondary.await.map(|value| done(HedgeWinner::Secondary, value)).map_err(|_| e),
+        },
+        result = &mut secondary => match result {
+            Ok(value) => Ok(done(HedgeWinner::Secondary, value)),
+            Err(AppError::Cancelled) => Err(AppError::Cancelled),
+            Err(_) => primary.await.map(|value| done(HedgeWinner::Primary, value)),
+        },
+    }
+}
+
+/// drop 时触发取消：落败的本地推理在阻塞线程中运行，丢弃 future 不会让它停下
+pub struct CancelOnDrop(pub CancelToken);
+
+impl Drop for CancelOnDrop {
+    fn drop(&mut self) {
+        self.0.cancel();
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use std::sync::atomic::{AtomicBool, Ordering};
+    use std::sync::Arc;
+
+    async fn after(ms: u64, result: Result<&'static str>) -> Result<&'static str> {
+        tokio::time::sleep(Duration::from_millis(ms)).await;
+        result
+    }
+
+    #[tokio::test]
+    async fn test_fast_primary_never_starts_secondary() {
+        let started = Arc::new(AtomicBool::new(false));
+        let flag = started.clone();
+        let hedged = race(after(10, Ok("primary")), Duration::from_millis(200), move || {
+            flag.store(true, Ordering::SeqCst);
+            after(0, Ok("secondary"))
+        })
+        .await
+        .unwrap();
+
+        assert_eq!(hedged.winner, HedgeWinner::Primary);
+        assert_eq!(hedged.value, "primary");
+        assert!(!started.load(Ordering::SeqCst));
+    }
+
+    #[tokio::test]
+    async fn test_slow_primary_loses_to_secondary() {
+        let hedged = race(after(2000, Ok("primary")), Duration::from_millis(50), || {
+            after(50, Ok("secondary"))
+        })
+        .await
+        .unwrap();
+
+        assert_eq!(hedged.winner, HedgeWinner::Secondary);
+        assert!(hedged.latency < Duration::from_millis(1000), "{:?}", hedged.latency);
+    }
+
+    #[tokio::test]
+    async fn test_primary_error_starts_secondary_immediately() {
+        let hedged = race(
+            after(10, Err(AppError::Transcription("503".into()))),
+            Duration::from_secs(5),
+            || after(10, Ok("secondary")),
+        )
+        .await
+        .unwrap();
+
+        assert_eq!(hedged.winner, HedgeWinner::Secondary);
+        assert!(hedged.latency < Duration::from_secs(1), "{:?}", hedged.latency);
+    }
+
+    #[tokio::test]
+    async fn test_both_failing_returns_primary_error() {
+        let result = race(
+            after(100, Err(AppError::Transcription("primary".into()))),
+            Duration::from_millis(10),
+            || after(10, Err(AppError::Transcription("secondary".into()))),
+        )
+        .await;
+
+        assert!(matches!(result, Err(AppError::Transcription(msg)) if msg == "primary"));
+    }
+}
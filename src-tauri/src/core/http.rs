@@ -0,0 +1,93 @@
+//! 共享 HTTP 客户端
+//!
+//! 整个应用共用一个长期存活的 `reqwest::Client`：连接池保留空闲连接（keep-alive），
+//! TLS 通过 ALPN 协商 HTTP/2，同一服务的多次请求复用同一条连接，
+//! 每次听写不再重新走 DNS、TCP 和 TLS 握手。
+
+use crate::core::error::Result;
+use std::time::Duration;
+
+// 空闲连接在池中保留的时长；两次听写间隔通常在这之内
+const POOL_IDLE_TIMEOUT: Duration = Duration::from_secs(90);
+const TCP_KEEPALIVE: Duration = Duration::from_secs(60);
+const CONNECT_TIMEOUT: Duration = Duration::from_secs(10);
+// 预热请求只为建立连接，不等待太久
+const PREWARM_TIMEOUT: Duration = Duration::from_secs(5);
+
+pub fn build_client() -> Result<reqwest::Client> {
+    Ok(reqwest::Client::builder()
+        .pool_idle_timeout(POOL_IDLE_TIMEOUT)
+        .pool_max_idle_per_host(4)
+        .tcp_keepalive(TCP_KEEPALIVE)
+        .tcp_nodelay(true)
+        .connect_timeout(CONNECT_TIMEOUT)
+        .http2_adaptive_window(true)
+        .http2_keep_alive_interval(Duration::from_secs(30))
+        .http2_keep_alive_while_idle(true)
+        .build()?)
+}
+
+/// 向 `origin` 发一个 HEAD 请求，让连接池提前完成 DNS/TCP/TLS 握手
+///
+/// 只关心连接是否建立，状态码和错误都忽略。
+pub async fn prewarm(client: &reqwest::Client, origin: &str) {
+    let started = std::time::Instant::now();
+    match client.head(origin).timeout(PREWARM_TIMEOUT).send().await {
+        Ok(response) => println!(
+            "🔥 连接预热完成: {} ({:?}, {:.0}ms)",
+            origin,
+            response.version(),
+            started.elapsed().as_secs_f64() * 1000.0
+        ),
+        Err(e) => eprintln!("⚠️ 连接预热失败: {}: {}", origin, e),
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use std::io::{Read, Write};
+    use std::net::TcpListener;
+    use std::sync::atomic::{AtomicUsize, Ordering};
+    use std::sync::Arc;
+
+    /// 预热后的后续请求复用同一条 TCP 连接
+    #[tokio::test]
+    async fn test_prewarmed_connection_is_reused() {
+        let listener = TcpListener::bind("127.0.0.1:0").unwrap();
+        let addr = listener.local_addr().unwrap();
+        let accepted = Arc::new(AtomicUsize::new(0));
+        let counter = accepted.clone();
+        std::thread::spawn(move || {
+            for stream in listener.incoming() {
+                let mut stream = match stream {
+                    Ok(s) => s,
+                    Err(_) => break,
+                };
+                counter.fetch_add(1, Ordering::SeqCst);
+                std::thread::spawn(move || {
+                    let mut buf = [0u8; 4096];
+                    // 同一连接上逐个应答请求（请求都没有 body）
+                    while let Ok(n) = stream.read(&mut buf) {
+                        if n == 0 {
+                            break;
+                        }
+                        let head = b"HTTP/1.1 200 OK\r\ncontent-length: 2\r\n\r\n";
+                        let _ = stream.write_all(head);
+                        // HEAD 的响应不带 body
+                        if !buf[..n].starts_with(b"HEAD") {
+                            let _ = stream.write_all(b"ok");
+                        }
+                    }
+                });
+            }
+        });
+
+        let client = build_client().unwrap();
+        let origin = format!("http://{}", addr);
+        prewarm(&client, &origin).await;
+        let body = client.get(&origin).send().await.unwrap().text().await.unwrap();
+        assert_eq!(body, "ok");
+        assert_eq!(accepted.load(Ordering::SeqCst), 1);
+    }
+}
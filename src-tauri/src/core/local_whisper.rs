@@ -1,109 +1,121 @@
-use crate::core::{error::Result, types::*};
+use crate::core::decode_guard::{DecodeGuardrails, GuardrailMonitor, GuardrailTrip};
+use crate::core::recording_store::RecordingReader;
+use crate::core::scheduler::JobContext;
+use crate::core::{error::Result, model_registry, types::*};
+use parking_lot::Mutex;
+use std::collections::{HashMap, HashSet};
+use std::ops::Range;
 use std::path::{Path, PathBuf};
-use whisper_rs::{FullParams, SamplingStrategy, WhisperContext, WhisperContextParameters};
-
-/// 根据 model id 获取下载 URL 和文件名
-fn get_model_info(model_id: &str) -> Option<(&'static str, &'static str, u64)> {
-    // (file_name, url_suffix, approx_size_bytes)
-    // 所有模型来自 https://huggingface.co/ggerganov/whisper.cpp
-    match model_id {
-        "whisper-tiny" => Some(("ggml-tiny.bin", "ggml-tiny.bin", 75_000_000)),
-        "whisper-base" => Some(("ggml-base.bin", "ggml-base.bin", 148_000_000)),
-        "whisper-small" => Some(("ggml-small.bin", "ggml-small.bin", 488_000_000)),
-        "whisper-medium" => Some(("ggml-medium.bin", "ggml-medium.bin", 1_533_000_000)),
-        "whisper-large-v3" => Some(("ggml-large-v3.bin", "ggml-large-v3.bin", 3_094_000_000)),
-        "whisper-large-v3-turbo" => Some(("ggml-large-v3-turbo.bin", "ggml-large-v3-turbo.bin", 1_620_000_000)),
-        _ => None,
-    }
-}
+use std::sync::OnceLock;
+use whisper_rs::{FullParams, SamplingStrategy};
+
+// 长录音每次从磁盘读入的窗口：5 分钟
+const RECORDING_WINDOW_SAMPLES: usize = 16000 * 60 * 5;
+
+// 每个模型目录中已下载的模型 id；首次查询时扫描一次目录，之后由下载/删除维护
+static DOWNLOADED: OnceLock<Mutex<HashMap<PathBuf, HashSet<&'static str>>>> = OnceLock::new();
 
 fn get_download_url(file_name: &str) -> String {
     format!("https://huggingface.co/ggerganov/whisper.cpp/resolve/main/{}", file_name)
 }
 
-/// 获取模型存储目录
+/// 获取模型存储目录（不存在时创建）
 pub fn get_models_dir(app_data_dir: &Path) -> PathBuf {
-    let dir = app_data_dir.join("models");
+    let dir = models_dir(app_data_dir);
     let _ = std::fs::create_dir_all(&dir);
     dir
 }
 
-/// 检查模型是否已下载
+fn models_dir(app_data_dir: &Path) -> PathBuf {
+    app_data_dir.join("models")
+}
+
+/// 模型文件的完整路径（未知模型返回 None）
+pub fn model_path(app_data_dir: &Path, model_id: &str) -> Option<PathBuf> {
+    model_registry::find(model_id).map(|spec| models_dir(app_data_dir).join(spec.file_name))
+}
+
+/// 检查模型是否已下载（读缓存，不访问文件系统）
 pub fn is_model_downloaded(app_data_dir: &Path, model_id: &str) -> bool {
-    if let Some((file_name, _, _)) = get_model_info(model_id) {
-        get_models_dir(app_data_dir).join(file_name).exists()
-    } else {
-        false
+    match model_registry::find(model_id) {
+        Some(spec) => with_downloaded(app_data_dir, |ids| ids.contains(spec.id)),
+        None => false,
     }
 }
 
 /// 获取已下载的模型列表
 pub fn get_downloaded_models(app_data_dir: &Path) -> Vec<String> {
-    let all_models = [
-        "whisper-tiny", "whisper-base", "whisper-small",
-        "whisper-medium", "whisper-large-v3", "whisper-large-v3-turbo",
-    ];
-    all_models
+    with_downloaded(app_data_dir, |ids| {
+        model_registry::all()
+            .iter()
+            .filter(|spec| ids.contains(spec.id))
+            .map(|spec| spec.id.to_string())
+            .collect()
+    })
+}
+
+fn with_downloaded<T>(app_data_dir: &Path, f: impl FnOnce(&mut HashSet<&'static str>) -> T) -> T {
+    let dir = models_dir(app_data_dir);
+    let mut cache = DOWNLOADED.get_or_init(|| Mutex::new(HashMap::new())).lock();
+    let ids = cache.entry(dir).or_insert_with_key(|dir| scan_models_dir(dir));
+    f(ids)
+}
+
+/// 扫描一次模型目录，找出注册表中已存在的模型文件
+fn scan_models_dir(dir: &Path) -> HashSet<&'static str> {
+    let files: HashSet<std::ffi::OsString> = std::fs::read_dir(dir)
+        .map(|entries| entries.filter_map(|e| e.ok()).map(|e| e.file_name()).collect())
+        .unwrap_or_default();
+    model_registry::all()
         .iter()
-        .filter(|id| is_model_downloaded(app_data_dir, id))
-        .map(|s| s.to_string())
+        .filter(|spec| files.contains(std::ffi::OsStr::new(spec.file_name)))
+        .map(|spec| spec.id)
         .collect()
 }
 
 /// 下载模型，通过回调报告进度 (0.0 - 1.0)
+///
+/// `client` 为应用共享的 HTTP 客户端（`AppState::http`），复用其连接池和 TLS 会话。
 pub async fn download_model<F>(
+    client: &reqwest::Client,
     app_data_dir: &Path,
     model_id: &str,
     on_progress: F,
 ) -> Result<PathBuf>
 where
-    F: Fn(f64) + Send + 'static,
+    F: Fn(f64) + Send + Sync + 'static,
 {
-    let (file_name, _, size_bytes) = get_model_info(model_id).ok_or_else(|| {
+    let spec = model_registry::find(model_id).ok_or_else(|| {
         crate::core::error::AppError::Other(format!("未知模型: {}", model_id))
     })?;
+    let size_bytes = spec.size_bytes;
 
     let models_dir = get_models_dir(app_data_dir);
-    let model_path = models_dir.join(file_name);
+    let model_path = models_dir.join(spec.file_name);
 
     // 已存在则跳过
     if model_path.exists() {
+        with_downloaded(app_data_dir, |ids| ids.insert(spec.id));
         on_progress(1.0);
         return Ok(model_path);
     }
 
-    let temp_path = models_dir.join(format!("{}.downloading", file_name));
-    let url = get_download_url(file_name);
-
-    let client = reqwest::Client::new();
-    let response = client
-        .get(&url)
-        .send()
-        .await
-        .map_err(crate::core::error::AppError::Network)?;
-
-    let total_size = response.content_length().unwrap_or(size_bytes);
-    let mut downloaded: u64 = 0;
-
-    let mut file = tokio::fs::File::create(&temp_path).await?;
-    let mut stream = response.bytes_stream();
-
-    use tokio::io::AsyncWriteExt;
-    use futures_util::StreamExt;
-
-    while let Some(chunk) = stream.next().await {
-        let chunk = chunk.map_err(crate::core::error::AppError::Network)?;
-        file.write_all(&chunk).await?;
-        downloaded += chunk.len() as u64;
-        on_progress(downloaded as f64 / total_size as f64);
-    }
-
-    file.flush().await?;
-    drop(file);
-
-    // 重命名为最终文件名
-    tokio::fs::rename(&temp_path, &model_path).await?;
-    on_progress(1.0);
+    let url = get_download_url(spec.file_name);
+
+    // 断点续传 + 分段并行 + sha256 校验；进度按固定频率回调，避免刷爆 IPC
+    crate::core::model_download::download_verified(
+        client,
+        &url,
+        &model_path,
+        spec.sha256,
+        &crate::core::model_download::DownloadOptions::default(),
+        |downloaded, total| {
+            let total = if total > 0 { total } else { size_bytes };
+            on_progress((downloaded as f64 / total as f64).min(1.0));
+        },
+    )
+    .await?;
+    with_downloaded(app_data_dir, |ids| ids.insert(spec.id));
 
     println!("✅ 模型下载完成: {} -> {:?}", model_id, model_path);
     Ok(model_path)
@@ -111,11 +123,13 @@ where
 
 /// 删除已下载的模型
 pub async fn delete_model(app_data_dir: &Path, model_id: &str) -> Result<()> {
-    let (file_name, _, _) = get_model_info(model_id).ok_or_else(|| {
+    let spec = model_registry::find(model_id).ok_or_else(|| {
         crate::core::error::AppError::Other(format!("未知模型: {}", model_id))
     })?;
 
-    let model_path = get_models_dir(app_data_dir).join(file_name);
+    let model_path = models_dir(app_data_dir).join(spec.file_name);
+    crate::core::model_cache::global().unload(&model_path);
+    with_downloaded(app_data_dir, |ids| ids.remove(spec.id));
     if model_path.exists() {
         tokio::fs::remove_file(&model_path).await?;
     }
@@ -127,6 +141,16 @@ pub fn transcribe_local(
     model_path: &Path,
     audio_samples: &[f32],
     language: Option<&str>,
+) -> Result<TranscriptionResult> {
+    transcribe_local_with(model_path, audio_samples, language, &JobContext::default())
+}
+
+/// 本地 Whisper 转录，按任务优先级取推理状态，取消令牌触发时中止推理
+pub fn transcribe_local_with(
+    model_path: &Path,
+    audio_samples: &[f32],
+    language: Option<&str>,
+    job: &JobContext,
 ) -> Result<TranscriptionResult> {
     // 音频长度验证：防止空或极短音频导致 whisper.cpp 崩溃
     // 最小长度 16000 采样点 = 1 秒（采样率 16kHz）
@@ -135,6 +159,7 @@ pub fn transcribe_local(
             text: String::new(),
             language: language.map(String::from),
             duration: Some(0.0),
+            ..Default::default()
         });
     }
 
@@ -145,16 +170,228 @@ pub fn transcribe_local(
             text: String::new(),
             language: language.map(String::from),
             duration: Some(duration),
+            ..Default::default()
         });
     }
 
-    let ctx = WhisperContext::new_with_params(
-        model_path.to_str().unwrap_or(""),
-        WhisperContextParameters::default(),
-    )
-    .map_err(|e| {
-        crate::core::error::AppError::Transcription(format!("加载模型失败: {}", e))
-    })?;
+    let started = std::time::Instant::now();
+    let output = run_whisper(model_path, audio_samples, language, job)?;
+    Ok(build_result(output.segments, output.guardrails, audio_samples.len(), language, started))
+}
+
+/// 长音频模式：在静音处切成不超过 30 秒的块，借用模型状态池中的多个状态并行解码
+///
+/// 各块结果按原始顺序合并，片段时间戳换算为相对整段音频的位置。
+pub fn transcribe_local_chunked(
+    model_path: &Path,
+    audio_samples: &[f32],
+    language: Option<&str>,
+    job: &JobContext,
+) -> Result<TranscriptionResult> {
+    let started = std::time::Instant::now();
+    let chunks = crate::core::chunking::plan_chunks(audio_samples, 16000);
+    if chunks.len() <= 1 {
+        return transcribe_local_with(model_path, audio_samples, language, job);
+    }
+
+    let (segments, guardrails) = decode_chunks(model_path, audio_samples, &chunks, language, job)?;
+    Ok(build_result(segments, guardrails, audio_samples.len(), language, started))
+}
+
+/// 已落盘的长录音：每次从段文件读入一个窗口，窗口内按静音切块并行解码
+///
+/// 窗口的最后一块留到下一个窗口再解码，切点始终落在静音处；内存中最多只有一个窗口，
+/// 与录音总时长无关。`from` 之前的部分（流式识别已确认）跳过，时间戳相对 `from`。
+pub fn transcribe_local_recording(
+    model_path: &Path,
+    recording: &RecordingReader,
+    from: usize,
+    language: Option<&str>,
+    job: &JobContext,
+) -> Result<TranscriptionResult> {
+    let started = std::time::Instant::now();
+    let total = recording.len();
+    let mut segments = Vec::new();
+    let mut guardrails = Vec::new();
+
+    let mut pos = from.min(total);
+    while pos < total {
+        if job.cancel.is_cancelled() {
+            return Err(crate::core::error::AppError::Cancelled);
+        }
+        let end = (pos + RECORDING_WINDOW_SAMPLES).min(total);
+        let window = recording.read_range(pos..end)?;
+        let mut chunks = crate::core::chunking::plan_chunks(&window, 16000);
+        if end < total && chunks.len() > 1 {
+            chunks.pop();
+        }
+        let consumed = chunks.last().map_or(window.len(), |c| c.end);
+        // 录音末尾不足 1 秒的零头不送入推理，避免幻听
+        chunks.retain(|c| c.len() >= 16000);
+
+        let (window_segments, window_guardrails) = decode_chunks(model_path, &window, &chunks, language, job)?;
+        let offset = (pos - from) as f64 / 16000.0;
+        guardrails.extend(window_guardrails);
+        segments.extend(window_segments.into_iter().map(|s| TranscriptionSegment {
+            start: s.start + offset,
+            end: s.end + offset,
+            ..s
+        }));
+        pos += consumed;
+    }
+
+    Ok(build_result(segments, guardrails, total - from.min(total), language, started))
+}
+
+/// 并行解码 `audio_samples` 中的各块，片段时间戳相对 `audio_samples` 起点
+fn decode_chunks(
+    model_path: &Path,
+    audio_samples: &[f32],
+    chunks: &[Range<usize>],
+    language: Option<&str>,
+    job: &JobContext,
+) -> Result<(Vec<TranscriptionSegment>, Vec<GuardrailTrip>)> {
+    if chunks.is_empty() {
+        return Ok((Vec::new(), Vec::new()));
+    }
+    let workers = crate::core::model_cache::global()
+        .get_or_load(model_path)?
+        .capacity()
+        .min(chunks.len());
+    println!(
+        "✂️ 长音频切分为 {} 块，{} 路并行解码",
+        chunks.len(),
+        workers
+    );
+
+    let next = std::sync::atomic::AtomicUsize::new(0);
+    let results: Vec<parking_lot::Mutex<Option<Result<WhisperOutput>>>> =
+        chunks.iter().map(|_| parking_lot::Mutex::new(None)).collect();
+
+    std::thread::scope(|scope| {
+        for _ in 0..workers {
+            scope.spawn(|| loop {
+                let i = next.fetch_add(1, std::sync::atomic::Ordering::Relaxed);
+                let range = match chunks.get(i) {
+                    Some(range) => range,
+                    None => break,
+                };
+                if job.cancel.is_cancelled() {
+                    *results[i].lock() = Some(Err(crate::core::error::AppError::Cancelled));
+                    continue;
+                }
+                let result = run_whisper(model_path, &audio_samples[range.clone()], language, job);
+                *results[i].lock() = Some(result);
+            });
+        }
+    });
+
+    let mut segments = Vec::new();
+    let mut guardrails = Vec::new();
+    for (range, slot) in chunks.iter().zip(results) {
+        let offset = range.start as f64 / 16000.0;
+        let output = slot.into_inner().unwrap_or_else(|| {
+            Err(crate::core::error::AppError::Transcription("分块解码未完成".into()))
+        })?;
+        guardrails.extend(output.guardrails);
+        segments.extend(output.segments.into_iter().map(|s| TranscriptionSegment {
+            start: s.start + offset,
+            end: s.end + offset,
+            ..s
+        }));
+    }
+    Ok((segments, guardrails))
+}
+
+fn build_result(
+    segments: Vec<TranscriptionSegment>,
+    guardrails: Vec<GuardrailTrip>,
+    sample_count: usize,
+    language: Option<&str>,
+    started: std::time::Instant,
+) -> TranscriptionResult {
+    let text: String = segments.iter().map(|s| s.text.as_str()).collect();
+    let confidence = utterance_confidence(&segments);
+    let duration = sample_count as f64 / 16000.0;
+    let real_time_factor = started.elapsed().as_secs_f64() / duration.max(f64::EPSILON);
+    println!(
+        "📊 本地推理完成: {:.1}s 音频, RTF {:.3}（{:.1}× 实时）",
+        duration,
+        real_time_factor,
+        1.0 / real_time_factor.max(f64::EPSILON)
+    );
+
+    TranscriptionResult {
+        text: text.trim().to_string(),
+        language: language.map(String::from),
+        duration: Some(duration),
+        segments,
+        real_time_factor: Some(real_time_factor),
+        confidence,
+        guardrails: guardrails.iter().map(|trip| trip.to_string()).collect(),
+        ..Default::default()
+    }
+}
+
+/// token 概率的几何平均；没有文本 token 时返回 None
+fn token_confidence(probs: &[f32]) -> Option<f32> {
+    if probs.is_empty() {
+        return None;
+    }
+    let mean_log: f64 = probs
+        .iter()
+        .map(|&p| (p.max(1e-6) as f64).ln())
+        .sum::<f64>()
+        / probs.len() as f64;
+    Some(mean_log.exp() as f32)
+}
+
+/// 整段置信度：各片段置信度按片段时长加权平均
+fn utterance_confidence(segments: &[TranscriptionSegment]) -> Option<f32> {
+    if segments.is_empty() {
+        return None;
+    }
+    let (weighted, total) = segments.iter().fold((0.0f64, 0.0f64), |(w, t), s| {
+        // 时间戳缺失（0 长度）的片段按 10ms 计，避免整体权重为 0
+        let weight = (s.end - s.start).max(0.01);
+        (w + s.confidence as f64 * weight, t + weight)
+    });
+    Some((weighted / total) as f32)
+}
+
+/// 本地 Whisper 转录，返回带时间戳的片段（流式识别按片段确认前缀）
+///
+/// 不足 1 秒的音频直接返回空列表。`job` 被取消时推理在下一次 abort 检查处中止。
+pub fn transcribe_local_segments(
+    model_path: &Path,
+    audio_samples: &[f32],
+    language: Option<&str>,
+    job: &JobContext,
+) -> Result<Vec<TranscriptionSegment>> {
+    if audio_samples.len() < 16000 {
+        return Ok(Vec::new());
+    }
+    run_whisper(model_path, audio_samples, language, job).map(|o| o.segments)
+}
+
+/// 一次 whisper 推理的输出：保留下来的片段，以及触发过的护栏
+struct WhisperOutput {
+    segments: Vec<TranscriptionSegment>,
+    guardrails: Vec<GuardrailTrip>,
+}
+
+fn run_whisper(
+    model_path: &Path,
+    audio_samples: &[f32],
+    language: Option<&str>,
+    job: &JobContext,
+) -> Result<WhisperOutput> {
+    // 复用进程级缓存中的模型，并从其状态池借出一个推理状态（池满时排队等待）
+    let pool = crate::core::model_cache::global().get_or_load(model_path)?;
+    let mut state = pool.acquire_with(job.priority, &job.cancel)?;
+    if job.cancel.is_cancelled() {
+        return Err(crate::core::error::AppError::Cancelled);
+    }
 
     let mut params = FullParams::new(SamplingStrategy::Greedy { best_of: 1 });
 
@@ -171,34 +408,76 @@ pub fn transcribe_local(
     params.set_translate(false);
     params.set_no_context(true);
     params.set_single_segment(false);
+    // 线程数按池的形状分配，多个并发推理合计不超过 CPU 核数
+    params.set_n_threads(state.threads() as i32);
+
+    // 解码护栏：token 预算和重复检测在新片段回调中更新，触发后经 abort 回调中止
+    let guard_config = DecodeGuardrails::default();
+    guard_config.apply(&mut params);
+    let monitor = std::sync::Arc::new(GuardrailMonitor::new(
+        &guard_config,
+        audio_samples.len() as f64 / 16000.0,
+    ));
+    let segment_monitor = monitor.clone();
+    params.set_segment_callback_safe(move |data: whisper_rs::SegmentCallbackData| {
+        segment_monitor.on_segment(data.segment.max(0) as usize, &data.text);
+    });
+
+    // whisper.cpp 在每次 encoder/decoder 步骤之间检查，取消后很快释放 CPU
+    let cancel = job.cancel.clone();
+    let abort_monitor = monitor.clone();
+    params.set_abort_callback_safe(move || cancel.is_cancelled() || abort_monitor.is_tripped());
+
+    if let Err(e) = state.full(params, audio_samples) {
+        if job.cancel.is_cancelled() {
+            return Err(crate::core::error::AppError::Cancelled);
+        }
+        // 护栏中止不算失败：保留触发前已完成的片段
+        if !monitor.is_tripped() {
+            return Err(crate::core::error::AppError::Transcription(format!("推理失败: {}", e)));
+        }
+    }
 
-    let mut state = ctx.create_state().map_err(|e| {
-        crate::core::error::AppError::Transcription(format!("创建推理状态失败: {}", e))
-    })?;
-
-    state.full(params, audio_samples).map_err(|e| {
-        crate::core::error::AppError::Transcription(format!("推理失败: {}", e))
-    })?;
-
-    let num_segments = state.full_n_segments();
+    let mut guardrails = Vec::new();
+    let mut num_segments = state.full_n_segments();
+    if let Some((keep, trip)) = monitor.outcome() {
+        println!("🛑 解码护栏触发: {}", trip);
+        num_segments = num_segments.min(keep as i32);
+        guardrails.push(trip);
+    }
 
-    let mut text = String::new();
+    let mut segments = Vec::new();
+    let mut no_speech_dropped = 0;
     for i in 0..num_segments {
         if let Some(segment) = state.get_segment(i) {
             if let Ok(s) = segment.to_str_lossy() {
-                text.push_str(&s);
+                // 只统计文本 token，跳过 [_BEG_]、[_TT_150] 等特殊/时间戳 token
+                let probs: Vec<f32> = (0..segment.n_tokens())
+                    .filter_map(|j| segment.get_token(j))
+                    .filter(|t| t.to_str_lossy().map_or(false, |text| !text.starts_with("[_")))
+                    .map(|t| t.token_probability())
+                    .collect();
+                if guard_config.is_no_speech(segment.no_speech_probability(), &probs) {
+                    no_speech_dropped += 1;
+                    continue;
+                }
+                // whisper.cpp 的时间戳单位是 10ms
+                segments.push(TranscriptionSegment {
+                    text: s.to_string(),
+                    start: segment.start_timestamp() as f64 / 100.0,
+                    end: segment.end_timestamp() as f64 / 100.0,
+                    confidence: token_confidence(&probs).unwrap_or(0.0),
+                });
             }
         }
     }
+    if no_speech_dropped > 0 {
+        let trip = GuardrailTrip::NoSpeech { dropped: no_speech_dropped };
+        println!("🛑 解码护栏触发: {}", trip);
+        guardrails.push(trip);
+    }
 
-    let text = text.trim().to_string();
-    let duration = audio_samples.len() as f64 / 16000.0;
-
-    Ok(TranscriptionResult {
-        text,
-        language: language.map(String::from),
-        duration: Some(duration),
-    })
+    Ok(WhisperOutput { segments, guardrails })
 }
 
 #[cfg(test)]
@@ -269,4 +548,46 @@ mod tests {
         let duration = two_seconds.len() as f64 / 16000.0;
         assert_eq!(duration, 2.0, "32000 samples should equal 2 seconds");
     }
+
+    #[tokio::test]
+    async fn test_downloaded_status_is_cached_and_invalidated() {
+        let dir = tempfile::tempdir().unwrap();
+        let app_data_dir = dir.path();
+        assert!(!is_model_downloaded(app_data_dir, "whisper-tiny-q5_1"));
+
+        // 文件已存在时 download_model 直接返回并刷新缓存
+        let path = model_path(app_data_dir, "whisper-tiny-q5_1").unwrap();
+        std::fs::create_dir_all(path.parent().unwrap()).unwrap();
+        std::fs::write(&path, b"fake").unwrap();
+        download_model(&reqwest::Client::new(), app_data_dir, "whisper-tiny-q5_1", |_| {}).await.unwrap();
+        assert!(is_model_downloaded(app_data_dir, "whisper-tiny-q5_1"));
+        assert_eq!(get_downloaded_models(app_data_dir), vec!["whisper-tiny-q5_1".to_string()]);
+
+        delete_model(app_data_dir, "whisper-tiny-q5_1").await.unwrap();
+        assert!(!is_model_downloaded(app_data_dir, "whisper-tiny-q5_1"));
+        assert!(!path.exists());
+    }
+
+    #[test]
+    fn test_token_confidence_is_geometric_mean() {
+        assert_eq!(token_confidence(&[]), None);
+        let c = token_confidence(&[0.9, 0.9, 0.9]).unwrap();
+        assert!((c - 0.9).abs() < 1e-4);
+        // 单个低概率 token 明显拉低置信度
+        let c = token_confidence(&[0.99, 0.99, 0.05]).unwrap();
+        assert!(c < 0.4, "confidence {}", c);
+    }
+
+    #[test]
+    fn test_utterance_confidence_weights_by_duration() {
+        let segment = |start: f64, end: f64, confidence: f32| TranscriptionSegment {
+            start,
+            end,
+            confidence,
+            ..Default::default()
+        };
+        assert_eq!(utterance_confidence(&[]), None);
+        let c = utterance_confidence(&[segment(0.0, 9.0, 0.9), segment(9.0, 10.0, 0.4)]).unwrap();
+        assert!((c - 0.85).abs() < 1e-4, "confidence {}", c);
+    }
 }
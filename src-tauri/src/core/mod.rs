@@ -1,10 +1,25 @@
 pub mod audio;
+pub mod audio_decode;
+pub mod chunking;
+pub mod decode_guard;
 pub mod error;
+pub mod hedge;
+pub mod http;
 pub mod injection;
 pub mod local_whisper;
+pub mod model_cache;
+pub mod model_download;
+pub mod model_registry;
+pub mod recording_store;
+pub mod resampler;
+pub mod result_cache;
+pub mod scheduler;
 pub mod shortcuts;
+pub mod state_pool;
 pub mod transcription;
 pub mod types;
+pub mod upload_codec;
+pub mod vad;
 
 #[cfg(test)]
 mod types_test;
@@ -0,0 +1,222 @@
+use crate::core::error::{AppError, Result};
+use crate::core::state_pool::StatePool;
+use parking_lot::Mutex;
+use std::path::{Path, PathBuf};
+use std::sync::{Arc, OnceLock};
+use std::time::{Duration, Instant};
+use whisper_rs::{WhisperContext, WhisperContextParameters};
+
+// 默认内存预算：4GB（可容纳 large-v3 或 medium + small）
+pub const DEFAULT_BUDGET_BYTES: u64 = 4 * 1024 * 1024 * 1024;
+// 默认空闲卸载时间：10 分钟
+pub const DEFAULT_IDLE_TIMEOUT_SECS: u64 = 600;
+// 后台空闲检查间隔
+const IDLE_CHECK_INTERVAL_SECS: u64 = 30;
+
+struct CachedModel {
+    path: PathBuf,
+    pool: Arc<StatePool>,
+    size_bytes: u64,
+    last_used: Instant,
+}
+
+struct CacheInner {
+    entries: Vec<CachedModel>,
+    budget_bytes: u64,
+    idle_timeout: Duration,
+}
+
+/// 进程级 WhisperContext 缓存
+///
+/// 以模型文件路径为键复用已加载的上下文（连同其推理状态池）；超出内存预算时按 LRU 淘汰，
+/// 空闲超过 `idle_timeout` 的模型由后台线程卸载。
+pub struct ModelCache {
+    inner: Mutex<CacheInner>,
+    // 串行化模型加载，避免同一个模型被并发加载两次
+    load_lock: Mutex<()>,
+}
+
+static GLOBAL: OnceLock<Arc<ModelCache>> = OnceLock::new();
+
+/// 全局缓存实例，首次访问时启动空闲卸载线程
+pub fn global() -> &'static Arc<ModelCache> {
+    GLOBAL.get_or_init(|| {
+        let cache = Arc::new(ModelCache::new(
+            DEFAULT_BUDGET_BYTES,
+            Duration::from_secs(DEFAULT_IDLE_TIMEOUT_SECS),
+        ));
+        let weak = Arc::downgrade(&cache);
+        let _ = std::thread::Builder::new()
+            .name("model-cache-idle".into())
+            .spawn(move || loop {
+                std::thread::sleep(Duration::from_secs(IDLE_CHECK_INTERVAL_SECS));
+                match weak.upgrade() {
+                    Some(cache) => cache.evict_idle(),
+                    None => break,
+                }
+            });
+        cache
+    })
+}
+
+impl ModelCache {
+    pub fn new(budget_bytes: u64, idle_timeout: Duration) -> Self {
+        Self {
+            inner: Mutex::new(CacheInner {
+                entries: Vec::new(),
+                budget_bytes,
+                idle_timeout,
+            }),
+            load_lock: Mutex::new(()),
+        }
+    }
+
+    /// 获取已缓存模型的状态池，未命中时从磁盘加载
+    pub fn get_or_load(&self, model_path: &Path) -> Result<Arc<StatePool>> {
+        if let Some(pool) = self.touch(model_path) {
+            return Ok(pool);
+        }
+
+        let _loading = self.load_lock.lock();
+        // 等待加载锁期间可能已被其他线程加载
+        if let Some(pool) = self.touch(model_path) {
+            return Ok(pool);
+        }
+
+        let size_bytes = std::fs::metadata(model_path).map(|m| m.len()).unwrap_or(0);
+        let started = Instant::now();
+        let ctx = WhisperContext::new_with_params(
+            model_path.to_str().unwrap_or(""),
+            WhisperContextParameters::default(),
+        )
+        .map_err(|e| AppError::Transcription(format!("加载模型失败: {}", e)))?;
+        let pool = Arc::new(StatePool::new(Arc::new(ctx)));
+        println!(
+            "📦 模型已加载: {:?} ({} MB, {:.2}s, {} 个推理状态 × {} 线程)",
+            model_path.file_name().unwrap_or_default(),
+            size_bytes / 1024 / 1024,
+            started.elapsed().as_secs_f64(),
+            pool.capacity(),
+            pool.threads_per_state()
+        );
+
+        self.insert(model_path.to_path_buf(), pool.clone(), size_bytes);
+        Ok(pool)
+    }
+
+    fn touch(&self, model_path: &Path) -> Option<Arc<StatePool>> {
+        let mut inner = self.inner.lock();
+        inner
+            .entries
+            .iter_mut()
+            .find(|e| e.path == model_path)
+            .map(|e| {
+                e.last_used = Instant::now();
+                e.pool.clone()
+            })
+    }
+
+    /// 插入新加载的模型并按 LRU 淘汰超出预算的部分（新模型本身不会被淘汰）
+    pub fn insert(&self, path: PathBuf, pool: Arc<StatePool>, size_bytes: u64) {
+        let mut inner = self.inner.lock();
+        inner.entries.retain(|e| e.path != path);
+        inner.entries.push(CachedModel {
+            path: path.clone(),
+            pool,
+            size_bytes,
+            last_used: Instant::now(),
+        });
+        Self::enforce_budget(&mut inner, Some(&path));
+    }
+
+    fn enforce_budget(inner: &mut CacheInner, keep: Option<&Path>) {
+        loop {
+            let total: u64 = inner.entries.iter().map(|e| e.size_bytes).sum();
+            if total <= inner.budget_bytes {
+                break;
+            }
+            let victim = inner
+                .entries
+                .iter()
+                .enumerate()
+                .filter(|(_, e)| Some(e.path.as_path()) != keep)
+                .min_by_key(|(_, e)| e.last_used)
+                .map(|(i, _)| i);
+            match victim {
+                Some(i) => {
+                    let evicted = inner.entries.remove(i);
+                    println!("♻️ 模型超出内存预算，已卸载: {:?}", evicted.path);
+                }
+                None => break,
+            }
+        }
+    }
+
+    /// 卸载空闲超时的模型
+    pub fn evict_idle(&self) {
+        let mut inner = self.inner.lock();
+        let timeout = inner.idle_timeout;
+        inner.entries.retain(|e| {
+            let keep = e.last_used.elapsed() < timeout;
+            if !keep {
+                println!("💤 模型空闲超时，已卸载: {:?}", e.path);
+            }
+            keep
+        });
+    }
+
+    /// 只保留指定模型（切换 selected_model 时调用；None 表示全部卸载）
+    pub fn retain_only(&self, model_path: Option<&Path>) {
+        let mut inner = self.inner.lock();
+        inner.entries.retain(|e| Some(e.path.as_path()) == model_path);
+    }
+
+    pub fn unload(&self, model_path: &Path) {
+        self.inner.lock().entries.retain(|e| e.path != model_path);
+    }
+
+    pub fn set_budget_bytes(&self, budget_bytes: u64) {
+        let mut inner = self.inner.lock();
+        inner.budget_bytes = budget_bytes;
+        Self::enforce_budget(&mut inner, None);
+    }
+
+    pub fn set_idle_timeout(&self, idle_timeout: Duration) {
+        self.inner.lock().idle_timeout = idle_timeout;
+    }
+
+    pub fn is_loaded(&self, model_path: &Path) -> bool {
+        self.inner.lock().entries.iter().any(|e| e.path == model_path)
+    }
+
+    pub fn loaded_models(&self) -> Vec<PathBuf> {
+        self.inner.lock().entries.iter().map(|e| e.path.clone()).collect()
+    }
+
+    pub fn resident_bytes(&self) -> u64 {
+        self.inner.lock().entries.iter().map(|e| e.size_bytes).sum()
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_missing_model_fails_without_caching() {
+        let cache = ModelCache::new(DEFAULT_BUDGET_BYTES, Duration::from_secs(60));
+        let path = PathBuf::from("/nonexistent/ggml-none.bin");
+
+        assert!(cache.get_or_load(&path).is_err());
+        assert!(!cache.is_loaded(&path));
+        assert_eq!(cache.resident_bytes(), 0);
+    }
+
+    #[test]
+    fn test_retain_only_on_empty_cache() {
+        let cache = ModelCache::new(DEFAULT_BUDGET_BYTES, Duration::from_secs(60));
+        cache.retain_only(None);
+        cache.evict_idle();
+        assert!(cache.loaded_models().is_empty());
+    }
+}
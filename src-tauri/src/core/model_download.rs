@@ -0,0 +1,507 @@
+//! 可断点续传、可校验的大文件下载
+//!
+//! 下载先写入 `<文件名>.downloading`，中断后再次下载时从已有长度继续（HTTP Range）；
+//! 服务器支持 Range 且文件足够大时按字节区间分段并行下载，各段各自续传。
+//! 完成后按 SHA-256 校验，通过后才重命名为最终文件。进度回调按固定间隔合并。
+
+use crate::core::error::{AppError, Result};
+use futures_util::StreamExt;
+use parking_lot::Mutex;
+use reqwest::header::{HeaderMap, ACCEPT_RANGES, CONTENT_LENGTH, RANGE};
+use reqwest::StatusCode;
+use sha2::{Digest, Sha256};
+use std::path::{Path, PathBuf};
+use std::sync::atomic::{AtomicU64, Ordering};
+use std::time::{Duration, Instant};
+use tokio::io::AsyncWriteExt;
+
+const PARTIAL_SUFFIX: &str = "downloading";
+// Hugging Face 对 LFS 文件在重定向响应中给出 sha256 和真实大小
+const LINKED_ETAG: &str = "x-linked-etag";
+const LINKED_SIZE: &str = "x-linked-size";
+
+#[derive(Debug, Clone)]
+pub struct DownloadOptions {
+    /// 最多并行的分段连接数（服务器支持 Range 时生效）
+    pub connections: usize,
+    /// 每段最少字节数，文件较小时相应减少连接数
+    pub min_segment_bytes: u64,
+    /// 进度回调的最小间隔
+    pub progress_interval: Duration,
+}
+
+impl Default for DownloadOptions {
+    fn default() -> Self {
+        Self {
+            connections: 4,
+            min_segment_bytes: 64 * 1024 * 1024,
+            progress_interval: Duration::from_millis(200),
+        }
+    }
+}
+
+#[derive(Debug, Default)]
+struct RemoteInfo {
+    total: Option<u64>,
+    accepts_ranges: bool,
+    sha256: Option<String>,
+}
+
+/// 按固定间隔合并的进度回调 `(已下载字节, 总字节)`，总大小未知时为 0
+struct Progress<F: Fn(u64, u64)> {
+    done: AtomicU64,
+    total: u64,
+    interval: Duration,
+    last_emit: Mutex<Option<Instant>>,
+    callback: F,
+}
+
+impl<F: Fn(u64, u64)> Progress<F> {
+    fn add(&self, bytes: u64) {
+        let done = self.done.fetch_add(bytes, Ordering::Relaxed) + bytes;
+        let mut last = self.last_emit.lock();
+        if last.map_or(true, |t| t.elapsed() >= self.interval) {
+            *last = Some(Instant::now());
+            drop(last);
+            (self.callback)(done, self.total);
+        }
+    }
+
+    fn sub(&self, bytes: u64) {
+        self.done.fetch_sub(bytes, Ordering::Relaxed);
+    }
+
+    fn finish(&self) {
+        (self.callback)(self.done.load(Ordering::Relaxed), self.total);
+    }
+}
+
+/// 未完成下载的临时文件路径
+pub fn partial_path(dest: &Path) -> PathBuf {
+    let mut name = dest.file_name().unwrap_or_default().to_os_string();
+    name.push(".");
+    name.push(PARTIAL_SUFFIX);
+    dest.with_file_name(name)
+}
+
+/// 下载 `url` 到 `dest`
+///
+/// `expected_sha256` 为空时使用服务器声明的 sha256（Hugging Face 的 `X-Linked-Etag`）；
+/// 两者都没有时不下载，直接报错。校验失败会删除临时文件，下次从头下载。
+pub async fn download_verified<F>(
+    client: &reqwest::Client,
+    url: &str,
+    dest: &Path,
+    expected_sha256: Option<&str>,
+    options: &DownloadOptions,
+    on_progress: F,
+) -> Result<()>
+where
+    F: Fn(u64, u64),
+{
+    let info = probe(url).await?;
+    let expected = expected_sha256
+        .map(|s| s.to_ascii_lowercase())
+        .or(info.sha256.clone())
+        .ok_or_else(|| {
+            AppError::Other(format!("无法校验下载：清单未登记 sha256，服务器也未提供（{}）", url))
+        })?;
+
+    let partial = partial_path(dest);
+    let progress = Progress {
+        done: AtomicU64::new(0),
+        total: info.total.unwrap_or(0),
+        interval: options.progress_interval,
+        last_emit: Mutex::new(None),
+        callback: on_progress,
+    };
+
+    let segments = match info.total {
+        Some(total) if info.accepts_ranges && total > 0 => {
+            ((total / options.min_segment_bytes.max(1)) as usize).clamp(1, options.connections.max(1))
+        }
+        _ => 1,
+    };
+
+    if segments == 1 {
+        let end = info.total.map(|t| t.saturating_sub(1));
+        fetch_range(client, url, &partial, 0, end, &progress).await?;
+    } else {
+        let total = info.total.unwrap_or(0);
+        let size = (total + segments as u64 - 1) / segments as u64;
+        let parts: Vec<(PathBuf, u64, u64)> = (0..segments as u64)
+            .map(|i| {
+                let start = i * size;
+                let end = ((i + 1) * size).min(total) - 1;
+                (segment_path(&partial, segments, i as usize), start, end)
+            })
+            .collect();
+
+        futures_util::future::try_join_all(
+            parts
+                .iter()
+                .map(|(path, start, end)| fetch_range(client, url, path, *start, Some(*end), &progress)),
+        )
+        .await?;
+
+        let mut out = tokio::fs::File::create(&partial).await?;
+        for (path, _, _) in &parts {
+            let mut part = tokio::fs::File::open(path).await?;
+            tokio::io::copy(&mut part, &mut out).await?;
+        }
+        out.flush().await?;
+        drop(out);
+        for (path, _, _) in &parts {
+            let _ = tokio::fs::remove_file(path).await;
+        }
+    }
+
+    let written = tokio::fs::metadata(&partial).await?.len();
+    if let Some(total) = info.total {
+        if written != total {
+            let _ = tokio::fs::remove_file(&partial).await;
+            return Err(AppError::Other(format!(
+                "下载不完整: {} / {} 字节",
+                written, total
+            )));
+        }
+    }
+
+    let actual = sha256_file(partial.clone()).await?;
+    if actual != expected {
+        let _ = tokio::fs::remove_file(&partial).await;
+        return Err(AppError::Other(format!(
+            "文件校验失败: 期望 sha256 {}，实际 {}",
+            expected, actual
+        )));
+    }
+
+    tokio::fs::rename(&partial, dest).await?;
+    progress.finish();
+    Ok(())
+}
+
+/// HEAD 请求获取大小、Range 支持和 sha256（不跟随重定向，以便读取 Hugging Face 的 linked 头）
+async fn probe(url: &str) -> Result<RemoteInfo> {
+    let client = reqwest::Client::builder()
+        .redirect(reqwest::redirect::Policy::none())
+        .build()
+        .map_err(AppError::Network)?;
+    let response = client.head(url).send().await.map_err(AppError::Network)?;
+    let status = response.status();
+    if !status.is_success() && !status.is_redirection() {
+        return Err(AppError::Other(format!("下载地址不可用: HTTP {}", status)));
+    }
+
+    let headers = response.headers();
+    let mut info = RemoteInfo {
+        total: header_u64(headers, LINKED_SIZE),
+        // 重定向目标（CDN）一般支持 Range；不支持时由 fetch_range 检测
+        accepts_ranges: status.is_redirection(),
+        sha256: headers
+            .get(LINKED_ETAG)
+            .and_then(|v| v.to_str().ok())
+            .map(|v| v.trim_matches('"').to_ascii_lowercase())
+            .filter(|v| v.len() == 64 && v.chars().all(|c| c.is_ascii_hexdigit())),
+    };
+    if status.is_success() {
+        info.total = info.total.or_else(|| header_u64(headers, CONTENT_LENGTH.as_str()));
+        info.accepts_ranges = headers
+            .get(ACCEPT_RANGES)
+            .and_then(|v| v.to_str().ok())
+            .map_or(false, |v| v.eq_ignore_ascii_case("bytes"));
+    }
+    Ok(info)
+}
+
+fn header_u64(headers: &HeaderMap, name: &str) -> Option<u64> {
+    headers.get(name)?.to_str().ok()?.trim().parse().ok()
+}
+
+/// 下载 `[start, end]` 区间到 `path`，已有内容视为前缀并从其后续传
+async fn fetch_range<F: Fn(u64, u64)>(
+    client: &reqwest::Client,
+    url: &str,
+    path: &Path,
+    start: u64,
+    end: Option<u64>,
+    progress: &Progress<F>,
+) -> Result<()> {
+    let existing = tokio::fs::metadata(path).await.map(|m| m.len()).unwrap_or(0);
+    let from = start + existing;
+    progress.add(existing);
+    if end.map_or(false, |end| from > end) {
+        return Ok(());
+    }
+
+    let mut request = client.get(url);
+    if from > 0 || end.is_some() {
+        let range = match end {
+            Some(end) => format!("bytes={}-{}", from, end),
+            None => format!("bytes={}-", from),
+        };
+        request = request.header(RANGE, range);
+    }
+    let response = request.send().await.map_err(AppError::Network)?;
+
+    // 总大小未知时已下载完整的文件会得到 416
+    if response.status() == StatusCode::RANGE_NOT_SATISFIABLE && existing > 0 {
+        return Ok(());
+    }
+    let response = response.error_for_status().map_err(AppError::Network)?;
+
+    let mut file = if response.status() == StatusCode::PARTIAL_CONTENT || from == 0 {
+        tokio::fs::OpenOptions::new()
+            .create(true)
+            .append(true)
+            .open(path)
+            .await?
+    } else {
+        // 服务器忽略了 Range：只有从文件开头下载的那一段可以重来
+        if start > 0 {
+            return Err(AppError::Other("服务器不支持分段下载".into()));
+        }
+        println!("⚠️ 服务器不支持断点续传，从头下载");
+        progress.sub(existing);
+        tokio::fs::File::create(path).await?
+    };
+
+    let mut stream = response.bytes_stream();
+    while let Some(chunk) = stream.next().await {
+        let chunk = chunk.map_err(AppError::Network)?;
+        file.write_all(&chunk).await?;
+        progress.add(chunk.len() as u64);
+    }
+    file.flush().await?;
+    Ok(())
+}
+
+fn segment_path(partial: &Path, segments: usize, index: usize) -> PathBuf {
+    let mut name = partial.file_name().unwrap_or_default().to_os_string();
+    name.push(format!(".{}-{}", segments, index));
+    partial.with_file_name(name)
+}
+
+async fn sha256_file(path: PathBuf) -> Result<String> {
+    tokio::task::spawn_blocking(move || {
+        use std::io::Read;
+        let mut file = std::fs::File::open(&path)?;
+        let mut hasher = Sha256::new();
+        let mut buf = vec![0u8; 1024 * 1024];
+        loop {
+            let n = file.read(&mut buf)?;
+            if n == 0 {
+                break;
+            }
+            hasher.update(&buf[..n]);
+        }
+        Ok(format!("{:x}", hasher.finalize()))
+    })
+    .await
+    .map_err(|e| AppError::Other(format!("校验线程异常: {}", e)))?
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use std::io::{BufRead, BufReader, Write};
+    use std::sync::Arc;
+    use tempfile::tempdir;
+
+    /// 本地 HTTP 替身：支持 HEAD 和 Range GET，记录每个 GET 的 Range 头
+    struct StubServer {
+        url: String,
+        ranges: Arc<Mutex<Vec<Option<String>>>>,
+    }
+
+    fn serve(body: Vec<u8>, advertise_sha: bool) -> StubServer {
+        let listener = std::net::TcpListener::bind("127.0.0.1:0").unwrap();
+        let url = format!("http://{}/ggml-fake.bin", listener.local_addr().unwrap());
+        let ranges = Arc::new(Mutex::new(Vec::new()));
+        let body = Arc::new(body);
+        let sha = format!("{:x}", Sha256::digest(&body[..]));
+
+        let recorded = ranges.clone();
+        std::thread::spawn(move || {
+            for stream in listener.incoming() {
+                let stream = match stream {
+                    Ok(stream) => stream,
+                    Err(_) => break,
+                };
+                let body = body.clone();
+                let sha = sha.clone();
+                let recorded = recorded.clone();
+                std::thread::spawn(move || handle(stream, &body, advertise_sha.then_some(sha.as_str()), &recorded));
+            }
+        });
+
+        StubServer { url, ranges }
+    }
+
+    fn handle(
+        stream: std::net::TcpStream,
+        body: &[u8],
+        sha: Option<&str>,
+        ranges: &Mutex<Vec<Option<String>>>,
+    ) {
+        let mut reader = BufReader::new(stream.try_clone().unwrap());
+        let mut request_line = String::new();
+        reader.read_line(&mut request_line).unwrap();
+        let mut range = None;
+        loop {
+            let mut line = String::new();
+            reader.read_line(&mut line).unwrap();
+            if line == "\r\n" || line.is_empty() {
+                break;
+            }
+            if let Some((name, value)) = line.split_once(':') {
+                if name.eq_ignore_ascii_case("range") {
+                    range = Some(value.trim().to_string());
+                }
+            }
+        }
+
+        let mut out = stream;
+        let mut head = format!(
+            "Accept-Ranges: bytes\r\nConnection: close\r\n{}",
+            sha.map(|s| format!("X-Linked-Etag: \"{}\"\r\n", s)).unwrap_or_default()
+        );
+        if request_line.starts_with("HEAD") {
+            let _ = write!(out, "HTTP/1.1 200 OK\r\nContent-Length: {}\r\n{}\r\n", body.len(), head);
+            return;
+        }
+
+        ranges.lock().push(range.clone());
+        let (status, slice) = match range.as_deref().and_then(|r| r.strip_prefix("bytes=")) {
+            Some(spec) => {
+                let (from, to) = spec.split_once('-').unwrap();
+                let from: usize = from.parse().unwrap();
+                let to: usize = if to.is_empty() { body.len() - 1 } else { to.parse().unwrap() };
+                if from >= body.len() {
+                    let _ = write!(out, "HTTP/1.1 416 Range Not Satisfiable\r\nContent-Length: 0\r\n{}\r\n", head);
+                    return;
+                }
+                head.push_str(&format!("Content-Range: bytes {}-{}/{}\r\n", from, to, body.len()));
+                ("206 Partial Content", &body[from..=to])
+            }
+            None => ("200 OK", body),
+        };
+        let _ = write!(out, "HTTP/1.1 {}\r\nContent-Length: {}\r\n{}\r\n", status, slice.len(), head);
+        let _ = out.write_all(slice);
+    }
+
+    fn fake_model(len: usize) -> Vec<u8> {
+        (0..len).map(|i| (i * 31 % 251) as u8).collect()
+    }
+
+    #[tokio::test]
+    async fn test_download_verifies_advertised_sha() {
+        let body = fake_model(50_000);
+        let server = serve(body.clone(), true);
+        let dir = tempdir().unwrap();
+        let dest = dir.path().join("ggml-fake.bin");
+
+        download_verified(&reqwest::Client::new(), &server.url, &dest, None, &DownloadOptions::default(), |_, _| {})
+            .await
+            .unwrap();
+
+        assert_eq!(std::fs::read(&dest).unwrap(), body);
+        assert!(!partial_path(&dest).exists());
+    }
+
+    #[tokio::test]
+    async fn test_resumes_from_partial_file() {
+        let body = fake_model(40_000);
+        let server = serve(body.clone(), true);
+        let dir = tempdir().unwrap();
+        let dest = dir.path().join("ggml-fake.bin");
+        std::fs::write(partial_path(&dest), &body[..15_000]).unwrap();
+
+        download_verified(&reqwest::Client::new(), &server.url, &dest, None, &DownloadOptions::default(), |_, _| {})
+            .await
+            .unwrap();
+
+        assert_eq!(std::fs::read(&dest).unwrap(), body);
+        assert_eq!(*server.ranges.lock(), vec![Some("bytes=15000-39999".to_string())]);
+    }
+
+    #[tokio::test]
+    async fn test_sha_mismatch_discards_download() {
+        let server = serve(fake_model(10_000), false);
+        let dir = tempdir().unwrap();
+        let dest = dir.path().join("ggml-fake.bin");
+
+        let result = download_verified(
+            &reqwest::Client::new(),
+            &server.url,
+            &dest,
+            Some(&"0".repeat(64)),
+            &DownloadOptions::default(),
+            |_, _| {},
+        )
+        .await;
+
+        assert!(result.is_err());
+        assert!(!dest.exists());
+        assert!(!partial_path(&dest).exists());
+    }
+
+    #[tokio::test]
+    async fn test_refuses_download_without_any_sha() {
+        let server = serve(fake_model(10_000), false);
+        let dir = tempdir().unwrap();
+        let dest = dir.path().join("ggml-fake.bin");
+
+        let result =
+            download_verified(&reqwest::Client::new(), &server.url, &dest, None, &DownloadOptions::default(), |_, _| {})
+                .await;
+
+        assert!(result.is_err());
+        assert!(!dest.exists());
+        assert!(server.ranges.lock().is_empty());
+    }
+
+    #[tokio::test]
+    async fn test_parallel_segments() {
+        let body = fake_model(100_000);
+        let server = serve(body.clone(), true);
+        let dir = tempdir().unwrap();
+        let dest = dir.path().join("ggml-fake.bin");
+        let options = DownloadOptions {
+            connections: 4,
+            min_segment_bytes: 10_000,
+            ..Default::default()
+        };
+
+        download_verified(&reqwest::Client::new(), &server.url, &dest, None, &options, |_, _| {})
+            .await
+            .unwrap();
+
+        assert_eq!(std::fs::read(&dest).unwrap(), body);
+        assert_eq!(server.ranges.lock().len(), 4);
+        assert_eq!(std::fs::read_dir(dir.path()).unwrap().count(), 1);
+    }
+
+    #[tokio::test]
+    async fn test_progress_is_coalesced() {
+        let body = fake_model(200_000);
+        let server = serve(body.clone(), true);
+        let dir = tempdir().unwrap();
+        let dest = dir.path().join("ggml-fake.bin");
+        let options = DownloadOptions {
+            progress_interval: Duration::from_secs(3600),
+            ..Default::default()
+        };
+        let calls = Mutex::new(Vec::new());
+
+        download_verified(&reqwest::Client::new(), &server.url, &dest, None, &options, |done, total| {
+            calls.lock().push((done, total))
+        })
+        .await
+        .unwrap();
+
+        let calls = calls.into_inner();
+        assert!(calls.len() <= 2, "{} progress callbacks", calls.len());
+        assert_eq!(calls.last(), Some(&(200_000, 200_000)));
+    }
+}
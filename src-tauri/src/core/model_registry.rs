@@ -0,0 +1,134 @@
+//! 本地 Whisper 模型注册表
+//!
+//! 所有本地模型的 id、文件名、大小和量化方式只在这里登记一次；
+//! 下载、删除、路径解析、状态查询都从这里取元数据。
+
+use serde::Serialize;
+
+#[derive(Debug, Clone, Serialize)]
+pub struct LocalModelSpec {
+    pub id: &'static str,
+    /// 模型文件名（同时是 Hugging Face 上的下载路径）
+    pub file_name: &'static str,
+    /// 近似文件大小（字节），服务器未返回长度时用于计算进度
+    pub size_bytes: u64,
+    /// 所属的全精度模型 id（全精度模型指向自己）
+    pub family: &'static str,
+    /// 量化方式：None 表示全精度 ggml
+    pub quantization: Option<&'static str>,
+    /// 清单中登记的 sha256（小写十六进制）；None 时以 Hugging Face 声明的哈希为准，
+    /// 两者都没有时拒绝下载（见 `model_download::download_verified`）
+    pub sha256: Option<&'static str>,
+}
+
+const fn full(id: &'static str, file_name: &'static str, size_bytes: u64) -> LocalModelSpec {
+    LocalModelSpec {
+        id,
+        file_name,
+        size_bytes,
+        family: id,
+        quantization: None,
+        sha256: None,
+    }
+}
+
+const fn quantized(
+    id: &'static str,
+    file_name: &'static str,
+    size_bytes: u64,
+    family: &'static str,
+    quantization: &'static str,
+) -> LocalModelSpec {
+    LocalModelSpec {
+        id,
+        file_name,
+        size_bytes,
+        family,
+        quantization: Some(quantization),
+        sha256: None,
+    }
+}
+
+/// 所有模型来自 https://huggingface.co/ggerganov/whisper.cpp
+///
+/// 量化版本只列出上游实际提供的文件（并非每个尺寸都有 q5_0/q5_1/q8_0 三种）。
+static LOCAL_MODELS: &[LocalModelSpec] = &[
+    full("whisper-tiny", "ggml-tiny.bin", 75_000_000),
+    quantized("whisper-tiny-q5_1", "ggml-tiny-q5_1.bin", 32_000_000, "whisper-tiny", "q5_1"),
+    quantized("whisper-tiny-q8_0", "ggml-tiny-q8_0.bin", 44_000_000, "whisper-tiny", "q8_0"),
+    full("whisper-base", "ggml-base.bin", 148_000_000),
+    quantized("whisper-base-q5_1", "ggml-base-q5_1.bin", 60_000_000, "whisper-base", "q5_1"),
+    quantized("whisper-base-q8_0", "ggml-base-q8_0.bin", 82_000_000, "whisper-base", "q8_0"),
+    full("whisper-small", "ggml-small.bin", 488_000_000),
+    quantized("whisper-small-q5_1", "ggml-small-q5_1.bin", 190_000_000, "whisper-small", "q5_1"),
+    quantized("whisper-small-q8_0", "ggml-small-q8_0.bin", 264_000_000, "whisper-small", "q8_0"),
+    full("whisper-medium", "ggml-medium.bin", 1_533_000_000),
+    quantized("whisper-medium-q5_0", "ggml-medium-q5_0.bin", 539_000_000, "whisper-medium", "q5_0"),
+    quantized("whisper-medium-q8_0", "ggml-medium-q8_0.bin", 823_000_000, "whisper-medium", "q8_0"),
+    full("whisper-large-v3", "ggml-large-v3.bin", 3_094_000_000),
+    quantized("whisper-large-v3-q5_0", "ggml-large-v3-q5_0.bin", 1_080_000_000, "whisper-large-v3", "q5_0"),
+    full("whisper-large-v3-turbo", "ggml-large-v3-turbo.bin", 1_620_000_000),
+    quantized(
+        "whisper-large-v3-turbo-q5_0",
+        "ggml-large-v3-turbo-q5_0.bin",
+        574_000_000,
+        "whisper-large-v3-turbo",
+        "q5_0",
+    ),
+    quantized(
+        "whisper-large-v3-turbo-q8_0",
+        "ggml-large-v3-turbo-q8_0.bin",
+        874_000_000,
+        "whisper-large-v3-turbo",
+        "q8_0",
+    ),
+];
+
+pub fn all() -> &'static [LocalModelSpec] {
+    LOCAL_MODELS
+}
+
+pub fn find(model_id: &str) -> Option<&'static LocalModelSpec> {
+    LOCAL_MODELS.iter().find(|m| m.id == model_id)
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::core::types::ModelProvider;
+    use std::collections::HashSet;
+
+    #[test]
+    fn test_ids_and_files_are_unique() {
+        let ids: HashSet<_> = all().iter().map(|m| m.id).collect();
+        let files: HashSet<_> = all().iter().map(|m| m.file_name).collect();
+        assert_eq!(ids.len(), all().len());
+        assert_eq!(files.len(), all().len());
+    }
+
+    #[test]
+    fn test_every_model_routes_to_local_whisper() {
+        for model in all() {
+            assert_eq!(ModelProvider::from_model_id(model.id), ModelProvider::LocalWhisper);
+        }
+    }
+
+    #[test]
+    fn test_registered_hashes_are_sha256_hex() {
+        for model in all() {
+            if let Some(sha) = model.sha256 {
+                assert_eq!(sha.len(), 64, "{}", model.id);
+                assert!(sha.chars().all(|c| matches!(c, '0'..='9' | 'a'..='f')), "{}", model.id);
+            }
+        }
+    }
+
+    #[test]
+    fn test_quantized_variants_are_smaller_than_family() {
+        for model in all().iter().filter(|m| m.quantization.is_some()) {
+            let family = find(model.family).expect("family registered");
+            assert!(family.quantization.is_none());
+            assert!(model.size_bytes < family.size_bytes, "{}", model.id);
+        }
+    }
+}
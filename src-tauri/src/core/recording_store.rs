@@ -0,0 +1,567 @@
+use crate::core::error::Result;
+use crate::core::types::RecoveredRecording;
+use std::fs::File;
+use std::io::{BufWriter, Read, Seek, SeekFrom, Write};
+use std::ops::Range;
+use std::path::{Path, PathBuf};
+use std::sync::Arc;
+
+// 每个段文件固定 30 秒 @ 16kHz（f32 小端，约 1.9MB）
+pub const SEGMENT_SAMPLES: usize = 16000 * 30;
+// 内存中保留的最近音频窗口：30 秒
+pub const RECENT_WINDOW_SAMPLES: usize = 16000 * 30;
+// 转录时整段读入内存的录音上限：5 分钟（约 19MB），更长的录音按段流式处理
+pub const MAX_IN_MEMORY_SAMPLES: usize = 16000 * 60 * 5;
+
+const SEGMENT_PREFIX: &str = "seg_";
+const SEGMENT_EXT: &str = "pcm";
+
+/// 分段录音存储
+///
+/// 所有样本都追加写入当前段文件，写满 `SEGMENT_SAMPLES` 后切换到下一个段；
+/// 内存中只保留最近 `RECENT_WINDOW_SAMPLES` 个样本，因此内存占用与录音时长无关。
+/// 进程崩溃时已落盘的段文件仍保留在会话目录中，可通过 `recover_sessions` 找回。
+pub struct RecordingStore {
+    dir: PathBuf,
+    sample_rate: u32,
+    writer: Option<BufWriter<File>>,
+    segments: Vec<(PathBuf, usize)>,
+    current_samples: usize,
+    recent: Vec<f32>,
+    total_samples: usize,
+    // 复用的小端字节缓冲：每次写入整块转换后一次 write_all
+    bytes: Vec<u8>,
+}
+
+impl RecordingStore {
+    /// 在 `root` 下创建一个新的会话目录
+    pub fn create(root: &Path, sample_rate: u32) -> Result<Self> {
+        let dir = root.join(format!("session-{}", uuid::Uuid::new_v4()));
+        std::fs::create_dir_all(&dir)?;
+        Ok(Self {
+            dir,
+            sample_rate,
+            writer: None,
+            segments: Vec::new(),
+            current_samples: 0,
+            recent: Vec::with_capacity(RECENT_WINDOW_SAMPLES * 2),
+            total_samples: 0,
+            bytes: Vec::new(),
+        })
+    }
+
+    pub fn push(&mut self, samples: &[f32]) -> Result<()> {
+        let mut rest = samples;
+        while !rest.is_empty() {
+            if self.writer.is_none() || self.current_samples == SEGMENT_SAMPLES {
+                self.open_segment()?;
+            }
+            let room = SEGMENT_SAMPLES - self.current_samples;
+            let (head, tail) = rest.split_at(rest.len().min(room));
+
+            self.bytes.clear();
+            self.bytes.reserve(head.len() * 4);
+            for &s in head {
+                self.bytes.extend_from_slice(&s.to_le_bytes());
+            }
+            let writer = self.writer.as_mut().expect("segment writer opened above");
+            writer.write_all(&self.bytes)?;
+            self.current_samples += head.len();
+            if let Some(last) = self.segments.last_mut() {
+                last.1 = self.current_samples;
+            }
+            rest = tail;
+        }
+
+        self.total_samples += samples.len();
+        // 即将超过两倍窗口时才整体前移，摊还成本为 O(1)，且不会触发扩容
+        if self.recent.len() + samples.len() > RECENT_WINDOW_SAMPLES * 2 {
+            let keep = RECENT_WINDOW_SAMPLES
+                .saturating_sub(samples.len())
+                .min(self.recent.len());
+            let excess = self.recent.len() - keep;
+            self.recent.drain(..excess);
+        }
+        self.recent.extend_from_slice(samples);
+        Ok(())
+    }
+
+    /// 最近的音频窗口（最多 `RECENT_WINDOW_SAMPLES` 个样本）
+    pub fn recent(&self) -> &[f32] {
+        let start = self.recent.len().saturating_sub(RECENT_WINDOW_SAMPLES);
+        &self.recent[start..]
+    }
+
+    /// 从绝对位置 `from` 到当前末尾的样本（仅限仍在内存中的部分）
+    ///
+    /// 返回实际起点：`from` 已滑出内存窗口时起点会大于 `from`。
+    pub fn tail_from(&self, from: usize) -> (usize, Vec<f32>) {
+        let window_start = self.total_samples - self.recent.len();
+        let start = from.clamp(window_start, self.total_samples);
+        (start, self.recent[start - window_start..].to_vec())
+    }
+
+    pub fn len(&self) -> usize {
+        self.total_samples
+    }
+
+    pub fn is_empty(&self) -> bool {
+        self.total_samples == 0
+    }
+
+    /// 结束写入，返回指向全部段文件的句柄
+    pub fn finish(mut self) -> Result<RecordingHandle> {
+        if let Some(mut writer) = self.writer.take() {
+            writer.flush()?;
+        }
+        Ok(RecordingHandle {
+            dir: Some(self.dir),
+            sample_rate: self.sample_rate,
+            segments: self.segments,
+            total_samples: self.total_samples,
+        })
+    }
+
+    fn open_segment(&mut self) -> Result<()> {
+        if let Some(mut writer) = self.writer.take() {
+            writer.flush()?;
+        }
+        let path = self.dir.join(format!(
+            "{}{:05}.{}",
+            SEGMENT_PREFIX,
+            self.segments.len(),
+            SEGMENT_EXT
+        ));
+        self.writer = Some(BufWriter::new(File::create(&path)?));
+        self.segments.push((path, 0));
+        self.current_samples = 0;
+        Ok(())
+    }
+}
+
+/// 一次录音的只读句柄，按段从磁盘读取
+#[derive(Debug)]
+pub struct RecordingHandle {
+    dir: Option<PathBuf>,
+    sample_rate: u32,
+    segments: Vec<(PathBuf, usize)>,
+    total_samples: usize,
+}
+
+impl RecordingHandle {
+    /// 没有任何音频的句柄（录音未能启动时返回）
+    pub fn empty(sample_rate: u32) -> Self {
+        Self {
+            dir: None,
+            sample_rate,
+            segments: Vec::new(),
+            total_samples: 0,
+        }
+    }
+
+    /// 重新打开磁盘上已有的会话目录
+    pub fn open(dir: &Path, sample_rate: u32) -> Result<Self> {
+        let mut paths: Vec<PathBuf> = std::fs::read_dir(dir)?
+            .filter_map(|e| e.ok().map(|e| e.path()))
+            .filter(|p| {
+                p.extension().and_then(|e| e.to_str()) == Some(SEGMENT_EXT)
+                    && p.file_name()
+                        .and_then(|n| n.to_str())
+                        .map_or(false, |n| n.starts_with(SEGMENT_PREFIX))
+            })
+            .collect();
+        paths.sort();
+
+        let mut segments = Vec::with_capacity(paths.len());
+        let mut total_samples = 0;
+        for path in paths {
+            let samples = (std::fs::metadata(&path)?.len() / 4) as usize;
+            total_samples += samples;
+            segments.push((path, samples));
+        }
+
+        Ok(Self {
+            dir: Some(dir.to_path_buf()),
+            sample_rate,
+            segments,
+            total_samples,
+        })
+    }
+
+    pub fn len(&self) -> usize {
+        self.total_samples
+    }
+
+    pub fn is_empty(&self) -> bool {
+        self.total_samples == 0
+    }
+
+    pub fn sample_rate(&self) -> u32 {
+        self.sample_rate
+    }
+
+    pub fn duration_secs(&self) -> f64 {
+        self.total_samples as f64 / self.sample_rate as f64
+    }
+
+    pub fn segment_count(&self) -> usize {
+        self.segments.len()
+    }
+
+    /// 只读视图，可以移入阻塞线程；段文件仍由本句柄负责删除
+    pub fn reader(&self) -> RecordingReader {
+        RecordingReader {
+            sample_rate: self.sample_rate,
+            segments: self.segments.clone().into(),
+            total_samples: self.total_samples,
+        }
+    }
+
+    /// 读取第 `index` 个段
+    pub fn read_segment(&self, index: usize) -> Result<Vec<f32>> {
+        let (path, samples) = self.segments.get(index).ok_or_else(|| {
+            crate::core::error::AppError::Audio(format!("录音段不存在: {}", index))
+        })?;
+        let bytes = std::fs::read(path)?;
+        let mut out = Vec::with_capacity(*samples);
+        out.extend(
+            bytes
+                .chunks_exact(4)
+                .map(|b| f32::from_le_bytes([b[0], b[1], b[2], b[3]])),
+        );
+        Ok(out)
+    }
+
+    /// 按顺序读取全部样本
+    pub fn read_all(&self) -> Result<Vec<f32>> {
+        let mut out = Vec::with_capacity(self.total_samples);
+        for i in 0..self.segments.len() {
+            out.extend_from_slice(&self.read_segment(i)?);
+        }
+        Ok(out)
+    }
+
+    /// 读取全部样本并删除磁盘上的段文件（读取失败时同样删除，避免会话目录残留）
+    pub fn into_samples(self) -> Result<Vec<f32>> {
+        let samples = self.read_all();
+        self.discard();
+        samples
+    }
+
+    /// 逐段写出为 32 位浮点单声道 WAV，不把整段录音读入内存
+    pub fn export_wav(&self, path: &Path) -> Result<()> {
+        let spec = hound::WavSpec {
+            channels: 1,
+            sample_rate: self.sample_rate,
+            bits_per_sample: 32,
+            sample_format: hound::SampleFormat::Float,
+        };
+        let mut writer = hound::WavWriter::create(path, spec)?;
+        for i in 0..self.segments.len() {
+            for s in self.read_segment(i)? {
+                writer.write_sample(s)?;
+            }
+        }
+        writer.finalize()?;
+        Ok(())
+    }
+
+    /// 删除会话目录
+    pub fn discard(self) {
+        if let Some(dir) = &self.dir {
+            if let Err(e) = std::fs::remove_dir_all(dir) {
+                eprintln!("⚠️ 删除录音段失败 {:?}: {}", dir, e);
+            }
+        }
+    }
+}
+
+/// 录音的只读视图：按范围从段文件读取，不把整段录音读入内存
+///
+/// 可以克隆并移入阻塞线程或后台任务；不负责删除段文件（见 `RecordingHandle::discard`）。
+#[derive(Debug, Clone)]
+pub struct RecordingReader {
+    sample_rate: u32,
+    segments: Arc<[(PathBuf, usize)]>,
+    total_samples: usize,
+}
+
+impl RecordingReader {
+    pub fn len(&self) -> usize {
+        self.total_samples
+    }
+
+    pub fn is_empty(&self) -> bool {
+        self.total_samples == 0
+    }
+
+    pub fn sample_rate(&self) -> u32 {
+        self.sample_rate
+    }
+
+    /// 读取 `range` 内的样本（超出末尾的部分截掉），只打开与之重叠的段文件
+    pub fn read_range(&self, range: Range<usize>) -> Result<Vec<f32>> {
+        let end = range.end.min(self.total_samples);
+        let start = range.start.min(end);
+        let mut out = Vec::with_capacity(end - start);
+        let mut bytes = Vec::new();
+
+        let mut seg_start = 0;
+        for (path, samples) in self.segments.iter() {
+            let seg_end = seg_start + samples;
+            if seg_end > start && seg_start < end {
+                let from = start.max(seg_start) - seg_start;
+                let to = end.min(seg_end) - seg_start;
+                let mut file = File::open(path)?;
+                file.seek(SeekFrom::Start(from as u64 * 4))?;
+                bytes.resize((to - from) * 4, 0);
+                file.read_exact(&mut bytes)?;
+                out.extend(
+                    bytes
+                        .chunks_exact(4)
+                        .map(|b| f32::from_le_bytes([b[0], b[1], b[2], b[3]])),
+                );
+            }
+            if seg_end >= end {
+                break;
+            }
+            seg_start = seg_end;
+        }
+        Ok(out)
+    }
+}
+
+/// 查找 `root` 下遗留的录音会话（例如进程崩溃前未处理的录音）
+pub fn recover_sessions(root: &Path, sample_rate: u32) -> Vec<RecordingHandle> {
+    let entries = match std::fs::read_dir(root) {
+        Ok(entries) => entries,
+        Err(_) => return Vec::new(),
+    };
+    entries
+        .filter_map(|e| e.ok().map(|e| e.path()))
+        .filter(|p| p.is_dir())
+        .filter_map(|p| RecordingHandle::open(&p, sample_rate).ok())
+        .filter(|h| !h.is_empty())
+        .collect()
+}
+
+/// 把 `root` 下遗留的录音会话导出为 `out_dir` 中的 WAV 文件并删除会话目录，返回导出的文件
+///
+/// 导出后的录音可以像普通文件一样转录（见 `recovered_recordings`）；没有音频的会话直接删除。
+/// 导出失败的会话保留在原处，下次启动时重试。
+pub fn recover_to_wav(root: &Path, out_dir: &Path, sample_rate: u32) -> Vec<PathBuf> {
+    let entries = match std::fs::read_dir(root) {
+        Ok(entries) => entries,
+        Err(_) => return Vec::new(),
+    };
+
+    let mut exported = Vec::new();
+    for dir in entries.filter_map(|e| e.ok().map(|e| e.path())).filter(|p| p.is_dir()) {
+        let handle = match RecordingHandle::open(&dir, sample_rate) {
+            Ok(handle) => handle,
+            Err(e) => {
+                eprintln!("⚠️ 无法读取遗留录音 {:?}: {}", dir, e);
+                continue;
+            }
+        };
+        if handle.is_empty() {
+            handle.discard();
+            continue;
+        }
+
+        let started = std::fs::metadata(&dir)
+            .and_then(|m| m.modified())
+            .map(chrono::DateTime::<chrono::Local>::from)
+            .unwrap_or_else(|_| chrono::Local::now());
+        let name = dir.file_name().and_then(|n| n.to_str()).unwrap_or("session");
+        let id = name.strip_prefix("session-").unwrap_or(name);
+        let path = out_dir.join(format!(
+            "{}-{}.wav",
+            started.format("%Y%m%d-%H%M%S"),
+            id.get(..8).unwrap_or(id)
+        ));
+
+        let result = std::fs::create_dir_all(out_dir)
+            .map_err(Into::into)
+            .and_then(|_| handle.export_wav(&path));
+        match result {
+            Ok(()) => {
+                handle.discard();
+                exported.push(path);
+            }
+            Err(e) => {
+                eprintln!("⚠️ 导出遗留录音失败 {:?}: {}", dir, e);
+                let _ = std::fs::remove_file(&path);
+            }
+        }
+    }
+    exported
+}
+
+/// 已恢复的录音（`recover_to_wav` 导出的 WAV 文件），按时间从新到旧
+pub fn recovered_recordings(dir: &Path) -> Vec<RecoveredRecording> {
+    let entries = match std::fs::read_dir(dir) {
+        Ok(entries) => entries,
+        Err(_) => return Vec::new(),
+    };
+    let mut recordings: Vec<RecoveredRecording> = entries
+        .filter_map(|e| e.ok().map(|e| e.path()))
+        .filter(|p| p.extension().and_then(|e| e.to_str()) == Some("wav"))
+        .filter_map(|path| {
+            let reader = hound::WavReader::open(&path).ok()?;
+            let duration = reader.duration() as f64 / reader.spec().sample_rate as f64;
+            let modified = std::fs::metadata(&path).and_then(|m| m.modified()).ok()?;
+            Some(RecoveredRecording {
+                path: path.to_string_lossy().into_owned(),
+                duration,
+                timestamp: chrono::DateTime::<chrono::Utc>::from(modified).timestamp(),
+            })
+        })
+        .collect();
+    recordings.sort_by(|a, b| b.timestamp.cmp(&a.timestamp));
+    recordings
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use tempfile::tempdir;
+
+    #[test]
+    fn test_store_roundtrip_across_segments() {
+        let root = tempdir().unwrap();
+        let mut store = RecordingStore::create(root.path(), 16000).unwrap();
+
+        let samples: Vec<f32> = (0..SEGMENT_SAMPLES + 1000)
+            .map(|i| (i % 100) as f32 / 100.0)
+            .collect();
+        for chunk in samples.chunks(4096) {
+            store.push(chunk).unwrap();
+        }
+        assert_eq!(store.len(), samples.len());
+
+        let handle = store.finish().unwrap();
+        assert_eq!(handle.segment_count(), 2);
+        assert_eq!(handle.len(), samples.len());
+        assert_eq!(handle.read_all().unwrap(), samples);
+    }
+
+    #[test]
+    fn test_recent_window_is_bounded() {
+        let root = tempdir().unwrap();
+        let mut store = RecordingStore::create(root.path(), 16000).unwrap();
+
+        for _ in 0..(RECENT_WINDOW_SAMPLES * 3 / 4096 + 1) {
+            store.push(&[0.25; 4096]).unwrap();
+        }
+
+        assert_eq!(store.recent().len(), RECENT_WINDOW_SAMPLES);
+        assert!(store.recent.capacity() <= RECENT_WINDOW_SAMPLES * 2);
+    }
+
+    #[test]
+    fn test_tail_from_clamps_to_window() {
+        let root = tempdir().unwrap();
+        let mut store = RecordingStore::create(root.path(), 16000).unwrap();
+        let samples: Vec<f32> = (0..1000).map(|i| i as f32).collect();
+        store.push(&samples).unwrap();
+
+        let (start, tail) = store.tail_from(990);
+        assert_eq!(start, 990);
+        assert_eq!(tail, samples[990..].to_vec());
+
+        let (start, tail) = store.tail_from(5000);
+        assert_eq!(start, 1000);
+        assert!(tail.is_empty());
+
+        for _ in 0..(RECENT_WINDOW_SAMPLES * 2 / 4096 + 1) {
+            store.push(&[0.0; 4096]).unwrap();
+        }
+        let (start, _) = store.tail_from(0);
+        assert!(start > 0);
+    }
+
+    #[test]
+    fn test_recover_and_discard_session() {
+        let root = tempdir().unwrap();
+        let mut store = RecordingStore::create(root.path(), 16000).unwrap();
+        store.push(&[0.5; 16000]).unwrap();
+        // 模拟崩溃：不调用 finish，只释放 writer
+        drop(store);
+
+        let recovered = recover_sessions(root.path(), 16000);
+        assert_eq!(recovered.len(), 1);
+        assert_eq!(recovered[0].len(), 16000);
+
+        for handle in recovered {
+            handle.discard();
+        }
+        assert!(recover_sessions(root.path(), 16000).is_empty());
+    }
+
+    #[test]
+    fn test_recover_to_wav_cleans_up_sessions() {
+        let root = tempdir().unwrap();
+        let out = root.path().join("recovered");
+        let sessions = root.path().join("recordings");
+
+        let samples: Vec<f32> = (0..SEGMENT_SAMPLES + 500).map(|i| (i % 50) as f32 / 50.0).collect();
+        let mut store = RecordingStore::create(&sessions, 16000).unwrap();
+        store.push(&samples).unwrap();
+        drop(store);
+        // 崩溃时尚未写入任何音频的会话
+        drop(RecordingStore::create(&sessions, 16000).unwrap());
+
+        let exported = recover_to_wav(&sessions, &out, 16000);
+        assert_eq!(exported.len(), 1);
+        assert_eq!(std::fs::read_dir(&sessions).unwrap().count(), 0);
+        // 第二次启动不会重复报告
+        assert!(recover_to_wav(&sessions, &out, 16000).is_empty());
+
+        let mut reader = hound::WavReader::open(&exported[0]).unwrap();
+        let read: Vec<f32> = reader.samples::<f32>().map(|s| s.unwrap()).collect();
+        assert_eq!(read, samples);
+
+        let listed = recovered_recordings(&out);
+        assert_eq!(listed.len(), 1);
+        assert!((listed[0].duration - samples.len() as f64 / 16000.0).abs() < 1e-6);
+    }
+
+    #[test]
+    fn test_into_samples_discards_on_read_error() {
+        let root = tempdir().unwrap();
+        let mut store = RecordingStore::create(root.path(), 16000).unwrap();
+        store.push(&[0.5; 1000]).unwrap();
+        let handle = store.finish().unwrap();
+        let dir = handle.dir.clone().unwrap();
+        std::fs::remove_file(&handle.segments[0].0).unwrap();
+
+        assert!(handle.into_samples().is_err());
+        assert!(!dir.exists());
+    }
+
+    #[test]
+    fn test_reader_reads_ranges_across_segments() {
+        let root = tempdir().unwrap();
+        let mut store = RecordingStore::create(root.path(), 16000).unwrap();
+        let samples: Vec<f32> = (0..SEGMENT_SAMPLES * 2 + 300).map(|i| (i % 997) as f32).collect();
+        store.push(&samples).unwrap();
+        let handle = store.finish().unwrap();
+        let reader = handle.reader();
+
+        let across = SEGMENT_SAMPLES - 10..SEGMENT_SAMPLES * 2 + 10;
+        assert_eq!(reader.read_range(across.clone()).unwrap(), samples[across].to_vec());
+        assert_eq!(reader.read_range(5..20).unwrap(), samples[5..20].to_vec());
+        // 超出末尾的部分截掉
+        assert_eq!(reader.read_range(samples.len() - 5..usize::MAX).unwrap(), samples[samples.len() - 5..].to_vec());
+        assert!(reader.read_range(samples.len()..samples.len() + 10).unwrap().is_empty());
+        handle.discard();
+    }
+
+    #[test]
+    fn test_empty_handle() {
+        let handle = RecordingHandle::empty(16000);
+        assert!(handle.is_empty());
+        assert!(handle.into_samples().unwrap().is_empty());
+    }
+}
@@ -0,0 +1,558 @@
+use crate::core::error::{AppError, Result};
+use parking_lot::Mutex;
+use rubato::{Resampler, SincFixedIn, SincInterpolationParameters, SincInterpolationType, WindowFunction};
+use std::borrow::Cow;
+use std::collections::HashMap;
+use std::sync::{Arc, OnceLock};
+
+// 流式重采样每次送入 rubato 的输入块大小
+const CHUNK_SIZE: usize = 1024;
+// 多相 FIR：每个相位的抽头数（以输入样本计）
+const POLYPHASE_TAPS: usize = 128;
+// 约分后的上采样倍数不超过该值时走多相 FIR（44.1k→16k 为 160/441）
+const MAX_POLYPHASE_PHASES: usize = 512;
+// Kaiser 设计的阻带衰减；阻带从输出奈奎斯特频率开始，过渡带由抽头数和衰减决定
+//
+// 128 抽头时过渡带约为输入采样率的 3.9%（48k 输入约 1.9kHz）。按本文件的系数公式计算
+// 48k→16k、44.1k→16k 的幅频响应：6kHz 以下平坦，7kHz 约 -4dB；8–10kHz 区间最高约 -79.6dB
+// （8.5kHz 约 -84dB），即会折叠回语音频带的成分被压到约 -80dB。
+const STOPBAND_ATTENUATION_DB: f64 = 80.0;
+
+// 按 (源采样率, 目标采样率) 缓存的多相滤波器，只读，可并发共享
+static POLYPHASE: OnceLock<Mutex<HashMap<(u32, u32), Arc<PolyphaseFilter>>>> = OnceLock::new();
+// 按 (源采样率, 目标采样率) 缓存的 sinc 重采样器；有状态，用时取出、用完放回
+static SINC_POOL: OnceLock<Mutex<HashMap<(u32, u32), Vec<SincEngine>>>> = OnceLock::new();
+
+fn sinc_params() -> SincInterpolationParameters {
+    SincInterpolationParameters {
+        sinc_len: 256,
+        f_cutoff: 0.95,
+        interpolation: SincInterpolationType::Linear,
+        oversampling_factor: 256,
+        window: WindowFunction::BlackmanHarris2,
+    }
+}
+
+/// 增量重采样器：录音或文件解码过程中分块喂入，结束时 `flush` 收尾
+///
+/// 输入输出都是单声道 f32；采样率相同时直接透传，常见比率走多相 FIR，其余用 rubato。
+pub struct StreamingResampler {
+    engine: Engine,
+    ratio: f64,
+    pending: Vec<f32>,
+    consumed: usize,
+    produced: usize,
+}
+
+enum Engine {
+    Passthrough,
+    Polyphase(PolyphaseStream),
+    Sinc(SincFixedIn<f32>),
+}
+
+impl StreamingResampler {
+    pub fn new(from_rate: u32, to_rate: u32) -> Result<Self> {
+        let ratio = to_rate as f64 / from_rate as f64;
+        let engine = if from_rate == to_rate {
+            Engine::Passthrough
+        } else if let Some(filter) = polyphase_filter(from_rate, to_rate) {
+            Engine::Polyphase(PolyphaseStream::new(filter))
+        } else {
+            Engine::Sinc(
+                SincFixedIn::<f32>::new(ratio, 2.0, sinc_params(), CHUNK_SIZE, 1).map_err(|e| {
+                    AppError::Audio(format!("创建重采样器失败: {}", e))
+                })?,
+            )
+        };
+
+        Ok(Self {
+            engine,
+            ratio,
+            pending: Vec::with_capacity(CHUNK_SIZE * 2),
+            consumed: 0,
+            produced: 0,
+        })
+    }
+
+    pub fn is_passthrough(&self) -> bool {
+        matches!(self.engine, Engine::Passthrough)
+    }
+
+    /// 追加输入并把已能确定的输出追加到 `out`
+    pub fn process(&mut self, input: &[f32], out: &mut Vec<f32>) -> Result<()> {
+        self.consumed += input.len();
+
+        let resampler = match &mut self.engine {
+            Engine::Passthrough => {
+                out.extend_from_slice(input);
+                self.produced += input.len();
+                return Ok(());
+            }
+            Engine::Polyphase(stream) => {
+                self.produced += stream.push(input, out, usize::MAX);
+                return Ok(());
+            }
+            Engine::Sinc(r) => r,
+        };
+
+        self.pending.extend_from_slice(input);
+        let mut offset = 0;
+        while self.pending.len() - offset >= CHUNK_SIZE {
+            let chunk = &self.pending[offset..offset + CHUNK_SIZE];
+            let result = resampler
+                .process(&[chunk], None)
+                .map_err(|e| AppError::Audio(format!("重采样失败: {}", e)))?;
+            if let Some(channel) = result.first() {
+                out.extend_from_slice(channel);
+                self.produced += channel.len();
+            }
+            offset += CHUNK_SIZE;
+        }
+        self.pending.drain(..offset);
+        Ok(())
+    }
+
+    /// 处理剩余的输入，并把总输出长度裁剪到 `输入长度 × 比率`
+    pub fn flush(&mut self, out: &mut Vec<f32>) -> Result<()> {
+        let expected = (self.consumed as f64 * self.ratio).round() as usize;
+
+        match &mut self.engine {
+            Engine::Passthrough => {}
+            Engine::Polyphase(stream) => {
+                // 末尾补一个窗口的 0，输出全部剩余样本
+                self.produced += stream.push(&[0.0; POLYPHASE_TAPS], out, expected);
+            }
+            Engine::Sinc(resampler) => {
+                if !self.pending.is_empty() {
+                    self.pending.resize(CHUNK_SIZE, 0.0);
+                    let result = resampler
+                        .process(&[&self.pending[..]], None)
+                        .map_err(|e| AppError::Audio(format!("重采样失败: {}", e)))?;
+                    if let Some(channel) = result.first() {
+                        let take = channel.len().min(expected.saturating_sub(self.produced));
+                        out.extend_from_slice(&channel[..take]);
+                        self.produced += take;
+                    }
+                    self.pending.clear();
+                }
+            }
+        }
+        Ok(())
+    }
+}
+
+/// 多相 FIR 的增量形式：只保留下一个输出窗口起点之后的输入，内存占用与输入总长无关
+///
+/// 输出与对整段输入调用 `PolyphaseFilter::process` 逐点相同。
+struct PolyphaseStream {
+    filter: Arc<PolyphaseFilter>,
+    /// 尚需使用的输入；坐标系在输入前补了 `POLYPHASE_TAPS / 2 - 1` 个 0，`buf[0]` 位于 `start`
+    buf: Vec<f32>,
+    start: usize,
+    /// 下一个输出样本的序号
+    next: usize,
+}
+
+impl PolyphaseStream {
+    fn new(filter: Arc<PolyphaseFilter>) -> Self {
+        Self {
+            filter,
+            buf: vec![0.0; POLYPHASE_TAPS / 2 - 1],
+            start: 0,
+            next: 0,
+        }
+    }
+
+    /// 追加输入，输出窗口已完整的样本（序号小于 `limit`），返回输出个数
+    fn push(&mut self, input: &[f32], out: &mut Vec<f32>, limit: usize) -> usize {
+        self.buf.extend_from_slice(input);
+        let filter = &self.filter;
+        let available = self.start + self.buf.len();
+
+        let before = self.next;
+        while self.next < limit {
+            let t = self.next * filter.down;
+            let (base, phase) = (t / filter.up, t % filter.up);
+            if base + POLYPHASE_TAPS > available {
+                break;
+            }
+            let taps = &filter.coeffs[phase * POLYPHASE_TAPS..(phase + 1) * POLYPHASE_TAPS];
+            let from = base - self.start;
+            out.push(dot(taps, &self.buf[from..from + POLYPHASE_TAPS]));
+            self.next += 1;
+        }
+
+        // 丢弃下一个输出窗口之前的输入
+        let keep_from = ((self.next * filter.down) / filter.up).clamp(self.start, available);
+        self.buf.drain(..keep_from - self.start);
+        self.start = keep_from;
+        self.next - before
+    }
+}
+
+/// 整段重采样，采样率相同时直接借用输入、不复制
+///
+/// 约分后比率较简单的情况（48k→16k、44.1k→16k 等）用缓存的多相 FIR，
+/// 其余比率用缓存的 rubato sinc 重采样器；全程 f32，缓冲在多次调用间复用。
+pub fn resample(samples: &[f32], from_rate: u32, to_rate: u32) -> Result<Cow<'_, [f32]>> {
+    if from_rate == to_rate || samples.is_empty() {
+        return Ok(Cow::Borrowed(samples));
+    }
+    if from_rate == 0 || to_rate == 0 {
+        return Err(AppError::Audio(format!("无效的采样率: {}Hz → {}Hz", from_rate, to_rate)));
+    }
+
+    let output = match polyphase_filter(from_rate, to_rate) {
+        Some(filter) => filter.process(samples),
+        None => resample_sinc(samples, from_rate, to_rate)?,
+    };
+    Ok(Cow::Owned(output))
+}
+
+fn polyphase_filter(from_rate: u32, to_rate: u32) -> Option<Arc<PolyphaseFilter>> {
+    let g = gcd(from_rate, to_rate);
+    let (up, down) = ((to_rate / g) as usize, (from_rate / g) as usize);
+    if up > MAX_POLYPHASE_PHASES {
+        return None;
+    }
+    let cache = POLYPHASE.get_or_init(Default::default);
+    let filter = cache
+        .lock()
+        .entry((from_rate, to_rate))
+        .or_insert_with(|| Arc::new(PolyphaseFilter::new(up, down)))
+        .clone();
+    Some(filter)
+}
+
+fn resample_sinc(samples: &[f32], from_rate: u32, to_rate: u32) -> Result<Vec<f32>> {
+    let pool = SINC_POOL.get_or_init(Default::default);
+    let cached = pool.lock().get_mut(&(from_rate, to_rate)).and_then(|engines| engines.pop());
+    let mut engine = match cached {
+        Some(engine) => engine,
+        None => SincEngine::new(from_rate, to_rate)?,
+    };
+    let output = engine.run(samples);
+    pool.lock().entry((from_rate, to_rate)).or_default().push(engine);
+    output
+}
+
+/// 有理数比率 `up / down` 的多相 FIR 重采样器
+///
+/// 相当于上采样 `up` 倍、低通滤波、再抽取 `down` 倍，但只计算被保留的输出点：
+/// 每个输出样本只需一个相位的 `POLYPHASE_TAPS` 次乘加。
+struct PolyphaseFilter {
+    up: usize,
+    down: usize,
+    /// 第 p 个相位的系数位于 `[p * POLYPHASE_TAPS, (p + 1) * POLYPHASE_TAPS)`
+    coeffs: Vec<f32>,
+}
+
+impl PolyphaseFilter {
+    fn new(up: usize, down: usize) -> Self {
+        // Kaiser 经验公式：过渡带宽度（每输入样本的周期数）与 beta
+        let transition = (STOPBAND_ATTENUATION_DB - 8.0)
+            / (2.285 * 2.0 * std::f64::consts::PI * POLYPHASE_TAPS as f64);
+        let beta = 0.1102 * (STOPBAND_ATTENUATION_DB - 8.7);
+        // 阻带起点取输入、输出奈奎斯特频率中较低者，截止频率位于过渡带中点
+        let cutoff = 0.5 * (up as f64 / down as f64).min(1.0) - transition / 2.0;
+        let half = (POLYPHASE_TAPS / 2) as f64;
+        let i0_beta = bessel_i0(beta);
+
+        let mut coeffs = Vec::with_capacity(up * POLYPHASE_TAPS);
+        let mut phase = vec![0.0f64; POLYPHASE_TAPS];
+        for p in 0..up {
+            for (k, c) in phase.iter_mut().enumerate() {
+                // 第 k 个抽头对应的输入样本到输出时刻的距离（以输入样本计）
+                let d = p as f64 / up as f64 + (half - 1.0) - k as f64;
+                let x = 2.0 * cutoff * d;
+                let sinc = if x.abs() < 1e-12 {
+                    1.0
+                } else {
+                    (std::f64::consts::PI * x).sin() / (std::f64::consts::PI * x)
+                };
+                let r = d / half;
+                let window = if r.abs() >= 1.0 {
+                    0.0
+                } else {
+                    bessel_i0(beta * (1.0 - r * r).sqrt()) / i0_beta
+                };
+                *c = sinc * window;
+            }
+            // 每个相位单独归一化，直流增益恒为 1
+            let sum: f64 = phase.iter().sum();
+            coeffs.extend(phase.iter().map(|&c| (c / sum) as f32));
+        }
+
+        Self { up, down, coeffs }
+    }
+
+    fn process(&self, input: &[f32]) -> Vec<f32> {
+        // 与 sinc 路径一致：输出长度为 `输入长度 × 比率` 四舍五入
+        let len = (input.len() * self.up * 2 + self.down) / (self.down * 2);
+        let lead = POLYPHASE_TAPS / 2 - 1;
+        let mut out = Vec::with_capacity(len);
+
+        for n in 0..len {
+            let t = n * self.down;
+            let (base, phase) = (t / self.up, t % self.up);
+            let taps = &self.coeffs[phase * POLYPHASE_TAPS..(phase + 1) * POLYPHASE_TAPS];
+            let sample = match base.checked_sub(lead) {
+                Some(start) if start + POLYPHASE_TAPS <= input.len() => {
+                    dot(taps, &input[start..start + POLYPHASE_TAPS])
+                }
+                // 首尾不足一个窗口：越界的输入按 0 处理
+                _ => taps
+                    .iter()
+                    .enumerate()
+                    .filter_map(|(k, &c)| {
+                        (base + k)
+                            .checked_sub(lead)
+                            .and_then(|i| input.get(i))
+                            .map(|&x| c * x)
+                    })
+                    .sum(),
+            };
+            out.push(sample);
+        }
+        out
+    }
+}
+
+/// 8 路独立累加的点积，便于编译器向量化
+fn dot(a: &[f32], b: &[f32]) -> f32 {
+    let (a_chunks, b_chunks) = (a.chunks_exact(8), b.chunks_exact(8));
+    let tail: f32 = a_chunks
+        .remainder()
+        .iter()
+        .zip(b_chunks.remainder())
+        .map(|(x, y)| x * y)
+        .sum();
+    let mut acc = [0.0f32; 8];
+    for (x, y) in a_chunks.zip(b_chunks) {
+        for i in 0..8 {
+            acc[i] += x[i] * y[i];
+        }
+    }
+    acc.iter().sum::<f32>() + tail
+}
+
+/// 第一类零阶修正贝塞尔函数（Kaiser 窗用），级数展开
+fn bessel_i0(x: f64) -> f64 {
+    let (mut sum, mut term) = (1.0, 1.0);
+    let half = x / 2.0;
+    for k in 1..64 {
+        term *= (half / k as f64).powi(2);
+        sum += term;
+        if term < sum * 1e-12 {
+            break;
+        }
+    }
+    sum
+}
+
+fn gcd(mut a: u32, mut b: u32) -> u32 {
+    while b != 0 {
+        (a, b) = (b, a % b);
+    }
+    a
+}
+
+/// 缓存的 rubato 重采样器及其复用的输入、输出缓冲
+struct SincEngine {
+    resampler: SincFixedIn<f32>,
+    ratio: f64,
+    input: Vec<f32>,
+    output: Vec<Vec<f32>>,
+}
+
+impl SincEngine {
+    fn new(from_rate: u32, to_rate: u32) -> Result<Self> {
+        let ratio = to_rate as f64 / from_rate as f64;
+        let resampler = SincFixedIn::<f32>::new(ratio, 2.0, sinc_params(), CHUNK_SIZE, 1)
+            .map_err(|e| AppError::Audio(format!("创建重采样器失败: {}", e)))?;
+        let output = resampler.output_buffer_allocate(true);
+        Ok(Self {
+            resampler,
+            ratio,
+            input: Vec::with_capacity(CHUNK_SIZE),
+            output,
+        })
+    }
+
+    fn run(&mut self, samples: &[f32]) -> Result<Vec<f32>> {
+        self.resampler.reset();
+        let expected = (samples.len() as f64 * self.ratio).round() as usize;
+        let mut out = Vec::with_capacity(expected + CHUNK_SIZE);
+
+        for chunk in samples.chunks(CHUNK_SIZE) {
+            // 最后一块需要填充到 CHUNK_SIZE
+            let input = if chunk.len() == CHUNK_SIZE {
+                chunk
+            } else {
+                self.input.clear();
+                self.input.extend_from_slice(chunk);
+                self.input.resize(CHUNK_SIZE, 0.0);
+                &self.input[..]
+            };
+            let (_, written) = self
+                .resampler
+                .process_into_buffer(&[input], &mut self.output, None)
+                .map_err(|e| AppError::Audio(format!("重采样失败: {}", e)))?;
+            out.extend_from_slice(&self.output[0][..written]);
+        }
+
+        out.truncate(expected);
+        Ok(out)
+    }
+}
+
+/// 把交错多声道数据按帧平均为单声道，追加到 `out`
+///
+/// 只处理完整的帧，返回消耗的样本数（剩余不足一帧的样本由调用方保留）。
+pub fn downmix_into(interleaved: &[f32], channels: usize, out: &mut Vec<f32>) -> usize {
+    let channels = channels.max(1);
+    if channels == 1 {
+        out.extend_from_slice(interleaved);
+        return interleaved.len();
+    }
+
+    let frames = interleaved.len() / channels;
+    let scale = 1.0 / channels as f32;
+    out.extend(
+        interleaved[..frames * channels]
+            .chunks_exact(channels)
+            .map(|frame| frame.iter().sum::<f32>() * scale),
+    );
+    frames * channels
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_downmix_averages_channels() {
+        let mut out = Vec::new();
+        let consumed = downmix_into(&[1.0, 0.0, 0.5, 0.5, 0.25], 2, &mut out);
+        assert_eq!(consumed, 4);
+        assert_eq!(out, vec![0.5, 0.5]);
+    }
+
+    #[test]
+    fn test_downmix_mono_passthrough() {
+        let mut out = Vec::new();
+        assert_eq!(downmix_into(&[0.1, 0.2, 0.3], 1, &mut out), 3);
+        assert_eq!(out, vec![0.1, 0.2, 0.3]);
+    }
+
+    #[test]
+    fn test_passthrough_same_rate() {
+        let mut resampler = StreamingResampler::new(16000, 16000).unwrap();
+        assert!(resampler.is_passthrough());
+
+        let mut out = Vec::new();
+        resampler.process(&[0.5; 100], &mut out).unwrap();
+        resampler.flush(&mut out).unwrap();
+        assert_eq!(out.len(), 100);
+    }
+
+    fn sine(freq: f64, rate: u32, secs: f64) -> Vec<f32> {
+        (0..(rate as f64 * secs) as usize)
+            .map(|i| (2.0 * std::f64::consts::PI * freq * i as f64 / rate as f64).sin() as f32)
+            .collect()
+    }
+
+    #[test]
+    fn test_resample_same_rate_borrows() {
+        let input = vec![0.25f32; 1000];
+        assert!(matches!(resample(&input, 16000, 16000).unwrap(), Cow::Borrowed(_)));
+    }
+
+    #[test]
+    fn test_polyphase_preserves_in_band_tone() {
+        for rate in [48000, 44100] {
+            let out = resample(&sine(1000.0, rate, 1.0), rate, 16000).unwrap();
+            assert_eq!(out.len(), 16000);
+
+            // 跳过首尾各一个滤波器窗口，与 16kHz 下的理想正弦逐点比较
+            let expected = sine(1000.0, 16000, 1.0);
+            let max_err = out[100..15900]
+                .iter()
+                .zip(&expected[100..15900])
+                .map(|(a, b)| (a - b).abs())
+                .fold(0.0f32, f32::max);
+            assert!(max_err < 0.01, "{}Hz: max error {}", rate, max_err);
+        }
+    }
+
+    #[test]
+    fn test_polyphase_rejects_aliasing_tone() {
+        // 12kHz 高于 16kHz 输出的奈奎斯特频率，应被滤除而不是折叠到 4kHz
+        let out = resample(&sine(12000.0, 48000, 1.0), 48000, 16000).unwrap();
+        let rms = (out[100..15900].iter().map(|x| x * x).sum::<f32>() / 15800.0).sqrt();
+        assert!(rms < 0.01, "aliasing rms {}", rms);
+    }
+
+    #[test]
+    fn test_polyphase_rejects_tones_just_above_output_nyquist() {
+        // 8–10kHz 的成分会折叠到 6–8kHz 的语音频带，阻带必须从 8kHz 开始
+        for rate in [48000, 44100] {
+            for freq in [8200.0, 8500.0, 9000.0, 10000.0] {
+                let out = resample(&sine(freq, rate, 1.0), rate, 16000).unwrap();
+                let rms = (out[200..15800].iter().map(|x| x * x).sum::<f32>() / 15600.0).sqrt();
+                // 输入 rms 约 0.707，要求衰减超过 57dB
+                assert!(rms < 0.001, "{}Hz @ {}Hz: aliasing rms {}", freq, rate, rms);
+            }
+        }
+    }
+
+    #[test]
+    fn test_engines_are_cached() {
+        let a = polyphase_filter(48000, 16000).unwrap();
+        let b = polyphase_filter(48000, 16000).unwrap();
+        assert!(Arc::ptr_eq(&a, &b));
+
+        // 11025→16000 约分后为 640/441，走 sinc 路径；重复调用结果一致
+        assert!(polyphase_filter(11025, 16000).is_none());
+        let input = sine(440.0, 11025, 0.5);
+        let first = resample(&input, 11025, 16000).unwrap().into_owned();
+        let second = resample(&input, 11025, 16000).unwrap().into_owned();
+        assert_eq!(first.len(), (input.len() as f64 * 16000.0 / 11025.0).round() as usize);
+        assert_eq!(first, second);
+    }
+
+    #[test]
+    fn test_streaming_polyphase_matches_one_shot() {
+        let input = sine(1000.0, 44100, 0.5);
+        let one_shot = resample(&input, 44100, 16000).unwrap().into_owned();
+
+        let mut resampler = StreamingResampler::new(44100, 16000).unwrap();
+        let mut streamed = Vec::new();
+        for chunk in input.chunks(441) {
+            resampler.process(chunk, &mut streamed).unwrap();
+        }
+        resampler.flush(&mut streamed).unwrap();
+
+        assert_eq!(streamed.len(), one_shot.len());
+        let max_diff = streamed
+            .iter()
+            .zip(&one_shot)
+            .map(|(a, b)| (a - b).abs())
+            .fold(0.0f32, f32::max);
+        assert!(max_diff < 1e-6, "max diff {}", max_diff);
+    }
+
+    #[test]
+    fn test_streaming_48k_to_16k_length() {
+        let mut resampler = StreamingResampler::new(48000, 16000).unwrap();
+        let input = vec![0.0f32; 48000];
+
+        let mut out = Vec::new();
+        for chunk in input.chunks(480) {
+            resampler.process(chunk, &mut out).unwrap();
+        }
+        resampler.flush(&mut out).unwrap();
+
+        assert_eq!(out.len(), 16000);
+    }
+}
@@ -0,0 +1,188 @@
+//! 文件转录结果缓存的寻址
+//!
+//! 同一个文件（或内容相同的另一份拷贝）用相同设置再次转录时，直接返回上次的结果。
+//! 结果本身存在 SQLite（见 `Database::get_cached_result`），按总大小做 LRU 淘汰。
+//!
+//! 键分两级：
+//! - 文件指纹：路径、大小、修改时间加转录设置，只读元数据，同一个文件再次转录时毫秒级命中；
+//! - 内容键：本地模型对解码后的 PCM 寻址（解码结果同时用于转录，只解码一次），
+//!   在线服务直接上传原文件，对原始字节寻址，不需要解码。
+//!
+//! 指纹映射到内容键（`Database::put_cache_alias`），内容相同的拷贝在第二级命中。
+
+use sha2::{Digest, Sha256};
+use std::io::Read;
+use std::path::Path;
+
+// 解码或结果格式变化时递增，让旧缓存自然失效（2：多声道改为平均混音）
+const CACHE_VERSION: u32 = 2;
+// 每次喂给哈希的样本数
+const HASH_BLOCK: usize = 4096;
+
+/// 增量计算缓存键：解码时逐块喂入样本，不需要整段音频留在内存中
+///
+/// 对解码后、重采样前的单声道样本寻址：16kHz 音频由原始样本和采样率唯一确定，
+/// 这样命中时不必先做一遍重采样，长文件也能很快返回。
+pub struct CacheKeyHasher {
+    hasher: Sha256,
+    samples: u64,
+    bytes: Vec<u8>,
+}
+
+impl CacheKeyHasher {
+    pub fn new() -> Self {
+        let mut hasher = Sha256::new();
+        hasher.update(CACHE_VERSION.to_le_bytes());
+        Self {
+            hasher,
+            samples: 0,
+            bytes: Vec::with_capacity(HASH_BLOCK * 4),
+        }
+    }
+
+    pub fn update(&mut self, samples: &[f32]) {
+        for chunk in samples.chunks(HASH_BLOCK) {
+            self.bytes.clear();
+            self.bytes.extend(chunk.iter().flat_map(|s| s.to_le_bytes()));
+            self.hasher.update(&self.bytes);
+        }
+        self.samples += samples.len() as u64;
+    }
+
+    pub fn finish(mut self, sample_rate: u32, model: &str, language: &str, prompt: &str) -> String {
+        self.hasher.update(self.samples.to_le_bytes());
+        self.hasher.update(sample_rate.to_le_bytes());
+        finish_with_settings(self.hasher, model, language, prompt)
+    }
+}
+
+/// 第一级键：文件路径、大小、修改时间和转录设置，只读元数据
+///
+/// 文件被改写后大小或修改时间随之变化，指纹失效，回落到内容键。
+pub fn file_fingerprint(path: &Path, model: &str, language: &str, prompt: &str) -> Option<String> {
+    let meta = std::fs::metadata(path).ok()?;
+    let modified = meta
+        .modified()
+        .ok()?
+        .duration_since(std::time::UNIX_EPOCH)
+        .ok()?;
+    let path = std::fs::canonicalize(path).unwrap_or_else(|_| path.to_path_buf());
+
+    let mut hasher = Sha256::new();
+    hasher.update(b"file");
+    hasher.update(CACHE_VERSION.to_le_bytes());
+    update_field(&mut hasher, path.to_string_lossy().as_bytes());
+    hasher.update(meta.len().to_le_bytes());
+    hasher.update(modified.as_nanos().to_le_bytes());
+    Some(finish_with_settings(hasher, model, language, prompt))
+}
+
+/// 在线服务的内容键：对原始字节流式哈希（上传的就是原文件，不需要解码）
+pub fn file_bytes_key(path: &Path, model: &str, language: &str, prompt: &str) -> std::io::Result<String> {
+    let mut file = std::fs::File::open(path)?;
+    let mut hasher = Sha256::new();
+    hasher.update(b"bytes");
+    hasher.update(CACHE_VERSION.to_le_bytes());
+    let mut buf = vec![0u8; 1 << 16];
+    loop {
+        let n = file.read(&mut buf)?;
+        if n == 0 {
+            break;
+        }
+        hasher.update(&buf[..n]);
+    }
+    Ok(finish_with_settings(hasher, model, language, prompt))
+}
+
+// 带长度前缀，避免字段拼接产生歧义
+fn update_field(hasher: &mut Sha256, field: &[u8]) {
+    hasher.update((field.len() as u64).to_le_bytes());
+    hasher.update(field);
+}
+
+fn finish_with_settings(mut hasher: Sha256, model: &str, language: &str, prompt: &str) -> String {
+    for field in [model, language, prompt] {
+        update_field(&mut hasher, field.as_bytes());
+    }
+    hasher
+        .finalize()
+        .iter()
+        .map(|b| format!("{:02x}", b))
+        .collect()
+}
+
+impl Default for CacheKeyHasher {
+    fn default() -> Self {
+        Self::new()
+    }
+}
+
+/// 对整段样本计算缓存键
+pub fn cache_key(samples: &[f32], sample_rate: u32, model: &str, language: &str, prompt: &str) -> String {
+    let mut hasher = CacheKeyHasher::new();
+    hasher.update(samples);
+    hasher.finish(sample_rate, model, language, prompt)
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_key_depends_on_audio_and_settings() {
+        let audio: Vec<f32> = (0..10000).map(|i| (i as f32 * 0.01).sin()).collect();
+        let key = cache_key(&audio, 16000, "whisper-base", "zh", "");
+
+        assert_eq!(key.len(), 64);
+        assert_eq!(key, cache_key(&audio.clone(), 16000, "whisper-base", "zh", ""));
+
+        let mut changed = audio.clone();
+        changed[5000] += 0.001;
+        assert_ne!(key, cache_key(&changed, 16000, "whisper-base", "zh", ""));
+        assert_ne!(key, cache_key(&audio, 44100, "whisper-base", "zh", ""));
+        assert_ne!(key, cache_key(&audio, 16000, "whisper-small", "zh", ""));
+        assert_ne!(key, cache_key(&audio, 16000, "whisper-base", "en", ""));
+        assert_ne!(key, cache_key(&audio, 16000, "whisper-base", "zh", "会议纪要"));
+        // 字段边界不能互相串
+        assert_ne!(
+            cache_key(&audio, 16000, "ab", "c", ""),
+            cache_key(&audio, 16000, "a", "bc", "")
+        );
+    }
+
+    #[test]
+    fn test_fingerprint_tracks_file_changes_and_bytes_key_tracks_content() {
+        let dir = tempfile::tempdir().unwrap();
+        let a = dir.path().join("a.mp3");
+        let b = dir.path().join("b.mp3");
+        std::fs::write(&a, b"ID3 some audio").unwrap();
+        std::fs::copy(&a, &b).unwrap();
+
+        let fp = file_fingerprint(&a, "whisper-base", "zh", "").unwrap();
+        assert_eq!(Some(fp.clone()), file_fingerprint(&a, "whisper-base", "zh", ""));
+        assert_ne!(Some(fp.clone()), file_fingerprint(&b, "whisper-base", "zh", ""));
+        assert_ne!(Some(fp.clone()), file_fingerprint(&a, "whisper-small", "zh", ""));
+
+        // 拷贝的原始字节相同，内容键相同
+        let key = file_bytes_key(&a, "gpt-4o-mini-transcribe", "zh", "").unwrap();
+        assert_eq!(key, file_bytes_key(&b, "gpt-4o-mini-transcribe", "zh", "").unwrap());
+
+        // 改写文件后指纹和内容键都变化
+        std::fs::write(&a, b"ID3 other audio!").unwrap();
+        assert_ne!(Some(fp), file_fingerprint(&a, "whisper-base", "zh", ""));
+        assert_ne!(key, file_bytes_key(&a, "gpt-4o-mini-transcribe", "zh", "").unwrap());
+    }
+
+    #[test]
+    fn test_incremental_key_ignores_block_boundaries() {
+        let audio: Vec<f32> = (0..10000).map(|i| (i as f32 * 0.01).sin()).collect();
+        let mut hasher = CacheKeyHasher::new();
+        for block in audio.chunks(1234) {
+            hasher.update(block);
+        }
+        assert_eq!(
+            hasher.finish(16000, "whisper-base", "zh", ""),
+            cache_key(&audio, 16000, "whisper-base", "zh", "")
+        );
+    }
+}
@@ -0,0 +1,512 @@
+//! 转录任务调度
+//!
+//! 本地推理一条通道，每个在线服务各一条通道；排队时交互式请求（听写）
+//! 总是排在批量任务（文件转录）前面，且批量任务最多占用 `上限 - 1` 个名额，
+//! 给听写留出空位（通道上限至少为 2，保证这个空位存在）。
+//!
+//! 批量名额可按设置调整（`set_batch_limits`），通道上限随之扩大，
+//! 始终比批量名额多 1 个。本地通道的名额不等于推理状态：长文件按块
+//! 向状态池借用 WhisperState，听写拿到名额后在下一个块边界优先取得状态。
+//!
+//! 每个任务带一个取消令牌：取消时排队中的任务直接返回，执行中的在线请求
+//! 随 future 一起被丢弃，本地推理通过 whisper.cpp 的 abort 回调中止。
+
+use crate::core::error::{AppError, Result};
+use crate::core::types::ModelProvider;
+use parking_lot::Mutex;
+use std::collections::{HashMap, VecDeque};
+use std::future::Future;
+use std::sync::atomic::{AtomicBool, Ordering};
+use std::sync::Arc;
+use tokio::sync::{oneshot, Notify};
+
+// 每个在线服务通道的并发上限
+const REMOTE_CONCURRENCY: usize = 4;
+// 设置中批量并发数的上限：每个执行中的本地文件都持有完整的解码音频
+pub const MAX_BATCH_CONCURRENCY: usize = 8;
+
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+pub enum Priority {
+    /// 用户正在等待结果：快捷键听写、录音页停止录音
+    Interactive,
+    /// 可以让路的后台任务：文件转录
+    Batch,
+}
+
+/// 可克隆的取消令牌
+#[derive(Debug, Clone, Default)]
+pub struct CancelToken {
+    inner: Arc<CancelInner>,
+}
+
+#[derive(Debug, Default)]
+struct CancelInner {
+    cancelled: AtomicBool,
+    notify: Notify,
+}
+
+impl CancelToken {
+    pub fn new() -> Self {
+        Self::default()
+    }
+
+    pub fn cancel(&self) {
+        self.inner.cancelled.store(true, Ordering::SeqCst);
+        self.inner.notify.notify_waiters();
+    }
+
+    pub fn is_cancelled(&self) -> bool {
+        self.inner.cancelled.load(Ordering::SeqCst)
+    }
+
+    /// 等待取消
+    pub async fn cancelled(&self) {
+        loop {
+            // 先注册再检查，避免错过检查与等待之间的 cancel
+            let notified = self.inner.notify.notified();
+            if self.is_cancelled() {
+                return;
+            }
+            notified.await;
+        }
+    }
+}
+
+/// 一个转录任务的调度上下文：优先级和取消令牌
+#[derive(Debug, Clone)]
+pub struct JobContext {
+    pub priority: Priority,
+    pub cancel: CancelToken,
+}
+
+impl JobContext {
+    pub fn interactive() -> Self {
+        Self {
+            priority: Priority::Interactive,
+            cancel: CancelToken::new(),
+        }
+    }
+
+    pub fn batch() -> Self {
+        Self {
+            priority: Priority::Batch,
+            cancel: CancelToken::new(),
+        }
+    }
+}
+
+impl Default for JobContext {
+    fn default() -> Self {
+        Self::interactive()
+    }
+}
+
+struct LaneState {
+    limit: usize,
+    batch_limit: usize,
+    running: usize,
+    running_batch: usize,
+    interactive: VecDeque<oneshot::Sender<Permit>>,
+    batch: VecDeque<oneshot::Sender<Permit>>,
+}
+
+/// 一条并发受限的执行通道
+struct Lane {
+    /// 创建时的并发上限；调整批量名额时通道上限不低于它
+    base_limit: usize,
+    state: Mutex<LaneState>,
+}
+
+impl Lane {
+    fn new(limit: usize) -> Arc<Self> {
+        let limit = limit.max(1);
+        Arc::new(Self {
+            base_limit: limit,
+            state: Mutex::new(LaneState {
+                limit,
+                batch_limit: (limit - 1).max(1),
+                running: 0,
+                running_batch: 0,
+                interactive: VecDeque::new(),
+                batch: VecDeque::new(),
+            }),
+        })
+    }
+
+    fn can_start(&self, state: &LaneState, priority: Priority) -> bool {
+        state.running < state.limit
+            && match priority {
+                Priority::Interactive => true,
+                Priority::Batch => state.running_batch < state.batch_limit && state.interactive.is_empty(),
+            }
+    }
+
+    /// 调整批量名额；通道上限扩大到 `batch + 1`，保留听写的空位
+    ///
+    /// 调小时已在执行的任务不受影响，结束后按新名额放行。
+    fn set_batch_limit(self: &Arc<Self>, batch: usize) {
+        let grants = {
+            let mut state = self.state.lock();
+            state.batch_limit = batch.max(1);
+            state.limit = self.base_limit.max(state.batch_limit + 1);
+            self.dispatch(&mut state)
+        };
+        for (tx, permit) in grants {
+            let _ = tx.send(permit);
+        }
+    }
+
+    fn grant(self: &Arc<Self>, state: &mut LaneState, priority: Priority) -> Permit {
+        state.running += 1;
+        if priority == Priority::Batch {
+            state.running_batch += 1;
+        }
+        Permit {
+            lane: Some(self.clone()),
+            priority,
+        }
+    }
+
+    async fn acquire(self: &Arc<Self>, priority: Priority, cancel: &CancelToken) -> Result<Permit> {
+        if cancel.is_cancelled() {
+            return Err(AppError::Cancelled);
+        }
+
+        let rx = {
+            let mut state = self.state.lock();
+            let queue_empty = match priority {
+                Priority::Interactive => state.interactive.is_empty(),
+                Priority::Batch => state.batch.is_empty(),
+            };
+            if queue_empty && self.can_start(&state, priority) {
+                return Ok(self.grant(&mut state, priority));
+            }
+            let (tx, rx) = oneshot::channel();
+            match priority {
+                Priority::Interactive => state.interactive.push_back(tx),
+                Priority::Batch => state.batch.push_back(tx),
+            }
+            rx
+        };
+
+        // 取消时 rx 被丢弃；若名额恰好已发出，Permit 随之 drop 并转交下一个等待者
+        tokio::select! {
+            permit = rx => permit.map_err(|_| AppError::Other("调度器已关闭".into())),
+            _ = cancel.cancelled() => Err(AppError::Cancelled),
+        }
+    }
+
+    fn release(self: &Arc<Self>, priority: Priority) {
+        let grants = {
+            let mut state = self.state.lock();
+            state.running -= 1;
+            if priority == Priority::Batch {
+                state.running_batch -= 1;
+            }
+            self.dispatch(&mut state)
+        };
+        // 在锁外发送：接收方已取消时 Permit 在这里 drop，会再次进入 release
+        for (tx, permit) in grants {
+            let _ = tx.send(permit);
+        }
+    }
+
+    fn dispatch(self: &Arc<Self>, state: &mut LaneState) -> Vec<(oneshot::Sender<Permit>, Permit)> {
+        state.interactive.retain(|tx| !tx.is_closed());
+        state.batch.retain(|tx| !tx.is_closed());
+
+        let mut grants = Vec::new();
+        loop {
+            let priority = if !state.interactive.is_empty() {
+                Priority::Interactive
+            } else if !state.batch.is_empty() {
+                Priority::Batch
+            } else {
+                break;
+            };
+            if !self.can_start(state, priority) {
+                break;
+            }
+            let tx = match priority {
+                Priority::Interactive => state.interactive.pop_front(),
+                Priority::Batch => state.batch.pop_front(),
+            }
+            .expect("queue checked non-empty");
+            let permit = self.grant(state, priority);
+            grants.push((tx, permit));
+        }
+        grants
+    }
+}
+
+/// 通道中的一个执行名额，drop 时归还
+pub struct Permit {
+    lane: Option<Arc<Lane>>,
+    priority: Priority,
+}
+
+impl Drop for Permit {
+    fn drop(&mut self) {
+        if let Some(lane) = self.lane.take() {
+            lane.release(self.priority);
+        }
+    }
+}
+
+pub struct TranscriptionScheduler {
+    local: Arc<Lane>,
+    remote_limit: usize,
+    /// 在线服务通道按需创建；记录批量名额，新通道创建时沿用
+    remote: Mutex<(Option<usize>, HashMap<ModelProvider, Arc<Lane>>)>,
+}
+
+impl TranscriptionScheduler {
+    pub fn new() -> Self {
+        Self::with_limits(crate::core::state_pool::default_capacity(), REMOTE_CONCURRENCY)
+    }
+
+    /// 每条通道至少 2 个名额：核数少的机器上状态池只有 1 个状态，
+    /// 若通道也只有 1 个名额，文件转录会占住它直到整个文件结束，听写只能排在后面
+    pub fn with_limits(local: usize, remote: usize) -> Self {
+        Self {
+            local: Lane::new(local.max(2)),
+            remote_limit: remote.max(2),
+            remote: Mutex::new((None, HashMap::new())),
+        }
+    }
+
+    /// 按设置调整批量任务的并发数：本地通道和每个在线服务通道分别最多 `local` / `remote` 个批量任务
+    ///
+    /// 本地批量名额可以超过推理状态数：多个文件按块轮流借用状态，总吞吐不变，但都在推进。
+    pub fn set_batch_limits(&self, local: usize, remote: usize) {
+        let (local, remote) = (
+            local.clamp(1, MAX_BATCH_CONCURRENCY),
+            remote.clamp(1, MAX_BATCH_CONCURRENCY),
+        );
+        self.local.set_batch_limit(local);
+        let mut lanes = self.remote.lock();
+        lanes.0 = Some(remote);
+        for lane in lanes.1.values() {
+            lane.set_batch_limit(remote);
+        }
+    }
+
+    fn lane(&self, provider: &ModelProvider) -> Arc<Lane> {
+        if *provider == ModelProvider::LocalWhisper {
+            return self.local.clone();
+        }
+        let mut lanes = self.remote.lock();
+        let (batch_limit, lanes) = &mut *lanes;
+        lanes
+            .entry(provider.clone())
+            .or_insert_with(|| {
+                let lane = Lane::new(self.remote_limit);
+                if let Some(batch) = *batch_limit {
+                    lane.set_batch_limit(batch);
+                }
+                lane
+            })
+            .clone()
+    }
+
+    /// 在对应后端的通道中排队执行 `job`；取消令牌触发时立即返回 `AppError::Cancelled`
+    pub async fn run<T, F>(&self, provider: &ModelProvider, ctx: &JobContext, job: F) -> Result<T>
+    where
+        F: Future<Output = Result<T>>,
+    {
+        let _permit = self.lane(provider).acquire(ctx.priority, &ctx.cancel).await?;
+
+        tokio::select! {
+            result = job => result,
+            _ = ctx.cancel.cancelled() => Err(AppError::Cancelled),
+        }
+    }
+}
+
+impl Default for TranscriptionScheduler {
+    fn default() -> Self {
+        Self::new()
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use std::time::Duration;
+
+    #[tokio::test]
+    async fn test_interactive_jumps_ahead_of_batch() {
+        let lane = Lane::new(1);
+        let never = CancelToken::new();
+        let first = lane.acquire(Priority::Interactive, &never).await.unwrap();
+
+        let order = Arc::new(Mutex::new(Vec::new()));
+        let spawn_waiter = |priority: Priority, label: &'static str| {
+            let lane = lane.clone();
+            let order = order.clone();
+            tokio::spawn(async move {
+                let _permit = lane.acquire(priority, &CancelToken::new()).await.unwrap();
+                order.lock().push(label);
+            })
+        };
+
+        let batch = spawn_waiter(Priority::Batch, "batch");
+        tokio::time::sleep(Duration::from_millis(20)).await;
+        let interactive = spawn_waiter(Priority::Interactive, "interactive");
+        tokio::time::sleep(Duration::from_millis(20)).await;
+
+        drop(first);
+        interactive.await.unwrap();
+        batch.await.unwrap();
+        assert_eq!(*order.lock(), vec!["interactive", "batch"]);
+    }
+
+    #[tokio::test]
+    async fn test_batch_leaves_room_for_interactive() {
+        let lane = Lane::new(2);
+        let never = CancelToken::new();
+        let _batch = lane.acquire(Priority::Batch, &never).await.unwrap();
+
+        let second_batch = tokio::time::timeout(
+            Duration::from_millis(50),
+            lane.acquire(Priority::Batch, &never),
+        )
+        .await;
+        assert!(second_batch.is_err(), "second batch job should wait");
+
+        let interactive = tokio::time::timeout(
+            Duration::from_millis(50),
+            lane.acquire(Priority::Interactive, &never),
+        )
+        .await;
+        assert!(interactive.is_ok());
+    }
+
+    #[tokio::test]
+    async fn test_interactive_starts_while_batch_runs_on_single_state() {
+        let scheduler = Arc::new(TranscriptionScheduler::with_limits(1, 1));
+        let (started_tx, started_rx) = oneshot::channel();
+        let (finish_tx, finish_rx) = oneshot::channel::<()>();
+
+        let batch = {
+            let scheduler = scheduler.clone();
+            tokio::spawn(async move {
+                scheduler
+                    .run(&ModelProvider::LocalWhisper, &JobContext::batch(), async move {
+                        let _ = started_tx.send(());
+                        let _ = finish_rx.await;
+                        Ok(())
+                    })
+                    .await
+            })
+        };
+        started_rx.await.unwrap();
+
+        // 批量任务仍在执行，听写不必等它结束
+        let interactive = tokio::time::timeout(
+            Duration::from_millis(100),
+            scheduler.run(&ModelProvider::LocalWhisper, &JobContext::interactive(), async { Ok("dictation") }),
+        )
+        .await;
+        assert_eq!(interactive.expect("interactive job should not wait for batch").unwrap(), "dictation");
+
+        // 第二个批量任务仍要等待
+        let second_batch = tokio::time::timeout(
+            Duration::from_millis(50),
+            scheduler.run(&ModelProvider::LocalWhisper, &JobContext::batch(), async { Ok(()) }),
+        )
+        .await;
+        assert!(second_batch.is_err());
+
+        let _ = finish_tx.send(());
+        batch.await.unwrap().unwrap();
+    }
+
+    #[tokio::test]
+    async fn test_batch_limits_follow_settings_per_provider() {
+        let scheduler = Arc::new(TranscriptionScheduler::with_limits(1, 1));
+        scheduler.set_batch_limits(3, 1);
+
+        // 持有名额直到测试结束
+        let (release_tx, _) = tokio::sync::broadcast::channel::<()>(1);
+        let hold = |provider: ModelProvider| {
+            let scheduler = scheduler.clone();
+            let mut release = release_tx.subscribe();
+            let (started_tx, started_rx) = oneshot::channel();
+            tokio::spawn(async move {
+                scheduler
+                    .run(&provider, &JobContext::batch(), async move {
+                        let _ = started_tx.send(());
+                        let _ = release.recv().await;
+                        Ok(())
+                    })
+                    .await
+            });
+            started_rx
+        };
+        let started = |rx: oneshot::Receiver<()>| tokio::time::timeout(Duration::from_millis(100), rx);
+
+        // 本地通道放行 3 个批量任务，第 4 个等待，听写仍有空位
+        for _ in 0..3 {
+            assert!(started(hold(ModelProvider::LocalWhisper)).await.is_ok());
+        }
+        assert!(started(hold(ModelProvider::LocalWhisper)).await.is_err());
+        let interactive = tokio::time::timeout(
+            Duration::from_millis(100),
+            scheduler.run(&ModelProvider::LocalWhisper, &JobContext::interactive(), async { Ok(()) }),
+        )
+        .await;
+        assert!(interactive.is_ok());
+
+        // 每个在线服务各自一条通道，互不占用批量名额
+        assert!(started(hold(ModelProvider::OpenAI)).await.is_ok());
+        assert!(started(hold(ModelProvider::LuYinWang)).await.is_ok());
+        assert!(started(hold(ModelProvider::OpenAI)).await.is_err());
+
+        let _ = release_tx.send(());
+    }
+
+    #[tokio::test]
+    async fn test_cancel_while_queued() {
+        let lane = Lane::new(1);
+        let held = lane.acquire(Priority::Interactive, &CancelToken::new()).await.unwrap();
+
+        let token = CancelToken::new();
+        let waiter = {
+            let lane = lane.clone();
+            let token = token.clone();
+            tokio::spawn(async move { lane.acquire(Priority::Batch, &token).await.map(|_| ()) })
+        };
+        tokio::time::sleep(Duration::from_millis(20)).await;
+        token.cancel();
+        assert!(matches!(waiter.await.unwrap(), Err(AppError::Cancelled)));
+
+        // 取消的等待者不会吞掉名额
+        drop(held);
+        let next = tokio::time::timeout(
+            Duration::from_millis(50),
+            lane.acquire(Priority::Batch, &CancelToken::new()),
+        )
+        .await;
+        assert!(next.is_ok());
+    }
+
+    #[tokio::test]
+    async fn test_run_drops_cancelled_job() {
+        let scheduler = TranscriptionScheduler::with_limits(1, 1);
+        let ctx = JobContext::interactive();
+        let cancel = ctx.cancel.clone();
+        tokio::spawn(async move {
+            tokio::time::sleep(Duration::from_millis(20)).await;
+            cancel.cancel();
+        });
+
+        let result: Result<()> = scheduler
+            .run(&ModelProvider::OpenAI, &ctx, async {
+                tokio::time::sleep(Duration::from_secs(30)).await;
+                Ok(())
+            })
+            .await;
+        assert!(matches!(result, Err(AppError::Cancelled)));
+    }
+}
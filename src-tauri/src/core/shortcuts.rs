@@ -145,6 +145,8 @@ pub struct HoldToTalkListener {
     /// 回调函数
     on_press: Arc<Mutex<Option<Arc<dyn Fn() + Send + Sync>>>>,
     on_release: Arc<Mutex<Option<Arc<dyn Fn() + Send + Sync>>>>,
+    /// Esc 取消回调（未设置时 Esc 不做处理）
+    on_cancel: Arc<Mutex<Option<Arc<dyn Fn() -> bool + Send + Sync>>>>,
     /// 内部状态（需要在切换快捷键时重置）
     is_recording: Arc<AtomicBool>,
     pressed_keys: Arc<Mutex<HashSet<String>>>,
@@ -161,6 +163,7 @@ impl HoldToTalkListener {
             activation_mode: Arc::new(Mutex::new(ActivationMode::HoldOrToggle)),
             on_press: Arc::new(Mutex::new(None)),
             on_release: Arc::new(Mutex::new(None)),
+            on_cancel: Arc::new(Mutex::new(None)),
             is_recording: Arc::new(AtomicBool::new(false)),
             pressed_keys: Arc::new(Mutex::new(HashSet::new())),
             keys_down_time: Arc::new(AtomicU64::new(0)),
@@ -185,6 +188,11 @@ impl HoldToTalkListener {
         *self.activation_mode.lock() = mode;
     }
 
+    /// 设置（或清除）按下 Esc 时的取消回调；回调返回 true 表示确实取消了，此时重置按住/切换状态
+    pub fn set_cancel_handler(&self, on_cancel: Option<Arc<dyn Fn() -> bool + Send + Sync>>) {
+        *self.on_cancel.lock() = on_cancel;
+    }
+
     /// 启动监听。rdev::listen 只会被调用一次。
     /// 后续调用只更新回调函数并启用监听。
     pub fn start<P, R>(&self, on_press: P, on_release: R) -> Result<()>
@@ -215,6 +223,7 @@ impl HoldToTalkListener {
         let activation_mode = self.activation_mode.clone();
         let on_press_holder = self.on_press.clone();
         let on_release_holder = self.on_release.clone();
+        let on_cancel_holder = self.on_cancel.clone();
         let is_recording = self.is_recording.clone();
         let pressed_keys = self.pressed_keys.clone();
         let keys_down_time = self.keys_down_time.clone();
@@ -238,6 +247,17 @@ impl HoldToTalkListener {
 
                 match event.event_type {
                     EventType::KeyPress(key) => {
+                        // Esc 取消（Esc 本身是快捷键的一部分时除外）
+                        if key == Key::Escape && !target_keys.contains(&Key::Escape) {
+                            if let Some(cb) = on_cancel_holder.lock().as_ref() {
+                                if cb() {
+                                    is_recording.store(false, Ordering::SeqCst);
+                                    keys_down_time.store(0, Ordering::SeqCst);
+                                }
+                            }
+                            return;
+                        }
+
                         let key_str = format!("{:?}", key);
                         let was_already_pressed = pressed_keys.lock().contains(&key_str);
                         pressed_keys.lock().insert(key_str);
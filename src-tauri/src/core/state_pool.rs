@@ -0,0 +1,214 @@
+use crate::core::error::{AppError, Result};
+use crate::core::scheduler::{CancelToken, Priority};
+use parking_lot::{Condvar, Mutex};
+use std::ops::{Deref, DerefMut};
+use std::sync::Arc;
+use std::time::Duration;
+use whisper_rs::{WhisperContext, WhisperState};
+
+/// 单个 WhisperState 最多使用的线程数；更多线程对 whisper.cpp 收益很小
+const MAX_THREADS_PER_STATE: usize = 8;
+/// 每个模型最多同时存在的推理状态数
+const MAX_STATES_PER_MODEL: usize = 4;
+/// 排队等待状态时检查取消令牌的间隔
+const CANCEL_POLL_INTERVAL: Duration = Duration::from_millis(50);
+
+struct PoolSlots {
+    idle: Vec<WhisperState>,
+    checked_out: usize,
+    // 正在等待的交互式请求数；大于 0 时批量请求不取状态
+    interactive_waiting: usize,
+}
+
+/// 一个已加载模型上的 WhisperState 池
+///
+/// 状态数量有上限，每个状态的线程数按 CPU 核数均分，
+/// 并发请求共享同一份模型权重，超出上限的请求排队等待空闲状态；
+/// 有交互式请求在等待时，批量请求（长文件分块）让出下一个空闲状态。
+pub struct StatePool {
+    ctx: Arc<WhisperContext>,
+    slots: Mutex<PoolSlots>,
+    available: Condvar,
+    capacity: usize,
+    threads_per_state: usize,
+}
+
+impl StatePool {
+    pub fn new(ctx: Arc<WhisperContext>) -> Self {
+        let (capacity, threads_per_state) = pool_shape(available_cores());
+        Self::with_shape(ctx, capacity, threads_per_state)
+    }
+
+    pub fn with_shape(ctx: Arc<WhisperContext>, capacity: usize, threads_per_state: usize) -> Self {
+        Self {
+            ctx,
+            slots: Mutex::new(PoolSlots {
+                idle: Vec::new(),
+                checked_out: 0,
+                interactive_waiting: 0,
+            }),
+            available: Condvar::new(),
+            capacity: capacity.max(1),
+            threads_per_state: threads_per_state.max(1),
+        }
+    }
+
+    pub fn context(&self) -> &Arc<WhisperContext> {
+        &self.ctx
+    }
+
+    pub fn capacity(&self) -> usize {
+        self.capacity
+    }
+
+    pub fn threads_per_state(&self) -> usize {
+        self.threads_per_state
+    }
+
+    /// 取出一个空闲状态；池已满时阻塞等待（应在阻塞线程中调用）
+    pub fn acquire(self: &Arc<Self>) -> Result<PooledState> {
+        self.acquire_with(Priority::Interactive, &CancelToken::new())
+    }
+
+    /// 按优先级取出一个空闲状态；排队期间 `cancel` 触发时返回 `AppError::Cancelled`
+    pub fn acquire_with(self: &Arc<Self>, priority: Priority, cancel: &CancelToken) -> Result<PooledState> {
+        let mut slots = self.slots.lock();
+        let mut waiting = false;
+        let idle = loop {
+            if cancel.is_cancelled() {
+                if waiting {
+                    slots.interactive_waiting -= 1;
+                    drop(slots);
+                    // 批量请求可能正因这个交互式等待者让路
+                    self.available.notify_all();
+                }
+                return Err(AppError::Cancelled);
+            }
+            let may_take = priority == Priority::Interactive || slots.interactive_waiting == 0;
+            if may_take {
+                if let Some(state) = slots.idle.pop() {
+                    slots.checked_out += 1;
+                    break Some(state);
+                }
+                if slots.checked_out + slots.idle.len() < self.capacity {
+                    slots.checked_out += 1;
+                    break None;
+                }
+            }
+            if priority == Priority::Interactive && !waiting {
+                waiting = true;
+                slots.interactive_waiting += 1;
+            }
+            self.available.wait_for(&mut slots, CANCEL_POLL_INTERVAL);
+        };
+        if waiting {
+            slots.interactive_waiting -= 1;
+        }
+        drop(slots);
+
+        let state = match idle {
+            Some(state) => state,
+            None => match self.ctx.create_state() {
+                Ok(state) => state,
+                Err(e) => {
+                    self.slots.lock().checked_out -= 1;
+                    self.available.notify_all();
+                    return Err(AppError::Transcription(format!("创建推理状态失败: {}", e)));
+                }
+            },
+        };
+        Ok(PooledState {
+            state: Some(state),
+            pool: self.clone(),
+        })
+    }
+
+    fn release(&self, state: WhisperState) {
+        let mut slots = self.slots.lock();
+        slots.checked_out -= 1;
+        slots.idle.push(state);
+        drop(slots);
+        // 唤醒全部等待者，由它们按优先级决定谁取走状态
+        self.available.notify_all();
+    }
+}
+
+/// 池中借出的状态，drop 时自动归还
+pub struct PooledState {
+    state: Option<WhisperState>,
+    pool: Arc<StatePool>,
+}
+
+impl PooledState {
+    pub fn threads(&self) -> usize {
+        self.pool.threads_per_state
+    }
+}
+
+impl Deref for PooledState {
+    type Target = WhisperState;
+
+    fn deref(&self) -> &WhisperState {
+        self.state.as_ref().expect("state present until drop")
+    }
+}
+
+impl DerefMut for PooledState {
+    fn deref_mut(&mut self) -> &mut WhisperState {
+        self.state.as_mut().expect("state present until drop")
+    }
+}
+
+impl Drop for PooledState {
+    fn drop(&mut self) {
+        if let Some(state) = self.state.take() {
+            self.pool.release(state);
+        }
+    }
+}
+
+/// 按本机核数计算的默认状态数（调度器据此限制本地推理并发）
+pub fn default_capacity() -> usize {
+    pool_shape(available_cores()).0
+}
+
+fn available_cores() -> usize {
+    std::thread::available_parallelism()
+        .map(|n| n.get())
+        .unwrap_or(4)
+}
+
+/// 根据核数决定状态数和每个状态的线程数：每 4 核一个状态，线程数均分
+fn pool_shape(cores: usize) -> (usize, usize) {
+    let cores = cores.max(1);
+    let capacity = (cores / 4).clamp(1, MAX_STATES_PER_MODEL);
+    let threads = (cores / capacity).clamp(1, MAX_THREADS_PER_STATE);
+    (capacity, threads)
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    #[test]
+    fn test_pool_shape_small_machine() {
+        assert_eq!(pool_shape(1), (1, 1));
+        assert_eq!(pool_shape(4), (1, 4));
+    }
+
+    #[test]
+    fn test_pool_shape_does_not_oversubscribe() {
+        for cores in 1..=64 {
+            let (capacity, threads) = pool_shape(cores);
+            assert!(capacity >= 1 && capacity <= MAX_STATES_PER_MODEL);
+            assert!(threads >= 1 && threads <= MAX_THREADS_PER_STATE);
+            assert!(capacity * threads <= cores.max(1));
+        }
+    }
+
+    #[test]
+    fn test_pool_shape_large_machine() {
+        assert_eq!(pool_shape(8), (2, 4));
+        assert_eq!(pool_shape(16), (4, 4));
+    }
+}
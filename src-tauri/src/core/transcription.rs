@@ -1,25 +1,207 @@
+use crate::core::hedge::{self, CancelOnDrop, HedgeWinner, Hedged};
+use crate::core::recording_store::{RecordingReader, MAX_IN_MEMORY_SAMPLES, SEGMENT_SAMPLES};
+use crate::core::scheduler::{CancelToken, JobContext};
+use crate::core::upload_codec::{self, UploadCodec};
+use crate::core::vad::VadConfig;
 use crate::core::{error::Result, types::*};
 use reqwest::multipart;
-use rubato::{SincFixedIn, SincInterpolationParameters, SincInterpolationType, WindowFunction, Resampler};
+use std::borrow::Cow;
 use std::path::Path;
+use std::sync::Arc;
 
 const LUYIN_BASE_URL: &str = "https://ly.gl173.com";
 const OPENAI_BASE_URL: &str = "https://api.openai.com/v1";
-const POLL_INTERVAL_MS: u64 = 3000;
-const MAX_POLL_COUNT: u32 = 60;
+// 录音王任务轮询：每次间隔乘以该系数，直到上限
+const POLL_BACKOFF: f64 = 1.5;
+const MAX_POLL_INTERVAL_SECS: f64 = 5.0;
+// 轮询间隔的随机抖动幅度（±20%），避免多个任务同步打到服务端
+const POLL_JITTER: f64 = 0.2;
+// 时长未知的文件按 128kbps 估算时长
+const UNKNOWN_DURATION_BYTES_PER_SEC: f64 = 16000.0;
 
 pub struct TranscriptionService {
     client: reqwest::Client,
     settings: AppSettings,
     app_data_dir: Option<std::path::PathBuf>,
+    job: JobContext,
+    luyin_base_url: String,
+    openai_base_url: String,
+    on_progress: Option<Arc<dyn Fn(TranscriptionProgress) + Send + Sync>>,
+}
+
+/// 录音王任务轮询节奏
+///
+/// 首次间隔按音频时长缩放（2 秒的片段约 0.3 秒后就查询），之后按 `POLL_BACKOFF` 退避到
+/// `MAX_POLL_INTERVAL_SECS`；总超时为 1 分钟加音频时长的 2 倍，最长 30 分钟。
+struct PollSchedule {
+    next: std::time::Duration,
+    timeout: std::time::Duration,
+}
+
+impl PollSchedule {
+    fn for_audio(audio_secs: f64) -> Self {
+        let audio_secs = audio_secs.max(0.0);
+        Self {
+            next: std::time::Duration::from_secs_f64((audio_secs * 0.05).clamp(0.3, 2.0)),
+            timeout: std::time::Duration::from_secs_f64((60.0 + audio_secs * 2.0).min(30.0 * 60.0)),
+        }
+    }
+
+    /// 本次等待时长（`jitter` 取值 [-1, 1]），并推进退避
+    fn next_delay(&mut self, jitter: f64) -> std::time::Duration {
+        let delay = self.next.mul_f64(1.0 + POLL_JITTER * jitter.clamp(-1.0, 1.0));
+        self.next = self
+            .next
+            .mul_f64(POLL_BACKOFF)
+            .min(std::time::Duration::from_secs_f64(MAX_POLL_INTERVAL_SECS));
+        delay
+    }
+}
+
+/// [-1, 1] 内的随机数；抖动不需要密码学强度，用标准库每次随机初始化的哈希种子即可
+fn random_jitter() -> f64 {
+    use std::hash::{BuildHasher, Hasher};
+    let bits = std::collections::hash_map::RandomState::new().build_hasher().finish();
+    (bits as f64 / u64::MAX as f64) * 2.0 - 1.0
+}
+
+/// 流式上传的 WAV 请求体；返回的计数器统计已发送的字节数
+fn stream_upload<S>(chunks: S) -> (AudioUpload, Arc<std::sync::atomic::AtomicU64>)
+where
+    S: futures_util::Stream<Item = std::io::Result<Vec<u8>>> + Send + Sync + 'static,
+{
+    use futures_util::StreamExt;
+
+    let sent = Arc::new(std::sync::atomic::AtomicU64::new(0));
+    let counter = sent.clone();
+    let counted = chunks.inspect(move |chunk| {
+        if let Ok(chunk) = chunk {
+            counter.fetch_add(chunk.len() as u64, std::sync::atomic::Ordering::Relaxed);
+        }
+    });
+
+    let upload = AudioUpload {
+        body: UploadBody::Stream {
+            body: reqwest::Body::wrap_stream(counted),
+            sent: sent.clone(),
+        },
+        file_name: "recording.wav".to_string(),
+        mime: "audio/wav",
+        duration_secs: None,
+    };
+    (upload, sent)
+}
+
+// 长录音上传时请求体缓冲的分块数（每块一个录音段，约 1MB PCM16）
+const RECORDING_UPLOAD_BUFFER: usize = 2;
+
+/// 已落盘录音的 WAV 流：带准确长度的文件头，之后逐段读取并编码为 PCM16
+///
+/// 在后台任务中读取，内存中最多缓冲 `RECORDING_UPLOAD_BUFFER` 段；请求体被丢弃时任务随之结束。
+fn recording_wav_stream(recording: RecordingReader, from: usize) -> ChunkStream {
+    let (tx, rx) = tokio::sync::mpsc::channel(RECORDING_UPLOAD_BUFFER);
+    tokio::spawn(async move {
+        let total = recording.len();
+        let header = crate::core::audio::wav_header(recording.sample_rate(), total.saturating_sub(from));
+        if tx.send(Ok(header)).await.is_err() {
+            return;
+        }
+        let mut pos = from;
+        while pos < total {
+            let end = (pos + SEGMENT_SAMPLES).min(total);
+            let reader = recording.clone();
+            let chunk = tokio::task::spawn_blocking(move || {
+                let samples = reader.read_range(pos..end)?;
+                let mut chunk = Vec::with_capacity(samples.len() * 2);
+                crate::core::audio::append_pcm16(&samples, &mut chunk);
+                Ok::<_, crate::core::error::AppError>(chunk)
+            })
+            .await;
+            let chunk = match chunk {
+                Ok(Ok(chunk)) => Ok(chunk),
+                Ok(Err(e)) => Err(std::io::Error::new(std::io::ErrorKind::Other, e.to_string())),
+                Err(e) => Err(std::io::Error::new(std::io::ErrorKind::Other, e.to_string())),
+            };
+            let failed = chunk.is_err();
+            if tx.send(chunk).await.is_err() || failed {
+                return;
+            }
+            pos = end;
+        }
+    });
+    ChunkStream(rx)
+}
+
+/// 把分块通道包装成请求体需要的 Stream
+pub struct ChunkStream(pub tokio::sync::mpsc::Receiver<std::io::Result<Vec<u8>>>);
+
+impl futures_util::Stream for ChunkStream {
+    type Item = std::io::Result<Vec<u8>>;
+
+    fn poll_next(
+        mut self: std::pin::Pin<&mut Self>,
+        cx: &mut std::task::Context<'_>,
+    ) -> std::task::Poll<Option<Self::Item>> {
+        self.0.poll_recv(cx)
+    }
+}
+
+/// 待上传的音频：内存中的完整文件内容
+struct AudioUpload {
+    body: UploadBody,
+    file_name: String,
+    mime: &'static str,
+    /// 音频时长（秒），未知时为 None
+    duration_secs: Option<f64>,
+}
+
+enum UploadBody {
+    Bytes(Vec<u8>),
+    /// 边录边传：16kHz PCM16 WAV 分块发送，长度未知；`sent` 统计已发送的字节数
+    Stream {
+        body: reqwest::Body,
+        sent: Arc<std::sync::atomic::AtomicU64>,
+    },
+}
+
+impl AudioUpload {
+    fn into_part(self) -> Result<multipart::Part> {
+        let part = match self.body {
+            UploadBody::Bytes(bytes) => multipart::Part::bytes(bytes),
+            UploadBody::Stream { body, .. } => multipart::Part::stream(body),
+        };
+        Ok(part.file_name(self.file_name).mime_str(self.mime)?)
+    }
+
+    /// 音频时长：已知时直接用；边录边传按已发送的字节数计算（上传结束后才准确）；否则按文件大小估算
+    fn duration_estimator(&self) -> impl Fn() -> f64 + Send + 'static {
+        let known = self.duration_secs;
+        let (size, sent) = match &self.body {
+            UploadBody::Bytes(bytes) => (bytes.len(), None),
+            UploadBody::Stream { sent, .. } => (0, Some(sent.clone())),
+        };
+        move || {
+            known
+                .or_else(|| {
+                    sent.as_ref()
+                        .map(|s| s.load(std::sync::atomic::Ordering::Relaxed) as f64 / (2.0 * 16000.0))
+                })
+                .unwrap_or(size as f64 / UNKNOWN_DURATION_BYTES_PER_SEC)
+        }
+    }
 }
 
 impl TranscriptionService {
-    pub fn new(settings: AppSettings) -> Self {
+    /// `client` 通常是 `AppState::http` 的共享客户端，连接池在多次转录间复用
+    pub fn new(settings: AppSettings, client: reqwest::Client) -> Self {
         Self {
-            client: reqwest::Client::new(),
+            client,
             settings,
             app_data_dir: None,
+            job: JobContext::default(),
+            luyin_base_url: LUYIN_BASE_URL.to_string(),
+            openai_base_url: OPENAI_BASE_URL.to_string(),
+            on_progress: None,
         }
     }
 
@@ -28,23 +210,223 @@ impl TranscriptionService {
         self
     }
 
-    /// 根据 selected_model 路由到对应后端
+    /// 指定优先级和取消令牌（本地推理据此排队并响应取消）
+    pub fn with_job(mut self, job: JobContext) -> Self {
+        self.job = job;
+        self
+    }
+
+    /// 接收在线转录的进度（上传、服务端处理、完成）
+    pub fn with_progress(mut self, on_progress: impl Fn(TranscriptionProgress) + Send + Sync + 'static) -> Self {
+        self.on_progress = Some(Arc::new(on_progress));
+        self
+    }
+
+    /// 替换录音王接口地址（本地测试替身）
+    pub fn with_luyin_base_url(mut self, url: impl Into<String>) -> Self {
+        self.luyin_base_url = url.into();
+        self
+    }
+
+    /// 替换 OpenAI 接口地址（本地测试替身）
+    pub fn with_openai_base_url(mut self, url: impl Into<String>) -> Self {
+        self.openai_base_url = url.into();
+        self
+    }
+
+    fn report_progress(&self, stage: &str, progress: Option<f64>, elapsed: std::time::Duration, timeout_secs: Option<f64>) {
+        if let Some(on_progress) = &self.on_progress {
+            on_progress(TranscriptionProgress {
+                stage: stage.to_string(),
+                progress,
+                elapsed_secs: elapsed.as_secs_f64(),
+                timeout_secs,
+            });
+        }
+    }
+
+    pub fn provider(&self) -> ModelProvider {
+        ModelProvider::from_model_id(&self.settings.selected_model)
+    }
+
+    /// 提前建立到在线服务的连接，让握手与用户说话并行（本地模型和未集成的服务不需要）
+    pub async fn prewarm(client: &reqwest::Client, provider: &ModelProvider) {
+        let origin = match provider {
+            ModelProvider::LuYinWang => LUYIN_BASE_URL,
+            ModelProvider::OpenAI => "https://api.openai.com",
+            _ => return,
+        };
+        crate::core::http::prewarm(client, origin).await;
+    }
+
+    /// 根据 selected_model 路由到对应后端；开启对冲时超过延迟预算再并行启动本地备用模型
     pub async fn transcribe_audio(&self, audio_path: &Path) -> Result<TranscriptionResult> {
+        let fallback_model = match self.hedge_model() {
+            Some(model) => model,
+            None => return self.transcribe_audio_inner(audio_path).await,
+        };
+
+        let cancel = CancelOnDrop(CancelToken::new());
+        let fallback = self.fallback_service(fallback_model, cancel.0.clone());
+        let hedged = hedge::race(self.transcribe_audio_inner(audio_path), self.hedge_budget(), || {
+            fallback.transcribe_audio_inner(audio_path)
+        })
+        .await?;
+        Ok(self.record_hedge(hedged, fallback_model))
+    }
+
+    async fn transcribe_audio_inner(&self, audio_path: &Path) -> Result<TranscriptionResult> {
         let provider = ModelProvider::from_model_id(&self.settings.selected_model);
+        if provider == ModelProvider::LocalWhisper {
+            return self.transcribe_local_whisper(audio_path).await;
+        }
+
+        let file_name = audio_path
+            .file_name()
+            .and_then(|n| n.to_str())
+            .unwrap_or("audio.wav")
+            .to_string();
+        let bytes = tokio::fs::read(audio_path).await?;
+        let duration_secs = hound::WavReader::new(std::io::Cursor::new(&bytes))
+            .ok()
+            .map(|r| r.duration() as f64 / r.spec().sample_rate.max(1) as f64);
+        let upload = AudioUpload {
+            body: UploadBody::Bytes(bytes),
+            file_name,
+            mime: "audio/wav",
+            duration_secs,
+        };
+        self.transcribe_remote(provider, upload).await
+    }
 
+    /// 在线服务：上传内存中的音频（字节直接移交给 multipart body，不再复制）
+    async fn transcribe_remote(
+        &self,
+        provider: ModelProvider,
+        upload: AudioUpload,
+    ) -> Result<TranscriptionResult> {
         match provider {
-            ModelProvider::LuYinWang => self.transcribe_luyin(audio_path).await,
-            ModelProvider::OpenAI => self.transcribe_openai(audio_path).await,
-            ModelProvider::Deepgram => self.transcribe_openai_compat(audio_path, "deepgram").await,
-            ModelProvider::Mistral => self.transcribe_openai_compat(audio_path, "mistral").await,
-            ModelProvider::ElevenLabs => self.transcribe_openai_compat(audio_path, "elevenlabs").await,
-            ModelProvider::LocalWhisper => self.transcribe_local_whisper(audio_path).await,
+            ModelProvider::LuYinWang => self.transcribe_luyin(upload).await,
+            ModelProvider::OpenAI => self.transcribe_openai(upload).await,
+            ModelProvider::Deepgram => self.transcribe_openai_compat(upload, "deepgram").await,
+            ModelProvider::Mistral => self.transcribe_openai_compat(upload, "mistral").await,
+            ModelProvider::ElevenLabs => self.transcribe_openai_compat(upload, "elevenlabs").await,
+            ModelProvider::LocalWhisper => Err(crate::core::error::AppError::Transcription(
+                "本地模型不走上传".into(),
+            )),
         }
     }
 
+    /// 转录内存中的采样；采样的所有权移入，本地推理和在线编码线程共享同一份，不再复制
     pub async fn transcribe_samples(
         &self,
-        samples: &[f32],
+        samples: Vec<f32>,
+        sample_rate: u32,
+    ) -> Result<TranscriptionResult> {
+        if !self.settings.vad_enabled {
+            return self.transcribe_speech(Arc::new(samples), sample_rate).await;
+        }
+
+        // VAD：裁掉首尾静音、压缩长停顿；完全没有语音时直接跳过推理/上传
+        let outcome = crate::core::vad::trim_silence(&samples, sample_rate, &VadConfig::default());
+        println!(
+            "🔇 VAD: 移除 {:.2}s 静音（{:.2}s → {:.2}s）",
+            outcome.removed_secs,
+            samples.len() as f64 / sample_rate as f64,
+            outcome.samples.len() as f64 / sample_rate as f64
+        );
+
+        if !outcome.has_speech {
+            return Ok(TranscriptionResult {
+                text: String::new(),
+                language: None,
+                duration: Some(samples.len() as f64 / sample_rate as f64),
+                vad_removed_secs: Some(outcome.removed_secs),
+                ..Default::default()
+            });
+        }
+
+        let mut result = self.transcribe_speech(Arc::new(outcome.samples), sample_rate).await?;
+        result.vad_removed_secs = Some(outcome.removed_secs);
+        Ok(result)
+    }
+
+    /// 转录一次录音中第 `from` 个样本之后的部分
+    ///
+    /// 不超过 `MAX_IN_MEMORY_SAMPLES` 的录音（通常的听写）读入内存，与 `transcribe_samples`
+    /// 相同（VAD、级联、对冲）；更长的录音不整段读入：本地模型按窗口从段文件读取解码，
+    /// 在线服务逐段编码为 PCM16 WAV 流式上传。
+    pub async fn transcribe_recording(
+        &self,
+        recording: &RecordingReader,
+        from: usize,
+    ) -> Result<TranscriptionResult> {
+        let from = from.min(recording.len());
+        let sample_rate = recording.sample_rate();
+        let remaining = recording.len() - from;
+        if remaining <= MAX_IN_MEMORY_SAMPLES {
+            let reader = recording.clone();
+            let samples = tokio::task::spawn_blocking(move || reader.read_range(from..reader.len()))
+                .await
+                .map_err(|e| {
+                    crate::core::error::AppError::Transcription(format!("读取录音线程异常: {}", e))
+                })??;
+            return self.transcribe_samples(samples, sample_rate).await;
+        }
+
+        let duration_secs = remaining as f64 / sample_rate as f64;
+        println!("📼 长录音 {:.1}s：按段流式转录，不整段读入内存", duration_secs);
+        let provider = self.provider();
+        if provider == ModelProvider::LocalWhisper {
+            if sample_rate != 16000 {
+                return Err(crate::core::error::AppError::Transcription(format!(
+                    "长录音需为 16kHz，实际 {}Hz",
+                    sample_rate
+                )));
+            }
+            let model_path = self.local_model_path()?;
+            let reader = recording.clone();
+            let job = self.job.clone();
+            let mut result = tokio::task::spawn_blocking(move || {
+                crate::core::local_whisper::transcribe_local_recording(&model_path, &reader, from, None, &job)
+            })
+            .await
+            .map_err(|e| {
+                crate::core::error::AppError::Transcription(format!("推理线程异常: {}", e))
+            })??;
+            result.model = Some(self.settings.selected_model.clone());
+            return Ok(result);
+        }
+
+        let (mut upload, sent) = stream_upload(recording_wav_stream(recording.clone(), from));
+        upload.duration_secs = Some(duration_secs);
+        let mut result = self.transcribe_remote(provider, upload).await?;
+        result.upload_bytes = Some(sent.load(std::sync::atomic::Ordering::Relaxed));
+        result.duration = Some(duration_secs);
+        Ok(result)
+    }
+
+    /// 解码语音部分；开启对冲时超过延迟预算再并行启动本地备用模型
+    async fn transcribe_speech(&self, samples: Arc<Vec<f32>>, sample_rate: u32) -> Result<TranscriptionResult> {
+        let fallback_model = match self.hedge_model() {
+            Some(model) => model,
+            None => return self.transcribe_samples_inner(samples, sample_rate).await,
+        };
+
+        // 守卫先于备用服务创建、后于它释放：离开时取消仍在运行的本地推理
+        let cancel = CancelOnDrop(CancelToken::new());
+        let fallback = self.fallback_service(fallback_model, cancel.0.clone());
+        let fallback_samples = samples.clone();
+        let hedged = hedge::race(self.transcribe_samples_inner(samples, sample_rate), self.hedge_budget(), || {
+            fallback.transcribe_samples_inner(fallback_samples, sample_rate)
+        })
+        .await?;
+        Ok(self.record_hedge(hedged, fallback_model))
+    }
+
+    async fn transcribe_samples_inner(
+        &self,
+        samples: Arc<Vec<f32>>,
         sample_rate: u32,
     ) -> Result<TranscriptionResult> {
         let provider = ModelProvider::from_model_id(&self.settings.selected_model);
@@ -65,31 +447,76 @@ impl TranscriptionService {
                 )));
             }
 
-            // 重采样到 16kHz（如果需要）
-            let resampled = Self::ensure_16khz(samples, sample_rate)?;
+            // 重采样到 16kHz（如果需要）；已是 16kHz 时直接共用调用方的 Arc，
+            // 重采样结果移入新的 Arc（级联两次解码共用同一份）
+            let resampled: Arc<Vec<f32>> = match Self::ensure_16khz(&samples, sample_rate)? {
+                Cow::Borrowed(_) => samples.clone(),
+                Cow::Owned(output) => Arc::new(output),
+            };
+
+            if let Some(fast_model) = self.cascade_model(app_data_dir) {
+                let first = self.decode_local(app_data_dir, fast_model, resampled.clone()).await?;
+                let confidence = first.confidence.unwrap_or(0.0);
+                if confidence >= self.settings.cascade_threshold {
+                    println!("⚡ 级联: {} 置信度 {:.2}，直接采用", fast_model, confidence);
+                    return Ok(first);
+                }
+                println!(
+                    "🔁 级联: {} 置信度 {:.2} < {:.2}，改用 {} 重新解码",
+                    fast_model, confidence, self.settings.cascade_threshold, model_id
+                );
+            }
 
-            let models_dir = crate::core::local_whisper::get_models_dir(app_data_dir);
-            let file_name = Self::get_model_filename(model_id);
-            let model_path = models_dir.join(file_name);
+            return self.decode_local(app_data_dir, model_id, resampled).await;
+        }
 
-            return tokio::task::spawn_blocking(move || {
-                crate::core::local_whisper::transcribe_local(&model_path, &resampled, None)
-            })
+        // 在线模型：在内存中编码为该服务接受的最小格式后上传，不落临时文件
+        let codec = UploadCodec::select(&self.settings.upload_codec, &provider);
+        let pcm = samples.clone();
+        let encoded = tokio::task::spawn_blocking(move || upload_codec::encode(&pcm, sample_rate, codec))
             .await
             .map_err(|e| {
-                crate::core::error::AppError::Transcription(format!("推理线程异常: {}", e))
-            })?;
-        }
-
-        // 在线模型：需要写 WAV 文件上传
-        let temp_dir = std::env::temp_dir();
-        let temp_path = temp_dir.join(format!("recording_{}.wav", chrono::Utc::now().timestamp()));
-
-        crate::core::audio::save_audio_to_wav(samples, sample_rate, temp_path.to_str().unwrap())?;
-        let result = self.transcribe_audio(&temp_path).await;
-        let _ = tokio::fs::remove_file(&temp_path).await;
+                crate::core::error::AppError::Transcription(format!("编码线程异常: {}", e))
+            })??;
+        let upload_bytes = encoded.bytes.len() as u64;
+        println!(
+            "📦 上传 {}: {} 字节（16-bit WAV 为 {} 字节），编码 {:.1}ms",
+            codec.extension(),
+            upload_bytes,
+            44 + samples.len() * 2,
+            encoded.encode_ms
+        );
+
+        let upload = AudioUpload {
+            body: UploadBody::Bytes(encoded.bytes),
+            file_name: format!("recording.{}", codec.extension()),
+            mime: codec.mime(),
+            duration_secs: Some(samples.len() as f64 / sample_rate as f64),
+        };
+        let mut result = self.transcribe_remote(provider, upload).await?;
+        result.upload_bytes = Some(upload_bytes);
+        result.upload_encode_ms = Some(encoded.encode_ms);
+        Ok(result)
+    }
 
-        result
+    /// 边录边传：上传请求在录音开始时就发出，`chunks` 随录音推进产出 WAV 数据，
+    /// 流结束即上传完成。仅录音王和 OpenAI 支持
+    pub async fn transcribe_upload_stream<S>(&self, chunks: S) -> Result<TranscriptionResult>
+    where
+        S: futures_util::Stream<Item = std::io::Result<Vec<u8>>> + Send + Sync + 'static,
+    {
+        let provider = self.provider();
+        let (upload, sent) = stream_upload(chunks);
+        let mut result = match provider {
+            ModelProvider::LuYinWang | ModelProvider::OpenAI => self.transcribe_remote(provider, upload).await?,
+            _ => {
+                return Err(crate::core::error::AppError::Transcription(
+                    "该服务不支持边录边传".into(),
+                ))
+            }
+        };
+        result.upload_bytes = Some(sent.load(std::sync::atomic::Ordering::Relaxed));
+        Ok(result)
     }
 
     // ================================================================
@@ -108,37 +535,34 @@ impl TranscriptionService {
             })
     }
 
-    async fn transcribe_luyin(&self, audio_path: &Path) -> Result<TranscriptionResult> {
+    async fn transcribe_luyin(&self, upload: AudioUpload) -> Result<TranscriptionResult> {
         let token = self.get_luyin_token()?;
 
-        let file_id = self.luyin_upload(audio_path, token).await?;
+        let audio_secs = upload.duration_estimator();
+
+        let started = std::time::Instant::now();
+        self.report_progress("uploading", None, started.elapsed(), None);
+        let file_id = self.luyin_upload(upload, token).await?;
         let task_id = self.luyin_create_task(file_id, token).await?;
-        let text = self.luyin_poll(task_id, token).await?;
+        let text = self.luyin_poll(task_id, token, audio_secs()).await?;
+        self.report_progress("done", Some(1.0), started.elapsed(), None);
 
         Ok(TranscriptionResult {
             text,
             language: Some("zh".to_string()),
             duration: None,
+            ..Default::default()
         })
     }
 
-    async fn luyin_upload(&self, audio_path: &Path, token: &str) -> Result<i64> {
-        let file = tokio::fs::read(audio_path).await?;
-        let file_name = audio_path
-            .file_name()
-            .and_then(|n| n.to_str())
-            .unwrap_or("audio.wav")
-            .to_string();
-
-        let part = multipart::Part::bytes(file)
-            .file_name(file_name)
-            .mime_str("audio/wav")?;
+    async fn luyin_upload(&self, upload: AudioUpload, token: &str) -> Result<i64> {
+        let part = upload.into_part()?;
 
         let form = multipart::Form::new().part("file[]", part);
 
         let response = self
             .client
-            .post(format!("{}/api/v1/upload-file", LUYIN_BASE_URL))
+            .post(format!("{}/api/v1/upload-file", self.luyin_base_url))
             .bearer_auth(token)
             .multipart(form)
             .send()
@@ -174,7 +598,7 @@ impl TranscriptionService {
     async fn luyin_create_task(&self, file_id: i64, token: &str) -> Result<String> {
         let response = self
             .client
-            .post(format!("{}/api/v1/task-add", LUYIN_BASE_URL))
+            .post(format!("{}/api/v1/task-add", self.luyin_base_url))
             .bearer_auth(token)
             .form(&[("file_id", file_id.to_string())])
             .send()
@@ -194,11 +618,18 @@ impl TranscriptionService {
             .ok_or_else(|| crate::core::error::AppError::Transcription("响应中无 task_id".into()))
     }
 
-    async fn luyin_poll(&self, task_id: String, token: &str) -> Result<String> {
-        for _ in 0..MAX_POLL_COUNT {
+    /// 轮询任务进度，间隔和总超时都由音频时长推出（见 `PollSchedule`）
+    async fn luyin_poll(&self, task_id: String, token: &str, audio_secs: f64) -> Result<String> {
+        let mut schedule = PollSchedule::for_audio(audio_secs);
+        let started = std::time::Instant::now();
+
+        loop {
+            // 任务刚创建时不会立即完成，先等一个间隔再查
+            tokio::time::sleep(schedule.next_delay(random_jitter())).await;
+
             let response = self
                 .client
-                .post(format!("{}/api/v1/task-progress", LUYIN_BASE_URL))
+                .post(format!("{}/api/v1/task-progress", self.luyin_base_url))
                 .bearer_auth(token)
                 .form(&[("task_id", &task_id)])
                 .send()
@@ -212,8 +643,8 @@ impl TranscriptionService {
                 )));
             }
 
-            let progress = body["data"]["progress"].as_i64().unwrap_or(0);
-            if progress == 1 {
+            let progress = &body["data"]["progress"];
+            if progress.as_i64() == Some(1) {
                 return body["data"]["result"]
                     .as_str()
                     .map(String::from)
@@ -222,12 +653,15 @@ impl TranscriptionService {
                     });
             }
 
-            tokio::time::sleep(tokio::time::Duration::from_millis(POLL_INTERVAL_MS)).await;
+            let timeout = schedule.timeout.as_secs_f64();
+            self.report_progress("processing", progress.as_f64(), started.elapsed(), Some(timeout));
+            if started.elapsed() >= schedule.timeout {
+                return Err(crate::core::error::AppError::Transcription(format!(
+                    "转录超时（{:.0} 秒）",
+                    timeout
+                )));
+            }
         }
-
-        Err(crate::core::error::AppError::Transcription(
-            "转录超时（3分钟）".into(),
-        ))
     }
 
     // ================================================================
@@ -246,19 +680,10 @@ impl TranscriptionService {
             })
     }
 
-    async fn transcribe_openai(&self, audio_path: &Path) -> Result<TranscriptionResult> {
+    async fn transcribe_openai(&self, upload: AudioUpload) -> Result<TranscriptionResult> {
         let api_key = self.get_openai_key()?;
 
-        let file = tokio::fs::read(audio_path).await?;
-        let file_name = audio_path
-            .file_name()
-            .and_then(|n| n.to_str())
-            .unwrap_or("audio.wav")
-            .to_string();
-
-        let part = multipart::Part::bytes(file)
-            .file_name(file_name)
-            .mime_str("audio/wav")?;
+        let part = upload.into_part()?;
 
         let model = &self.settings.selected_model;
         let form = multipart::Form::new()
@@ -267,7 +692,7 @@ impl TranscriptionService {
 
         let response = self
             .client
-            .post(format!("{}/audio/transcriptions", OPENAI_BASE_URL))
+            .post(format!("{}/audio/transcriptions", self.openai_base_url))
             .bearer_auth(api_key)
             .multipart(form)
             .send()
@@ -297,6 +722,7 @@ impl TranscriptionService {
             text,
             language: body["language"].as_str().map(String::from),
             duration: body["duration"].as_f64(),
+            ..Default::default()
         })
     }
 
@@ -306,7 +732,7 @@ impl TranscriptionService {
 
     async fn transcribe_openai_compat(
         &self,
-        _audio_path: &Path,
+        _upload: AudioUpload,
         provider: &str,
     ) -> Result<TranscriptionResult> {
         Err(crate::core::error::AppError::Transcription(format!(
@@ -320,6 +746,33 @@ impl TranscriptionService {
     // ================================================================
 
     async fn transcribe_local_whisper(&self, audio_path: &Path) -> Result<TranscriptionResult> {
+        let model_path = self.local_model_path()?;
+
+        // 内存映射后流式解码：按块平均为单声道，直接送入重采样器得到 16kHz
+        let path = audio_path.to_path_buf();
+        let samples = tokio::task::spawn_blocking(move || crate::core::audio_decode::decode_to_16khz(&path))
+            .await
+            .map_err(|e| {
+                crate::core::error::AppError::Transcription(format!("解码线程异常: {}", e))
+            })??;
+
+        self.run_local_chunked(model_path, samples).await
+    }
+
+    /// 用本地模型转录已解码的 16kHz 单声道采样（调用方已解码过文件时避免重复解码）
+    pub async fn transcribe_decoded(&self, samples: Vec<f32>) -> Result<TranscriptionResult> {
+        if self.provider() != ModelProvider::LocalWhisper {
+            return Err(crate::core::error::AppError::Transcription(format!(
+                "模型 {} 不是本地模型，无法直接转录采样",
+                self.settings.selected_model
+            )));
+        }
+        let model_path = self.local_model_path()?;
+        self.run_local_chunked(model_path, samples).await
+    }
+
+    /// 当前本地模型的文件路径；数据目录未设置或模型未下载时报错
+    fn local_model_path(&self) -> Result<std::path::PathBuf> {
         let app_data_dir = self.app_data_dir.as_ref().ok_or_else(|| {
             crate::core::error::AppError::Transcription(
                 "应用数据目录未设置，无法使用本地模型".into(),
@@ -334,20 +787,17 @@ impl TranscriptionService {
             )));
         }
 
-        // 读取音频文件并获取采样率
-        let file_bytes = tokio::fs::read(audio_path).await?;
-        let (samples, source_sample_rate) = Self::decode_audio_to_f32_with_rate(&file_bytes)?;
-
-        // 重采样到 16kHz（如果需要）
-        let samples = Self::ensure_16khz(&samples, source_sample_rate)?;
+        crate::core::local_whisper::model_path(app_data_dir, model_id).ok_or_else(|| {
+            crate::core::error::AppError::Transcription(format!("未知模型: {}", model_id))
+        })
+    }
 
+    async fn run_local_chunked(&self, model_path: std::path::PathBuf, samples: Vec<f32>) -> Result<TranscriptionResult> {
         // 本地推理（在阻塞线程中运行，避免阻塞 tokio）
-        let models_dir = crate::core::local_whisper::get_models_dir(app_data_dir);
-        let file_name = Self::get_model_filename(model_id);
-        let model_path = models_dir.join(file_name);
-
+        // 长文件在静音处切块，多个推理状态并行解码
+        let job = self.job.clone();
         tokio::task::spawn_blocking(move || {
-            crate::core::local_whisper::transcribe_local(&model_path, &samples, None)
+            crate::core::local_whisper::transcribe_local_chunked(&model_path, &samples, None, &job)
         })
         .await
         .map_err(|e| {
@@ -355,124 +805,209 @@ impl TranscriptionService {
         })?
     }
 
-    fn get_model_filename(model_id: &str) -> &'static str {
-        match model_id {
-            "whisper-tiny" => "ggml-tiny.bin",
-            "whisper-base" => "ggml-base.bin",
-            "whisper-small" => "ggml-small.bin",
-            "whisper-medium" => "ggml-medium.bin",
-            "whisper-large-v3" => "ggml-large-v3.bin",
-            "whisper-large-v3-turbo" => "ggml-large-v3-turbo.bin",
-            _ => "ggml-small.bin",
+    /// 对冲模式的备用模型：主服务是在线服务、备用的本地模型已下载时才启用
+    fn hedge_model(&self) -> Option<&str> {
+        if !self.settings.hedge_enabled || self.provider() == ModelProvider::LocalWhisper {
+            return None;
+        }
+        let app_data_dir = self.app_data_dir.as_ref()?;
+        let model = self.settings.hedge_model.as_str();
+        if ModelProvider::from_model_id(model) != ModelProvider::LocalWhisper
+            || !crate::core::local_whisper::is_model_downloaded(app_data_dir, model)
+        {
+            println!("⚠️ 对冲备用模型 {} 不可用，只使用主服务", model);
+            return None;
         }
+        Some(model)
     }
 
-    /// 将 WAV 文件字节解码为 f32 samples (mono)，同时返回原始采样率
-    fn decode_audio_to_f32_with_rate(wav_bytes: &[u8]) -> Result<(Vec<f32>, u32)> {
-        let cursor = std::io::Cursor::new(wav_bytes);
-        let reader = hound::WavReader::new(cursor).map_err(|e| {
-            crate::core::error::AppError::Transcription(format!("WAV 解码失败: {}", e))
-        })?;
+    fn hedge_budget(&self) -> std::time::Duration {
+        std::time::Duration::from_millis(self.settings.hedge_budget_ms)
+    }
 
-        let spec = reader.spec();
-        let source_rate = spec.sample_rate;
-
-        let samples: Vec<f32> = match spec.sample_format {
-            hound::SampleFormat::Int => {
-                let max_val = (1 << (spec.bits_per_sample - 1)) as f32;
-                reader
-                    .into_samples::<i32>()
-                    .filter_map(|s| s.ok())
-                    .map(|s| s as f32 / max_val)
-                    .collect()
-            }
-            hound::SampleFormat::Float => {
-                reader
-                    .into_samples::<f32>()
-                    .filter_map(|s| s.ok())
-                    .collect()
-            }
-        };
+    /// 对冲用的备用服务：共用客户端和数据目录，改用 `model_id`；取消令牌独立，落败时单独取消
+    fn fallback_service(&self, model_id: &str, cancel: CancelToken) -> TranscriptionService {
+        let mut settings = self.settings.clone();
+        settings.selected_model = model_id.to_string();
+        settings.hedge_enabled = false;
+        settings.cascade_enabled = false;
+        TranscriptionService {
+            client: self.client.clone(),
+            settings,
+            app_data_dir: self.app_data_dir.clone(),
+            job: JobContext {
+                priority: self.job.priority,
+                cancel,
+            },
+            luyin_base_url: self.luyin_base_url.clone(),
+            openai_base_url: self.openai_base_url.clone(),
+            on_progress: None,
+        }
+    }
 
-        // 如果是多声道，取第一个声道
-        let channels = spec.channels as usize;
-        let mono = if channels > 1 {
-            samples.iter().step_by(channels).copied().collect()
-        } else {
-            samples
+    /// 记录胜出的模型和耗时
+    fn record_hedge(&self, hedged: Hedged<TranscriptionResult>, fallback_model: &str) -> TranscriptionResult {
+        let winner = match hedged.winner {
+            HedgeWinner::Primary => self.settings.selected_model.as_str(),
+            HedgeWinner::Secondary => fallback_model,
         };
+        let latency_ms = hedged.latency.as_secs_f64() * 1000.0;
+        println!("🏁 对冲: {} 胜出，耗时 {:.0}ms", winner, latency_ms);
 
-        Ok((mono, source_rate))
+        let mut result = hedged.value;
+        result.model = Some(winner.to_string());
+        result.latency_ms = Some(latency_ms);
+        result
     }
 
-    /// 确保 samples 是 16kHz，如果不是则重采样
-    fn ensure_16khz(samples: &[f32], source_rate: u32) -> Result<Vec<f32>> {
-        const TARGET_RATE: u32 = 16000;
-        if source_rate == TARGET_RATE {
-            return Ok(samples.to_vec());
+    /// 级联模式下先行解码的快速模型：须与选中模型不同、已下载，且本身是本地模型
+    fn cascade_model(&self, app_data_dir: &Path) -> Option<&str> {
+        let fast = self.settings.cascade_model.as_str();
+        if !self.settings.cascade_enabled || fast == self.settings.selected_model {
+            return None;
         }
-
-        Self::resample(samples, source_rate, TARGET_RATE)
-    }
-
-    /// 使用 rubato 进行高质量重采样
-    fn resample(samples: &[f32], from_rate: u32, to_rate: u32) -> Result<Vec<f32>> {
-        if samples.is_empty() {
-            return Ok(Vec::new());
+        if !crate::core::local_whisper::is_model_downloaded(app_data_dir, fast) {
+            println!("⚠️ 级联模型 {} 尚未下载，直接使用选中的模型", fast);
+            return None;
         }
+        Some(fast)
+    }
 
-        let params = SincInterpolationParameters {
-            sinc_len: 256,
-            f_cutoff: 0.95,
-            interpolation: SincInterpolationType::Linear,
-            oversampling_factor: 256,
-            window: WindowFunction::BlackmanHarris2,
-        };
-
-        let ratio = to_rate as f64 / from_rate as f64;
-        let chunk_size = 1024;
+    /// 用指定的本地模型解码 16kHz 音频（在阻塞线程中运行）
+    async fn decode_local(
+        &self,
+        app_data_dir: &Path,
+        model_id: &str,
+        samples: Arc<Vec<f32>>,
+    ) -> Result<TranscriptionResult> {
+        let model_path = crate::core::local_whisper::model_path(app_data_dir, model_id)
+            .ok_or_else(|| {
+                crate::core::error::AppError::Transcription(format!("未知模型: {}", model_id))
+            })?;
 
-        let mut resampler = SincFixedIn::<f64>::new(
-            ratio,
-            2.0,
-            params,
-            chunk_size,
-            1, // mono
-        )
+        let job = self.job.clone();
+        let mut result = tokio::task::spawn_blocking(move || {
+            crate::core::local_whisper::transcribe_local_with(&model_path, &samples, None, &job)
+        })
+        .await
         .map_err(|e| {
-            crate::core::error::AppError::Transcription(format!("创建重采样器失败: {}", e))
-        })?;
-
-        let mut output: Vec<f32> = Vec::with_capacity((samples.len() as f64 * ratio) as usize + 1024);
+            crate::core::error::AppError::Transcription(format!("推理线程异常: {}", e))
+        })??;
+        result.model = Some(model_id.to_string());
+        Ok(result)
+    }
 
-        // 分块处理
-        let mut pos = 0;
-        while pos < samples.len() {
-            let end = (pos + chunk_size).min(samples.len());
-            let mut chunk: Vec<f64> = samples[pos..end].iter().map(|&s| s as f64).collect();
+    /// 确保 samples 是 16kHz，如果不是则重采样（已是 16kHz 时直接借用，不复制）
+    fn ensure_16khz(samples: &[f32], source_rate: u32) -> Result<Cow<'_, [f32]>> {
+        const TARGET_RATE: u32 = 16000;
+        let output = crate::core::resampler::resample(samples, source_rate, TARGET_RATE)?;
+        if source_rate != TARGET_RATE {
+            println!("🔄 重采样: {}Hz → {}Hz ({} → {} samples)", source_rate, TARGET_RATE, samples.len(), output.len());
+        }
+        Ok(output)
+    }
+}
 
-            // 最后一块需要填充到 chunk_size
-            if chunk.len() < chunk_size {
-                chunk.resize(chunk_size, 0.0);
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use std::io::{BufRead, BufReader, Read, Write};
+    use std::sync::atomic::{AtomicUsize, Ordering};
+
+    /// 录音王 task-progress 替身：前 `pending` 次返回处理中，之后返回结果
+    fn serve_task_progress(pending: usize) -> (String, Arc<AtomicUsize>) {
+        let listener = std::net::TcpListener::bind("127.0.0.1:0").unwrap();
+        let url = format!("http://{}", listener.local_addr().unwrap());
+        let polls = Arc::new(AtomicUsize::new(0));
+        let counter = polls.clone();
+        std::thread::spawn(move || {
+            for stream in listener.incoming() {
+                let stream = match stream {
+                    Ok(stream) => stream,
+                    Err(_) => break,
+                };
+                let mut reader = BufReader::new(stream.try_clone().unwrap());
+                let mut request_line = String::new();
+                reader.read_line(&mut request_line).unwrap();
+                let mut content_length = 0;
+                loop {
+                    let mut line = String::new();
+                    reader.read_line(&mut line).unwrap();
+                    if line == "\r\n" || line.is_empty() {
+                        break;
+                    }
+                    if let Some((name, value)) = line.split_once(':') {
+                        if name.eq_ignore_ascii_case("content-length") {
+                            content_length = value.trim().parse().unwrap();
+                        }
+                    }
+                }
+                let mut body = vec![0u8; content_length];
+                reader.read_exact(&mut body).unwrap();
+                assert!(request_line.contains("/api/v1/task-progress"));
+
+                let n = counter.fetch_add(1, Ordering::SeqCst);
+                let json = if n < pending {
+                    r#"{"code":200,"data":{"progress":0}}"#
+                } else {
+                    r#"{"code":200,"data":{"progress":1,"result":"你好世界"}}"#
+                };
+                let mut out = stream;
+                let _ = write!(
+                    out,
+                    "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: {}\r\nConnection: close\r\n\r\n{}",
+                    json.len(),
+                    json
+                );
             }
+        });
+        (url, polls)
+    }
 
-            let input = vec![chunk];
-            let result = resampler.process(&input, None).map_err(|e| {
-                crate::core::error::AppError::Transcription(format!("重采样失败: {}", e))
-            })?;
+    fn assert_secs(actual: std::time::Duration, expected: f64) {
+        assert!((actual.as_secs_f64() - expected).abs() < 1e-6, "{:?} != {}s", actual, expected);
+    }
 
-            if !result.is_empty() {
-                output.extend(result[0].iter().map(|&s| s as f32));
-            }
+    #[test]
+    fn test_poll_schedule_scales_with_duration() {
+        let short = PollSchedule::for_audio(2.0);
+        let long = PollSchedule::for_audio(600.0);
+        assert_secs(short.next, 0.3);
+        assert_secs(long.next, 2.0);
+        assert_eq!(short.timeout, std::time::Duration::from_secs(64));
+        assert_eq!(long.timeout, std::time::Duration::from_secs(1260));
+    }
 
-            pos += chunk_size;
+    #[test]
+    fn test_poll_schedule_backs_off_with_jitter_and_cap() {
+        let mut schedule = PollSchedule::for_audio(2.0);
+        assert_secs(schedule.next_delay(1.0), 0.36);
+        assert_secs(schedule.next_delay(-1.0), 0.36);
+        for _ in 0..20 {
+            schedule.next_delay(0.0);
         }
+        assert_secs(schedule.next_delay(0.0), MAX_POLL_INTERVAL_SECS);
+        assert!((-1.0..=1.0).contains(&random_jitter()));
+    }
 
-        // 裁剪到预期长度
-        let expected_len = (samples.len() as f64 * ratio).round() as usize;
-        output.truncate(expected_len);
-
-        println!("🔄 重采样: {}Hz → {}Hz ({} → {} samples)", from_rate, to_rate, samples.len(), output.len());
-        Ok(output)
+    #[tokio::test]
+    async fn test_short_clip_finishes_without_fixed_sleeps() {
+        let (url, polls) = serve_task_progress(2);
+        let progress = Arc::new(parking_lot::Mutex::new(Vec::new()));
+        let recorded = progress.clone();
+        let service = TranscriptionService::new(AppSettings::default(), reqwest::Client::new())
+            .with_luyin_base_url(url)
+            .with_progress(move |p| recorded.lock().push(p));
+
+        let started = std::time::Instant::now();
+        let text = service.luyin_poll("task-1".into(), "token", 2.0).await.unwrap();
+
+        assert_eq!(text, "你好世界");
+        assert_eq!(polls.load(Ordering::SeqCst), 3);
+        // 0.3 + 0.45 + 0.675 秒（±20%），原来固定 3 秒间隔需要 6 秒以上
+        assert!(started.elapsed() < std::time::Duration::from_secs(3), "{:?}", started.elapsed());
+        let progress = progress.lock();
+        assert_eq!(progress.len(), 2);
+        assert!(progress.iter().all(|p| p.stage == "processing" && p.timeout_secs == Some(64.0)));
     }
 }
@@ -8,6 +8,7 @@ pub struct AudioDevice {
     pub is_available: bool,
 }
 
+/// 录音输出格式（设备本身以原生格式打开，录音过程中降混/重采样到此格式）
 #[derive(Debug, Clone, Serialize, Deserialize)]
 pub struct RecordingConfig {
     pub device_id: Option<String>,
@@ -25,6 +26,22 @@ impl Default for RecordingConfig {
     }
 }
 
+/// 采集回调统计：环形缓冲区写满时丢弃的帧数与溢出次数
+#[derive(Debug, Clone, Default, Serialize, Deserialize)]
+pub struct CaptureStats {
+    pub dropped_frames: u64,
+    pub overruns: u64,
+}
+
+/// 崩溃前未处理、启动时已导出为 WAV 的录音
+#[derive(Debug, Clone, Serialize, Deserialize)]
+pub struct RecoveredRecording {
+    pub path: String,
+    /// 时长（秒）
+    pub duration: f64,
+    pub timestamp: i64,
+}
+
 #[derive(Debug, Clone, Serialize, Deserialize)]
 pub struct TranscriptionEntry {
     pub id: String,
@@ -36,11 +53,138 @@ pub struct TranscriptionEntry {
     pub audio_file_path: Option<String>,
 }
 
-#[derive(Debug, Clone, Serialize, Deserialize)]
+#[derive(Debug, Clone, Default, Serialize, Deserialize)]
 pub struct TranscriptionResult {
     pub text: String,
     pub language: Option<String>,
     pub duration: Option<f64>,
+    /// VAD 裁掉的静音时长（秒）
+    #[serde(default, skip_serializing_if = "Option::is_none")]
+    pub vad_removed_secs: Option<f64>,
+    /// 带时间戳的片段（本地模型），按时间顺序
+    #[serde(default, skip_serializing_if = "Vec::is_empty")]
+    pub segments: Vec<TranscriptionSegment>,
+    /// 实时率：处理耗时 / 音频时长，越小越快
+    #[serde(default, skip_serializing_if = "Option::is_none")]
+    pub real_time_factor: Option<f64>,
+    /// 整段置信度（0-1，本地模型由 token 概率计算；在线接口不提供时为 None）
+    #[serde(default, skip_serializing_if = "Option::is_none")]
+    pub confidence: Option<f32>,
+    /// 实际完成解码的模型 id（级联模式下可能是快速模型）
+    #[serde(default, skip_serializing_if = "Option::is_none")]
+    pub model: Option<String>,
+    /// 本次解码触发的护栏（重复循环、token 超预算、无语音片段），供界面提示
+    #[serde(default, skip_serializing_if = "Vec::is_empty")]
+    pub guardrails: Vec<String>,
+    /// 在线转录实际上传的字节数
+    #[serde(default, skip_serializing_if = "Option::is_none")]
+    pub upload_bytes: Option<u64>,
+    /// 上传前编码耗时（毫秒）
+    #[serde(default, skip_serializing_if = "Option::is_none")]
+    pub upload_encode_ms: Option<f64>,
+    /// 对冲模式下从开始转录到拿到结果的耗时（毫秒），胜出的模型见 `model`
+    #[serde(default, skip_serializing_if = "Option::is_none")]
+    pub latency_ms: Option<f64>,
+}
+
+/// 在线转录进度（`transcription-progress` 事件）
+#[derive(Debug, Clone, Serialize, Deserialize)]
+pub struct TranscriptionProgress {
+    /// uploading | processing | done
+    pub stage: String,
+    /// 服务端返回的进度值（录音王：1 表示完成）
+    pub progress: Option<f64>,
+    /// 从开始上传起经过的秒数
+    pub elapsed_secs: f64,
+    /// 本次任务的超时上限（秒，由音频时长推出）
+    pub timeout_secs: Option<f64>,
+}
+
+/// 批量转录任务的状态
+#[derive(Debug, Clone, Copy, PartialEq, Eq, Serialize, Deserialize)]
+#[serde(rename_all = "lowercase")]
+pub enum BatchJobStatus {
+    Queued,
+    Running,
+    Done,
+    Failed,
+    Cancelled,
+}
+
+impl BatchJobStatus {
+    pub fn as_str(&self) -> &'static str {
+        match self {
+            Self::Queued => "queued",
+            Self::Running => "running",
+            Self::Done => "done",
+            Self::Failed => "failed",
+            Self::Cancelled => "cancelled",
+        }
+    }
+
+    pub fn parse(s: &str) -> Self {
+        match s {
+            "queued" => Self::Queued,
+            "running" => Self::Running,
+            "done" => Self::Done,
+            "cancelled" => Self::Cancelled,
+            _ => Self::Failed,
+        }
+    }
+
+    /// 已结束（不会再被执行）
+    pub fn is_finished(&self) -> bool {
+        matches!(self, Self::Done | Self::Failed | Self::Cancelled)
+    }
+}
+
+/// 批量转录中的一个文件（持久化在 SQLite 的 batch_jobs 表中，应用重启后继续执行）
+#[derive(Debug, Clone, Serialize, Deserialize)]
+pub struct BatchJob {
+    pub id: String,
+    /// 同一次入队的文件共享一个 batch_id
+    pub batch_id: String,
+    /// 在批次中的顺序
+    pub position: u32,
+    pub file_path: String,
+    pub model: String,
+    pub status: BatchJobStatus,
+    /// 音频时长（秒，入队时从文件头读取，用于估算剩余时间）
+    pub audio_secs: Option<f64>,
+    pub result: Option<TranscriptionResult>,
+    pub error: Option<String>,
+    pub created_at: i64,
+    pub updated_at: i64,
+}
+
+/// 批量转录进度（`batch-progress` 事件），执行中的文件大约每秒推送一次
+#[derive(Debug, Clone, Serialize, Deserialize)]
+pub struct BatchProgress {
+    pub job_id: String,
+    pub batch_id: String,
+    pub status: BatchJobStatus,
+    /// 在线转录阶段（uploading | processing | done），本地模型为 None
+    pub stage: Option<String>,
+    /// 当前文件已执行的秒数（含排队等待调度器名额的时间）
+    pub elapsed_secs: f64,
+    /// 当前文件的预计剩余秒数（该后端还没有完成过文件时为 None）
+    pub eta_secs: Option<f64>,
+    /// 批次中已结束（完成 / 失败 / 取消）的文件数与总数
+    pub batch_finished: usize,
+    pub batch_total: usize,
+    /// 整个批次的预计剩余秒数
+    pub batch_eta_secs: Option<f64>,
+}
+
+/// 带时间戳的识别片段（秒，相对于送入模型的音频起点）
+#[derive(Debug, Clone, Default, PartialEq, Serialize, Deserialize)]
+pub struct TranscriptionSegment {
+    pub text: String,
+    pub start: f64,
+    pub end: f64,
+    /// 片段置信度：文本 token 概率的几何平均
+    #[serde(default)]
+    pub confidence: f32,
 }
 
 #[derive(Debug, Clone, Serialize, Deserialize, PartialEq)]
@@ -96,6 +240,55 @@ pub struct AppSettings {
     pub transcription_language: String,
     #[serde(default)]
     pub transcription_prompt: String,
+
+    // New: Voice activity detection before inference/upload
+    #[serde(default = "default_vad_enabled")]
+    pub vad_enabled: bool,
+
+    // New: Local model cache
+    #[serde(default = "default_model_memory_budget_mb")]
+    pub model_memory_budget_mb: u64,
+    #[serde(default = "default_model_idle_unload_secs")]
+    pub model_idle_unload_secs: u64,
+
+    // New: Streaming partial results for local models while the key is held
+    #[serde(default = "default_streaming_transcription")]
+    pub streaming_transcription: bool,
+
+    // New: Confidence-gated cascade (fast local model first, escalate when unsure)
+    #[serde(default)]
+    pub cascade_enabled: bool,
+    #[serde(default = "default_cascade_model")]
+    pub cascade_model: String,
+    #[serde(default = "default_cascade_threshold")]
+    pub cascade_threshold: f32,
+
+    // New: Upload codec for remote providers ("auto" | "wav" | "flac")
+    #[serde(default = "default_upload_codec")]
+    pub upload_codec: String,
+
+    // New: Stream audio to remote providers while recording
+    #[serde(default)]
+    pub streaming_upload: bool,
+
+    // New: Hedged transcription (start a local fallback when the remote provider is slow)
+    #[serde(default)]
+    pub hedge_enabled: bool,
+    #[serde(default = "default_hedge_model")]
+    pub hedge_model: String,
+    #[serde(default = "default_hedge_budget_ms")]
+    pub hedge_budget_ms: u64,
+
+    // New: File transcription result cache size (MB, 0 disables)
+    #[serde(default = "default_result_cache_mb")]
+    pub result_cache_mb: u64,
+
+    // New: Batch file transcription concurrency per backend (local model / each online provider), 1..=8;
+    // the scheduler lanes are sized from these values
+    #[serde(default = "default_batch_local_concurrency")]
+    pub batch_local_concurrency: usize,
+    #[serde(default = "default_batch_remote_concurrency")]
+    pub batch_remote_concurrency: usize,
 }
 
 #[derive(Debug, Clone, Serialize, Deserialize, PartialEq)]
@@ -151,6 +344,54 @@ fn default_transcription_language() -> String {
     "auto".to_string()
 }
 
+fn default_vad_enabled() -> bool {
+    true
+}
+
+fn default_model_memory_budget_mb() -> u64 {
+    4096
+}
+
+fn default_model_idle_unload_secs() -> u64 {
+    600
+}
+
+fn default_streaming_transcription() -> bool {
+    true
+}
+
+fn default_cascade_model() -> String {
+    "whisper-base".to_string()
+}
+
+fn default_cascade_threshold() -> f32 {
+    0.7
+}
+
+fn default_upload_codec() -> String {
+    "auto".to_string()
+}
+
+fn default_hedge_model() -> String {
+    "whisper-base".to_string()
+}
+
+fn default_hedge_budget_ms() -> u64 {
+    3000
+}
+
+fn default_result_cache_mb() -> u64 {
+    64
+}
+
+fn default_batch_local_concurrency() -> usize {
+    1
+}
+
+fn default_batch_remote_concurrency() -> usize {
+    3
+}
+
 impl Default for AppSettings {
     fn default() -> Self {
         Self {
@@ -175,12 +416,27 @@ impl Default for AppSettings {
             word_replacements: vec![],
             transcription_language: default_transcription_language(),
             transcription_prompt: String::new(),
+            vad_enabled: default_vad_enabled(),
+            model_memory_budget_mb: default_model_memory_budget_mb(),
+            model_idle_unload_secs: default_model_idle_unload_secs(),
+            streaming_transcription: default_streaming_transcription(),
+            cascade_enabled: false,
+            cascade_model: default_cascade_model(),
+            cascade_threshold: default_cascade_threshold(),
+            upload_codec: default_upload_codec(),
+            streaming_upload: false,
+            hedge_enabled: false,
+            hedge_model: default_hedge_model(),
+            hedge_budget_ms: default_hedge_budget_ms(),
+            result_cache_mb: default_result_cache_mb(),
+            batch_local_concurrency: default_batch_local_concurrency(),
+            batch_remote_concurrency: default_batch_remote_concurrency(),
         }
     }
 }
 
 /// 模型提供商分类
-#[derive(Debug, Clone, PartialEq)]
+#[derive(Debug, Clone, PartialEq, Eq, Hash)]
 pub enum ModelProvider {
     LuYinWang,
     OpenAI,
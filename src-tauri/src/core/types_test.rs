@@ -69,6 +69,7 @@ mod tests {
             text: "Test transcription".to_string(),
             language: Some("en".to_string()),
             duration: Some(10.5),
+            ..Default::default()
         };
 
         assert_eq!(result.text, "Test transcription");
@@ -82,6 +83,7 @@ mod tests {
             text: "Test".to_string(),
             language: None,
             duration: None,
+            ..Default::default()
         };
 
         assert_eq!(result.text, "Test");
@@ -0,0 +1,133 @@
+//! 在线转录的上传编码
+//!
+//! 录音在内存中编码后再上传。FLAC 无损、体积约为 16-bit WAV 的一半，
+//! 只对明确支持 FLAC 的服务启用；其余服务仍上传 WAV。
+
+use crate::core::error::{AppError, Result};
+use crate::core::types::ModelProvider;
+
+#[derive(Debug, Clone, Copy, PartialEq, Eq)]
+pub enum UploadCodec {
+    Wav,
+    Flac,
+}
+
+impl UploadCodec {
+    /// 按设置值和服务选择编码：`auto` 时选该服务接受的最小格式
+    pub fn select(setting: &str, provider: &ModelProvider) -> Self {
+        match setting {
+            "wav" => Self::Wav,
+            "flac" if Self::accepts_flac(provider) => Self::Flac,
+            "flac" => {
+                println!("⚠️ 当前服务未确认支持 FLAC，改为上传 WAV");
+                Self::Wav
+            }
+            _ if Self::accepts_flac(provider) => Self::Flac,
+            _ => Self::Wav,
+        }
+    }
+
+    /// OpenAI 文档列出的上传格式包含 flac；录音王接口只确认过 WAV
+    fn accepts_flac(provider: &ModelProvider) -> bool {
+        matches!(provider, ModelProvider::OpenAI)
+    }
+
+    pub fn mime(&self) -> &'static str {
+        match self {
+            Self::Wav => "audio/wav",
+            Self::Flac => "audio/flac",
+        }
+    }
+
+    pub fn extension(&self) -> &'static str {
+        match self {
+            Self::Wav => "wav",
+            Self::Flac => "flac",
+        }
+    }
+}
+
+/// 编码结果
+pub struct EncodedAudio {
+    pub bytes: Vec<u8>,
+    pub codec: UploadCodec,
+    /// 编码耗时（毫秒）
+    pub encode_ms: f64,
+}
+
+/// 把单声道 f32 样本编码为上传格式（CPU 密集，调用方应放在阻塞线程中）
+pub fn encode(samples: &[f32], sample_rate: u32, codec: UploadCodec) -> Result<EncodedAudio> {
+    let started = std::time::Instant::now();
+    let bytes = match codec {
+        UploadCodec::Wav => crate::core::audio::encode_wav(samples, sample_rate),
+        UploadCodec::Flac => encode_flac(samples, sample_rate)?,
+    };
+    Ok(EncodedAudio {
+        bytes,
+        codec,
+        encode_ms: started.elapsed().as_secs_f64() * 1000.0,
+    })
+}
+
+fn encode_flac(samples: &[f32], sample_rate: u32) -> Result<Vec<u8>> {
+    use flacenc::component::BitRepr;
+    use flacenc::error::Verify;
+
+    // 与 WAV 路径相同的 16-bit 量化，FLAC 在此基础上无损压缩
+    let pcm: Vec<i32> = samples
+        .iter()
+        .map(|&s| (s.clamp(-1.0, 1.0) * i16::MAX as f32) as i16 as i32)
+        .collect();
+
+    let config = flacenc::config::Encoder::default()
+        .into_verified()
+        .map_err(|(_, e)| AppError::Audio(format!("FLAC 编码配置无效: {:?}", e)))?;
+    let source = flacenc::source::MemSource::from_samples(&pcm, 1, 16, sample_rate as usize);
+    let stream = flacenc::encode_with_fixed_block_size(&config, source, config.block_size)
+        .map_err(|e| AppError::Audio(format!("FLAC 编码失败: {:?}", e)))?;
+
+    let mut sink = flacenc::bitsink::ByteSink::new();
+    stream
+        .write(&mut sink)
+        .map_err(|e| AppError::Audio(format!("FLAC 写出失败: {:?}", e)))?;
+    Ok(sink.as_slice().to_vec())
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn speech_like(secs: f64) -> Vec<f32> {
+        let n = (secs * 16000.0) as usize;
+        (0..n)
+            .map(|i| {
+                let t = i as f32 / 16000.0;
+                0.3 * (2.0 * std::f32::consts::PI * 180.0 * t).sin()
+                    + 0.1 * (2.0 * std::f32::consts::PI * 720.0 * t).sin()
+            })
+            .collect()
+    }
+
+    #[test]
+    fn test_auto_picks_smallest_accepted_format() {
+        assert_eq!(UploadCodec::select("auto", &ModelProvider::OpenAI), UploadCodec::Flac);
+        assert_eq!(UploadCodec::select("auto", &ModelProvider::LuYinWang), UploadCodec::Wav);
+        assert_eq!(UploadCodec::select("wav", &ModelProvider::OpenAI), UploadCodec::Wav);
+        assert_eq!(UploadCodec::select("flac", &ModelProvider::LuYinWang), UploadCodec::Wav);
+    }
+
+    #[test]
+    fn test_flac_is_smaller_than_wav() {
+        let audio = speech_like(5.0);
+        let wav = encode(&audio, 16000, UploadCodec::Wav).unwrap();
+        let flac = encode(&audio, 16000, UploadCodec::Flac).unwrap();
+
+        assert_eq!(&flac.bytes[..4], b"fLaC");
+        assert!(
+            flac.bytes.len() * 2 < wav.bytes.len(),
+            "flac {} bytes vs wav {} bytes",
+            flac.bytes.len(),
+            wav.bytes.len()
+        );
+    }
+}
@@ -0,0 +1,267 @@
+//! 轻量级语音活动检测（VAD）
+//!
+//! 基于短时能量（相对自适应噪声底）和过零率逐帧判断是否为语音，
+//! 用于在本地推理或上传之前裁掉首尾静音、压缩过长的停顿。
+
+#[derive(Debug, Clone)]
+pub struct VadConfig {
+    /// 分析帧长
+    pub frame_ms: u32,
+    /// 语音段前后保留的余量
+    pub padding_ms: u32,
+    /// 语音段之间最多保留的停顿时长，超出部分被压缩
+    pub max_pause_ms: u32,
+    /// 短于该时长的孤立"语音"视为噪声（咔哒声、按键声）
+    pub min_speech_ms: u32,
+    /// 输出不足该时长时在末尾补静音（whisper.cpp 不接受过短输入）
+    pub min_output_ms: u32,
+    /// 绝对能量下限（dBFS），低于此值一律视为静音
+    pub energy_floor_db: f32,
+    /// 高出噪声底多少 dB 才算语音
+    pub energy_margin_db: f32,
+    /// 判定阈值上限（dBFS）：整段都是语音时噪声底估计偏高，避免把正常语音判为静音
+    pub energy_ceiling_db: f32,
+    /// 过零率上限：能量不够突出且过零率高的帧按宽带噪声处理
+    pub max_noise_zcr: f32,
+}
+
+impl Default for VadConfig {
+    fn default() -> Self {
+        Self {
+            frame_ms: 30,
+            padding_ms: 300,
+            max_pause_ms: 800,
+            min_speech_ms: 120,
+            min_output_ms: 1000,
+            energy_floor_db: -55.0,
+            energy_margin_db: 9.0,
+            energy_ceiling_db: -38.0,
+            max_noise_zcr: 0.35,
+        }
+    }
+}
+
+#[derive(Debug, Clone)]
+pub struct VadOutcome {
+    pub samples: Vec<f32>,
+    pub has_speech: bool,
+    /// 被移除的音频时长（秒）
+    pub removed_secs: f64,
+}
+
+/// 裁剪首尾静音并压缩内部长停顿
+pub fn trim_silence(samples: &[f32], sample_rate: u32, config: &VadConfig) -> VadOutcome {
+    let total_secs = samples.len() as f64 / sample_rate as f64;
+    let frame_len = ((sample_rate as u64 * config.frame_ms as u64) / 1000).max(1) as usize;
+    let ms_to_frames = |ms: u32| ((ms + config.frame_ms - 1) / config.frame_ms.max(1)) as usize;
+
+    let speech = classify_frames(samples, frame_len, config);
+    let speech = drop_short_runs(speech, ms_to_frames(config.min_speech_ms));
+
+    if !speech.iter().any(|&s| s) {
+        return VadOutcome {
+            samples: Vec::new(),
+            has_speech: false,
+            removed_secs: total_secs,
+        };
+    }
+
+    let keep = dilate(&speech, ms_to_frames(config.padding_ms));
+    let max_pause = (sample_rate as u64 * config.max_pause_ms as u64 / 1000) as usize;
+
+    let mut out = Vec::with_capacity(samples.len());
+    let mut gap_start: Option<usize> = None;
+    let mut seen_speech = false;
+    for (i, &k) in keep.iter().enumerate() {
+        let start = i * frame_len;
+        let end = ((i + 1) * frame_len).min(samples.len());
+        if k {
+            if let Some(gs) = gap_start.take() {
+                // 内部停顿：保留首尾各一半，最多 max_pause
+                let gap = start - gs;
+                if gap <= max_pause {
+                    out.extend_from_slice(&samples[gs..start]);
+                } else {
+                    out.extend_from_slice(&samples[gs..gs + max_pause / 2]);
+                    out.extend_from_slice(&samples[start - (max_pause - max_pause / 2)..start]);
+                }
+            }
+            out.extend_from_slice(&samples[start..end]);
+            seen_speech = true;
+        } else if seen_speech && gap_start.is_none() {
+            gap_start = Some(start);
+        }
+    }
+
+    let min_output = (sample_rate as u64 * config.min_output_ms as u64 / 1000) as usize;
+    let removed = samples.len().saturating_sub(out.len());
+    if out.len() < min_output {
+        out.resize(min_output, 0.0);
+    }
+
+    VadOutcome {
+        samples: out,
+        has_speech: true,
+        removed_secs: removed as f64 / sample_rate as f64,
+    }
+}
+
+fn classify_frames(samples: &[f32], frame_len: usize, config: &VadConfig) -> Vec<bool> {
+    let stats: Vec<(f32, f32)> = samples
+        .chunks(frame_len)
+        .map(|frame| (energy_db(frame), zero_crossing_rate(frame)))
+        .collect();
+    if stats.is_empty() {
+        return Vec::new();
+    }
+
+    // 噪声底：帧能量的 10% 分位数
+    let mut energies: Vec<f32> = stats.iter().map(|&(e, _)| e).collect();
+    energies.sort_by(|a, b| a.partial_cmp(b).unwrap_or(std::cmp::Ordering::Equal));
+    let noise_floor = energies[energies.len() / 10];
+    let threshold = (noise_floor + config.energy_margin_db)
+        .min(config.energy_ceiling_db)
+        .max(config.energy_floor_db);
+
+    stats
+        .iter()
+        .map(|&(energy, zcr)| {
+            if energy < threshold {
+                return false;
+            }
+            // 能量只是略高于阈值且过零率很高：更像嘶声/风噪
+            !(zcr > config.max_noise_zcr && energy < threshold + config.energy_margin_db)
+        })
+        .collect()
+}
+
+fn energy_db(frame: &[f32]) -> f32 {
+    if frame.is_empty() {
+        return -100.0;
+    }
+    let mean_sq = frame.iter().map(|&s| s * s).sum::<f32>() / frame.len() as f32;
+    10.0 * mean_sq.max(1e-10).log10()
+}
+
+fn zero_crossing_rate(frame: &[f32]) -> f32 {
+    if frame.len() < 2 {
+        return 0.0;
+    }
+    let crossings = frame
+        .windows(2)
+        .filter(|w| (w[0] >= 0.0) != (w[1] >= 0.0))
+        .count();
+    crossings as f32 / (frame.len() - 1) as f32
+}
+
+fn drop_short_runs(mut speech: Vec<bool>, min_frames: usize) -> Vec<bool> {
+    let mut i = 0;
+    while i < speech.len() {
+        if !speech[i] {
+            i += 1;
+            continue;
+        }
+        let start = i;
+        while i < speech.len() && speech[i] {
+            i += 1;
+        }
+        if i - start < min_frames {
+            speech[start..i].iter_mut().for_each(|s| *s = false);
+        }
+    }
+    speech
+}
+
+fn dilate(speech: &[bool], radius: usize) -> Vec<bool> {
+    let mut keep = vec![false; speech.len()];
+    for (i, _) in speech.iter().enumerate().filter(|(_, &s)| s) {
+        let from = i.saturating_sub(radius);
+        let to = (i + radius + 1).min(speech.len());
+        keep[from..to].iter_mut().for_each(|k| *k = true);
+    }
+    keep
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    const RATE: u32 = 16000;
+
+    fn tone(secs: f32, amp: f32) -> Vec<f32> {
+        let n = (secs * RATE as f32) as usize;
+        (0..n)
+            .map(|i| amp * (2.0 * std::f32::consts::PI * 220.0 * i as f32 / RATE as f32).sin())
+            .collect()
+    }
+
+    fn silence(secs: f32) -> Vec<f32> {
+        vec![0.0; (secs * RATE as f32) as usize]
+    }
+
+    #[test]
+    fn test_all_silence_has_no_speech() {
+        let outcome = trim_silence(&silence(3.0), RATE, &VadConfig::default());
+        assert!(!outcome.has_speech);
+        assert!(outcome.samples.is_empty());
+        assert!((outcome.removed_secs - 3.0).abs() < 1e-6);
+    }
+
+    #[test]
+    fn test_trims_leading_and_trailing_silence() {
+        let mut audio = silence(2.0);
+        audio.extend(tone(1.5, 0.3));
+        audio.extend(silence(2.0));
+
+        let outcome = trim_silence(&audio, RATE, &VadConfig::default());
+        assert!(outcome.has_speech);
+        // 1.5s 语音 + 两侧各约 0.3s 余量
+        let kept = outcome.samples.len() as f64 / RATE as f64;
+        assert!(kept > 1.5 && kept < 2.3, "kept {}s", kept);
+        assert!(outcome.removed_secs > 3.0);
+    }
+
+    #[test]
+    fn test_collapses_long_internal_pause() {
+        let mut audio = tone(1.0, 0.3);
+        audio.extend(silence(5.0));
+        audio.extend(tone(1.0, 0.3));
+
+        let config = VadConfig::default();
+        let outcome = trim_silence(&audio, RATE, &config);
+        let kept = outcome.samples.len() as f64 / RATE as f64;
+        let max_expected = 2.0 + 2.0 * config.padding_ms as f64 / 1000.0
+            + config.max_pause_ms as f64 / 1000.0
+            + 0.1;
+        assert!(kept < max_expected, "kept {}s", kept);
+    }
+
+    #[test]
+    fn test_continuous_speech_is_kept() {
+        let audio = tone(3.0, 0.2);
+        let outcome = trim_silence(&audio, RATE, &VadConfig::default());
+        assert!(outcome.has_speech);
+        assert!(outcome.removed_secs < 0.05);
+    }
+
+    #[test]
+    fn test_short_click_is_ignored() {
+        let mut audio = silence(1.0);
+        audio.extend(tone(0.03, 0.5));
+        audio.extend(silence(1.0));
+
+        let outcome = trim_silence(&audio, RATE, &VadConfig::default());
+        assert!(!outcome.has_speech);
+    }
+
+    #[test]
+    fn test_short_speech_padded_to_min_output() {
+        let mut audio = silence(0.5);
+        audio.extend(tone(0.3, 0.3));
+        audio.extend(silence(0.5));
+
+        let outcome = trim_silence(&audio, RATE, &VadConfig::default());
+        assert!(outcome.has_speech);
+        assert!(outcome.samples.len() >= RATE as usize);
+    }
+}
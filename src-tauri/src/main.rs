@@ -4,7 +4,7 @@ mod commands;
 mod core;
 mod services;
 
-use services::{quick_input::QuickInputService, state::AppState};
+use services::{batch::BatchService, model_preload::ModelPreloadService, quick_input::QuickInputService, state::AppState};
 use tauri::{CustomMenuItem, Manager, SystemTray, SystemTrayEvent, SystemTrayMenu, SystemTrayMenuItem, WindowBuilder, WindowUrl};
 
 fn main() {
@@ -113,6 +113,15 @@ fn main() {
             let quick_input = QuickInputService::new();
             app.manage(quick_input);
 
+            // 后台预加载并预热选中的本地模型
+            app.manage(ModelPreloadService::new());
+            app.state::<ModelPreloadService>().preload(app.app_handle());
+            ModelPreloadService::watch_model_changes(app.app_handle());
+
+            // 批量转录队列：继续执行上次退出时未完成的文件
+            app.manage(BatchService::new());
+            app.state::<BatchService>().start(app.app_handle());
+
             // 自动恢复之前的按住说话快捷键
             if let Some(shortcut_key) = saved_shortcut {
                 let service = app.state::<QuickInputService>();
@@ -148,7 +157,14 @@ fn main() {
             commands::recording::stop_recording,
             commands::recording::get_recording_state,
             commands::recording::get_audio_devices,
+            commands::recording::get_capture_stats,
             commands::recording::transcribe_file,
+            commands::recording::get_recovered_recordings,
+            commands::recording::delete_recovered_recording,
+            commands::batch::enqueue_batch,
+            commands::batch::get_batch_jobs,
+            commands::batch::cancel_batch,
+            commands::batch::clear_batch_jobs,
             commands::history::get_history,
             commands::history::search_history,
             commands::history::delete_entry,
@@ -162,8 +178,10 @@ fn main() {
             commands::quick_input::unregister_global_shortcut,
             commands::quick_input::update_activation_mode,
             commands::models::get_local_model_status,
+            commands::models::get_local_model_catalog,
             commands::models::download_local_model,
             commands::models::delete_local_model,
+            commands::models::get_model_ready,
             commands::prompt_actions::execute_prompt_action,
         ])
         .run(tauri::generate_context!())
@@ -0,0 +1,642 @@
+use crate::core::error::{AppError, Result};
+use crate::core::scheduler::{JobContext, MAX_BATCH_CONCURRENCY};
+use crate::core::transcription::TranscriptionService;
+use crate::core::types::*;
+use crate::services::state::AppState;
+use parking_lot::Mutex;
+use std::collections::HashMap;
+use std::path::Path;
+use std::sync::atomic::{AtomicBool, Ordering};
+use std::time::{Duration, Instant};
+use tauri::{AppHandle, Manager};
+use tokio::sync::Notify;
+
+// 执行中的文件推送进度的间隔
+const PROGRESS_INTERVAL: Duration = Duration::from_secs(1);
+
+/// 批量文件转录队列
+///
+/// 任务持久化在 SQLite 中：入队即落盘，启动时把上次中断的任务重新排队。调度循环按入队顺序
+/// 取出排队中的任务，每个后端（本地模型 / 每个在线服务）同时执行的文件数不超过设置中的并发数；
+/// 实际执行仍经过 `TranscriptionScheduler` 的批量通道，听写请求总能插队。
+/// 执行中的文件通过 `batch-progress` 事件推送阶段和预计剩余时间，结束时推送 `batch-result`。
+pub struct BatchService {
+    running: Mutex<HashMap<String, RunningJob>>,
+    eta: Mutex<EtaModel>,
+    wake: Notify,
+    started: AtomicBool,
+}
+
+struct RunningJob {
+    batch_id: String,
+    provider: ModelProvider,
+    job: JobContext,
+    started: Instant,
+    audio_secs: Option<f64>,
+    stage: Option<String>,
+}
+
+impl BatchService {
+    pub fn new() -> Self {
+        Self {
+            running: Mutex::new(HashMap::new()),
+            eta: Mutex::new(EtaModel::default()),
+            wake: Notify::new(),
+            started: AtomicBool::new(false),
+        }
+    }
+
+    /// 启动调度循环（只生效一次），并继续执行上次退出时未完成的任务
+    pub fn start(&self, app: AppHandle) {
+        if self.started.swap(true, Ordering::SeqCst) {
+            return;
+        }
+        match app.state::<AppState>().database.requeue_interrupted_batch_jobs() {
+            Ok(0) => {}
+            Ok(n) => println!("📋 批量转录: {} 个中断的任务重新排队", n),
+            Err(e) => eprintln!("⚠️ 恢复批量转录任务失败: {}", e),
+        }
+
+        tauri::async_runtime::spawn(async move {
+            loop {
+                let service = app.state::<BatchService>();
+                service.dispatch(&app);
+                // notify_one 在没有等待者时会保留一次唤醒，不会漏掉调度
+                service.wake.notified().await;
+            }
+        });
+    }
+
+    /// 把一组文件加入队列，返回新建的任务
+    pub async fn enqueue(&self, app: &AppHandle, file_paths: Vec<String>, model: String) -> Result<Vec<BatchJob>> {
+        if file_paths.is_empty() {
+            return Err(AppError::Other("没有要转录的文件".into()));
+        }
+
+        // 只读文件头获取时长，用于估算剩余时间
+        let paths = file_paths.clone();
+        let durations = tokio::task::spawn_blocking(move || {
+            paths.iter().map(|p| probe_duration(Path::new(p))).collect::<Vec<_>>()
+        })
+        .await
+        .map_err(|e| AppError::Other(format!("读取音频时长失败: {}", e)))?;
+
+        let batch_id = uuid::Uuid::new_v4().to_string();
+        let now = chrono::Utc::now().timestamp();
+        let jobs: Vec<BatchJob> = file_paths
+            .into_iter()
+            .zip(durations)
+            .enumerate()
+            .map(|(position, (file_path, audio_secs))| BatchJob {
+                id: uuid::Uuid::new_v4().to_string(),
+                batch_id: batch_id.clone(),
+                position: position as u32,
+                file_path,
+                model: model.clone(),
+                status: BatchJobStatus::Queued,
+                audio_secs,
+                result: None,
+                error: None,
+                created_at: now,
+                updated_at: now,
+            })
+            .collect();
+
+        app.state::<AppState>().database.insert_batch_jobs(&jobs)?;
+        println!("📋 批量转录: 加入 {} 个文件（{}）", jobs.len(), model);
+        self.wake.notify_one();
+        Ok(jobs)
+    }
+
+    /// 取消一个任务或整个批次：排队中的直接标记为已取消，执行中的通过取消令牌中止
+    pub fn cancel(&self, app: &AppHandle, batch_id: Option<&str>, job_id: Option<&str>) -> Result<()> {
+        let state = app.state::<AppState>();
+        let cancelled: Vec<String> = {
+            // 持锁期间调度循环不会启动新任务
+            let running = self.running.lock();
+            let queued = state.database.get_batch_jobs(batch_id)?;
+            state.database.cancel_queued_batch_jobs(batch_id, job_id)?;
+            for (id, job) in running.iter() {
+                if batch_id.map_or(true, |b| b == job.batch_id) && job_id.map_or(true, |j| j == id.as_str()) {
+                    job.job.cancel.cancel();
+                }
+            }
+            queued
+                .into_iter()
+                .filter(|job| job.status == BatchJobStatus::Queued && job_id.map_or(true, |j| j == job.id))
+                .map(|job| job.id)
+                .collect()
+        };
+
+        for id in cancelled {
+            emit_result(app, &id);
+        }
+        Ok(())
+    }
+
+    /// 按设置的并发数启动排队中的任务
+    fn dispatch(&self, app: &AppHandle) {
+        let state = app.state::<AppState>();
+        let queued = match state.database.queued_batch_jobs() {
+            Ok(queued) => queued,
+            Err(e) => {
+                eprintln!("⚠️ 读取批量转录队列失败: {}", e);
+                return;
+            }
+        };
+        let limits = Limits::from_settings(&state.settings.lock());
+
+        let mut running = self.running.lock();
+        for job in queued {
+            let provider = ModelProvider::from_model_id(&job.model);
+            let busy = running.values().filter(|r| r.provider == provider).count();
+            if busy >= limits.get(&provider) {
+                continue;
+            }
+            match state.database.start_batch_job(&job.id) {
+                Ok(true) => {}
+                Ok(false) => continue,
+                Err(e) => {
+                    eprintln!("⚠️ 启动批量转录任务失败: {}", e);
+                    continue;
+                }
+            }
+
+            let context = JobContext::batch();
+            running.insert(
+                job.id.clone(),
+                RunningJob {
+                    batch_id: job.batch_id.clone(),
+                    provider,
+                    job: context.clone(),
+                    started: Instant::now(),
+                    audio_secs: job.audio_secs,
+                    stage: None,
+                },
+            );
+            tauri::async_runtime::spawn(run_job(app.clone(), job, context));
+        }
+    }
+
+    fn set_stage(&self, job_id: &str, stage: String) {
+        if let Some(job) = self.running.lock().get_mut(job_id) {
+            job.stage = Some(stage);
+        }
+    }
+
+    /// 当前文件和所在批次的进度；任务已不在执行时返回 None
+    fn progress(&self, app: &AppHandle, job_id: &str) -> Option<BatchProgress> {
+        let state = app.state::<AppState>();
+        let limits = Limits::from_settings(&state.settings.lock());
+        let running = self.running.lock();
+        let current = running.get(job_id)?;
+        let jobs = state.database.get_batch_jobs(Some(&current.batch_id)).ok()?;
+        let eta = self.eta.lock();
+
+        let elapsed = current.started.elapsed().as_secs_f64();
+        let pending: Vec<PendingFile> = jobs
+            .iter()
+            .filter(|job| !job.status.is_finished())
+            .map(|job| PendingFile {
+                provider: ModelProvider::from_model_id(&job.model),
+                audio_secs: job.audio_secs,
+                elapsed_secs: running.get(&job.id).map(|r| r.started.elapsed().as_secs_f64()),
+            })
+            .collect();
+
+        Some(BatchProgress {
+            job_id: job_id.to_string(),
+            batch_id: current.batch_id.clone(),
+            status: BatchJobStatus::Running,
+            stage: current.stage.clone(),
+            elapsed_secs: elapsed,
+            eta_secs: eta.remaining(&current.provider, current.audio_secs, elapsed),
+            batch_finished: jobs.len() - pending.len(),
+            batch_total: jobs.len(),
+            batch_eta_secs: eta.batch_remaining(&pending, |provider| limits.get(provider)),
+        })
+    }
+
+    fn emit_progress(&self, app: &AppHandle, job_id: &str) {
+        if let Some(progress) = self.progress(app, job_id) {
+            let _ = app.emit_all("batch-progress", progress);
+        }
+    }
+}
+
+impl Default for BatchService {
+    fn default() -> Self {
+        Self::new()
+    }
+}
+
+/// 执行一个文件，结束后写回状态并唤醒调度循环
+async fn run_job(app: AppHandle, job: BatchJob, context: JobContext) {
+    let service = app.state::<BatchService>();
+    let state = app.state::<AppState>();
+    service.emit_progress(&app, &job.id);
+
+    let on_progress = {
+        let app = app.clone();
+        let job_id = job.id.clone();
+        move |progress: TranscriptionProgress| {
+            let service = app.state::<BatchService>();
+            service.set_stage(&job_id, progress.stage);
+            service.emit_progress(&app, &job_id);
+        }
+    };
+    let transcription = transcribe_path(&job.file_path, &job.model, context, on_progress, &state, &app);
+    tokio::pin!(transcription);
+    let mut ticker = tokio::time::interval(PROGRESS_INTERVAL);
+    ticker.tick().await;
+    let outcome = loop {
+        tokio::select! {
+            outcome = &mut transcription => break outcome,
+            _ = ticker.tick() => service.emit_progress(&app, &job.id),
+        }
+    };
+
+    let finished = service.running.lock().remove(&job.id);
+    let (status, result, error) = match outcome {
+        Ok((result, cached)) => {
+            // 命中缓存的文件几乎不耗时，不计入速度估算
+            if let (Some(running), false) = (&finished, cached) {
+                service.eta.lock().record(
+                    &running.provider,
+                    running.started.elapsed().as_secs_f64(),
+                    running.audio_secs,
+                );
+            }
+            (BatchJobStatus::Done, Some(result), None)
+        }
+        Err(AppError::Cancelled) => (BatchJobStatus::Cancelled, None, None),
+        Err(e) => {
+            eprintln!("❌ 批量转录失败 {}: {}", job.file_path, e);
+            (BatchJobStatus::Failed, None, Some(e.to_string()))
+        }
+    };
+    if let Err(e) = state.database.finish_batch_job(&job.id, status, result.as_ref(), error.as_deref()) {
+        eprintln!("⚠️ 保存批量转录结果失败: {}", e);
+    }
+
+    emit_result(&app, &job.id);
+    service.wake.notify_one();
+}
+
+/// 推送任务的最终状态（`batch-result` 事件）
+fn emit_result(app: &AppHandle, job_id: &str) {
+    match app.state::<AppState>().database.get_batch_job(job_id) {
+        Ok(Some(job)) => {
+            let _ = app.emit_all("batch-result", job);
+        }
+        Ok(None) => {}
+        Err(e) => eprintln!("⚠️ 读取批量转录任务失败: {}", e),
+    }
+}
+
+/// 从文件头读取音频时长，不解码
+fn probe_duration(path: &Path) -> Option<f64> {
+    let source = crate::core::audio_decode::AudioSource::open(path).ok()?;
+    let frames = source.frames()?;
+    Some(frames as f64 / source.sample_rate() as f64)
+}
+
+/// 转录单个文件：先查结果缓存，未命中再实际转录；两种情况都写入历史记录
+///
+/// 返回结果以及它是否来自缓存。`transcribe_file` 命令与批量队列共用。
+pub async fn transcribe_path<P>(
+    file_path: &str,
+    model: &str,
+    job: JobContext,
+    on_progress: P,
+    state: &AppState,
+    app: &AppHandle,
+) -> Result<(TranscriptionResult, bool)>
+where
+    P: Fn(TranscriptionProgress) + Send + Sync + 'static,
+{
+    let path = Path::new(file_path);
+    if !path.exists() {
+        return Err(AppError::Other(format!("文件不存在: {}", file_path)));
+    }
+
+    let settings = {
+        let mut s = state.settings.lock().clone();
+        s.selected_model = model.to_string();
+        s
+    };
+
+    let cache_budget = settings.result_cache_mb * 1024 * 1024;
+    let mut lookup = if cache_budget > 0 {
+        lookup_cache(path, &settings, state).await
+    } else {
+        CacheLookup::default()
+    };
+    let (result, hit) = match lookup.hit.take() {
+        Some(result) => {
+            println!("♻️ 命中转录缓存: {}", file_path);
+            (result, true)
+        }
+        None => {
+            let result = transcribe_uncached(path, model, settings, job, on_progress, lookup, cache_budget, state, app).await?;
+            (result, false)
+        }
+    };
+
+    let entry = TranscriptionEntry {
+        id: uuid::Uuid::new_v4().to_string(),
+        text: result.text.clone(),
+        timestamp: chrono::Utc::now().timestamp(),
+        duration: result.duration.unwrap_or(0.0),
+        model: result.model.clone().unwrap_or_else(|| model.to_string()),
+        // 在线接口不返回置信度时沿用原来的默认值
+        confidence: result.confidence.unwrap_or(0.95),
+        audio_file_path: Some(file_path.to_string()),
+    };
+    state.database.save_transcription(&entry)?;
+
+    Ok((result, hit))
+}
+
+/// 实际转录文件，成功后写入结果缓存
+///
+/// 查缓存时已解码出的采样直接交给本地模型，不再解码第二次。
+#[allow(clippy::too_many_arguments)]
+async fn transcribe_uncached<P>(
+    path: &Path,
+    model: &str,
+    settings: AppSettings,
+    job: JobContext,
+    on_progress: P,
+    lookup: CacheLookup,
+    cache_budget: u64,
+    state: &AppState,
+    app: &AppHandle,
+) -> Result<TranscriptionResult>
+where
+    P: Fn(TranscriptionProgress) + Send + Sync + 'static,
+{
+    let mut service = TranscriptionService::new(settings, state.http.clone())
+        .with_job(job.clone())
+        .with_progress(on_progress);
+    if let Some(dir) = app.path_resolver().app_data_dir() {
+        service = service.with_app_data_dir(dir);
+    }
+    let provider = service.provider();
+    let result = match lookup.samples {
+        Some(samples) => {
+            state
+                .scheduler
+                .run(&provider, &job, service.transcribe_decoded(samples))
+                .await?
+        }
+        None => {
+            state
+                .scheduler
+                .run(&provider, &job, service.transcribe_audio(path))
+                .await?
+        }
+    };
+
+    // 对冲时由备用模型给出的结果不写入选中模型的缓存
+    let from_selected_model = result.model.as_deref().map_or(true, |m| m == model);
+    if let (Some(key), true) = (&lookup.key, from_selected_model) {
+        if let Err(e) = state.database.put_cached_result(key, &result, cache_budget) {
+            eprintln!("⚠️ 写入转录缓存失败: {}", e);
+        } else if let Some(fingerprint) = &lookup.fingerprint {
+            put_alias(state, fingerprint, key);
+        }
+    }
+    Ok(result)
+}
+
+/// 查缓存的结果；未命中时带上写缓存需要的键和已解码的采样
+#[derive(Default)]
+struct CacheLookup {
+    hit: Option<TranscriptionResult>,
+    fingerprint: Option<String>,
+    key: Option<String>,
+    samples: Option<Vec<f32>>,
+}
+
+/// 先按文件指纹（只读元数据）查缓存，未命中再计算内容键查找
+///
+/// 本地模型的内容键在解码过程中顺带计算，解码结果留给转录使用；在线服务对原始字节寻址。
+/// 无法解码的文件不缓存，转录时会报出具体的解码错误。
+async fn lookup_cache(path: &Path, settings: &AppSettings, state: &AppState) -> CacheLookup {
+    let (model, language, prompt) = (
+        settings.selected_model.clone(),
+        settings.transcription_language.clone(),
+        settings.transcription_prompt.clone(),
+    );
+
+    let fingerprint = crate::core::result_cache::file_fingerprint(path, &model, &language, &prompt);
+    if let Some(fingerprint) = &fingerprint {
+        match state.database.get_cached_result_by_fingerprint(fingerprint) {
+            Ok(Some(result)) => {
+                return CacheLookup {
+                    hit: Some(result),
+                    ..Default::default()
+                }
+            }
+            Ok(None) => {}
+            Err(e) => eprintln!("⚠️ 读取转录缓存失败: {}", e),
+        }
+    }
+
+    let local = ModelProvider::from_model_id(&model) == ModelProvider::LocalWhisper;
+    let path = path.to_path_buf();
+    let (key, samples) = tokio::task::spawn_blocking(move || {
+        if !local {
+            let key = crate::core::result_cache::file_bytes_key(&path, &model, &language, &prompt).ok();
+            return (key, None);
+        }
+        // 逐块喂给哈希的同时重采样，解码一次同时得到内容键和转录用的采样
+        let mut hasher = crate::core::result_cache::CacheKeyHasher::new();
+        let mut rate = 0;
+        match crate::core::audio_decode::decode_to_16khz_with(&path, |block, r| {
+            hasher.update(block);
+            rate = r;
+        }) {
+            Ok(samples) => (Some(hasher.finish(rate, &model, &language, &prompt)), Some(samples)),
+            Err(_) => (None, None),
+        }
+    })
+    .await
+    .unwrap_or((None, None));
+
+    let hit = match &key {
+        Some(key) => state.database.get_cached_result(key).unwrap_or_else(|e| {
+            eprintln!("⚠️ 读取转录缓存失败: {}", e);
+            None
+        }),
+        None => None,
+    };
+    if let (Some(key), Some(fingerprint), true) = (&key, &fingerprint, hit.is_some()) {
+        put_alias(state, fingerprint, key);
+    }
+    CacheLookup {
+        hit,
+        fingerprint,
+        key,
+        samples,
+    }
+}
+
+fn put_alias(state: &AppState, fingerprint: &str, key: &str) {
+    if let Err(e) = state.database.put_cache_alias(fingerprint, key) {
+        eprintln!("⚠️ 写入转录缓存失败: {}", e);
+    }
+}
+
+/// 每个后端同时执行的文件数
+///
+/// 与 `TranscriptionScheduler::set_batch_limits` 使用相同的设置和上限，调度器的批量名额
+/// 与这里一致，批次预计耗时才能按并发数折算。
+struct Limits {
+    local: usize,
+    remote: usize,
+}
+
+impl Limits {
+    fn from_settings(settings: &AppSettings) -> Self {
+        Self {
+            local: settings.batch_local_concurrency.clamp(1, MAX_BATCH_CONCURRENCY),
+            remote: settings.batch_remote_concurrency.clamp(1, MAX_BATCH_CONCURRENCY),
+        }
+    }
+
+    fn get(&self, provider: &ModelProvider) -> usize {
+        match provider {
+            ModelProvider::LocalWhisper => self.local,
+            _ => self.remote,
+        }
+    }
+}
+
+/// 尚未结束的文件（`elapsed_secs` 为 Some 表示正在执行）
+struct PendingFile {
+    provider: ModelProvider,
+    audio_secs: Option<f64>,
+    elapsed_secs: Option<f64>,
+}
+
+/// 按后端统计已完成文件的耗时，估算剩余时间
+///
+/// 有音频时长时按"每秒音频的处理耗时"估算，否则按每个文件的平均耗时。
+#[derive(Default)]
+struct EtaModel {
+    speeds: HashMap<ModelProvider, Speed>,
+}
+
+#[derive(Default)]
+struct Speed {
+    files: u32,
+    file_secs: f64,
+    // 只统计已知时长的文件
+    audio_secs: f64,
+    audio_wall_secs: f64,
+}
+
+impl EtaModel {
+    fn record(&mut self, provider: &ModelProvider, wall_secs: f64, audio_secs: Option<f64>) {
+        let speed = self.speeds.entry(provider.clone()).or_default();
+        speed.files += 1;
+        speed.file_secs += wall_secs;
+        if let Some(audio_secs) = audio_secs.filter(|s| *s > 0.0) {
+            speed.audio_secs += audio_secs;
+            speed.audio_wall_secs += wall_secs;
+        }
+    }
+
+    /// 处理一个文件的预计总耗时
+    fn estimate(&self, provider: &ModelProvider, audio_secs: Option<f64>) -> Option<f64> {
+        let speed = self.speeds.get(provider)?;
+        match audio_secs {
+            Some(audio_secs) if speed.audio_secs > 0.0 => {
+                Some(audio_secs * speed.audio_wall_secs / speed.audio_secs)
+            }
+            _ => Some(speed.file_secs / speed.files as f64),
+        }
+    }
+
+    /// 已执行 `elapsed_secs` 的文件的剩余耗时
+    fn remaining(&self, provider: &ModelProvider, audio_secs: Option<f64>, elapsed_secs: f64) -> Option<f64> {
+        self.estimate(provider, audio_secs)
+            .map(|total| (total - elapsed_secs).max(0.0))
+    }
+
+    /// 批次剩余耗时：各后端的剩余工作量除以其并发数，后端之间并行，取最大值
+    fn batch_remaining(&self, pending: &[PendingFile], limit: impl Fn(&ModelProvider) -> usize) -> Option<f64> {
+        let mut work: HashMap<&ModelProvider, f64> = HashMap::new();
+        for file in pending {
+            let secs = match file.elapsed_secs {
+                Some(elapsed) => self.remaining(&file.provider, file.audio_secs, elapsed)?,
+                None => self.estimate(&file.provider, file.audio_secs)?,
+            };
+            *work.entry(&file.provider).or_default() += secs;
+        }
+        Some(
+            work.into_iter()
+                .map(|(provider, secs)| secs / limit(provider).max(1) as f64)
+                .fold(0.0, f64::max),
+        )
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn pending(provider: ModelProvider, audio_secs: Option<f64>, elapsed_secs: Option<f64>) -> PendingFile {
+        PendingFile {
+            provider,
+            audio_secs,
+            elapsed_secs,
+        }
+    }
+
+    #[test]
+    fn test_eta_scales_with_audio_duration() {
+        let mut eta = EtaModel::default();
+        assert_eq!(eta.estimate(&ModelProvider::LocalWhisper, Some(60.0)), None);
+
+        // 60 秒音频用了 15 秒，120 秒音频用了 30 秒：每秒音频 0.25 秒
+        eta.record(&ModelProvider::LocalWhisper, 15.0, Some(60.0));
+        eta.record(&ModelProvider::LocalWhisper, 30.0, Some(120.0));
+        assert_eq!(eta.estimate(&ModelProvider::LocalWhisper, Some(40.0)), Some(10.0));
+        assert_eq!(eta.remaining(&ModelProvider::LocalWhisper, Some(40.0), 4.0), Some(6.0));
+        assert_eq!(eta.remaining(&ModelProvider::LocalWhisper, Some(40.0), 25.0), Some(0.0));
+        // 时长未知时按每个文件的平均耗时
+        assert_eq!(eta.estimate(&ModelProvider::LocalWhisper, None), Some(22.5));
+        // 其他后端还没有数据
+        assert_eq!(eta.estimate(&ModelProvider::OpenAI, Some(40.0)), None);
+    }
+
+    #[test]
+    fn test_batch_eta_divides_by_concurrency_per_backend() {
+        let mut eta = EtaModel::default();
+        eta.record(&ModelProvider::LocalWhisper, 10.0, Some(10.0));
+        eta.record(&ModelProvider::OpenAI, 2.0, Some(10.0));
+        let limit = |provider: &ModelProvider| match provider {
+            ModelProvider::LocalWhisper => 1,
+            _ => 4,
+        };
+
+        // 本地：执行中剩 6 秒 + 排队 10 秒；在线：4 个文件各 2 秒，4 路并发
+        let files = vec![
+            pending(ModelProvider::LocalWhisper, Some(10.0), Some(4.0)),
+            pending(ModelProvider::LocalWhisper, Some(10.0), None),
+            pending(ModelProvider::OpenAI, Some(10.0), None),
+            pending(ModelProvider::OpenAI, Some(10.0), None),
+            pending(ModelProvider::OpenAI, Some(10.0), None),
+            pending(ModelProvider::OpenAI, Some(10.0), None),
+        ];
+        assert_eq!(eta.batch_remaining(&files, limit), Some(16.0));
+        assert_eq!(eta.batch_remaining(&[], limit), Some(0.0));
+
+        // 任一后端没有速度数据时无法估算
+        let files = vec![pending(ModelProvider::Deepgram, Some(10.0), None)];
+        assert_eq!(eta.batch_remaining(&files, limit), None);
+    }
+}
@@ -39,6 +39,59 @@ impl Database {
             [],
         )?;
 
+        // 文件转录结果缓存：键见 core::result_cache，last_used 为递增序号，按它做 LRU 淘汰
+        conn.execute(
+            "CREATE TABLE IF NOT EXISTS result_cache (
+                key TEXT PRIMARY KEY,
+                result TEXT NOT NULL,
+                size INTEGER NOT NULL,
+                last_used INTEGER NOT NULL
+            )",
+            [],
+        )?;
+
+        conn.execute(
+            "CREATE INDEX IF NOT EXISTS idx_result_cache_last_used ON result_cache(last_used)",
+            [],
+        )?;
+
+        // 文件指纹（路径、大小、修改时间）到内容键的映射，随缓存条目一起淘汰
+        conn.execute(
+            "CREATE TABLE IF NOT EXISTS result_cache_files (
+                fingerprint TEXT PRIMARY KEY,
+                key TEXT NOT NULL
+            )",
+            [],
+        )?;
+
+        conn.execute(
+            "CREATE INDEX IF NOT EXISTS idx_result_cache_files_key ON result_cache_files(key)",
+            [],
+        )?;
+
+        // 批量转录队列：status 见 BatchJobStatus，result 为 TranscriptionResult 的 JSON
+        conn.execute(
+            "CREATE TABLE IF NOT EXISTS batch_jobs (
+                id TEXT PRIMARY KEY,
+                batch_id TEXT NOT NULL,
+                position INTEGER NOT NULL,
+                file_path TEXT NOT NULL,
+                model TEXT NOT NULL,
+                status TEXT NOT NULL,
+                audio_secs REAL,
+                result TEXT,
+                error TEXT,
+                created_at INTEGER NOT NULL,
+                updated_at INTEGER NOT NULL
+            )",
+            [],
+        )?;
+
+        conn.execute(
+            "CREATE INDEX IF NOT EXISTS idx_batch_jobs_status ON batch_jobs(status)",
+            [],
+        )?;
+
         conn.execute(
             "CREATE TABLE IF NOT EXISTS app_settings (
                 key TEXT PRIMARY KEY,
@@ -132,6 +185,220 @@ impl Database {
         Ok(())
     }
 
+    /// 查询缓存的转录结果，命中时刷新其 LRU 位置
+    pub fn get_cached_result(&self, key: &str) -> Result<Option<TranscriptionResult>> {
+        let conn = self.conn.lock();
+        let json = match conn.query_row(
+            "SELECT result FROM result_cache WHERE key = ?1",
+            [key],
+            |row| row.get::<_, String>(0),
+        ) {
+            Ok(json) => json,
+            Err(rusqlite::Error::QueryReturnedNoRows) => return Ok(None),
+            Err(e) => return Err(e.into()),
+        };
+
+        conn.execute(
+            "UPDATE result_cache
+             SET last_used = (SELECT COALESCE(MAX(last_used), 0) + 1 FROM result_cache)
+             WHERE key = ?1",
+            [key],
+        )?;
+        Ok(Some(serde_json::from_str(&json)?))
+    }
+
+    /// 写入转录结果，并按最久未使用的顺序淘汰，直到缓存总大小不超过 `max_bytes`
+    pub fn put_cached_result(&self, key: &str, result: &TranscriptionResult, max_bytes: u64) -> Result<()> {
+        let json = serde_json::to_string(result)?;
+        if json.len() as u64 > max_bytes {
+            return Ok(());
+        }
+
+        let conn = self.conn.lock();
+        conn.execute(
+            "INSERT OR REPLACE INTO result_cache (key, result, size, last_used)
+             VALUES (?1, ?2, ?3, (SELECT COALESCE(MAX(last_used), 0) + 1 FROM result_cache))",
+            rusqlite::params![key, &json, json.len() as i64],
+        )?;
+
+        let mut total: i64 = conn.query_row(
+            "SELECT COALESCE(SUM(size), 0) FROM result_cache",
+            [],
+            |row| row.get(0),
+        )?;
+        if total as u64 <= max_bytes {
+            return Ok(());
+        }
+
+        let mut stmt = conn.prepare("SELECT key, size FROM result_cache ORDER BY last_used ASC")?;
+        let entries = stmt
+            .query_map([], |row| Ok((row.get::<_, String>(0)?, row.get::<_, i64>(1)?)))?
+            .collect::<std::result::Result<Vec<_>, _>>()?;
+        for (victim, size) in entries {
+            if total as u64 <= max_bytes {
+                break;
+            }
+            conn.execute("DELETE FROM result_cache WHERE key = ?1", [&victim])?;
+            conn.execute("DELETE FROM result_cache_files WHERE key = ?1", [&victim])?;
+            total -= size;
+        }
+        Ok(())
+    }
+
+    /// 按文件指纹查询缓存的结果（第一级，不读取文件内容）
+    pub fn get_cached_result_by_fingerprint(&self, fingerprint: &str) -> Result<Option<TranscriptionResult>> {
+        let key = {
+            let conn = self.conn.lock();
+            match conn.query_row(
+                "SELECT key FROM result_cache_files WHERE fingerprint = ?1",
+                [fingerprint],
+                |row| row.get::<_, String>(0),
+            ) {
+                Ok(key) => key,
+                Err(rusqlite::Error::QueryReturnedNoRows) => return Ok(None),
+                Err(e) => return Err(e.into()),
+            }
+        };
+        self.get_cached_result(&key)
+    }
+
+    /// 记录文件指纹对应的内容键（内容键须已在缓存中）
+    pub fn put_cache_alias(&self, fingerprint: &str, key: &str) -> Result<()> {
+        let conn = self.conn.lock();
+        conn.execute(
+            "INSERT OR REPLACE INTO result_cache_files (fingerprint, key)
+             SELECT ?1, key FROM result_cache WHERE key = ?2",
+            [fingerprint, key],
+        )?;
+        Ok(())
+    }
+
+    pub fn insert_batch_jobs(&self, jobs: &[BatchJob]) -> Result<()> {
+        let mut conn = self.conn.lock();
+        let tx = conn.transaction()?;
+        for job in jobs {
+            tx.execute(
+                "INSERT INTO batch_jobs (id, batch_id, position, file_path, model, status, audio_secs, result, error, created_at, updated_at)
+                 VALUES (?1, ?2, ?3, ?4, ?5, ?6, ?7, ?8, ?9, ?10, ?11)",
+                rusqlite::params![
+                    &job.id,
+                    &job.batch_id,
+                    job.position,
+                    &job.file_path,
+                    &job.model,
+                    job.status.as_str(),
+                    job.audio_secs,
+                    job.result.as_ref().map(serde_json::to_string).transpose()?,
+                    &job.error,
+                    job.created_at,
+                    job.updated_at,
+                ],
+            )?;
+        }
+        tx.commit()?;
+        Ok(())
+    }
+
+    /// 按入队顺序列出批量任务；`batch_id` 为 None 时列出全部
+    pub fn get_batch_jobs(&self, batch_id: Option<&str>) -> Result<Vec<BatchJob>> {
+        let conn = self.conn.lock();
+        match batch_id {
+            Some(batch_id) => query_batch_jobs(
+                &conn,
+                "WHERE batch_id = ?1 ORDER BY created_at, position",
+                [batch_id],
+            ),
+            None => query_batch_jobs(&conn, "ORDER BY created_at, position", []),
+        }
+    }
+
+    pub fn get_batch_job(&self, id: &str) -> Result<Option<BatchJob>> {
+        let conn = self.conn.lock();
+        Ok(query_batch_jobs(&conn, "WHERE id = ?1", [id])?.pop())
+    }
+
+    /// 等待执行的任务，按入队顺序
+    pub fn queued_batch_jobs(&self) -> Result<Vec<BatchJob>> {
+        let conn = self.conn.lock();
+        query_batch_jobs(
+            &conn,
+            "WHERE status = ?1 ORDER BY created_at, position",
+            [BatchJobStatus::Queued.as_str()],
+        )
+    }
+
+    /// 把排队中的任务标记为执行中；任务已被取消时返回 false
+    pub fn start_batch_job(&self, id: &str) -> Result<bool> {
+        let conn = self.conn.lock();
+        let changed = conn.execute(
+            "UPDATE batch_jobs SET status = ?1, updated_at = ?2 WHERE id = ?3 AND status = ?4",
+            rusqlite::params![
+                BatchJobStatus::Running.as_str(),
+                chrono::Utc::now().timestamp(),
+                id,
+                BatchJobStatus::Queued.as_str(),
+            ],
+        )?;
+        Ok(changed > 0)
+    }
+
+    pub fn finish_batch_job(
+        &self,
+        id: &str,
+        status: BatchJobStatus,
+        result: Option<&TranscriptionResult>,
+        error: Option<&str>,
+    ) -> Result<()> {
+        let result = result.map(serde_json::to_string).transpose()?;
+        let conn = self.conn.lock();
+        conn.execute(
+            "UPDATE batch_jobs SET status = ?1, result = ?2, error = ?3, updated_at = ?4 WHERE id = ?5",
+            rusqlite::params![status.as_str(), result, error, chrono::Utc::now().timestamp(), id],
+        )?;
+        Ok(())
+    }
+
+    /// 取消排队中的任务（执行中的任务由队列通过取消令牌中止）；返回被取消的条数
+    pub fn cancel_queued_batch_jobs(&self, batch_id: Option<&str>, job_id: Option<&str>) -> Result<usize> {
+        let conn = self.conn.lock();
+        let changed = conn.execute(
+            "UPDATE batch_jobs SET status = ?1, updated_at = ?2
+             WHERE status = ?3 AND (?4 IS NULL OR batch_id = ?4) AND (?5 IS NULL OR id = ?5)",
+            rusqlite::params![
+                BatchJobStatus::Cancelled.as_str(),
+                chrono::Utc::now().timestamp(),
+                BatchJobStatus::Queued.as_str(),
+                batch_id,
+                job_id,
+            ],
+        )?;
+        Ok(changed)
+    }
+
+    /// 启动时调用：上次退出时仍在执行的任务重新排队
+    pub fn requeue_interrupted_batch_jobs(&self) -> Result<usize> {
+        let conn = self.conn.lock();
+        let changed = conn.execute(
+            "UPDATE batch_jobs SET status = ?1 WHERE status = ?2",
+            [BatchJobStatus::Queued.as_str(), BatchJobStatus::Running.as_str()],
+        )?;
+        Ok(changed)
+    }
+
+    /// 删除已结束的任务（结果已写入历史记录）
+    pub fn delete_finished_batch_jobs(&self) -> Result<usize> {
+        let conn = self.conn.lock();
+        let changed = conn.execute(
+            "DELETE FROM batch_jobs WHERE status IN (?1, ?2, ?3)",
+            [
+                BatchJobStatus::Done.as_str(),
+                BatchJobStatus::Failed.as_str(),
+                BatchJobStatus::Cancelled.as_str(),
+            ],
+        )?;
+        Ok(changed)
+    }
+
     pub fn save_settings(&self, settings: &AppSettings) -> Result<()> {
         let conn = self.conn.lock();
         let mut settings_to_save = settings.clone();
@@ -185,6 +452,41 @@ impl Database {
     }
 }
 
+fn query_batch_jobs<P: rusqlite::Params>(conn: &Connection, filter: &str, params: P) -> Result<Vec<BatchJob>> {
+    let mut stmt = conn.prepare(&format!(
+        "SELECT id, batch_id, position, file_path, model, status, audio_secs, result, error, created_at, updated_at
+         FROM batch_jobs {}",
+        filter
+    ))?;
+    let rows = stmt
+        .query_map(params, |row| {
+            let job = BatchJob {
+                id: row.get(0)?,
+                batch_id: row.get(1)?,
+                position: row.get(2)?,
+                file_path: row.get(3)?,
+                model: row.get(4)?,
+                status: BatchJobStatus::parse(&row.get::<_, String>(5)?),
+                audio_secs: row.get(6)?,
+                result: None,
+                error: row.get(8)?,
+                created_at: row.get(9)?,
+                updated_at: row.get(10)?,
+            };
+            Ok((job, row.get::<_, Option<String>>(7)?))
+        })?
+        .collect::<std::result::Result<Vec<_>, _>>()?;
+
+    rows.into_iter()
+        .map(|(mut job, result)| {
+            if let Some(json) = result {
+                job.result = Some(serde_json::from_str(&json)?);
+            }
+            Ok(job)
+        })
+        .collect()
+}
+
 #[cfg(test)]
 mod tests {
     use super::*;
@@ -230,6 +532,7 @@ mod tests {
             microphone_priority: vec!["device-1".to_string(), "device-2".to_string()],
             onboarding_complete: true,
             word_replacements: vec![],
+            ..Default::default()
         };
 
         db.save_settings(&settings).unwrap();
@@ -307,6 +610,120 @@ mod tests {
         assert_eq!(history.len(), 0);
     }
 
+    #[test]
+    fn test_result_cache_lru_eviction() {
+        let dir = tempdir().unwrap();
+        let db = Database::new(&dir.path().join("test.db")).unwrap();
+        let result = |text: &str| TranscriptionResult {
+            text: text.to_string(),
+            duration: Some(3.0),
+            ..Default::default()
+        };
+        let size = serde_json::to_string(&result("a")).unwrap().len() as u64;
+        // 恰好容纳两条
+        let budget = size * 2;
+
+        db.put_cached_result("a", &result("a"), budget).unwrap();
+        db.put_cached_result("b", &result("b"), budget).unwrap();
+        assert_eq!(db.get_cached_result("a").unwrap().unwrap().text, "a");
+
+        // a 刚被读过，写入 c 时淘汰最久未用的 b
+        db.put_cached_result("c", &result("c"), budget).unwrap();
+        assert!(db.get_cached_result("a").unwrap().is_some());
+        assert!(db.get_cached_result("b").unwrap().is_none());
+        assert_eq!(db.get_cached_result("c").unwrap().unwrap().duration, Some(3.0));
+    }
+
+    #[test]
+    fn test_result_cache_fingerprint_alias() {
+        let dir = tempdir().unwrap();
+        let db = Database::new(&dir.path().join("test.db")).unwrap();
+        let result = |text: &str| TranscriptionResult {
+            text: text.to_string(),
+            ..Default::default()
+        };
+        let size = serde_json::to_string(&result("a")).unwrap().len() as u64;
+
+        // 内容键不在缓存中时不建立映射
+        db.put_cache_alias("fp-a", "a").unwrap();
+        assert!(db.get_cached_result_by_fingerprint("fp-a").unwrap().is_none());
+
+        db.put_cached_result("a", &result("a"), size).unwrap();
+        db.put_cache_alias("fp-a", "a").unwrap();
+        db.put_cache_alias("fp-a-copy", "a").unwrap();
+        assert_eq!(db.get_cached_result_by_fingerprint("fp-a").unwrap().unwrap().text, "a");
+
+        // 内容键被淘汰时映射一并删除
+        db.put_cached_result("b", &result("b"), size).unwrap();
+        assert!(db.get_cached_result_by_fingerprint("fp-a").unwrap().is_none());
+        let aliases: i64 = db
+            .conn
+            .lock()
+            .query_row("SELECT COUNT(*) FROM result_cache_files", [], |row| row.get(0))
+            .unwrap();
+        assert_eq!(aliases, 0);
+    }
+
+    #[test]
+    fn test_batch_jobs_survive_restart() {
+        let dir = tempdir().unwrap();
+        let path = dir.path().join("test.db");
+        let job = |position: u32| BatchJob {
+            id: format!("job-{}", position),
+            batch_id: "batch-1".to_string(),
+            position,
+            file_path: format!("/tmp/{}.wav", position),
+            model: "whisper-base".to_string(),
+            status: BatchJobStatus::Queued,
+            audio_secs: Some(30.0),
+            result: None,
+            error: None,
+            created_at: 1000,
+            updated_at: 1000,
+        };
+
+        {
+            let db = Database::new(&path).unwrap();
+            db.insert_batch_jobs(&[job(0), job(1), job(2), job(3)]).unwrap();
+
+            assert!(db.start_batch_job("job-0").unwrap());
+            let result = TranscriptionResult {
+                text: "第一段".to_string(),
+                ..Default::default()
+            };
+            db.finish_batch_job("job-0", BatchJobStatus::Done, Some(&result), None).unwrap();
+            // 退出时 job-1 仍在执行
+            assert!(db.start_batch_job("job-1").unwrap());
+            assert_eq!(db.cancel_queued_batch_jobs(None, Some("job-3")).unwrap(), 1);
+            // 已取消的任务不能再被启动
+            assert!(!db.start_batch_job("job-3").unwrap());
+        }
+
+        let db = Database::new(&path).unwrap();
+        assert_eq!(db.requeue_interrupted_batch_jobs().unwrap(), 1);
+
+        let jobs = db.get_batch_jobs(Some("batch-1")).unwrap();
+        let statuses: Vec<_> = jobs.iter().map(|j| j.status).collect();
+        assert_eq!(
+            statuses,
+            vec![
+                BatchJobStatus::Done,
+                BatchJobStatus::Queued,
+                BatchJobStatus::Queued,
+                BatchJobStatus::Cancelled
+            ]
+        );
+        assert_eq!(jobs[0].result.as_ref().unwrap().text, "第一段");
+        assert_eq!(jobs[1].audio_secs, Some(30.0));
+
+        let queued: Vec<_> = db.queued_batch_jobs().unwrap().into_iter().map(|j| j.id).collect();
+        assert_eq!(queued, vec!["job-1", "job-2"]);
+
+        assert_eq!(db.delete_finished_batch_jobs().unwrap(), 2);
+        assert!(db.get_batch_job("job-0").unwrap().is_none());
+        assert_eq!(db.get_batch_jobs(None).unwrap().len(), 2);
+    }
+
     #[cfg(test)]
     use proptest::prelude::*;
 
@@ -376,6 +793,7 @@ mod tests {
         assert_eq!(loaded.microphone_priority.len(), 0);
         assert_eq!(loaded.onboarding_complete, false);
         assert_eq!(loaded.word_replacements.len(), 0);
+        assert_eq!(loaded.vad_enabled, true);
     }
 
     #[test]
@@ -424,6 +842,7 @@ mod tests {
                     enabled: false,
                 },
             ],
+            ..Default::default()
         };
 
         db.save_settings(&settings).unwrap();
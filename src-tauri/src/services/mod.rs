@@ -1,3 +1,7 @@
+pub mod batch;
 pub mod database;
+pub mod model_preload;
 pub mod quick_input;
 pub mod state;
+pub mod streaming;
+pub mod upload_stream;
@@ -0,0 +1,144 @@
+use crate::core::{error::Result, local_whisper, model_cache, types::*};
+use crate::services::state::AppState;
+use parking_lot::Mutex;
+use std::path::{Path, PathBuf};
+use std::sync::atomic::{AtomicU64, Ordering};
+use std::sync::Arc;
+use std::time::Instant;
+use tauri::{AppHandle, Manager};
+
+#[derive(Debug, Clone, PartialEq, serde::Serialize)]
+#[serde(rename_all = "lowercase")]
+pub enum ModelReadiness {
+    /// 当前模型不是本地模型，或尚未下载
+    Idle,
+    Loading,
+    Ready,
+    Failed,
+}
+
+#[derive(Debug, Clone, serde::Serialize)]
+pub struct ModelReadyStatus {
+    pub model_id: String,
+    pub status: ModelReadiness,
+    pub ready: bool,
+}
+
+impl ModelReadyStatus {
+    fn new(model_id: &str, status: ModelReadiness) -> Self {
+        Self {
+            model_id: model_id.to_string(),
+            ready: status == ModelReadiness::Ready,
+            status,
+        }
+    }
+}
+
+/// 后台预加载并预热选中的本地模型
+///
+/// 启动时和切换模型时调用 `preload`，状态变化通过 `model-ready` 事件推送，
+/// 悬浮输入窗口据此提示本地推理是否可以立即开始。
+pub struct ModelPreloadService {
+    status: Arc<Mutex<ModelReadyStatus>>,
+    // 每次 preload 递增；过期的后台任务完成时不再覆盖状态
+    generation: Arc<AtomicU64>,
+}
+
+impl ModelPreloadService {
+    pub fn new() -> Self {
+        Self {
+            status: Arc::new(Mutex::new(ModelReadyStatus::new("", ModelReadiness::Idle))),
+            generation: Arc::new(AtomicU64::new(0)),
+        }
+    }
+
+    pub fn preload(&self, app: AppHandle) {
+        let generation = self.generation.fetch_add(1, Ordering::SeqCst) + 1;
+        let (model_id, model_path) = {
+            let state = app.state::<AppState>();
+            let model_id = state.settings.lock().selected_model.clone();
+            let path = if ModelProvider::from_model_id(&model_id) == ModelProvider::LocalWhisper
+                && local_whisper::is_model_downloaded(state.app_data_dir(), &model_id)
+            {
+                local_whisper::model_path(state.app_data_dir(), &model_id)
+            } else {
+                None
+            };
+            (model_id, path)
+        };
+
+        let model_path = match model_path {
+            Some(path) => path,
+            None => {
+                set_status(&app, &self.status, ModelReadyStatus::new(&model_id, ModelReadiness::Idle));
+                return;
+            }
+        };
+
+        set_status(&app, &self.status, ModelReadyStatus::new(&model_id, ModelReadiness::Loading));
+
+        let status = self.status.clone();
+        let current_generation = self.generation.clone();
+        tauri::async_runtime::spawn(async move {
+            let result = tokio::task::spawn_blocking(move || warm_up(&model_path)).await;
+
+            if current_generation.load(Ordering::SeqCst) != generation {
+                return;
+            }
+
+            let readiness = match result {
+                Ok(Ok(())) => ModelReadiness::Ready,
+                Ok(Err(e)) => {
+                    eprintln!("❌ 模型预加载失败 {}: {}", model_id, e);
+                    ModelReadiness::Failed
+                }
+                Err(e) => {
+                    eprintln!("❌ 模型预加载线程异常 {}: {}", model_id, e);
+                    ModelReadiness::Failed
+                }
+            };
+            set_status(&app, &status, ModelReadyStatus::new(&model_id, readiness));
+        });
+    }
+
+    /// 监听 selected_model 变化，每次切换后重新预加载
+    pub fn watch_model_changes(app: AppHandle) {
+        let mut rx = app.state::<AppState>().watch_selected_model();
+        tauri::async_runtime::spawn(async move {
+            while rx.changed().await.is_ok() {
+                app.state::<ModelPreloadService>().preload(app.clone());
+            }
+        });
+    }
+
+    /// 当前状态；模型若已被缓存空闲卸载，则 Ready 降级为 Idle
+    pub fn status(&self, app_data_dir: &Path) -> ModelReadyStatus {
+        let mut status = self.status.lock().clone();
+        if status.status == ModelReadiness::Ready {
+            let loaded = local_whisper::model_path(app_data_dir, &status.model_id)
+                .map_or(false, |p| model_cache::global().is_loaded(&p));
+            if !loaded {
+                status = ModelReadyStatus::new(&status.model_id, ModelReadiness::Idle);
+            }
+        }
+        status
+    }
+}
+
+fn set_status(app: &AppHandle, slot: &Mutex<ModelReadyStatus>, status: ModelReadyStatus) {
+    *slot.lock() = status.clone();
+    let _ = app.emit_all("model-ready", status);
+}
+
+/// 加载模型并跑一次 1 秒静音推理，让首次真实听写不再承担初始化开销
+fn warm_up(model_path: &PathBuf) -> Result<()> {
+    let started = Instant::now();
+    let silence = vec![0.0f32; 16000];
+    local_whisper::transcribe_local(model_path, &silence, Some("en"))?;
+    println!(
+        "🔥 模型预热完成: {:?} ({:.2}s)",
+        model_path.file_name().unwrap_or_default(),
+        started.elapsed().as_secs_f64()
+    );
+    Ok(())
+}
@@ -1,5 +1,10 @@
-use crate::core::{error::Result, shortcuts::HoldToTalkListener, transcription::TranscriptionService, types::*};
+use crate::core::error::{AppError, Result};
+use crate::core::recording_store::RecordingReader;
+use crate::core::scheduler::{CancelToken, JobContext};
+use crate::core::{local_whisper, shortcuts::HoldToTalkListener, transcription::TranscriptionService, types::*};
 use crate::services::state::AppState;
+use crate::services::streaming::{self, StreamingCommit, StreamingSession};
+use crate::services::upload_stream::UploadSession;
 use std::sync::Arc;
 use tauri::{AppHandle, Manager};
 use tokio::sync::Mutex;
@@ -8,6 +13,9 @@ pub struct QuickInputService {
     listener: Arc<HoldToTalkListener>,
     is_active: Arc<Mutex<bool>>,
     original_app: Arc<Mutex<Option<String>>>,
+    streaming: Arc<Mutex<Option<LiveSession>>>,
+    // 正在进行的听写转录的取消令牌，按 Esc 时触发
+    current_job: Arc<Mutex<Option<CancelToken>>>,
 }
 
 impl QuickInputService {
@@ -16,6 +24,8 @@ impl QuickInputService {
             listener: Arc::new(HoldToTalkListener::new()),
             is_active: Arc::new(Mutex::new(false)),
             original_app: Arc::new(Mutex::new(None)),
+            streaming: Arc::new(Mutex::new(None)),
+            current_job: Arc::new(Mutex::new(None)),
         }
     }
 
@@ -37,14 +47,18 @@ impl QuickInputService {
         self.listener.set_shortcut(key);
         self.listener.set_activation_mode(mode);
 
+        self.listener.set_cancel_handler(Some(self.cancel_handler(app_handle.clone())));
+
         let is_active = self.is_active.clone();
         let original_app = self.original_app.clone();
+        let streaming_press = self.streaming.clone();
         let app_handle_press = app_handle.clone();
         let app_handle_release = app_handle;
 
         let on_press = move || {
             let is_active = is_active.clone();
             let original_app = original_app.clone();
+            let streaming = streaming_press.clone();
             let app = app_handle_press.clone();
 
             tauri::async_runtime::spawn(async move {
@@ -77,17 +91,23 @@ impl QuickInputService {
                     return;
                 }
 
+                prewarm_provider(&state);
+                start_streaming(&app, &streaming).await;
                 let _ = app.emit_all("quick-input-started", ());
             });
         };
 
         let is_active_release = self.is_active.clone();
         let original_app_release = self.original_app.clone();
+        let streaming_release = self.streaming.clone();
+        let current_job_release = self.current_job.clone();
         let app_handle_release_clone = app_handle_release.clone();
 
         let on_release = move || {
             let is_active = is_active_release.clone();
             let original_app = original_app_release.clone();
+            let streaming = streaming_release.clone();
+            let current_job = current_job_release.clone();
             let app = app_handle_release_clone.clone();
 
             tauri::async_runtime::spawn(async move {
@@ -98,8 +118,10 @@ impl QuickInputService {
 
                 let state = app.state::<AppState>();
 
-                let samples = match state.stop_recording().await {
-                    Ok(s) => s,
+                let recording = state.stop_recording().await;
+                let streamed = finish_streaming(&streaming).await;
+                let recording = match recording {
+                    Ok(recording) => recording,
                     Err(e) => {
                         if let Some(w) = app.get_window("quick-input") { let _ = w.hide(); }
                         let _ = app.emit_all("quick-input-error", e.to_string());
@@ -124,11 +146,16 @@ impl QuickInputService {
 
                 // 从设置读取 token + model
                 let settings = state.settings.lock().clone();
-                let mut service = TranscriptionService::new(settings.clone());
+                let mut service = TranscriptionService::new(settings.clone(), state.http.clone());
                 if let Some(dir) = app.path_resolver().app_data_dir() {
                     service = service.with_app_data_dir(dir);
                 }
-                let result = service.transcribe_samples(&samples, 16000).await;
+                let job = JobContext::interactive();
+                *current_job.lock().await = Some(job.cancel.clone());
+                let service = service.with_job(job.clone());
+                let result = transcribe_recording(&state, &service, &job, &recording.reader(), streamed).await;
+                recording.discard();
+                current_job.lock().await.take();
 
                 match result {
                     Ok(transcription) => {
@@ -137,8 +164,8 @@ impl QuickInputService {
                             text: transcription.text.clone(),
                             timestamp: chrono::Utc::now().timestamp(),
                             duration: transcription.duration.unwrap_or(0.0),
-                            model: settings.selected_model.clone(),
-                            confidence: 1.0,
+                            model: transcription.model.clone().unwrap_or_else(|| settings.selected_model.clone()),
+                            confidence: transcription.confidence.unwrap_or(1.0),
                             audio_file_path: None,
                         };
                         let _ = state.database.save_transcription(&entry);
@@ -176,6 +203,8 @@ impl QuickInputService {
                             });
                         }
                     }
+                    // 已由 Esc 处理：窗口已隐藏并通知前端
+                    Err(AppError::Cancelled) => {}
                     Err(e) => {
                         let _ = app.emit_all("quick-input-error", e.to_string());
                     }
@@ -195,6 +224,8 @@ impl QuickInputService {
     pub fn trigger_quick_input(&self, app_handle: AppHandle) -> Result<()> {
         let is_active = self.is_active.clone();
         let original_app = self.original_app.clone();
+        let streaming = self.streaming.clone();
+        let current_job = self.current_job.clone();
 
         tauri::async_runtime::spawn(async move {
             let currently_active = *is_active.lock().await;
@@ -202,8 +233,10 @@ impl QuickInputService {
                 *is_active.lock().await = false;
                 let state = app_handle.state::<AppState>();
 
-                let samples = match state.stop_recording().await {
-                    Ok(s) => s,
+                let recording = state.stop_recording().await;
+                let streamed = finish_streaming(&streaming).await;
+                let recording = match recording {
+                    Ok(recording) => recording,
                     Err(e) => {
                         let _ = app_handle.emit_all("quick-input-error", e.to_string());
                         if let Some(w) = app_handle.get_window("quick-input") { let _ = w.hide(); }
@@ -225,19 +258,26 @@ impl QuickInputService {
                 }
 
                 let settings = state.settings.lock().clone();
-                let mut service = TranscriptionService::new(settings.clone());
+                let mut service = TranscriptionService::new(settings.clone(), state.http.clone());
                 if let Some(dir) = app_handle.path_resolver().app_data_dir() {
                     service = service.with_app_data_dir(dir);
                 }
-                match service.transcribe_samples(&samples, 16000).await {
+                let job = JobContext::interactive();
+                *current_job.lock().await = Some(job.cancel.clone());
+                let service = service.with_job(job.clone());
+                let result = transcribe_recording(&state, &service, &job, &recording.reader(), streamed).await;
+                recording.discard();
+                current_job.lock().await.take();
+
+                match result {
                     Ok(transcription) => {
                         let entry = TranscriptionEntry {
                             id: uuid::Uuid::new_v4().to_string(),
                             text: transcription.text.clone(),
                             timestamp: chrono::Utc::now().timestamp(),
                             duration: transcription.duration.unwrap_or(0.0),
-                            model: settings.selected_model.clone(),
-                            confidence: 1.0,
+                            model: transcription.model.clone().unwrap_or_else(|| settings.selected_model.clone()),
+                            confidence: transcription.confidence.unwrap_or(1.0),
                             audio_file_path: None,
                         };
                         let _ = state.database.save_transcription(&entry);
@@ -262,6 +302,7 @@ impl QuickInputService {
                             });
                         }
                     }
+                    Err(AppError::Cancelled) => {}
                     Err(e) => {
                         let _ = app_handle.emit_all("quick-input-error", e.to_string());
                     }
@@ -283,6 +324,8 @@ impl QuickInputService {
                 }
 
                 *is_active.lock().await = true;
+                prewarm_provider(&state);
+                start_streaming(&app_handle, &streaming).await;
                 let _ = app_handle.emit_all("quick-input-started", ());
             }
         });
@@ -293,4 +336,165 @@ impl QuickInputService {
     pub async fn is_active(&self) -> bool {
         *self.is_active.lock().await
     }
+
+    /// Esc 回调：开启了 Esc 取消且正在录音或转录时，丢弃录音、中止转录并隐藏窗口
+    fn cancel_handler(&self, app: AppHandle) -> Arc<dyn Fn() -> bool + Send + Sync> {
+        let is_active = self.is_active.clone();
+        let streaming = self.streaming.clone();
+        let current_job = self.current_job.clone();
+
+        Arc::new(move || {
+            if !app.state::<AppState>().settings.lock().esc_to_cancel {
+                return false;
+            }
+            // 拿不到锁说明状态正在切换，按有任务处理
+            let recording = is_active.try_lock().map(|a| *a).unwrap_or(true);
+            let transcribing = current_job.try_lock().map(|j| j.is_some()).unwrap_or(true);
+            if !recording && !transcribing {
+                return false;
+            }
+
+            let is_active = is_active.clone();
+            let streaming = streaming.clone();
+            let current_job = current_job.clone();
+            let app = app.clone();
+            tauri::async_runtime::spawn(async move {
+                cancel_quick_input(&app, &is_active, &streaming, &current_job).await;
+            });
+            true
+        })
+    }
+}
+
+async fn cancel_quick_input(
+    app: &AppHandle,
+    is_active: &Mutex<bool>,
+    streaming: &Mutex<Option<LiveSession>>,
+    current_job: &Mutex<Option<CancelToken>>,
+) {
+    let job = current_job.lock().await.take();
+    if let Some(token) = &job {
+        token.cancel();
+    }
+
+    let was_recording = std::mem::replace(&mut *is_active.lock().await, false);
+    if was_recording {
+        // 流式识别会话在 finish 时取消自己的令牌，进行中的滑窗推理随之中止
+        let _ = finish_streaming(streaming).await;
+        if let Ok(handle) = app.state::<AppState>().stop_recording().await {
+            handle.discard();
+        }
+    }
+
+    if was_recording || job.is_some() {
+        println!("⏹️ 已取消听写");
+        if let Some(w) = app.get_window("quick-input") { let _ = w.hide(); }
+        let _ = app.emit_all("quick-input-cancelled", ());
+    }
+}
+
+/// 录音开始时在后台预热到在线服务的连接，松开按键时上传直接复用
+fn prewarm_provider(state: &AppState) {
+    let provider = ModelProvider::from_model_id(&state.settings.lock().selected_model);
+    let client = state.http.clone();
+    tauri::async_runtime::spawn(async move {
+        TranscriptionService::prewarm(&client, &provider).await;
+    });
+}
+
+/// 按住说话期间在后台进行的工作
+enum LiveSession {
+    /// 本地模型：滑窗流式识别
+    Streaming(StreamingSession),
+    /// 在线服务：边录边传
+    Upload(UploadSession),
+}
+
+/// 松开按键后交给最终转录的部分
+enum LiveResult {
+    Committed(StreamingCommit),
+    Uploading(UploadSession),
+}
+
+/// 录音开始后启动后台工作：已下载的本地模型且开启了流式识别时做滑窗推理；
+/// 录音王 / OpenAI 且开启了边录边传时发出上传请求
+async fn start_streaming(app: &AppHandle, slot: &Mutex<Option<LiveSession>>) {
+    let state = app.state::<AppState>();
+    let settings = state.settings.lock().clone();
+    let model_id = settings.selected_model.clone();
+
+    let session = match ModelProvider::from_model_id(&model_id) {
+        ModelProvider::LocalWhisper if settings.streaming_transcription => {
+            if !local_whisper::is_model_downloaded(state.app_data_dir(), &model_id) {
+                return;
+            }
+            match local_whisper::model_path(state.app_data_dir(), &model_id) {
+                Some(model_path) => LiveSession::Streaming(StreamingSession::start(app.clone(), model_path, None)),
+                None => return,
+            }
+        }
+        ModelProvider::LuYinWang | ModelProvider::OpenAI if settings.streaming_upload => {
+            let service = TranscriptionService::new(settings, state.http.clone());
+            let app = app.clone();
+            LiveSession::Upload(UploadSession::start(service, move |from| {
+                let app = app.clone();
+                async move { app.state::<AppState>().live_tail(from).await }
+            }))
+        }
+        _ => return,
+    };
+
+    let stale = slot.lock().await.replace(session);
+    if let Some(LiveSession::Streaming(stale)) = stale {
+        stale.finish().await;
+    }
+}
+
+/// 停止后台工作：流式识别返回已确认的部分；边录边传的会话原样交给最终转录
+async fn finish_streaming(slot: &Mutex<Option<LiveSession>>) -> Option<LiveResult> {
+    match slot.lock().await.take()? {
+        LiveSession::Streaming(session) => Some(LiveResult::Committed(session.finish().await)),
+        LiveSession::Upload(session) => Some(LiveResult::Uploading(session)),
+    }
+}
+
+/// 最终解码：流式识别已确认的前缀直接复用，只解码其后的尾部；边录边传只需补发最后一段
+///
+/// 录音从段文件按需读取（见 `TranscriptionService::transcribe_recording`），长录音不整段读入内存。
+/// 在调度器的交互式优先级下执行，`job` 被取消时返回 `AppError::Cancelled`。
+async fn transcribe_recording(
+    state: &AppState,
+    service: &TranscriptionService,
+    job: &JobContext,
+    recording: &RecordingReader,
+    live: Option<LiveResult>,
+) -> Result<TranscriptionResult> {
+    let provider = service.provider();
+    let streamed = match live {
+        Some(LiveResult::Uploading(session)) => {
+            return state.scheduler.run(&provider, job, session.finish(recording)).await
+        }
+        Some(LiveResult::Committed(commit)) if commit.samples > 0 => commit,
+        _ => {
+            return state
+                .scheduler
+                .run(&provider, job, service.transcribe_recording(recording, 0))
+                .await
+        }
+    };
+
+    let total = recording.len();
+    let offset = streamed.samples.min(total);
+    println!(
+        "⚡ 流式识别已确认 {:.2}s，仅解码尾部 {:.2}s",
+        offset as f64 / 16000.0,
+        (total - offset) as f64 / 16000.0
+    );
+    let mut result = state
+        .scheduler
+        .run(&provider, job, service.transcribe_recording(recording, offset))
+        .await?;
+    result.text = streaming::join_transcript(&streamed.text, &result.text);
+    result.duration = Some(total as f64 / 16000.0);
+    Ok(result)
 }
@@ -1,3 +1,5 @@
+use crate::core::recording_store::{self, RecordingHandle};
+use crate::core::scheduler::TranscriptionScheduler;
 use crate::core::{error::Result, types::*};
 use crate::services::database::Database;
 use parking_lot::Mutex;
@@ -6,8 +8,10 @@ use tokio::sync::mpsc;
 
 pub enum RecorderCommand {
     Start,
-    Stop(tokio::sync::oneshot::Sender<Result<Vec<f32>>>),
+    Stop(tokio::sync::oneshot::Sender<Result<RecordingHandle>>),
     HealthCheck(tokio::sync::oneshot::Sender<bool>),
+    Stats(tokio::sync::oneshot::Sender<CaptureStats>),
+    LiveTail(usize, tokio::sync::oneshot::Sender<(usize, Vec<f32>)>),
 }
 
 pub struct AppState {
@@ -15,6 +19,12 @@ pub struct AppState {
     pub database: Arc<Database>,
     pub is_recording: Arc<Mutex<bool>>,
     pub recorder_tx: Arc<Mutex<mpsc::UnboundedSender<RecorderCommand>>>,
+    pub scheduler: Arc<TranscriptionScheduler>,
+    /// 所有在线请求共用的 HTTP 客户端（内部是 Arc，clone 开销很小）
+    pub http: reqwest::Client,
+    app_data_dir: std::path::PathBuf,
+    recordings_dir: std::path::PathBuf,
+    selected_model_tx: tokio::sync::watch::Sender<String>,
 }
 
 impl AppState {
@@ -22,16 +32,39 @@ impl AppState {
         let database = Database::new(db_path)?;
         let settings = database.load_settings()?;
 
+        // 录音段文件、模型与数据库放在同一个应用数据目录下
+        let app_data_dir = db_path
+            .parent()
+            .map(|p| p.to_path_buf())
+            .unwrap_or_else(|| std::env::temp_dir().join("recording-king"));
+        let recordings_dir = app_data_dir.join("recordings");
+        // 崩溃前未处理的录音导出为 WAV，用户可在转录文件页转录或删除
+        let recovered = recording_store::recover_to_wav(&recordings_dir, &app_data_dir.join("recovered"), 16000);
+        if !recovered.is_empty() {
+            println!("💾 恢复了 {} 段未处理的录音: {:?}", recovered.len(), recovered);
+        }
+
         let (tx, rx) = mpsc::unbounded_channel();
+        let thread_dir = recordings_dir.clone();
         std::thread::spawn(move || {
-            recorder_thread(rx);
+            recorder_thread(rx, thread_dir);
         });
 
+        apply_model_cache_settings(&settings);
+        let scheduler = Arc::new(TranscriptionScheduler::new());
+        apply_batch_settings(&scheduler, &settings);
+        let (selected_model_tx, _) = tokio::sync::watch::channel(settings.selected_model.clone());
+
         Ok(Self {
             settings: Arc::new(Mutex::new(settings)),
             database: Arc::new(database),
             is_recording: Arc::new(Mutex::new(false)),
             recorder_tx: Arc::new(Mutex::new(tx)),
+            scheduler,
+            http: crate::core::http::build_client()?,
+            app_data_dir,
+            recordings_dir,
+            selected_model_tx,
         })
     }
 
@@ -52,8 +85,9 @@ impl AppState {
 
     fn restart_recorder_thread(&self) {
         let (tx, rx) = mpsc::unbounded_channel();
+        let thread_dir = self.recordings_dir.clone();
         std::thread::spawn(move || {
-            recorder_thread(rx);
+            recorder_thread(rx, thread_dir);
         });
         *self.recorder_tx.lock() = tx;
         println!("✅ 录音线程已重启");
@@ -62,10 +96,37 @@ impl AppState {
     pub fn save_settings(&self, new_settings: AppSettings) -> Result<()> {
         // 先写数据库，成功后再更新内存状态（原子性保证）
         self.database.save_settings(&new_settings)?;
-        *self.settings.lock() = new_settings;
+        let previous_model = std::mem::replace(&mut *self.settings.lock(), new_settings.clone())
+            .selected_model;
+
+        apply_model_cache_settings(&new_settings);
+        apply_batch_settings(&self.scheduler, &new_settings);
+        if previous_model != new_settings.selected_model {
+            // 切换模型后不再把旧模型钉在内存里
+            let current = crate::core::local_whisper::model_path(
+                &self.app_data_dir,
+                &new_settings.selected_model,
+            );
+            crate::core::model_cache::global().retain_only(current.as_deref());
+            self.selected_model_tx.send_replace(new_settings.selected_model.clone());
+        }
         Ok(())
     }
 
+    /// 订阅 selected_model 的变化（用于切换模型后的后台预加载）
+    pub fn watch_selected_model(&self) -> tokio::sync::watch::Receiver<String> {
+        self.selected_model_tx.subscribe()
+    }
+
+    pub fn app_data_dir(&self) -> &std::path::Path {
+        &self.app_data_dir
+    }
+
+    /// 启动时从遗留录音会话导出的 WAV 文件所在目录
+    pub fn recovered_dir(&self) -> std::path::PathBuf {
+        self.app_data_dir.join("recovered")
+    }
+
     pub async fn start_recording(&self) -> Result<()> {
         {
             let is_recording = self.is_recording.lock();
@@ -83,7 +144,8 @@ impl AppState {
         Ok(())
     }
 
-    pub async fn stop_recording(&self) -> Result<Vec<f32>> {
+    /// 停止录音，返回指向磁盘段文件的句柄
+    pub async fn stop_recording(&self) -> Result<RecordingHandle> {
         {
             let is_recording = self.is_recording.lock();
             if !*is_recording {
@@ -94,22 +156,51 @@ impl AppState {
         let (tx, rx) = tokio::sync::oneshot::channel();
         self.recorder_tx.lock().send(RecorderCommand::Stop(tx))
             .map_err(|_| crate::core::error::AppError::Other("Recorder died".into()))?;
-        let samples = rx.await
+        let handle = rx.await
             .map_err(|_| crate::core::error::AppError::Other("Recorder died".into()))??;
 
         *self.is_recording.lock() = false;
-        Ok(samples)
+        Ok(handle)
     }
 
     pub fn is_recording(&self) -> bool {
         *self.is_recording.lock()
     }
+
+    /// 查询采集回调的丢帧/溢出计数
+    pub async fn capture_stats(&self) -> Result<CaptureStats> {
+        let (tx, rx) = tokio::sync::oneshot::channel();
+        self.recorder_tx.lock().send(RecorderCommand::Stats(tx))
+            .map_err(|_| crate::core::error::AppError::Other("Recorder died".into()))?;
+        rx.await
+            .map_err(|_| crate::core::error::AppError::Other("Recorder died".into()))
+    }
+
+    /// 读取正在录制的音频中从 `from` 开始的部分，返回 (实际起点, 样本)
+    pub async fn live_tail(&self, from: usize) -> Result<(usize, Vec<f32>)> {
+        let (tx, rx) = tokio::sync::oneshot::channel();
+        self.recorder_tx.lock().send(RecorderCommand::LiveTail(from, tx))
+            .map_err(|_| crate::core::error::AppError::Other("Recorder died".into()))?;
+        rx.await
+            .map_err(|_| crate::core::error::AppError::Other("Recorder died".into()))
+    }
 }
 
-fn recorder_thread(mut rx: mpsc::UnboundedReceiver<RecorderCommand>) {
+/// 把设置中的模型缓存预算和空闲超时应用到全局缓存
+fn apply_model_cache_settings(settings: &AppSettings) {
+    let cache = crate::core::model_cache::global();
+    cache.set_budget_bytes(settings.model_memory_budget_mb.saturating_mul(1024 * 1024));
+    cache.set_idle_timeout(std::time::Duration::from_secs(settings.model_idle_unload_secs));
+}
+
+fn apply_batch_settings(scheduler: &TranscriptionScheduler, settings: &AppSettings) {
+    scheduler.set_batch_limits(settings.batch_local_concurrency, settings.batch_remote_concurrency);
+}
+
+fn recorder_thread(mut rx: mpsc::UnboundedReceiver<RecorderCommand>, recordings_dir: std::path::PathBuf) {
     use crate::core::audio::AudioRecorder;
 
-    let recorder = AudioRecorder::new(RecordingConfig::default());
+    let recorder = AudioRecorder::new(RecordingConfig::default()).with_spill_dir(recordings_dir);
 
     while let Some(cmd) = rx.blocking_recv() {
         match cmd {
@@ -123,6 +214,12 @@ fn recorder_thread(mut rx: mpsc::UnboundedReceiver<RecorderCommand>) {
             RecorderCommand::HealthCheck(tx) => {
                 let _ = tx.send(true);
             }
+            RecorderCommand::Stats(tx) => {
+                let _ = tx.send(recorder.capture_stats());
+            }
+            RecorderCommand::LiveTail(from, tx) => {
+                let _ = tx.send(recorder.live_tail(from));
+            }
         }
     }
 }
@@ -0,0 +1,234 @@
+use crate::core::error::AppError;
+use crate::core::scheduler::JobContext;
+use crate::core::types::ModelProvider;
+use crate::core::vad::{self, VadConfig};
+use crate::core::{local_whisper, types::TranscriptionSegment};
+use crate::services::state::AppState;
+use std::path::PathBuf;
+use std::time::Duration;
+use tauri::{AppHandle, Manager};
+
+const SAMPLE_RATE: usize = 16000;
+// 两次滑窗推理之间的间隔
+const STEP_MS: u64 = 700;
+// 窗口短于 1 秒时 whisper.cpp 不做推理
+const MIN_WINDOW_SAMPLES: usize = SAMPLE_RATE;
+// 窗口末尾这段时间内结束的片段可能还在说，不予确认
+const TAIL_GUARD_SECS: f64 = 1.0;
+// 未确认部分超过该时长时强制确认除最后一个片段外的全部内容，窗口始终留在 whisper 的 30 秒上限内
+const FORCE_COMMIT_SECS: f64 = 20.0;
+
+/// 流式识别已确认的部分
+#[derive(Debug, Clone, Default)]
+pub struct StreamingCommit {
+    /// 已确认的文本（片段原文拼接，未 trim）
+    pub text: String,
+    /// 已确认文本覆盖的音频长度（16kHz 样本数）；松开按键后只需解码此后的尾部
+    pub samples: usize,
+}
+
+#[derive(Debug, Clone, serde::Serialize)]
+pub struct PartialTranscript {
+    /// 已稳定、不会再变化的前缀
+    pub committed: String,
+    /// 当前窗口尚未确认的假设
+    pub tentative: String,
+}
+
+/// 按住说话期间的本地流式识别
+///
+/// 后台任务周期性读取录音线程中尚未确认的音频，在这个滑动窗口上跑一次 whisper；
+/// 连续两次推理结果一致、且已离开窗口末尾的片段视为稳定，确认后窗口起点前移。
+/// 每次推理后推送 `quick-input-partial` 事件。松开按键时调用 `finish`，
+/// 调用方只需对 `StreamingCommit::samples` 之后的尾部做最终解码。
+///
+/// 每次推理都经调度器的本地通道以批量优先级排队：部分结果只是预览，
+/// 不应抢在文件转录前面，也不占用听写的优先名额。会话持有自己的取消令牌，
+/// `finish` 时取消，进行中的推理通过 abort 回调立即中止。
+pub struct StreamingSession {
+    stop_tx: tokio::sync::oneshot::Sender<()>,
+    job: JobContext,
+    task: tauri::async_runtime::JoinHandle<StreamingCommit>,
+}
+
+impl StreamingSession {
+    pub fn start(app: AppHandle, model_path: PathBuf, language: Option<String>) -> Self {
+        let (stop_tx, mut stop_rx) = tokio::sync::oneshot::channel::<()>();
+        let job = JobContext::batch();
+        let session_job = job.clone();
+
+        let task = tauri::async_runtime::spawn(async move {
+            let mut commit = StreamingCommit::default();
+            let mut previous: Vec<TranscriptionSegment> = Vec::new();
+            let vad_config = VadConfig::default();
+
+            loop {
+                tokio::select! {
+                    _ = &mut stop_rx => break,
+                    _ = tokio::time::sleep(Duration::from_millis(STEP_MS)) => {}
+                }
+
+                let (start, window) = match app.state::<AppState>().live_tail(commit.samples).await {
+                    Ok(tail) => tail,
+                    Err(_) => break,
+                };
+                // 推理跟不上，未确认的音频已滑出内存窗口：放弃流式，交给最终解码
+                if start != commit.samples {
+                    println!("⚠️ 流式识别落后于录音，停止部分结果");
+                    break;
+                }
+                if window.len() < MIN_WINDOW_SAMPLES {
+                    continue;
+                }
+                // 纯静音窗口不送入模型，避免幻觉输出
+                if !vad::trim_silence(&window, SAMPLE_RATE as u32, &vad_config).has_speech {
+                    continue;
+                }
+
+                let window_secs = window.len() as f64 / SAMPLE_RATE as f64;
+                let path = model_path.clone();
+                let lang = language.clone();
+                let window_job = job.clone();
+                let inference = async move {
+                    tokio::task::spawn_blocking(move || {
+                        local_whisper::transcribe_local_segments(&path, &window, lang.as_deref(), &window_job)
+                    })
+                    .await
+                    .map_err(|e| AppError::Transcription(format!("推理线程异常: {}", e)))?
+                };
+                let scheduler = app.state::<AppState>().scheduler.clone();
+                let segments = match scheduler.run(&ModelProvider::LocalWhisper, &job, inference).await {
+                    Ok(segments) => segments,
+                    Err(AppError::Cancelled) => break,
+                    Err(e) => {
+                        eprintln!("⚠️ 流式识别失败: {}", e);
+                        continue;
+                    }
+                };
+
+                let confirmed = confirmable_segments(&previous, &segments, window_secs);
+                if confirmed > 0 {
+                    for segment in &segments[..confirmed] {
+                        commit.text.push_str(&segment.text);
+                    }
+                    let end = segments[confirmed - 1].end.clamp(0.0, window_secs);
+                    commit.samples += (end * SAMPLE_RATE as f64) as usize;
+                }
+                previous = segments[confirmed..].to_vec();
+
+                let tentative: String = previous.iter().map(|s| s.text.as_str()).collect();
+                let _ = app.emit_all(
+                    "quick-input-partial",
+                    PartialTranscript {
+                        committed: commit.text.trim().to_string(),
+                        tentative: tentative.trim().to_string(),
+                    },
+                );
+            }
+
+            commit
+        });
+
+        Self { stop_tx, job: session_job, task }
+    }
+
+    /// 停止后台推理并返回已确认的部分；进行中的一次推理被取消，不等它跑完
+    pub async fn finish(self) -> StreamingCommit {
+        self.job.cancel.cancel();
+        let _ = self.stop_tx.send(());
+        self.task.await.unwrap_or_default()
+    }
+}
+
+/// 当前推理结果中可以确认的片段数
+///
+/// 片段须与上一次推理结果的同位置片段文本一致，并且在窗口末尾 `TAIL_GUARD_SECS` 之前结束；
+/// 窗口过长时强制确认除最后一个片段外的全部内容。
+fn confirmable_segments(
+    previous: &[TranscriptionSegment],
+    current: &[TranscriptionSegment],
+    window_secs: f64,
+) -> usize {
+    let stable = previous
+        .iter()
+        .zip(current)
+        .take_while(|(a, b)| a.text.trim() == b.text.trim())
+        .count();
+    let confirmed = current[..stable]
+        .iter()
+        .take_while(|s| s.end <= window_secs - TAIL_GUARD_SECS)
+        .count();
+
+    if confirmed == 0 && window_secs > FORCE_COMMIT_SECS && current.len() > 1 {
+        current.len() - 1
+    } else {
+        confirmed
+    }
+}
+
+/// 拼接已确认前缀和尾部解码结果；英文等以空格分词的文字在两段之间补一个空格
+pub fn join_transcript(committed: &str, tail: &str) -> String {
+    let committed = committed.trim();
+    let tail = tail.trim();
+    if committed.is_empty() {
+        return tail.to_string();
+    }
+    if tail.is_empty() {
+        return committed.to_string();
+    }
+    let needs_space = committed.chars().last().map_or(false, |c| c.is_ascii() && !c.is_ascii_whitespace())
+        && tail.chars().next().map_or(false, |c| c.is_ascii_alphanumeric());
+    if needs_space {
+        format!("{} {}", committed, tail)
+    } else {
+        format!("{}{}", committed, tail)
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+
+    fn seg(text: &str, start: f64, end: f64) -> TranscriptionSegment {
+        TranscriptionSegment {
+            text: text.to_string(),
+            start,
+            end,
+            ..Default::default()
+        }
+    }
+
+    #[test]
+    fn test_first_pass_confirms_nothing() {
+        let current = vec![seg(" hello", 0.0, 1.0), seg(" world", 1.0, 2.0)];
+        assert_eq!(confirmable_segments(&[], &current, 5.0), 0);
+    }
+
+    #[test]
+    fn test_agreeing_segments_are_confirmed() {
+        let previous = vec![seg(" hello", 0.0, 1.0), seg(" word", 1.0, 2.0)];
+        let current = vec![seg(" hello", 0.0, 1.0), seg(" world", 1.0, 2.0)];
+        assert_eq!(confirmable_segments(&previous, &current, 5.0), 1);
+    }
+
+    #[test]
+    fn test_segments_near_window_end_are_held_back() {
+        let previous = vec![seg(" hello", 0.0, 1.0), seg(" world", 1.0, 2.6)];
+        let current = previous.clone();
+        assert_eq!(confirmable_segments(&previous, &current, 3.0), 1);
+    }
+
+    #[test]
+    fn test_long_window_forces_commit() {
+        let current = vec![seg(" a", 0.0, 10.0), seg(" b", 10.0, 19.0), seg(" c", 19.0, 21.0)];
+        assert_eq!(confirmable_segments(&[], &current, 21.5), 2);
+    }
+
+    #[test]
+    fn test_join_transcript_spacing() {
+        assert_eq!(join_transcript(" Hello there.", " How are you?"), "Hello there. How are you?");
+        assert_eq!(join_transcript("你好，", "今天天气不错"), "你好，今天天气不错");
+        assert_eq!(join_transcript("", " tail"), "tail");
+        assert_eq!(join_transcript("head ", ""), "head");
+    }
+}
@@ -0,0 +1,210 @@
+use crate::core::audio;
+use crate::core::error::{AppError, Result};
+use crate::core::recording_store::{RecordingReader, SEGMENT_SAMPLES};
+use crate::core::transcription::{ChunkStream, TranscriptionService};
+use crate::core::types::TranscriptionResult;
+use std::future::Future;
+use std::time::Duration;
+use tokio::sync::{mpsc, oneshot};
+
+const SAMPLE_RATE: u32 = 16000;
+// 两次发送之间的间隔
+const SEND_INTERVAL_MS: u64 = 500;
+// 请求体缓冲的分块数；网络慢时录音侧最多积压这么多块再等待
+const CHUNK_BUFFER: usize = 32;
+
+type Chunk = std::io::Result<Vec<u8>>;
+
+/// 按住说话期间的边录边传
+///
+/// 录音开始时就向在线服务发出上传请求，请求体是随录音推进的 WAV 流：后台任务周期性读取
+/// 新录到的音频，编码成 PCM16 后写入请求体。松开按键时只剩最后一段音频和结束请求体，
+/// 服务端随即开始转录（录音王还需要创建任务并轮询）。会话被丢弃时上传请求一并中止。
+pub struct UploadSession {
+    stop_tx: oneshot::Sender<()>,
+    feeder: AbortOnDrop<(mpsc::Sender<Chunk>, usize)>,
+    request: AbortOnDrop<Result<TranscriptionResult>>,
+}
+
+impl UploadSession {
+    /// `fetch(from)` 返回从第 `from` 个样本起新录到的音频及其实际起点（同 `AppState::live_tail`）
+    pub fn start<F, Fut>(service: TranscriptionService, mut fetch: F) -> Self
+    where
+        F: FnMut(usize) -> Fut + Send + 'static,
+        Fut: Future<Output = Result<(usize, Vec<f32>)>> + Send,
+    {
+        let (stop_tx, mut stop_rx) = oneshot::channel::<()>();
+        let (chunk_tx, chunk_rx) = mpsc::channel::<Chunk>(CHUNK_BUFFER);
+        let _ = chunk_tx.try_send(Ok(audio::streaming_wav_header(SAMPLE_RATE)));
+
+        let request = tokio::spawn(async move {
+            service.transcribe_upload_stream(ChunkStream(chunk_rx)).await
+        });
+
+        let feeder = tokio::spawn(async move {
+            let mut sent = 0usize;
+            loop {
+                tokio::select! {
+                    _ = &mut stop_rx => break,
+                    _ = tokio::time::sleep(Duration::from_millis(SEND_INTERVAL_MS)) => {}
+                }
+
+                let (start, tail) = match fetch(sent).await {
+                    Ok(tail) => tail,
+                    Err(_) => break,
+                };
+                // 未发送的音频已滑出内存窗口：停止增量发送，松开按键时从完整录音补齐
+                if start != sent {
+                    println!("⚠️ 边录边传落后于录音，剩余部分在松开按键后发送");
+                    break;
+                }
+                if tail.is_empty() {
+                    continue;
+                }
+
+                let mut chunk = Vec::with_capacity(tail.len() * 2);
+                audio::append_pcm16(&tail, &mut chunk);
+                // 请求已提前结束（出错），不再发送
+                if chunk_tx.send(Ok(chunk)).await.is_err() {
+                    break;
+                }
+                sent += tail.len();
+            }
+            (chunk_tx, sent)
+        });
+
+        Self {
+            stop_tx,
+            feeder: AbortOnDrop(feeder),
+            request: AbortOnDrop(request),
+        }
+    }
+
+    /// 停止增量发送，补发完整录音中尚未发送的部分并等待转录结果
+    ///
+    /// 未发送的部分按录音段从磁盘读取、逐段发送，不整段读入内存。
+    pub async fn finish(mut self, recording: &RecordingReader) -> Result<TranscriptionResult> {
+        let _ = self.stop_tx.send(());
+        let (chunk_tx, sent) = (&mut self.feeder.0)
+            .await
+            .map_err(|e| AppError::Transcription(format!("上传任务异常: {}", e)))?;
+
+        let total = recording.len();
+        let sent = sent.min(total);
+        println!(
+            "📤 边录边传: 录音期间已发送 {:.2}s，松开后补发 {:.2}s",
+            sent as f64 / SAMPLE_RATE as f64,
+            (total - sent) as f64 / SAMPLE_RATE as f64
+        );
+        let mut pos = sent;
+        while pos < total {
+            let end = (pos + SEGMENT_SAMPLES).min(total);
+            let reader = recording.clone();
+            let samples = tokio::task::spawn_blocking(move || reader.read_range(pos..end))
+                .await
+                .map_err(|e| AppError::Transcription(format!("读取录音线程异常: {}", e)))??;
+            let mut chunk = Vec::with_capacity(samples.len() * 2);
+            audio::append_pcm16(&samples, &mut chunk);
+            // 请求已提前结束（出错），结果在下面取得
+            if chunk_tx.send(Ok(chunk)).await.is_err() {
+                break;
+            }
+            pos = end;
+        }
+        // 关闭发送端即结束请求体
+        drop(chunk_tx);
+
+        let mut result = (&mut self.request.0)
+            .await
+            .map_err(|e| AppError::Transcription(format!("上传任务异常: {}", e)))??;
+        result.duration = Some(total as f64 / SAMPLE_RATE as f64);
+        Ok(result)
+    }
+}
+
+/// drop 时中止任务（取消听写时上传请求随会话一起结束）
+struct AbortOnDrop<T>(tokio::task::JoinHandle<T>);
+
+impl<T> Drop for AbortOnDrop<T> {
+    fn drop(&mut self) {
+        self.0.abort();
+    }
+}
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::core::types::AppSettings;
+    use parking_lot::Mutex;
+    use std::io::{Read, Write};
+    use std::sync::Arc;
+    use std::time::Instant;
+
+    /// OpenAI 接口替身：记录请求体每次到达的时间和字节数，请求体结束后返回固定结果
+    fn serve_transcriptions() -> (String, Arc<Mutex<Vec<(Instant, usize)>>>) {
+        let listener = std::net::TcpListener::bind("127.0.0.1:0").unwrap();
+        let url = format!("http://{}", listener.local_addr().unwrap());
+        let arrivals = Arc::new(Mutex::new(Vec::new()));
+        let recorded = arrivals.clone();
+        std::thread::spawn(move || {
+            let (mut stream, _) = listener.accept().unwrap();
+            let mut received = Vec::new();
+            let mut buf = [0u8; 65536];
+            loop {
+                let n = stream.read(&mut buf).unwrap();
+                if n == 0 {
+                    break;
+                }
+                recorded.lock().push((Instant::now(), n));
+                received.extend_from_slice(&buf[..n]);
+                // 分块编码的结束标记
+                if received.ends_with(b"\r\n0\r\n\r\n") {
+                    break;
+                }
+            }
+            let body = r#"{"text":"ok"}"#;
+            let _ = write!(
+                stream,
+                "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nContent-Length: {}\r\nConnection: close\r\n\r\n{}",
+                body.len(),
+                body
+            );
+        });
+        (url, arrivals)
+    }
+
+    #[tokio::test]
+    async fn test_audio_arrives_before_key_release() {
+        let (url, arrivals) = serve_transcriptions();
+        let settings = AppSettings {
+            selected_model: "gpt-4o-mini-transcribe".to_string(),
+            openai_api_key: Some("sk-test".to_string()),
+            ..Default::default()
+        };
+        let service = TranscriptionService::new(settings, reqwest::Client::new()).with_openai_base_url(url);
+
+        // 每次读取都"录到"新的 0.5 秒音频
+        let session = UploadSession::start(service, |from| async move {
+            Ok((from, vec![0.1f32; SAMPLE_RATE as usize / 2]))
+        });
+        tokio::time::sleep(Duration::from_millis(1700)).await;
+
+        let released_at = Instant::now();
+        let root = tempfile::tempdir().unwrap();
+        let mut store = crate::core::recording_store::RecordingStore::create(root.path(), SAMPLE_RATE).unwrap();
+        store.push(&vec![0.1f32; SAMPLE_RATE as usize * 2]).unwrap();
+        let recording = store.finish().unwrap();
+        let result = session.finish(&recording.reader()).await.unwrap();
+        assert_eq!(result.text, "ok");
+        assert_eq!(result.upload_bytes, Some(44 + recording.len() as u64 * 2));
+
+        // 松开按键前服务端已收到至少 1 秒的音频
+        let before_release: usize = arrivals
+            .lock()
+            .iter()
+            .filter(|(at, _)| *at < released_at)
+            .map(|(_, n)| n)
+            .sum();
+        assert!(before_release > SAMPLE_RATE as usize * 2, "only {} bytes before release", before_release);
+    }
+}
@@ -144,6 +144,7 @@ pub mod mock {
             text: text.to_string(),
             language: language.map(|s| s.to_string()),
             duration: Some(5.0),
+            ..Default::default()
         }
     }
 
@@ -1,15 +1,15 @@
-import React, { useEffect, useState, useCallback, useMemo, memo } from 'react';
+import React, { useEffect, useState, useCallback, useMemo, useRef, memo } from 'react';
 import { invoke } from '@tauri-apps/api/tauri';
 import { listen } from '@tauri-apps/api/event';
 import { useAppStore } from '../../shared/stores/useAppStore';
-import type { ModelCardData, ModelFilter } from '../../shared/types';
+import type { LocalModelSpec, ModelCardData, ModelFilter } from '../../shared/types';
 import { filterAndSortModels } from '../../shared/utils';
 import { WordReplacePanel } from './WordReplacePanel';
 import './ModelSettings.css';
 
 const VIRTUAL_SCROLL_THRESHOLD = 20; // Enable virtual scrolling when models > 20
 
-const MODELS: ModelCardData[] = [
+const BASE_MODELS: ModelCardData[] = [
   {
     id: 'luyin-free',
     name: 'LuYinWang Transcribe',
@@ -160,6 +160,33 @@ const MODELS: ModelCardData[] = [
   },
 ];
 
+function formatModelSize(bytes: number): string {
+  return bytes >= 1e9 ? `${(bytes / 1e9).toFixed(1)} GB` : `${Math.round(bytes / 1e6)} MB`;
+}
+
+// 本地模型以后端目录为准：大小取自目录，量化版本继承全精度模型的卡片信息
+// 量化版本内存占用和 CPU 推理耗时明显下降，准确度略有损失
+function buildModels(catalog: LocalModelSpec[]): ModelCardData[] {
+  const sized = BASE_MODELS.map((model) => {
+    const spec = catalog.find((s) => s.id === model.id);
+    return spec ? { ...model, size: formatModelSize(spec.size_bytes) } : model;
+  });
+  const variants = catalog.flatMap((spec) => {
+    const base = sized.find((m) => m.id === spec.family);
+    if (!spec.quantization || !base) return [];
+    return [{
+      ...base,
+      id: spec.id,
+      name: `${base.name} ${spec.quantization.toUpperCase()}`,
+      description: `${spec.quantization} 量化版本：内存占用更小、CPU 推理更快，准确度略有下降。`,
+      speed: Math.min(5, base.speed + 1),
+      size: formatModelSize(spec.size_bytes),
+      badge: undefined,
+    }];
+  });
+  return [...sized, ...variants];
+}
+
 const DotBar: React.FC<{ value: number; max?: number }> = memo(({ value, max = 5 }) => (
   <span className="dot-bar">
     {Array.from({ length: max }, (_, i) => (
@@ -326,9 +353,16 @@ export const ModelSettings: React.FC = () => {
   const [showModelConfig, setShowModelConfig] = useState<string | null>(null);
   const [modelLanguage, setModelLanguage] = useState(settings.transcription_language || 'auto');
   const [modelPrompt, setModelPrompt] = useState(settings.transcription_prompt || '');
+  const [models, setModels] = useState<ModelCardData[]>(BASE_MODELS);
+  // 下载进度监听只注册一次，通过 ref 读取最新的模型列表
+  const modelsRef = useRef(models);
+  modelsRef.current = models;
 
   useEffect(() => {
     invoke('get_settings').then((s: any) => setSettings(s)).catch(console.error);
+    invoke<LocalModelSpec[]>('get_local_model_catalog')
+      .then((catalog) => setModels(buildModels(catalog)))
+      .catch(console.error);
     refreshModelStatus();
   }, []);
 
@@ -357,7 +391,7 @@ export const ModelSettings: React.FC = () => {
           setDownloadedModels((prev) => new Set([...prev, model_id]));
           addToast(
             'success',
-            `${MODELS.find((m) => m.id === model_id)?.name || model_id} 下载完成`
+            `${modelsRef.current.find((m) => m.id === model_id)?.name || model_id} 下载完成`
           );
         }
       }
@@ -439,11 +473,11 @@ export const ModelSettings: React.FC = () => {
     setSettings(updated);
     try {
       await invoke('update_settings', { settings: updated });
-      addToast('success', `已切换到 ${MODELS.find((m) => m.id === id)?.name || id}`);
+      addToast('success', `已切换到 ${models.find((m) => m.id === id)?.name || id}`);
     } catch (e) {
       addToast('error', '保存失败');
     }
-  }, [settings, setSettings, addToast]);
+  }, [settings, setSettings, addToast, models]);
 
   const handleApiSave = useCallback(async (modelId: string) => {
     if (!apiKeyInput.trim()) return;
@@ -494,8 +528,8 @@ export const ModelSettings: React.FC = () => {
   ], []);
 
   const filteredModels = useMemo(
-    () => filterAndSortModels(MODELS, activeFilters, settings.selected_model),
-    [activeFilters, settings.selected_model]
+    () => filterAndSortModels(models, activeFilters, settings.selected_model),
+    [models, activeFilters, settings.selected_model]
   );
 
   const hasLuyinToken = useMemo(() => !!settings.luyin_token, [settings.luyin_token]);
@@ -596,7 +630,7 @@ export const ModelSettings: React.FC = () => {
             <p className="modal-desc">
               {configType === 'luyin'
                 ? '从 record-to-text.com 获取您的 JWT Token'
-                : `${MODELS.find((m) => m.id === showApiConfig)?.provider || 'OpenAI'} 需要 API Key`}
+                : `${models.find((m) => m.id === showApiConfig)?.provider || 'OpenAI'} 需要 API Key`}
             </p>
             <div className="form-group">
               <label>{configType === 'luyin' ? 'JWT Token' : 'API Key'}</label>
@@ -636,7 +670,7 @@ export const ModelSettings: React.FC = () => {
         <div className="modal-overlay" onClick={() => setShowModelConfig(null)}>
           <div className="modal-content model-config-modal" onClick={(e) => e.stopPropagation()}>
             <div className="model-config-header">
-              <h3>{MODELS.find((m) => m.id === showModelConfig)?.name || ''} 设置</h3>
+              <h3>{models.find((m) => m.id === showModelConfig)?.name || ''} 设置</h3>
               <button className="model-config-close" onClick={() => setShowModelConfig(null)}>✕</button>
             </div>
 
@@ -647,7 +681,7 @@ export const ModelSettings: React.FC = () => {
                   <label className="config-label">语言</label>
                   <span className="config-info" title="将模型固定为主要语言，或保留自动检测以处理混合输入。">ⓘ</span>
                 </div>
-                <p className="config-desc">将 {MODELS.find((m) => m.id === showModelConfig)?.name} 固定为主要语言，或保留自动检测以处理混合输入。</p>
+                <p className="config-desc">将 {models.find((m) => m.id === showModelConfig)?.name} 固定为主要语言，或保留自动检测以处理混合输入。</p>
                 <select
                   className="config-select"
                   value={modelLanguage}
@@ -673,7 +707,7 @@ export const ModelSettings: React.FC = () => {
                   <label className="config-label">提示（词典）</label>
                   <span className="config-info" title="为模型提供额外上下文，以提升识别和格式化效果。">ⓘ</span>
                 </div>
-                <p className="config-desc">为 {MODELS.find((m) => m.id === showModelConfig)?.name} 提供额外上下文，以提升识别和格式化效果。</p>
+                <p className="config-desc">为 {models.find((m) => m.id === showModelConfig)?.name} 提供额外上下文，以提升识别和格式化效果。</p>
                 <textarea
                   className="config-textarea"
                   placeholder="示例：会议讨论 GPT-4.5 更新，因此请清晰地转写任何提及。"
@@ -2,8 +2,15 @@ import React, { useState, useRef, useEffect } from 'react';
 import { invoke } from '@tauri-apps/api/tauri';
 import { listen } from '@tauri-apps/api/event';
 import { useAppStore } from '../../shared/stores/useAppStore';
+import type { TranscriptionProgress } from '../../shared/types';
 import './RecordingPage.css';
 
+const STAGE_LABELS: Record<TranscriptionProgress['stage'], string> = {
+  uploading: '正在上传',
+  processing: '服务端处理中',
+  done: '即将完成',
+};
+
 interface TranscriptionResult {
   text: string;
   language?: string;
@@ -24,6 +31,7 @@ export const RecordingPage: React.FC = () => {
   const [isTranscribing, setIsTranscribing] = useState(false);
   const [recordingTime, setRecordingTime] = useState(0);
   const [waveAmplitude, setWaveAmplitude] = useState(0);
+  const [progress, setProgress] = useState<TranscriptionProgress | null>(null);
   const timerRef = useRef<ReturnType<typeof setInterval> | null>(null);
   const waveRef = useRef<ReturnType<typeof setInterval> | null>(null);
 
@@ -35,6 +43,8 @@ export const RecordingPage: React.FC = () => {
         setRecording(false);
         setTranscriptionText(e.payload);
       }),
+      // 停止录音后在线转录的阶段和耗时（本地模型不推送）
+      listen<TranscriptionProgress>('transcription-progress', (e) => setProgress(e.payload)),
     ];
     return () => { unlistens.forEach(u => u.then(fn => fn())); };
   }, []);
@@ -68,6 +78,7 @@ export const RecordingPage: React.FC = () => {
     if (isRecording) {
       try {
         setIsTranscribing(true);
+        setProgress(null);
         setTranscriptionText('');
         const result = await invoke<TranscriptionResult>('stop_recording', {
           model: settings.selected_model,
@@ -180,7 +191,15 @@ export const RecordingPage: React.FC = () => {
           ) : isTranscribing ? (
             <>
               <span className="rec-dot processing" />
-              <span className="rec-label">正在转录...</span>
+              <span className="rec-label">
+                {progress ? `${STAGE_LABELS[progress.stage]}...` : '正在转录...'}
+              </span>
+              {progress && (
+                <span className="rec-progress">
+                  {Math.floor(progress.elapsed_secs)}s
+                  {progress.timeout_secs != null && ` / 最长 ${Math.ceil(progress.timeout_secs)}s`}
+                </span>
+              )}
             </>
           ) : (
             <span className="rec-label idle-label">点击开始录音</span>
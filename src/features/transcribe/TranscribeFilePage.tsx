@@ -1,43 +1,138 @@
-import React, { useState, useRef } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import { invoke } from '@tauri-apps/api/tauri';
 import { open } from '@tauri-apps/api/dialog';
+import { listen } from '@tauri-apps/api/event';
 import { useAppStore } from '../../shared/stores/useAppStore';
+import type { BatchJob, BatchProgress, RecoveredRecording } from '../../shared/types';
 import './TranscribeFilePage.css';
 
 const SUPPORTED_FORMATS = ['.mp3', '.wav', '.m4a', '.flac', '.mp4', '.mov', '.m4v', '.webm', '.ogg'];
 
-interface TranscribeResult {
-  text: string;
-  duration?: number;
-}
+const STATUS_LABELS: Record<BatchJob['status'], string> = {
+  queued: '排队中',
+  running: '转录中',
+  done: '完成',
+  failed: '失败',
+  cancelled: '已取消',
+};
+
+const baseName = (path: string) => path.split(/[\\/]/).pop() || path;
 
 export const TranscribeFilePage: React.FC = () => {
   const { addToast, addHistoryEntry, settings, setCurrentPage } = useAppStore();
-  const [selectedFile, setSelectedFile] = useState<string | null>(null);
-  const [fileName, setFileName] = useState('');
-  const [fileSize, setFileSize] = useState('');
-  const [isTranscribing, setIsTranscribing] = useState(false);
-  const [progress, setProgress] = useState(0);
-  const [result, setResult] = useState('');
+  const [selectedFiles, setSelectedFiles] = useState<string[]>([]);
+  const [jobs, setJobs] = useState<BatchJob[]>([]);
+  const [progressById, setProgressById] = useState<Record<string, BatchProgress>>({});
+  const [batchProgress, setBatchProgress] = useState<Record<string, BatchProgress>>({});
+  const [activeJobId, setActiveJobId] = useState<string | null>(null);
   const [isDragOver, setIsDragOver] = useState(false);
-  const [elapsedTime, setElapsedTime] = useState(0);
-  const timerRef = useRef<ReturnType<typeof setInterval> | null>(null);
+  const [recovered, setRecovered] = useState<RecoveredRecording[]>([]);
+  // 已提示过完成的批次（重启后恢复的历史批次不再提示）
+  const announcedRef = useRef<Set<string> | null>(null);
+
+  useEffect(() => {
+    // 恢复数据库中的任务：上次退出时未完成的文件会在后台继续转录
+    invoke<BatchJob[]>('get_batch_jobs')
+      .then((loaded) => {
+        announcedRef.current = new Set(
+          loaded.filter((job) => job.status !== 'queued' && job.status !== 'running').map((job) => job.batch_id)
+        );
+        setJobs(loaded);
+      })
+      .catch((e) => console.error('读取批量任务失败:', e));
+
+    // 崩溃前未处理的录音（启动时已导出为 WAV）
+    invoke<RecoveredRecording[]>('get_recovered_recordings')
+      .then(setRecovered)
+      .catch((e) => console.error('读取恢复的录音失败:', e));
+
+    const unlistenProgress = listen<BatchProgress>('batch-progress', (event) => {
+      const progress = event.payload;
+      setProgressById((prev) => ({ ...prev, [progress.job_id]: progress }));
+      setBatchProgress((prev) => ({ ...prev, [progress.batch_id]: progress }));
+      setJobs((prev) => prev.map((job) =>
+        job.id === progress.job_id && job.status === 'queued' ? { ...job, status: 'running' as const } : job
+      ));
+    });
+
+    const unlistenResult = listen<BatchJob>('batch-result', (event) => {
+      const finished = event.payload;
+      setJobs((prev) => prev.map((job) => (job.id === finished.id ? finished : job)));
+      setProgressById((prev) => {
+        const next = { ...prev };
+        delete next[finished.id];
+        return next;
+      });
+
+      const res = finished.result;
+      if (finished.status === 'done' && res) {
+        addHistoryEntry({
+          id: finished.id,
+          text: res.text,
+          timestamp: Date.now(),
+          duration: res.duration || 0,
+          model: res.model || finished.model,
+          confidence: res.confidence ?? 0.95,
+          audio_file_path: finished.file_path,
+        });
+        res.guardrails?.forEach((message) => addToast('warning', `${baseName(finished.file_path)}: ${message}`));
+        // 对冲模式下主服务超时，由本地备用模型给出结果
+        if (res.latency_ms !== undefined && res.model && res.model !== finished.model) {
+          addToast('info', `在线服务响应慢，已改用 ${res.model}（${(res.latency_ms / 1000).toFixed(1)}s）`);
+        }
+      }
+    });
+
+    return () => {
+      unlistenProgress.then(fn => fn());
+      unlistenResult.then(fn => fn());
+    };
+  }, [addToast, addHistoryEntry]);
+
+  // 批次中所有文件都结束后汇总提示一次
+  useEffect(() => {
+    const announced = announcedRef.current;
+    if (!announced) return;
+    const batches = new Map<string, BatchJob[]>();
+    jobs.forEach((job) => batches.set(job.batch_id, [...(batches.get(job.batch_id) || []), job]));
+    batches.forEach((batch, batchId) => {
+      if (announced.has(batchId) || batch.some((job) => job.status === 'queued' || job.status === 'running')) return;
+      announced.add(batchId);
+      const done = batch.filter((job) => job.status === 'done');
+      const failed = batch.filter((job) => job.status === 'failed');
+      if (batch.length === 1 && done.length === 1) {
+        const res = done[0].result;
+        addToast(
+          'success',
+          res?.real_time_factor
+            ? `转录完成（${(1 / res.real_time_factor).toFixed(1)}× 实时）`
+            : '转录完成'
+        );
+      } else if (failed.length > 0) {
+        addToast('warning', `批量转录结束：成功 ${done.length} 个，失败 ${failed.length} 个`);
+      } else if (done.length > 0) {
+        addToast('success', `批量转录完成：共 ${done.length} 个文件`);
+      }
+    });
+  }, [jobs, addToast]);
+
+  const addFiles = (paths: string[]) => {
+    setSelectedFiles((prev) => [...prev, ...paths.filter((p) => !prev.includes(p))]);
+  };
 
   const handleSelectFile = async () => {
     try {
       const selected = await open({
-        multiple: false,
+        multiple: true,
         filters: [{
           name: '音频/视频文件',
           extensions: ['mp3', 'wav', 'm4a', 'flac', 'mp4', 'mov', 'm4v', 'webm', 'ogg'],
         }],
       });
-      if (selected && typeof selected === 'string') {
-        setSelectedFile(selected);
-        const name = selected.split('/').pop() || selected;
-        setFileName(name);
-        setResult('');
-        setProgress(0);
+      if (Array.isArray(selected)) {
+        addFiles(selected);
+      } else if (selected) {
+        addFiles([selected]);
       }
     } catch (e) {
       console.error(e);
@@ -48,75 +143,82 @@ export const TranscribeFilePage: React.FC = () => {
     e.preventDefault();
     setIsDragOver(false);
 
-    const files = e.dataTransfer.files;
+    const files = Array.from(e.dataTransfer.files);
     if (files.length === 0) {
       addToast('error', '未检测到文件');
       return;
     }
 
-    const file = files[0];
-    const fileName = file.name;
-    const ext = '.' + fileName.split('.').pop()?.toLowerCase();
-
-    if (!SUPPORTED_FORMATS.includes(ext)) {
-      addToast('error', `不支持的文件格式: ${ext}`);
-      return;
+    const supported = files.filter((file) =>
+      SUPPORTED_FORMATS.includes('.' + file.name.split('.').pop()?.toLowerCase())
+    );
+    if (supported.length < files.length) {
+      addToast('error', `已忽略 ${files.length - supported.length} 个不支持的文件`);
     }
-
     // @ts-ignore - Tauri provides file.path
-    const filePath = file.path || fileName;
-    setSelectedFile(filePath);
-    setFileName(fileName);
-    setResult('');
-    setProgress(0);
+    addFiles(supported.map((file) => file.path || file.name));
   };
 
   const handleTranscribe = async () => {
-    if (!selectedFile) return;
-    setIsTranscribing(true);
-    setProgress(0);
-    setResult('');
-    setElapsedTime(0);
-
-    timerRef.current = setInterval(() => {
-      setElapsedTime(t => t + 1);
-    }, 1000);
-
-    const progressTimer = setInterval(() => {
-      setProgress(p => Math.min(p + 1.5, 90));
-    }, 500);
-
+    if (selectedFiles.length === 0) return;
     try {
-      const res = await invoke<TranscribeResult>('transcribe_file', {
-        filePath: selectedFile,
+      const queued = await invoke<BatchJob[]>('enqueue_batch', {
+        filePaths: selectedFiles,
         model: settings.selected_model,
       });
-      clearInterval(progressTimer);
-      setProgress(100);
-      setResult(res.text);
-
-      addHistoryEntry({
-        id: Date.now().toString(),
-        text: res.text,
-        timestamp: Date.now(),
-        duration: res.duration || 0,
-        model: settings.selected_model,
-        confidence: 0.95,
-        audio_file_path: selectedFile,
-      });
+      setJobs((prev) => [...prev, ...queued]);
+      setSelectedFiles([]);
+      if (queued.length === 1) {
+        setActiveJobId(queued[0].id);
+      }
+    } catch (e) {
+      addToast('error', `加入队列失败: ${e}`);
+    }
+  };
 
-      addToast('success', '转录完成');
+  const handleDeleteRecovered = async (path: string) => {
+    try {
+      await invoke('delete_recovered_recording', { path });
+      setRecovered((prev) => prev.filter((r) => r.path !== path));
+      setSelectedFiles((prev) => prev.filter((p) => p !== path));
+    } catch (e) {
+      addToast('error', `删除失败: ${e}`);
+    }
+  };
+
+  const handleCancel = async (target: { jobId?: string; batchId?: string }) => {
+    try {
+      await invoke('cancel_batch', target);
+    } catch (e) {
+      addToast('error', `取消失败: ${e}`);
+    }
+  };
+
+  const handleClearFinished = async () => {
+    try {
+      await invoke<number>('clear_batch_jobs');
+      setJobs((prev) => prev.filter((job) => job.status === 'queued' || job.status === 'running'));
+      setActiveJobId(null);
     } catch (e) {
-      clearInterval(progressTimer);
-      setProgress(0);
-      setResult(`转录失败: ${e}`);
-      addToast('error', `转录失败: ${e}`);
-    } finally {
-      setIsTranscribing(false);
-      if (timerRef.current) clearInterval(timerRef.current);
+      addToast('error', `清除失败: ${e}`);
     }
   };
 
+  const activeJob = jobs.find((job) => job.id === activeJobId);
+  const result = activeJob?.status === 'done'
+    ? activeJob.result?.text ?? ''
+    : activeJob?.status === 'failed'
+      ? `转录失败: ${activeJob.error}`
+      : '';
+  const fileName = activeJob ? baseName(activeJob.file_path) : '';
+
+  const unfinished = jobs.filter((job) => job.status === 'queued' || job.status === 'running');
+  const activeBatches = Array.from(new Set(unfinished.map((job) => job.batch_id)));
+  const activeBatchJobs = jobs.filter((job) => activeBatches.includes(job.batch_id));
+  const batchEta = activeBatches
+    .map((id) => batchProgress[id]?.batch_eta_secs)
+    .reduce<number | null>((max, eta) => (eta == null || max == null ? null : Math.max(max, eta)), 0);
+
   const handleCopy = () => {
     if (result && !result.startsWith('转录失败')) {
       navigator.clipboard.writeText(result);
@@ -135,20 +237,32 @@ export const TranscribeFilePage: React.FC = () => {
     }
   };
 
-  const handleClear = () => {
-    setSelectedFile(null);
-    setFileName('');
-    setFileSize('');
-    setResult('');
-    setProgress(0);
-  };
-
-  const formatElapsed = (s: number) => {
+  const formatElapsed = (secs: number) => {
+    const s = Math.round(secs);
     const m = Math.floor(s / 60);
     const sec = s % 60;
     return m > 0 ? `${m}分${sec}秒` : `${sec}秒`;
   };
 
+  const jobPercent = (job: BatchJob) => {
+    if (job.status !== 'running') return job.status === 'queued' ? 0 : 100;
+    const p = progressById[job.id];
+    if (!p || p.eta_secs == null) return 0;
+    return Math.min(99, (p.elapsed_secs / (p.elapsed_secs + p.eta_secs || 1)) * 100);
+  };
+
+  const jobDetail = (job: BatchJob) => {
+    const p = progressById[job.id];
+    if (job.status === 'running' && p) {
+      const stage = p.stage === 'uploading' ? '上传中' : p.stage === 'processing' ? '处理中' : STATUS_LABELS.running;
+      return p.eta_secs != null
+        ? `${stage} · 已用 ${formatElapsed(p.elapsed_secs)} · 剩余约 ${formatElapsed(p.eta_secs)}`
+        : `${stage} · 已用 ${formatElapsed(p.elapsed_secs)}`;
+    }
+    if (job.status === 'failed' && job.error) return `${STATUS_LABELS.failed}: ${job.error}`;
+    return STATUS_LABELS[job.status];
+  };
+
   const getFileIcon = (name: string) => {
     if (/\.(mp4|mov|m4v|webm)$/i.test(name)) return '🎬';
     return '🎵';
@@ -187,56 +301,141 @@ export const TranscribeFilePage: React.FC = () => {
         <p className="section-desc">支持 MP3, WAV, M4A, FLAC, MP4, MOV 等格式</p>
 
         <div
-          className={`drop-zone ${isDragOver ? 'drag-over' : ''} ${selectedFile ? 'has-file' : ''}`}
-          onClick={!selectedFile ? handleSelectFile : undefined}
+          className={`drop-zone ${isDragOver ? 'drag-over' : ''} ${selectedFiles.length > 0 ? 'has-file' : ''}`}
+          onClick={selectedFiles.length === 0 ? handleSelectFile : undefined}
           onDragOver={(e) => { e.preventDefault(); setIsDragOver(true); }}
           onDragLeave={() => setIsDragOver(false)}
           onDrop={handleDrop}
         >
-          {selectedFile ? (
-            <div className="file-info">
-              <span className="file-icon">{getFileIcon(fileName)}</span>
-              <div style={{ flex: 1, minWidth: 0 }}>
-                <div className="file-name">{fileName}</div>
-                {fileSize && <div style={{ fontSize: '11px', color: 'var(--text-muted)', marginTop: '2px' }}>{fileSize}</div>}
-              </div>
-              <div style={{ display: 'flex', gap: '6px' }}>
+          {selectedFiles.length > 0 ? (
+            <div className="file-list">
+              {selectedFiles.map((path) => (
+                <div className="file-info" key={path}>
+                  <span className="file-icon">{getFileIcon(path)}</span>
+                  <div className="file-name">{baseName(path)}</div>
+                  <button className="file-change" onClick={(e) => {
+                    e.stopPropagation();
+                    setSelectedFiles((prev) => prev.filter((p) => p !== path));
+                  }} style={{ color: 'var(--danger)' }}>
+                    移除
+                  </button>
+                </div>
+              ))}
+              <div style={{ display: 'flex', gap: '6px', justifyContent: 'flex-end' }}>
                 <button className="file-change" onClick={(e) => { e.stopPropagation(); handleSelectFile(); }}>
-                  更换
+                  添加文件
                 </button>
-                <button className="file-change" onClick={(e) => { e.stopPropagation(); handleClear(); }}
+                <button className="file-change" onClick={(e) => { e.stopPropagation(); setSelectedFiles([]); }}
                   style={{ color: 'var(--danger)' }}>
-                  移除
+                  全部移除
                 </button>
               </div>
             </div>
           ) : (
             <div className="drop-content">
               <span className="drop-icon">📁</span>
-              <p className="drop-text">点击选择文件</p>
+              <p className="drop-text">点击选择文件（可多选）</p>
               <p className="drop-hint">或拖拽文件到这里</p>
             </div>
           )}
         </div>
 
-        {selectedFile && !isTranscribing && !result && (
+        {selectedFiles.length > 0 && (
           <button className="transcribe-btn" onClick={handleTranscribe}>
-            🎙 开始转录
+            🎙 开始转录{selectedFiles.length > 1 ? `（${selectedFiles.length} 个文件）` : ''}
           </button>
         )}
+      </div>
+
+      {recovered.length > 0 && (
+        <div className="section">
+          <h2 className="section-title">恢复的录音</h2>
+          <p className="section-desc">应用上次意外退出时尚未处理的录音，已保存为 WAV 文件</p>
+          <div className="job-list">
+            {recovered.map((recording) => (
+              <div key={recording.path} className="job-item">
+                <span className="file-icon">🎵</span>
+                <div style={{ flex: 1, minWidth: 0 }}>
+                  <div className="file-name">{baseName(recording.path)}</div>
+                  <div className="progress-text">
+                    {new Date(recording.timestamp * 1000).toLocaleString()} · {formatElapsed(recording.duration)}
+                  </div>
+                </div>
+                <button className="file-change" onClick={() => addFiles([recording.path])}
+                  disabled={selectedFiles.includes(recording.path)}>
+                  加入转录
+                </button>
+                <button className="file-change" onClick={() => handleDeleteRecovered(recording.path)}
+                  style={{ color: 'var(--danger)' }}>
+                  删除
+                </button>
+              </div>
+            ))}
+          </div>
+        </div>
+      )}
 
-        {isTranscribing && (
-          <div className="transcribe-progress">
-            <div className="progress-bar-wrap">
-              <div className="progress-bar-fill" style={{ width: `${progress}%` }} />
+      {jobs.length > 0 && (
+        <div className="section">
+          <div style={{ display: 'flex', justifyContent: 'space-between', alignItems: 'center' }}>
+            <h2 className="section-title">转录队列</h2>
+            <div style={{ display: 'flex', gap: '6px' }}>
+              {unfinished.length > 0 && (
+                <button className="result-copy" onClick={() => activeBatches.forEach((batchId) => handleCancel({ batchId }))}>
+                  全部取消
+                </button>
+              )}
+              {unfinished.length < jobs.length && (
+                <button className="result-copy" onClick={handleClearFinished}>清除已结束</button>
+              )}
             </div>
-            <div style={{ display: 'flex', justifyContent: 'space-between', alignItems: 'center' }}>
-              <span className="progress-text">转录中... {Math.round(progress)}%</span>
-              <span className="progress-text">已用时 {formatElapsed(elapsedTime)}</span>
+          </div>
+
+          {unfinished.length > 0 && (
+            <div className="transcribe-progress">
+              <div className="progress-bar-wrap">
+                <div
+                  className="progress-bar-fill"
+                  style={{ width: `${((activeBatchJobs.length - unfinished.length) / activeBatchJobs.length) * 100}%` }}
+                />
+              </div>
+              <div style={{ display: 'flex', justifyContent: 'space-between', alignItems: 'center' }}>
+                <span className="progress-text">
+                  已完成 {activeBatchJobs.length - unfinished.length} / {activeBatchJobs.length}
+                </span>
+                {batchEta != null && <span className="progress-text">预计剩余 {formatElapsed(batchEta)}</span>}
+              </div>
             </div>
+          )}
+
+          <div className="job-list">
+            {jobs.map((job) => (
+              <div
+                key={job.id}
+                className={`job-item ${job.status} ${job.id === activeJobId ? 'active' : ''}`}
+                onClick={() => setActiveJobId(job.id)}
+              >
+                <span className="file-icon">{getFileIcon(job.file_path)}</span>
+                <div style={{ flex: 1, minWidth: 0 }}>
+                  <div className="file-name">{baseName(job.file_path)}</div>
+                  {job.status === 'running' && (
+                    <div className="progress-bar-wrap job-progress">
+                      <div className="progress-bar-fill" style={{ width: `${jobPercent(job)}%` }} />
+                    </div>
+                  )}
+                  <div className="progress-text">{jobDetail(job)}</div>
+                </div>
+                {(job.status === 'queued' || job.status === 'running') && (
+                  <button className="file-change" onClick={(e) => { e.stopPropagation(); handleCancel({ jobId: job.id }); }}
+                    style={{ color: 'var(--danger)' }}>
+                    取消
+                  </button>
+                )}
+              </div>
+            ))}
           </div>
-        )}
-      </div>
+        </div>
+      )}
 
       {result && (
         <div className="section">
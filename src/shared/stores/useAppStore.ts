@@ -86,6 +86,21 @@ export const useAppStore = create<AppStore>((set, get) => ({
     word_replacements: [],
     transcription_language: 'auto',
     transcription_prompt: '',
+    vad_enabled: true,
+    model_memory_budget_mb: 4096,
+    model_idle_unload_secs: 600,
+    streaming_transcription: true,
+    cascade_enabled: false,
+    cascade_model: 'whisper-base',
+    cascade_threshold: 0.7,
+    upload_codec: 'auto',
+    streaming_upload: false,
+    hedge_enabled: false,
+    hedge_model: 'whisper-base',
+    hedge_budget_ms: 3000,
+    result_cache_mb: 64,
+    batch_local_concurrency: 1,
+    batch_remote_concurrency: 3,
   },
   toasts: [],
   isInitializing: false,
@@ -100,6 +100,16 @@ export interface ModelCardData {
   unavailableReason?: string;
 }
 
+// 后端本地模型目录（get_local_model_catalog），与 model_registry 一致
+export interface LocalModelSpec {
+  id: string;
+  file_name: string;
+  size_bytes: number;
+  family: string;          // 所属全精度模型 id（全精度模型指向自己）
+  quantization: string | null;
+  sha256: string | null;   // 清单登记的 sha256；为空时以服务器声明的为准
+}
+
 export interface WordReplacement {
   id: string;
   from: string;   // 原始词
@@ -128,6 +138,63 @@ export interface TranscribeFileState {
   currentModel: string;
 }
 
+/** 在线转录进度（后端 `transcription-progress` 事件） */
+export interface TranscriptionProgress {
+  stage: 'uploading' | 'processing' | 'done';
+  progress: number | null;
+  elapsed_secs: number;
+  timeout_secs: number | null;
+}
+
+/** 崩溃前未处理、启动时已导出为 WAV 的录音 */
+export interface RecoveredRecording {
+  path: string;
+  duration: number;
+  timestamp: number;
+}
+
+/** 文件转录结果（后端 TranscriptionResult 中界面用到的字段） */
+export interface FileTranscriptionResult {
+  text: string;
+  duration?: number;
+  segments?: { text: string; start: number; end: number }[];
+  real_time_factor?: number;
+  confidence?: number;
+  model?: string;
+  guardrails?: string[];
+  latency_ms?: number;
+}
+
+export type BatchJobStatus = 'queued' | 'running' | 'done' | 'failed' | 'cancelled';
+
+/** 批量转录中的一个文件（持久化在数据库中，重启后继续执行；结束时由 `batch-result` 事件推送） */
+export interface BatchJob {
+  id: string;
+  batch_id: string;
+  position: number;
+  file_path: string;
+  model: string;
+  status: BatchJobStatus;
+  audio_secs: number | null;
+  result: FileTranscriptionResult | null;
+  error: string | null;
+  created_at: number;
+  updated_at: number;
+}
+
+/** 批量转录进度（后端 `batch-progress` 事件） */
+export interface BatchProgress {
+  job_id: string;
+  batch_id: string;
+  status: BatchJobStatus;
+  stage: 'uploading' | 'processing' | 'done' | null;
+  elapsed_secs: number;
+  eta_secs: number | null;
+  batch_finished: number;
+  batch_total: number;
+  batch_eta_secs: number | null;
+}
+
 export interface ActionBarButton {
   icon: string;
   label: string;
@@ -233,6 +300,39 @@ export interface AppSettings {
   // 新增：转录设置
   transcription_language: string;
   transcription_prompt: string;
+
+  // 新增：语音活动检测（推理/上传前裁剪静音）
+  vad_enabled: boolean;
+
+  // 新增：本地模型缓存
+  model_memory_budget_mb: number;
+  model_idle_unload_secs: number;
+
+  // 新增：本地模型按住说话时流式输出部分结果
+  streaming_transcription: boolean;
+
+  // 新增：置信度级联（先用快速模型，置信度不足时再用选中的模型）
+  cascade_enabled: boolean;
+  cascade_model: string;
+  cascade_threshold: number;
+
+  // 新增：在线转录上传编码（auto 按服务选择最小的可接受格式）
+  upload_codec: 'auto' | 'wav' | 'flac';
+
+  // 新增：在线转录边录边传（录音期间即开始上传，始终为 WAV）
+  streaming_upload: boolean;
+
+  // 新增：对冲转录（在线服务超过延迟预算未返回时并行启动本地备用模型）
+  hedge_enabled: boolean;
+  hedge_model: string;
+  hedge_budget_ms: number;
+
+  // 新增：文件转录结果缓存上限（MB，0 表示关闭）
+  result_cache_mb: number;
+
+  // 新增：批量转录每个后端同时处理的文件数（本地模型 / 每个在线服务）
+  batch_local_concurrency: number;
+  batch_remote_concurrency: number;
 }
 
 // ============================================================================